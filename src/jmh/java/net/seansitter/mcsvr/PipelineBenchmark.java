@@ -0,0 +1,226 @@
+package net.seansitter.mcsvr;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import com.google.inject.util.Modules;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelInboundHandler;
+import io.netty.channel.ChannelOutboundHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import net.seansitter.mcsvr.cache.Cache;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cpu cost and allocation of a request through the server's handler chain, from
+ * request bytes to response bytes, with no sockets. The handlers come from the server's own
+ * injector, except that commands execute on the calling thread rather than being handed to the
+ * connection's executor, so a request and its response complete within one op.
+ *
+ * allocBytesPerRequest is the bytes allocated by the benchmark thread per request. It does not
+ * include allocation on the lru thread. The embedded channel is single threaded, so run at 1 thread
+ * for exact per request numbers.
+ *
+ * hotKeySampleRate compares a request with hot key tracking off (0) and at the default sample rate.
+ *
+ * $> ./gradlew jmh -Pjmh.include=PipelineBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class PipelineBenchmark {
+    private static final int REQUEST_CYCLE = 1024;
+
+    /**
+     * get : single key gets, all hits
+     * set : sets
+     * mixed : 90% gets with 10% misses, 10% sets
+     * multiget : gets of 10 keys
+     */
+    @Param({"get", "set", "mixed", "multiget"})
+    String mix;
+
+    @Param({"100", "4096"})
+    int valueSize;
+
+    @Param({"10000"})
+    int keyCount;
+
+    @Param({"0", "100"})
+    String hotKeySampleRate;
+
+    EmbeddedChannel channel;
+    ByteBuf[] requests;
+    int next;
+
+    @Setup
+    public void setup() {
+        Injector injector = Guice.createInjector(Modules.override(new McServerConfig(new String[]{"-hotKeySampleRate", hotKeySampleRate}))
+                .with(binder -> binder.bind(ExecutorService.class)
+                        .annotatedWith(Names.named("cmdSnglThrdExec"))
+                        .toInstance(new CallerRunsExecutorService())));
+
+        Cache cache = injector.getInstance(Cache.class);
+        byte[] value = new byte[valueSize];
+        Arrays.fill(value, (byte)'x');
+        for (int i = 0; i < keyCount; i++) {
+            cache.set("key_"+i, value, 0, 0);
+        }
+
+        // same handlers, in the same order, as McServer. the idle handler does nothing at the default timeouts
+        channel = new EmbeddedChannel(
+                injector.getInstance(Key.get(ChannelHandler.class, Names.named("connStatsHandler"))),
+                injector.getInstance(Key.get(ChannelInboundHandler.class, Names.named("decoder"))),
+                injector.getInstance(Key.get(ChannelOutboundHandler.class, Names.named("encoder"))),
+                injector.getInstance(Key.get(ChannelInboundHandler.class, Names.named("commandHandler"))),
+                injector.getInstance(Key.get(ChannelInboundHandler.class, Names.named("errorHandler"))));
+
+        Random r = new Random(42);
+        requests = new ByteBuf[REQUEST_CYCLE];
+        for (int i = 0; i < REQUEST_CYCLE; i++) {
+            requests[i] = PooledByteBufAllocator.DEFAULT.directBuffer();
+            requests[i].writeCharSequence(nextRequest(r, value), CharsetUtil.US_ASCII);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (ByteBuf b : requests) {
+            b.release();
+        }
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public int request(AllocCounters counters) {
+        channel.writeInbound(requests[next].retainedDuplicate());
+        next = (next + 1) % REQUEST_CYCLE;
+
+        int written = 0;
+        Object out;
+        while (null != (out = channel.readOutbound())) {
+            written += ((ByteBuf)out).readableBytes();
+            ReferenceCountUtil.release(out);
+        }
+
+        counters.request();
+        return written;
+    }
+
+    private String nextRequest(Random r, byte[] value) {
+        switch (mix) {
+            case "get":
+                return "get key_"+r.nextInt(keyCount)+"\r\n";
+            case "set":
+                return set(r.nextInt(keyCount), value);
+            case "mixed":
+                if (r.nextInt(10) == 0) {
+                    return set(r.nextInt(keyCount), value);
+                }
+                // 1 in 10 gets is for a key which isn't in the cache
+                return "get key_"+r.nextInt(keyCount + keyCount / 9)+"\r\n";
+            case "multiget":
+                StringBuilder sb = new StringBuilder("get");
+                for (int i = 0; i < 10; i++) {
+                    sb.append(" key_").append(r.nextInt(keyCount));
+                }
+                return sb.append("\r\n").toString();
+            default:
+                throw new IllegalArgumentException("unknown mix: "+mix);
+        }
+    }
+
+    private String set(int key, byte[] value) {
+        return "set key_"+key+" 0 0 "+value.length+"\r\n"+new String(value, CharsetUtil.US_ASCII)+"\r\n";
+    }
+
+    /**
+     * Reports bytes allocated per request alongside the score. Thread allocation is sampled every
+     * SAMPLE_EVERY requests, since reading it costs more than a request.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class AllocCounters {
+        private static final int SAMPLE_EVERY = 1024;
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+        public double allocBytesPerRequest;
+
+        private long requests;
+        private long startAlloc;
+
+        @Setup(Level.Iteration)
+        public void start() {
+            requests = 0;
+            allocBytesPerRequest = 0;
+            startAlloc = allocated();
+        }
+
+        void request() {
+            if (++requests % SAMPLE_EVERY == 0) {
+                allocBytesPerRequest = (double)(allocated() - startAlloc) / requests;
+            }
+        }
+
+        private static long allocated() {
+            return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+
+    /**
+     * Runs commands on the calling thread
+     */
+    private static class CallerRunsExecutorService extends AbstractExecutorService {
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
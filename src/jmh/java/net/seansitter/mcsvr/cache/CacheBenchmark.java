@@ -0,0 +1,75 @@
+package net.seansitter.mcsvr.cache;
+
+import net.seansitter.mcsvr.cache.listener.CacheMetricsListener;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures CacheImpl get and set throughput. keyCount items are loaded, gets are drawn from
+ * keyCount / hitRatio keys so that hitRatio of them hit. The cache sends events to the metrics
+ * listener, as in the server, but not to the lru which runs on its own thread.
+ *
+ * Thread count is set with -Pjmh.threads=n
+ * $> ./gradlew jmh -Pjmh.include=CacheBenchmark -Pjmh.threads=8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+    @Param({"1000", "100000"})
+    int keyCount;
+
+    @Param({"100", "4096"})
+    int valueSize;
+
+    @Param({"1.0", "0.5"})
+    double hitRatio;
+
+    CacheImpl cache;
+    String[] keys;
+    byte[] value;
+    ScheduledExecutorService reaper;
+
+    @Setup
+    public void setup() {
+        CacheMetricsListener metrics = new CacheMetricsListener();
+        reaper = Executors.newSingleThreadScheduledExecutor();
+        cache = new CacheImpl(new HashMap<>(), 0, new ReentrantReadWriteLock(false), reaper, metrics, metrics);
+
+        // keys past keyCount are never set, so they miss
+        keys = new String[(int)(keyCount / hitRatio)];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key_" + i;
+        }
+
+        value = new byte[valueSize];
+        for (int i = 0; i < keyCount; i++) {
+            cache.set(keys[i], value, 0, 0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        reaper.shutdownNow();
+    }
+
+    @Benchmark
+    public Optional<CacheEntry<CacheValue>> get() {
+        return cache.get(keys[ThreadLocalRandom.current().nextInt(keys.length)]);
+    }
+
+    @Benchmark
+    public ResponseStatus.StoreStatus set() {
+        return cache.set(keys[ThreadLocalRandom.current().nextInt(keyCount)], value, 0, 0);
+    }
+}
@@ -0,0 +1,90 @@
+package net.seansitter.mcsvr.cache;
+
+import net.seansitter.mcsvr.cache.listener.CacheEventListener;
+import net.seansitter.mcsvr.cache.listener.CacheMetricsListener;
+import net.seansitter.mcsvr.cache.listener.DummyCacheEventListener;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures gets/sec with metrics collection on and off, at 1, 8 and 32 threads.
+ * Every get is a hit, so each one records a hit and sends a hit event to the metrics listener.
+ *
+ * $> ./gradlew jmh -Pjmh.include=CacheMetricsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheMetricsBenchmark {
+    @Param({"true", "false"})
+    boolean metrics;
+
+    @Param({"10000"})
+    int keyCount;
+
+    CacheImpl cache;
+    String[] keys;
+    ScheduledExecutorService reaper;
+
+    @Setup
+    public void setup() {
+        CacheEventListener listener;
+        CacheMetricsRecorder recorder;
+        if (metrics) {
+            CacheMetricsListener l = new CacheMetricsListener();
+            listener = l;
+            recorder = l;
+        }
+        else {
+            listener = new DummyCacheEventListener();
+            recorder = new DummyCacheMetricsRecorder();
+        }
+
+        reaper = Executors.newSingleThreadScheduledExecutor();
+        cache = new CacheImpl(new HashMap<>(), 0, new ReentrantReadWriteLock(false), reaper, listener, recorder);
+
+        keys = new String[keyCount];
+        byte[] value = new byte[100];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key_" + i;
+            cache.set(keys[i], value, 0, 0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        reaper.shutdownNow();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Optional<CacheEntry<CacheValue>> get1() {
+        return get();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Optional<CacheEntry<CacheValue>> get8() {
+        return get();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Optional<CacheEntry<CacheValue>> get32() {
+        return get();
+    }
+
+    private Optional<CacheEntry<CacheValue>> get() {
+        return cache.get(keys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+}
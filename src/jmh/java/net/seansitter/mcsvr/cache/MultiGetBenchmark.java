@@ -0,0 +1,79 @@
+package net.seansitter.mcsvr.cache;
+
+import net.seansitter.mcsvr.cache.listener.CacheMetricsListener;
+import net.seansitter.mcsvr.extstore.ExtStore;
+import net.seansitter.mcsvr.wal.MutationLog;
+import net.seansitter.mcsvr.wal.SyncPolicy;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures multi-get latency by key count, sequential (threshold 0) against parallel lookup
+ * (threshold 100, one part per core). Every key hits.
+ *
+ * $> ./gradlew jmh -Pjmh.include=MultiGetBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiGetBenchmark {
+    @Param({"10", "100", "200", "500"})
+    int batchSize;
+
+    @Param({"0", "100"})
+    int threshold;
+
+    @Param({"100000"})
+    int keyCount;
+
+    CacheImpl cache;
+    String[] keys;
+    ScheduledExecutorService reaper;
+    ExecutorService multiGetExecutor;
+
+    @Setup
+    public void setup() {
+        CacheMetricsListener metrics = new CacheMetricsListener();
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        reaper = Executors.newSingleThreadScheduledExecutor();
+        multiGetExecutor = Executors.newFixedThreadPool(Math.max(1, parallelism - 1));
+        cache = new CacheImpl(new HashMap<>(), 0, new ReentrantReadWriteLock(false), reaper, metrics, metrics,
+                threshold, parallelism, multiGetExecutor, new ExtStore("", 0, 0, false),
+                new MutationLog("", SyncPolicy.NONE, 0, 0), 10, 0, 0.0);
+
+        keys = new String[keyCount];
+        byte[] value = new byte[100];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key_" + i;
+            cache.set(keys[i], value, 0, 0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        reaper.shutdownNow();
+        multiGetExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public List<CacheEntry<CacheValue>> multiGet() {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        List<String> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(keys[r.nextInt(keyCount)]);
+        }
+        return cache.get(batch);
+    }
+}
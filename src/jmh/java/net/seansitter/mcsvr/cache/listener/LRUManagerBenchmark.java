@@ -0,0 +1,64 @@
+package net.seansitter.mcsvr.cache.listener;
+
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValueStats;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures LRUManager.sendMessage on the lru thread, for hits which move a node to the head
+ * and for a delete and put of the same key. The lru runs on a single thread, so each benchmark
+ * thread gets its own manager.
+ *
+ * $> ./gradlew jmh -Pjmh.include=LRUManagerBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LRUManagerBenchmark {
+    @Param({"1000", "100000"})
+    int keyCount;
+
+    @Param({"100", "4096"})
+    int valueSize;
+
+    LRUManagerListener.LRUManager lru;
+    EventMessage[] hits;
+    EventMessage[] puts;
+    EventMessage[] deletes;
+
+    @Setup
+    public void setup() {
+        // the lru never goes over max size, so it never calls back to the cache
+        lru = new LRUManagerListener.LRUManager(null, new LinkedBlockingQueue(), Integer.MAX_VALUE, 20);
+
+        hits = new EventMessage[keyCount];
+        puts = new EventMessage[keyCount];
+        deletes = new EventMessage[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            CacheEntry<CacheValueStats> e = new CacheEntry<>("key_"+i, new CacheValueStats(0, 0, valueSize));
+            hits[i] = EventMessage.cacheHit(e);
+            puts[i] = EventMessage.put(e);
+            deletes[i] = EventMessage.delete(e);
+            lru.sendMessage(puts[i]);
+        }
+    }
+
+    @Benchmark
+    public void hit() {
+        lru.sendMessage(hits[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+
+    @Benchmark
+    public void replace() {
+        int i = ThreadLocalRandom.current().nextInt(keyCount);
+        lru.sendMessage(deletes[i]);
+        lru.sendMessage(puts[i]);
+    }
+}
@@ -0,0 +1,84 @@
+package net.seansitter.mcsvr.client;
+
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.loadgen.LoadGenMain;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.ServerSocket;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures McClient against the bundled server, in process on loopback. get has 16 threads each
+ * waiting on its get, so concurrent gets can share batches; pipelinedGet has one thread with
+ * PIPELINE gets in flight. plain sends every get on its own, batched batches gets within a 10us
+ * window, and coalesced also lets gets for a key in flight share its response, which matters with
+ * few, hot keys.
+ *
+ * $> ./gradlew jmh -Pjmh.include=McClientBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class McClientBenchmark {
+    private static final int PIPELINE = 100;
+
+    @Param({"plain", "batched", "coalesced"})
+    String mode;
+
+    @Param({"100", "100000"})
+    int keyCount;
+
+    McClient client;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        int port;
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+        LoadGenMain.startEmbeddedServer(port);
+
+        client = McClient.newBuilder()
+                .withServer("127.0.0.1", port)
+                .withConnections(2)
+                .withMaxBatchKeys(mode.equals("plain") ? 1 : 64)
+                .withBatchWindowMicros(10)
+                .withCoalesceGets(mode.equals("coalesced"))
+                .build();
+
+        byte[] value = new byte[100];
+        CompletableFuture<?>[] sets = new CompletableFuture<?>[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            sets[i] = client.set("key_" + i, value, 0, 0);
+        }
+        CompletableFuture.allOf(sets).join();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Optional<CacheEntry<CacheValue>> get() {
+        return client.get("key_" + ThreadLocalRandom.current().nextInt(keyCount)).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public void pipelinedGet() {
+        CompletableFuture<?>[] gets = new CompletableFuture<?>[PIPELINE];
+        for (int i = 0; i < PIPELINE; i++) {
+            gets[i] = client.get("key_" + ThreadLocalRandom.current().nextInt(keyCount));
+        }
+        CompletableFuture.allOf(gets).join();
+    }
+}
@@ -0,0 +1,79 @@
+package net.seansitter.mcsvr.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures McTextDecoder.doDecode for a get of keyCount keys, and for a set of valueSize bytes.
+ * The decoder holds per connection state, so each thread gets its own.
+ *
+ * $> ./gradlew jmh -Pjmh.include=McTextDecoderBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class McTextDecoderBenchmark {
+    @Param({"1", "10"})
+    int keyCount;
+
+    @Param({"100", "4096"})
+    int valueSize;
+
+    McTextDecoder decoder;
+    ByteBuf getBuf;
+    ByteBuf setBuf;
+    List<Object> out;
+
+    @Setup
+    public void setup() {
+        decoder = new McTextDecoder(new McCodecUtil());
+        out = new ArrayList<>(1);
+
+        StringBuilder get = new StringBuilder("get");
+        for (int i = 0; i < keyCount; i++) {
+            get.append(" key_").append(i);
+        }
+        get.append("\r\n");
+        getBuf = Unpooled.copiedBuffer(get, CharsetUtil.UTF_8);
+
+        byte[] payload = new byte[valueSize];
+        Arrays.fill(payload, (byte)'x');
+        setBuf = Unpooled.buffer();
+        setBuf.writeCharSequence("set key_0 0 0 "+valueSize+"\r\n", CharsetUtil.UTF_8);
+        setBuf.writeBytes(payload);
+        setBuf.writeCharSequence("\r\n", CharsetUtil.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() {
+        getBuf.release();
+        setBuf.release();
+    }
+
+    @Benchmark
+    public Object get() {
+        return decode(getBuf);
+    }
+
+    @Benchmark
+    public Object set() {
+        return decode(setBuf);
+    }
+
+    private Object decode(ByteBuf buf) {
+        out.clear();
+        buf.readerIndex(0);
+        decoder.doDecode(buf, out);
+        return out.get(0);
+    }
+}
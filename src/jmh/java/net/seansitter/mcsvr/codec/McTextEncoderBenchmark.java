@@ -0,0 +1,83 @@
+package net.seansitter.mcsvr.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.domain.result.CacheResult;
+import net.seansitter.mcsvr.domain.result.GetCacheResult;
+import net.seansitter.mcsvr.domain.result.GetsCacheResult;
+import net.seansitter.mcsvr.domain.result.StoreCacheResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures McTextEncoder.doEncode for a get and a gets of keyCount values of valueSize bytes,
+ * and for a STORED status
+ *
+ * $> ./gradlew jmh -Pjmh.include=McTextEncoderBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class McTextEncoderBenchmark {
+    @Param({"1", "10"})
+    int keyCount;
+
+    @Param({"100", "4096"})
+    int valueSize;
+
+    McTextEncoder encoder;
+    GetCacheResult getResult;
+    GetsCacheResult getsResult;
+    StoreCacheResult storeResult;
+    ByteBuf out;
+
+    @Setup
+    public void setup() {
+        encoder = new McTextEncoder();
+
+        List<CacheEntry<CacheValue>> entries = new ArrayList<>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            entries.add(new CacheEntry<>("key_"+i, new CacheValue(new byte[valueSize], 0, 0, 0, i)));
+        }
+        getResult = new GetCacheResult(entries);
+        getsResult = new GetsCacheResult(entries);
+        storeResult = new StoreCacheResult(ResponseStatus.StoreStatus.STORED);
+
+        out = PooledByteBufAllocator.DEFAULT.directBuffer(keyCount * (valueSize + 64));
+    }
+
+    @TearDown
+    public void tearDown() {
+        out.release();
+    }
+
+    @Benchmark
+    public int get() {
+        return encode(getResult);
+    }
+
+    @Benchmark
+    public int gets() {
+        return encode(getsResult);
+    }
+
+    @Benchmark
+    public int stored() {
+        return encode(storeResult);
+    }
+
+    private int encode(CacheResult result) {
+        out.clear();
+        encoder.doEncode(result, out);
+        return out.writerIndex();
+    }
+}
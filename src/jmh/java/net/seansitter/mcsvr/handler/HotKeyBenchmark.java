@@ -0,0 +1,86 @@
+package net.seansitter.mcsvr.handler;
+
+import net.seansitter.mcsvr.cache.CacheImpl;
+import net.seansitter.mcsvr.cache.DummyCacheMetricsRecorder;
+import net.seansitter.mcsvr.cache.listener.DummyCacheEventListener;
+import net.seansitter.mcsvr.domain.command.GetCommand;
+import net.seansitter.mcsvr.domain.result.CacheResult;
+import net.seansitter.mcsvr.stats.HotKeyTracker;
+import net.seansitter.mcsvr.stats.ServerStats;
+import net.seansitter.mcsvr.trace.TraceRecorder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures executor gets/sec with hot key tracking off (0), at the default sample rate (100) and
+ * sampling every request (1), at 1, 8 and 32 threads. Every get is a hit, so a sampled get records
+ * both a request and the bytes served.
+ *
+ * $> ./gradlew jmh -Pjmh.include=HotKeyBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotKeyBenchmark {
+    @Param({"0", "100", "1"})
+    int sampleRate;
+
+    @Param({"10000"})
+    int keyCount;
+
+    ApiCacheCommandExecutor cmdExec;
+    GetCommand[] gets;
+    ScheduledExecutorService reaper;
+
+    @Setup
+    public void setup() {
+        reaper = Executors.newSingleThreadScheduledExecutor();
+        CacheImpl cache = new CacheImpl(new HashMap<>(), 0, new ReentrantReadWriteLock(false), reaper,
+                new DummyCacheEventListener(), new DummyCacheMetricsRecorder());
+        cmdExec = new ApiCacheCommandExecutorImpl(cache, new ServerStats(), null,
+                new HotKeyTracker(sampleRate, 100, 60), new TraceRecorder("", 2));
+
+        gets = new GetCommand[keyCount];
+        byte[] value = new byte[100];
+        for (int i = 0; i < keyCount; i++) {
+            cache.set("key_" + i, value, 0, 0);
+            gets[i] = GetCommand.newBuilder().withName("get").withKey("key_" + i).build();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        reaper.shutdownNow();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public CacheResult get1() {
+        return get();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public CacheResult get8() {
+        return get();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public CacheResult get32() {
+        return get();
+    }
+
+    private CacheResult get() {
+        return cmdExec.execute(gets[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+}
@@ -0,0 +1,99 @@
+package net.seansitter.mcsvr.handler;
+
+import net.seansitter.mcsvr.cache.CacheImpl;
+import net.seansitter.mcsvr.cache.DummyCacheMetricsRecorder;
+import net.seansitter.mcsvr.cache.listener.DummyCacheEventListener;
+import net.seansitter.mcsvr.domain.command.GetCommand;
+import net.seansitter.mcsvr.stats.HotKeyTracker;
+import net.seansitter.mcsvr.stats.ServerStats;
+import net.seansitter.mcsvr.trace.TraceRecorder;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Compares platform and virtual thread modes with many mostly idle connections. Each connection
+ * is a per connection executor, as the server creates, with no socket. Each op sends a get to
+ * BURST random connections and waits for all of them, so it measures the cost of waking idle
+ * connection threads. Setup prints the heap and thread count with all connections open.
+ *
+ * virtual needs jdk 21+. 50000 platform threads may need a higher ulimit -u and -Xss.
+ *
+ * $> ./gradlew jmh -Pjmh.include=ThreadModeBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadModeBenchmark {
+    private static final int BURST = 1000;
+
+    @Param({"platform", "virtual"})
+    String threadMode;
+
+    @Param({"1000", "50000"})
+    int connections;
+
+    ExecutorService[] conns;
+    ApiCacheCommandExecutor cmdExec;
+    GetCommand get;
+    ScheduledExecutorService reaper;
+
+    @Setup
+    public void setup() throws Exception {
+        reaper = Executors.newSingleThreadScheduledExecutor();
+        CacheImpl cache = new CacheImpl(new HashMap<>(), 0, new ReentrantReadWriteLock(), reaper,
+                new DummyCacheEventListener(), new DummyCacheMetricsRecorder());
+        cache.set("some_key", new byte[100], 0, 0);
+        cmdExec = new ApiCacheCommandExecutorImpl(cache, new ServerStats(), null,
+                new HotKeyTracker(0, 1, 60), new TraceRecorder("", 2));
+        get = GetCommand.newBuilder().withName("get").withKey("some_key").build();
+
+        ThreadMode mode = ThreadMode.of(threadMode);
+        mode.check();
+        conns = new ExecutorService[connections];
+        CountDownLatch started = new CountDownLatch(connections);
+        for (int i = 0; i < connections; i++) {
+            conns[i] = mode.newConnectionExecutor();
+            conns[i].execute(started::countDown); // start the connection's thread
+        }
+        started.await();
+
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        System.out.println(connections+" "+threadMode+" connections: heap used "+(heap >> 20)+" mb, live platform threads "+
+                ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (ExecutorService e : conns) {
+            e.shutdownNow();
+        }
+        reaper.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void burst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(BURST);
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        for (int i = 0; i < BURST; i++) {
+            conns[r.nextInt(connections)].execute(() -> {
+                cmdExec.execute(get);
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+}
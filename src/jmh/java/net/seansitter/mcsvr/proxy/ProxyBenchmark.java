@@ -0,0 +1,175 @@
+package net.seansitter.mcsvr.proxy;
+
+import net.seansitter.mcsvr.loadgen.LoadGenMain;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the proxy's overhead: the same requests sent straight to a server, and through a proxy
+ * in front of two servers, all in process on loopback. Each benchmark thread is a client waiting
+ * on each response, so the difference in score is the cost of the extra hop. Multi-gets through
+ * the proxy are split across both servers.
+ *
+ * $> ./gradlew jmh -Pjmh.include=ProxyBenchmark
+ * $> ./gradlew jmh -Pjmh.include=ProxyBenchmark -Pjmh.threads=16
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyBenchmark {
+    private static final int KEY_COUNT = 10000;
+    private static final int MULTI_GET_KEYS = 16;
+
+    @State(Scope.Benchmark)
+    public static class Servers {
+        @Param({"direct", "proxy"})
+        String target;
+
+        @Param({"100"})
+        int valueSize;
+
+        int port;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            int backend1 = freePort();
+            LoadGenMain.startEmbeddedServer(backend1);
+            if (target.equals("proxy")) {
+                int backend2 = freePort();
+                LoadGenMain.startEmbeddedServer(backend2);
+                port = freePort();
+                LoadGenMain.startEmbeddedServer(port, "-proxyBackends", "127.0.0.1:"+backend1+",127.0.0.1:"+backend2);
+            }
+            else {
+                port = backend1;
+            }
+
+            try (Client c = new Client(port)) {
+                byte[] value = new byte[valueSize];
+                for (int i = 0; i < KEY_COUNT; i++) {
+                    c.set("key_" + i, value);
+                }
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        Client client;
+        byte[] value;
+        StringBuilder multiGet = new StringBuilder();
+
+        @Setup(Level.Trial)
+        public void setup(Servers servers) throws IOException {
+            client = new Client(servers.port);
+            value = new byte[servers.valueSize];
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    public int get(Connection c) throws IOException {
+        return c.client.get("get key_" + ThreadLocalRandom.current().nextInt(KEY_COUNT));
+    }
+
+    @Benchmark
+    public void set(Connection c) throws IOException {
+        c.client.set("key_" + ThreadLocalRandom.current().nextInt(KEY_COUNT), c.value);
+    }
+
+    @Benchmark
+    public int multiGet(Connection c) throws IOException {
+        c.multiGet.setLength(0);
+        c.multiGet.append("get");
+        for (int i = 0; i < MULTI_GET_KEYS; i++) {
+            c.multiGet.append(" key_").append(ThreadLocalRandom.current().nextInt(KEY_COUNT));
+        }
+        return c.client.get(c.multiGet.toString());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    /**
+     * A blocking text protocol client, one request at a time
+     */
+    static class Client implements AutoCloseable {
+        private final Socket socket;
+        private final OutputStream out;
+        private final DataInputStream in;
+
+        Client(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream());
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        /**
+         * @return the number of hits
+         */
+        int get(String request) throws IOException {
+            out.write((request + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            int hits = 0;
+            for (String line; !(line = readLine(in)).equals("END"); hits++) {
+                String[] parts = line.split(" ");
+                if (!parts[0].equals("VALUE")) {
+                    throw new IOException("unexpected response: "+line);
+                }
+                in.readFully(new byte[Integer.parseInt(parts[3]) + 2]);
+            }
+            return hits;
+        }
+
+        void set(String key, byte[] value) throws IOException {
+            out.write(("set " + key + " 0 0 " + value.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(value);
+            out.write('\r');
+            out.write('\n');
+            out.flush();
+            String line = readLine(in);
+            if (!line.equals("STORED")) {
+                throw new IOException("unexpected response: "+line);
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            for (int b; (b = in.read()) != '\n'; ) {
+                if (b < 0) {
+                    throw new IOException("connection closed");
+                }
+                if (b != '\r') {
+                    sb.append((char)b);
+                }
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
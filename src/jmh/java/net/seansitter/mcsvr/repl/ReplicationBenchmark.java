@@ -0,0 +1,135 @@
+package net.seansitter.mcsvr.repl;
+
+import net.seansitter.mcsvr.cache.CacheImpl;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.listener.CacheMetricsListener;
+import net.seansitter.mcsvr.wal.Mutation;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Measures how many mutations a follower applies per second: frames of sets over keyCount keys
+ * are built once, then each invocation decompresses, decodes and applies one frame. The score is
+ * mutations per second, the follower has to keep up with at least 500k.
+ *
+ * $> ./gradlew jmh -Pjmh.include=ReplicationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplicationBenchmark {
+    private static final int MUTATIONS_PER_FRAME = 1000;
+
+    @Param({"100000"})
+    int keyCount;
+
+    @Param({"100", "1024"})
+    int valueSize;
+
+    ReplicationFollower follower;
+    ScheduledExecutorService reaper;
+    List<byte[]> frames = new ArrayList<>();
+    List<Integer> rawLens = new ArrayList<>();
+    int next;
+
+    @Setup
+    public void setup() throws IOException {
+        CacheMetricsListener metrics = new CacheMetricsListener();
+        reaper = Executors.newSingleThreadScheduledExecutor();
+        CacheImpl cache = new CacheImpl(new HashMap<>(), 0, new ReentrantReadWriteLock(false), reaper,
+                metrics, metrics);
+        follower = new ReplicationFollower("", cache);
+
+        // half repetitive, half random, so frames compress about as well as typical values
+        byte[] value = new byte[valueSize];
+        for (int i = 0; i < valueSize; i++) {
+            value[i] = (byte)(i < valueSize / 2 ? 'x' : Math.random() * 256);
+        }
+
+        Capture ch = new Capture();
+        LongAdder unused = new LongAdder();
+        FrameWriter out = new FrameWriter(ch, unused, unused, unused);
+        for (int i = 0; i < keyCount; i++) {
+            CacheValue v = new CacheValue(value, 0, 0, 0, i + 1);
+            out.add(new Mutation(Mutation.SET, "key_" + i, v, i + 1));
+            if ((i + 1) % MUTATIONS_PER_FRAME == 0) {
+                out.flush();
+                ByteBuffer frame = ByteBuffer.wrap(ch.take());
+                rawLens.add(frame.getInt());
+                byte[] body = new byte[frame.getInt()];
+                frame.get(body);
+                frames.add(body);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        reaper.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MUTATIONS_PER_FRAME)
+    public void applyFrame() throws IOException {
+        int i = next++ % frames.size();
+        follower.apply(frames.get(i), rawLens.get(i));
+    }
+
+    // collects what the frame writer writes
+    private static class Capture implements GatheringByteChannel {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        byte[] take() {
+            byte[] b = bytes.toByteArray();
+            bytes.reset();
+            return b;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long n = 0;
+            for (int i = offset; i < offset + length; i++) {
+                n += write(srcs[i]);
+            }
+            return n;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            byte[] b = new byte[n];
+            src.get(b);
+            bytes.write(b, 0, n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
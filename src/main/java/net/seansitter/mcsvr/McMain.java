@@ -2,7 +2,9 @@ package net.seansitter.mcsvr;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import net.seansitter.mcsvr.extstore.ExtStore;
 import net.seansitter.mcsvr.jmx.MCServerManagement;
+import net.seansitter.mcsvr.trace.TraceRecorder;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
@@ -29,6 +31,22 @@ public class McMain {
             System.exit(1);
         }
 
+        // start the trace writer if tracing is on
+        try {
+            injector.getInstance(TraceRecorder.class).start();
+        } catch (Exception e) {
+            logger.error("failed to start tracing", e);
+            System.exit(1);
+        }
+
+        // open the extstore if evicted items go to disk
+        try {
+            injector.getInstance(ExtStore.class).start();
+        } catch (Exception e) {
+            logger.error("failed to start extstore", e);
+            System.exit(1);
+        }
+
         // try to start the server
         try {
             logger.info("starting memcache server");
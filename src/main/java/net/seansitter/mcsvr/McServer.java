@@ -9,6 +9,9 @@ import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.timeout.IdleStateHandler;
 import net.seansitter.mcsvr.cache.Cache;
+import net.seansitter.mcsvr.handler.ThreadMode;
+import net.seansitter.mcsvr.repl.ReplicationFollower;
+import net.seansitter.mcsvr.repl.ReplicationLeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,8 +27,14 @@ public class McServer {
     private final Provider<ChannelInboundHandler> decoder;
     private final Provider<ChannelInboundHandler> commandHandler;
     private final Provider<ChannelInboundHandler> errorHandler;
+    private final Provider<ChannelHandler> connStatsHandler;
     private final int idleTimeout;
     private final int serverTimeout;
+    private final ThreadMode threadMode;
+    private final int writeBufferLow;
+    private final int writeBufferHigh;
+    private final ReplicationLeader replicationLeader;
+    private final ReplicationFollower replicationFollower;
 
     @Inject
     public McServer(@Named("svrPort") int port,
@@ -34,24 +43,42 @@ public class McServer {
                     @Named("decoder") Provider<ChannelInboundHandler> decoder,
                     @Named("commandHandler") Provider<ChannelInboundHandler> commandHandler,
                     @Named("errorHandler") Provider<ChannelInboundHandler> errorHandler,
+                    @Named("connStatsHandler") Provider<ChannelHandler> connStatsHandler,
                     @Named("idleTimeout") int idleTimeout,
-                    @Named("serverTimeout") int serverTimeout) {
+                    @Named("serverTimeout") int serverTimeout,
+                    ThreadMode threadMode,
+                    @Named("writeBufferLow") int writeBufferLow,
+                    @Named("writeBufferHigh") int writeBufferHigh,
+                    ReplicationLeader replicationLeader,
+                    ReplicationFollower replicationFollower) {
         this.cache = cache;
         this.port = port;
         this.encoder = encoder;
         this.decoder = decoder;
         this.commandHandler = commandHandler;
         this.errorHandler = errorHandler;
+        this.connStatsHandler = connStatsHandler;
         this.idleTimeout = idleTimeout;
         this.serverTimeout = serverTimeout;
+        this.threadMode = threadMode;
+        this.writeBufferLow = writeBufferLow;
+        this.writeBufferHigh = writeBufferHigh;
+        this.replicationLeader = replicationLeader;
+        this.replicationFollower = replicationFollower;
     }
 
     public void start() throws Exception {
 
         // starting cache will schedule expired item cleanup thread
         cache.start();
+        // after the cache has replayed its log, so followers are synced from the restored items
+        replicationLeader.start();
+        replicationFollower.start();
         logger.info("idle timeout is "+idleTimeout+" seconds");
         logger.info("server timeout is "+serverTimeout+" seconds");
+        threadMode.check();
+        logger.info("commands run on "+threadMode.name().toLowerCase()+" threads");
+        logger.info("write buffer water marks are "+writeBufferLow+"/"+writeBufferHigh+" bytes");
 
         EventLoopGroup eventLoopGroup = new NioEventLoopGroup();
         try {
@@ -59,9 +86,15 @@ public class McServer {
             bootstrap.group(eventLoopGroup)
                     .channel(NioServerSocketChannel.class)
                     .localAddress(new InetSocketAddress(port))
+                    // past the high mark a connection is unwritable and the command handler stops reading from it
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                            new WriteBufferWaterMark(writeBufferLow, writeBufferHigh))
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) throws Exception {
+                            // first, so it counts the raw bytes on the wire
+                            ch.pipeline().addLast("connStatsHandler", connStatsHandler.get());
+
                             // if the connection is idle for 10s on either read or write, disconnect
                             ch.pipeline().addLast("idleStateHandler",
                                     new IdleStateHandler(idleTimeout, serverTimeout, 0));
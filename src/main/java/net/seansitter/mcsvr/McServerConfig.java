@@ -1,19 +1,32 @@
 package net.seansitter.mcsvr;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Provider;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
 import com.google.inject.name.Names;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInboundHandler;
 import io.netty.channel.ChannelOutboundHandler;
 
 import net.seansitter.mcsvr.cache.*;
 import net.seansitter.mcsvr.cache.listener.*;
 import net.seansitter.mcsvr.codec.*;
+import net.seansitter.mcsvr.compress.ValueCompressor;
+import net.seansitter.mcsvr.extstore.ExtStore;
 import net.seansitter.mcsvr.handler.*;
 import net.seansitter.mcsvr.jmx.*;
+import net.seansitter.mcsvr.proxy.BackendPool;
+import net.seansitter.mcsvr.proxy.ProxyCommandExecutor;
+import net.seansitter.mcsvr.repl.ReplicationFollower;
+import net.seansitter.mcsvr.repl.ReplicationLeader;
+import net.seansitter.mcsvr.stats.*;
+import net.seansitter.mcsvr.trace.TraceRecorder;
+import net.seansitter.mcsvr.tracking.ClientTracker;
+import net.seansitter.mcsvr.wal.MutationLog;
+import net.seansitter.mcsvr.wal.SyncPolicy;
 
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
@@ -25,6 +38,7 @@ import org.slf4j.LoggerFactory;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -42,6 +56,30 @@ public class McServerConfig extends AbstractModule {
     private static final int DEFAULT_CLIENT_TO = 0;
     private static final int DEFAULT_SERVER_TO = 0;
     private static final int DEFAULT_LRU_RECOVER_PCT = 20;
+    private static final int DEFAULT_HOT_KEY_SAMPLE_RATE = 100;
+    private static final int DEFAULT_HOT_KEY_CAPACITY = 100;
+    private static final int DEFAULT_HOT_KEY_WINDOW_S = 60;
+    private static final int DEFAULT_TRACE_BUFFER_SIZE = 1 << 16;
+    private static final int DEFAULT_MULTI_GET_THRESHOLD = 100;
+    private static final int DEFAULT_GET_STREAM_THRESHOLD = 1024 * 1024;
+    private static final int DEFAULT_WRITE_BUFFER_LOW = 32 * 1024;
+    private static final int DEFAULT_WRITE_BUFFER_HIGH = 64 * 1024;
+    private static final int DEFAULT_MAX_OUTSTANDING = 1000;
+    private static final int DEFAULT_ITEM_CHUNK_SIZE = 256 * 1024;
+    private static final int DEFAULT_COMPRESS_THRESHOLD = 0;
+    private static final double DEFAULT_COMPRESS_MIN_RATIO = 1.25;
+    private static final int DEFAULT_COMPRESS_FLAG = 0;
+    private static final long DEFAULT_EXT_STORE_BYTES = 16L * 1024 * 1024 * 1024;
+    private static final int DEFAULT_EXT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final long DEFAULT_WAL_CHECKPOINT_BYTES = 256L * 1024 * 1024;
+    private static final int DEFAULT_WAL_QUEUE_SIZE = 64 * 1024;
+    private static final int DEFAULT_REPL_QUEUE_SIZE = 1024 * 1024;
+    private static final int DEFAULT_PROXY_CONNECTIONS = 2;
+    private static final int DEFAULT_PROXY_TIMEOUT_MS = 1000;
+    private static final int DEFAULT_TRACKING_SLOTS = 0;
+    private static final int DEFAULT_LEASE_TIMEOUT = 10;
+    private static final int DEFAULT_STALE_GRACE = 0;
+    private static final double DEFAULT_XFETCH_BETA = 0;
 
     public McServerConfig(String[] args) {
         this.args = args;
@@ -51,8 +89,9 @@ public class McServerConfig extends AbstractModule {
     protected void configure() {
         bind(McServer.class);
 
-        // cache itself is a singleton
-        bind(Cache.class).to(CacheImpl.class).in(Singleton.class);
+        // cache itself is a singleton, also injected as CacheImpl where restores and snapshots are needed
+        bind(CacheImpl.class).in(Singleton.class);
+        bind(Cache.class).to(CacheImpl.class);
 
         // the backing cache
         bind(new TypeLiteral<Map<String, CacheValue>>() {})
@@ -62,6 +101,9 @@ public class McServerConfig extends AbstractModule {
         // codec util
         bind(McCodecUtil.class).in(Singleton.class);
 
+        // writes large get responses a block at a time, stateless
+        bind(GetResponseStreamer.class).in(Singleton.class);
+
         // request encoder
         bind(ChannelOutboundHandler.class)
                 .annotatedWith(Names.named("encoder"))
@@ -82,15 +124,48 @@ public class McServerConfig extends AbstractModule {
                 .annotatedWith(Names.named("errorHandler"))
                 .to(InBoundErrorHandler.class);
 
+        // connection and byte counters, shared by all channels
+        bind(ChannelHandler.class)
+                .annotatedWith(Names.named("connStatsHandler"))
+                .to(ConnectionStatsHandler.class)
+                .in(Singleton.class);
+
+        // server stats
+        bind(ServerStats.class).in(Singleton.class);
+        bind(StatsReporter.class).in(Singleton.class);
+        bind(CommandLatencies.class).in(Singleton.class);
+        bind(HotKeyTracker.class).in(Singleton.class);
+
+        // value compression, off unless there is a threshold
+        bind(ValueCompressor.class).in(Singleton.class);
+
+        // second tier for evicted items, disabled unless there is a directory
+        bind(ExtStore.class).in(Singleton.class);
+
+        // mutation log for restarts, disabled unless there is a directory
+        bind(MutationLog.class).in(Singleton.class);
+
+        // replication, disabled unless there is a port to lead on or a leader to follow
+        bind(ReplicationLeader.class).in(Singleton.class);
+        bind(ReplicationFollower.class).in(Singleton.class);
+
+        // operation trace, disabled unless there is a trace file
+        bind(TraceRecorder.class).in(Singleton.class);
+
         // cache (concrete) event listeners
         bind(CacheMetricsListener.class).in(Singleton.class);
+        bind(CacheMetricsRecorder.class).to(CacheMetricsListener.class);
         bind(LRUManagerListener.class);
 
-        // command executor
-        bind(ApiCacheCommandExecutor.class).to(ApiCacheCommandExecutorImpl.class);
+        // invalidation pushes for client near caches, disabled unless there are tracking slots
+        bind(ClientTracker.class).in(Singleton.class);
+
+        // backends of proxy mode, disabled unless there are backends, see provideCommandExecutor
+        bind(BackendPool.class).in(Singleton.class);
 
         // jmx management
         bind(CacheMetricsJmxMBean.class).to(CacheMetricsJmx.class);
+        bind(HotKeysJmxMBean.class).to(HotKeysJmx.class);
         bind(MCServerManagement.class);
 
         bind(new TypeLiteral<BlockingQueue<EventMessage>>(){})
@@ -98,10 +173,30 @@ public class McServerConfig extends AbstractModule {
                 .to(new TypeLiteral<LinkedBlockingQueue<EventMessage>>(){});
     }
 
+    @Provides
+    ApiCacheCommandExecutor provideCommandExecutor(BackendPool backendPool,
+                                                   Provider<ApiCacheCommandExecutorImpl> local,
+                                                   Provider<ProxyCommandExecutor> proxy) {
+        // a proxy forwards commands to its backends rather than executing them against its own cache
+        return backendPool.isEnabled() ? proxy.get() : local.get();
+    }
+
     @Provides
     @Named("cmdSnglThrdExec")
-    ExecutorService provideExecutorService() {
-        return Executors.newSingleThreadExecutor();
+    ExecutorService provideExecutorService(ThreadMode threadMode) {
+        return threadMode.newConnectionExecutor();
+    }
+
+    @Provides
+    @Singleton
+    ThreadMode provideThreadMode(CommandLine cmdLine) {
+        return ThreadMode.of(cmdLine.getOptionValue("threadMode", "platform"));
+    }
+
+    @Provides
+    @Singleton
+    SyncPolicy provideSyncPolicy(CommandLine cmdLine) {
+        return SyncPolicy.of(cmdLine.getOptionValue("walSync", "interval"));
     }
 
     @Provides
@@ -110,6 +205,19 @@ public class McServerConfig extends AbstractModule {
         return new ReentrantReadWriteLock(false); // unfair lock, see CacheImpl
     }
 
+    @Provides
+    @Singleton
+    @Named("multiGetExecutor")
+    ExecutorService provideMultiGetExecutor(@Named("multiGetParallelism") int parallelism) {
+        // the caller does one part itself, so the pool only needs the rest
+        AtomicInteger n = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, parallelism - 1), r -> {
+            Thread t = new Thread(r, "multi-get-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
     @Provides
     @Named("cacheCleanup")
     ScheduledExecutorService provideCacheCleanupExecutor() {
@@ -117,10 +225,14 @@ public class McServerConfig extends AbstractModule {
     }
 
     @Provides
-    CacheEventListener provideCacheEventListener(CacheMetricsListener metrics, LRUManagerListener lru) {
+    CacheEventListener provideCacheEventListener(CacheMetricsListener metrics, LRUManagerListener lru,
+                                                 ClientTracker tracker) {
         BroadcastCacheEventListener l = new BroadcastCacheEventListener();
         l.addListener(lru);
         l.addListener(metrics);
+        if (tracker.isEnabled()) {
+            l.addListener(tracker);
+        }
         return l;
     }
 
@@ -146,6 +258,40 @@ public class McServerConfig extends AbstractModule {
         opts.addOption("idleTimeout", true, "number of seconds before idle connection is closed");
         opts.addOption("serverTimeout", true, "number of seconds before server response times out");
         opts.addOption("lruRecoverPct", true, "percent of max size to recover on lru sweep");
+        opts.addOption("hotKeySampleRate", true, "sample 1 in n requests for hot key tracking, 0 disables");
+        opts.addOption("hotKeyCapacity", true, "max number of keys held by the hot key sketch");
+        opts.addOption("hotKeyWindow", true, "number of seconds in the hot key window");
+        opts.addOption("threadMode", true, "run each connection's commands on a platform or virtual (jdk 21+) thread");
+        opts.addOption("traceFile", true, "record a binary trace of operations to this file for replay");
+        opts.addOption("traceBufferSize", true, "number of trace records buffered for the trace writer");
+        opts.addOption("multiGetThreshold", true, "multi-gets with more keys than this are looked up in parallel, 0 disables");
+        opts.addOption("multiGetParallelism", true, "max number of parallel lookups for a single multi-get");
+        opts.addOption("getStreamThreshold", true, "get responses with at least this many bytes are streamed, 0 disables");
+        opts.addOption("writeBufferLow", true, "bytes queued for a connection below which it is writable again");
+        opts.addOption("writeBufferHigh", true, "bytes queued for a connection above which reads from it pause");
+        opts.addOption("itemChunkSize", true, "values larger than this many bytes are stored in chunks of this size, 0 disables");
+        opts.addOption("maxOutstanding", true, "commands awaiting a response at which reads from a connection pause, 0 disables");
+        opts.addOption("compressThreshold", true, "values of at least this many bytes are stored lz4 compressed, 0 disables");
+        opts.addOption("compressMinRatio", true, "keep a compressed value only if it is at least this many times smaller");
+        opts.addOption("compressFlag", true, "flag bit marking items the client decompresses itself, 0 for none");
+        opts.addOption("extStorePath", true, "directory to keep evicted items in, on disk, for later gets");
+        opts.addOption("extStoreBytes", true, "max bytes of evicted items kept on disk");
+        opts.addOption("extSegmentBytes", true, "size of each file of the on disk log of evicted items");
+        opts.addOption("extPromote", "move items read from disk back into memory");
+        opts.addOption("walPath", true, "directory of the mutation log replayed on restart, disabled if not set");
+        opts.addOption("walSync", true, "when the mutation log is forced to disk: none, batch or interval (every second)");
+        opts.addOption("walCheckpointBytes", true, "bytes of mutation log after which the cache is checkpointed");
+        opts.addOption("walQueueSize", true, "mutations queued for the log writer before it drops and checkpoints");
+        opts.addOption("replPort", true, "port to stream mutations to followers on, 0 disables");
+        opts.addOption("replQueueSize", true, "mutations queued for a follower before it is dropped and must resync");
+        opts.addOption("replicaOf", true, "host:port of a replication leader to follow");
+        opts.addOption("proxyBackends", true, "comma separated host:port of servers to proxy to, disabled if not set");
+        opts.addOption("proxyConnections", true, "number of connections to each proxy backend");
+        opts.addOption("proxyTimeout", true, "milliseconds a proxied request waits on its backend");
+        opts.addOption("trackingSlots", true, "key hash slots remembering client tracking reads, 0 disables");
+        opts.addOption("leaseTimeout", true, "seconds an lget lease is held before another miss may take it");
+        opts.addOption("staleGrace", true, "seconds past expiry an item is still served stale while one client recaches it, 0 disables");
+        opts.addOption("xfetchBeta", true, "how early gets may expire items near expiry for a refresh, 1 is typical, 0 disables");
         return opts;
     }
 
@@ -194,4 +340,225 @@ public class McServerConfig extends AbstractModule {
         logger.info("lru will attempt to recover " + rp + "% when the cache exceeds " + maxBytes + " bytes");
         return rp;
     }
+
+    @Provides
+    @Named("hotKeySampleRate")
+    Integer provideHotKeySampleRate(CommandLine cmdLine) {
+        return cmdLine.hasOption("hotKeySampleRate") ?
+                Integer.parseInt(cmdLine.getOptionValue("hotKeySampleRate")) : DEFAULT_HOT_KEY_SAMPLE_RATE;
+    }
+
+    @Provides
+    @Named("hotKeyCapacity")
+    Integer provideHotKeyCapacity(CommandLine cmdLine) {
+        return cmdLine.hasOption("hotKeyCapacity") ?
+                Integer.parseInt(cmdLine.getOptionValue("hotKeyCapacity")) : DEFAULT_HOT_KEY_CAPACITY;
+    }
+
+    @Provides
+    @Named("hotKeyWindow")
+    Integer provideHotKeyWindow(CommandLine cmdLine) {
+        return cmdLine.hasOption("hotKeyWindow") ?
+                Integer.parseInt(cmdLine.getOptionValue("hotKeyWindow")) : DEFAULT_HOT_KEY_WINDOW_S;
+    }
+
+    @Provides
+    @Named("traceFile")
+    String provideTraceFile(CommandLine cmdLine) {
+        return cmdLine.getOptionValue("traceFile", "");
+    }
+
+    @Provides
+    @Named("traceBufferSize")
+    Integer provideTraceBufferSize(CommandLine cmdLine) {
+        return cmdLine.hasOption("traceBufferSize") ?
+                Integer.parseInt(cmdLine.getOptionValue("traceBufferSize")) : DEFAULT_TRACE_BUFFER_SIZE;
+    }
+
+    @Provides
+    @Named("multiGetThreshold")
+    Integer provideMultiGetThreshold(CommandLine cmdLine) {
+        return cmdLine.hasOption("multiGetThreshold") ?
+                Integer.parseInt(cmdLine.getOptionValue("multiGetThreshold")) : DEFAULT_MULTI_GET_THRESHOLD;
+    }
+
+    @Provides
+    @Named("multiGetParallelism")
+    Integer provideMultiGetParallelism(CommandLine cmdLine) {
+        return cmdLine.hasOption("multiGetParallelism") ?
+                Integer.parseInt(cmdLine.getOptionValue("multiGetParallelism")) :
+                Runtime.getRuntime().availableProcessors();
+    }
+
+    @Provides
+    @Named("getStreamThreshold")
+    Integer provideGetStreamThreshold(CommandLine cmdLine) {
+        return cmdLine.hasOption("getStreamThreshold") ?
+                Integer.parseInt(cmdLine.getOptionValue("getStreamThreshold")) : DEFAULT_GET_STREAM_THRESHOLD;
+    }
+
+    @Provides
+    @Named("writeBufferLow")
+    Integer provideWriteBufferLow(CommandLine cmdLine) {
+        return cmdLine.hasOption("writeBufferLow") ?
+                Integer.parseInt(cmdLine.getOptionValue("writeBufferLow")) : DEFAULT_WRITE_BUFFER_LOW;
+    }
+
+    @Provides
+    @Named("writeBufferHigh")
+    Integer provideWriteBufferHigh(CommandLine cmdLine) {
+        return cmdLine.hasOption("writeBufferHigh") ?
+                Integer.parseInt(cmdLine.getOptionValue("writeBufferHigh")) : DEFAULT_WRITE_BUFFER_HIGH;
+    }
+
+    @Provides
+    @Named("maxOutstanding")
+    Integer provideMaxOutstanding(CommandLine cmdLine) {
+        return cmdLine.hasOption("maxOutstanding") ?
+                Integer.parseInt(cmdLine.getOptionValue("maxOutstanding")) : DEFAULT_MAX_OUTSTANDING;
+    }
+
+    @Provides
+    @Named("itemChunkSize")
+    Integer provideItemChunkSize(CommandLine cmdLine) {
+        return cmdLine.hasOption("itemChunkSize") ?
+                Integer.parseInt(cmdLine.getOptionValue("itemChunkSize")) : DEFAULT_ITEM_CHUNK_SIZE;
+    }
+
+    @Provides
+    @Named("compressThreshold")
+    Integer provideCompressThreshold(CommandLine cmdLine) {
+        return cmdLine.hasOption("compressThreshold") ?
+                Integer.parseInt(cmdLine.getOptionValue("compressThreshold")) : DEFAULT_COMPRESS_THRESHOLD;
+    }
+
+    @Provides
+    @Named("compressMinRatio")
+    Double provideCompressMinRatio(CommandLine cmdLine) {
+        return cmdLine.hasOption("compressMinRatio") ?
+                Double.parseDouble(cmdLine.getOptionValue("compressMinRatio")) : DEFAULT_COMPRESS_MIN_RATIO;
+    }
+
+    @Provides
+    @Named("compressFlag")
+    Integer provideCompressFlag(CommandLine cmdLine) {
+        return cmdLine.hasOption("compressFlag") ?
+                Integer.parseInt(cmdLine.getOptionValue("compressFlag")) : DEFAULT_COMPRESS_FLAG;
+    }
+
+    @Provides
+    @Named("extStorePath")
+    String provideExtStorePath(CommandLine cmdLine) {
+        return cmdLine.getOptionValue("extStorePath", "");
+    }
+
+    @Provides
+    @Named("extStoreBytes")
+    Long provideExtStoreBytes(CommandLine cmdLine) {
+        return cmdLine.hasOption("extStoreBytes") ?
+                Long.parseLong(cmdLine.getOptionValue("extStoreBytes")) : DEFAULT_EXT_STORE_BYTES;
+    }
+
+    @Provides
+    @Named("extSegmentBytes")
+    Integer provideExtSegmentBytes(CommandLine cmdLine) {
+        return cmdLine.hasOption("extSegmentBytes") ?
+                Integer.parseInt(cmdLine.getOptionValue("extSegmentBytes")) : DEFAULT_EXT_SEGMENT_BYTES;
+    }
+
+    @Provides
+    @Named("extPromote")
+    Boolean provideExtPromote(CommandLine cmdLine) {
+        return cmdLine.hasOption("extPromote");
+    }
+
+    @Provides
+    @Named("walPath")
+    String provideWalPath(CommandLine cmdLine) {
+        return cmdLine.getOptionValue("walPath", "");
+    }
+
+    @Provides
+    @Named("walCheckpointBytes")
+    Long provideWalCheckpointBytes(CommandLine cmdLine) {
+        return cmdLine.hasOption("walCheckpointBytes") ?
+                Long.parseLong(cmdLine.getOptionValue("walCheckpointBytes")) : DEFAULT_WAL_CHECKPOINT_BYTES;
+    }
+
+    @Provides
+    @Named("walQueueSize")
+    Integer provideWalQueueSize(CommandLine cmdLine) {
+        return cmdLine.hasOption("walQueueSize") ?
+                Integer.parseInt(cmdLine.getOptionValue("walQueueSize")) : DEFAULT_WAL_QUEUE_SIZE;
+    }
+
+    @Provides
+    @Named("replPort")
+    Integer provideReplPort(CommandLine cmdLine) {
+        return cmdLine.hasOption("replPort") ? Integer.parseInt(cmdLine.getOptionValue("replPort")) : 0;
+    }
+
+    @Provides
+    @Named("replQueueSize")
+    Integer provideReplQueueSize(CommandLine cmdLine) {
+        return cmdLine.hasOption("replQueueSize") ?
+                Integer.parseInt(cmdLine.getOptionValue("replQueueSize")) : DEFAULT_REPL_QUEUE_SIZE;
+    }
+
+    @Provides
+    @Named("replicaOf")
+    String provideReplicaOf(CommandLine cmdLine) {
+        return cmdLine.getOptionValue("replicaOf", "");
+    }
+
+    @Provides
+    @Named("proxyBackends")
+    String provideProxyBackends(CommandLine cmdLine) {
+        return cmdLine.getOptionValue("proxyBackends", "");
+    }
+
+    @Provides
+    @Named("proxyConnections")
+    Integer provideProxyConnections(CommandLine cmdLine) {
+        return cmdLine.hasOption("proxyConnections") ?
+                Integer.parseInt(cmdLine.getOptionValue("proxyConnections")) : DEFAULT_PROXY_CONNECTIONS;
+    }
+
+    @Provides
+    @Named("proxyTimeout")
+    Integer provideProxyTimeout(CommandLine cmdLine) {
+        return cmdLine.hasOption("proxyTimeout") ?
+                Integer.parseInt(cmdLine.getOptionValue("proxyTimeout")) : DEFAULT_PROXY_TIMEOUT_MS;
+    }
+
+    @Provides
+    @Named("trackingSlots")
+    Integer provideTrackingSlots(CommandLine cmdLine) {
+        if (cmdLine.hasOption("proxyBackends")) {
+            return 0; // a proxy's own cache never changes, it couldn't push invalidations
+        }
+        return cmdLine.hasOption("trackingSlots") ?
+                Integer.parseInt(cmdLine.getOptionValue("trackingSlots")) : DEFAULT_TRACKING_SLOTS;
+    }
+
+    @Provides
+    @Named("leaseTimeout")
+    Integer provideLeaseTimeout(CommandLine cmdLine) {
+        return cmdLine.hasOption("leaseTimeout") ?
+                Integer.parseInt(cmdLine.getOptionValue("leaseTimeout")) : DEFAULT_LEASE_TIMEOUT;
+    }
+
+    @Provides
+    @Named("staleGrace")
+    Integer provideStaleGrace(CommandLine cmdLine) {
+        return cmdLine.hasOption("staleGrace") ?
+                Integer.parseInt(cmdLine.getOptionValue("staleGrace")) : DEFAULT_STALE_GRACE;
+    }
+
+    @Provides
+    @Named("xfetchBeta")
+    Double provideXfetchBeta(CommandLine cmdLine) {
+        return cmdLine.hasOption("xfetchBeta") ?
+                Double.parseDouble(cmdLine.getOptionValue("xfetchBeta")) : DEFAULT_XFETCH_BETA;
+    }
 }
@@ -22,4 +22,29 @@ public interface Cache {
     ResponseStatus.StoreStatus cas(String key, byte[] value, long ttl, long casUnique, long flag);
 
     ResponseStatus.StoreStatus set(String key, byte[] value, long ttl, long flag);
+
+    // large values are stored as chunks, so they never need one huge contiguous array
+    ResponseStatus.StoreStatus cas(String key, byte[][] chunks, long ttl, long casUnique, long flag);
+
+    ResponseStatus.StoreStatus set(String key, byte[][] chunks, long ttl, long flag);
+
+    // stores an LZ4 compressed value, rawSize is its uncompressed size
+    ResponseStatus.StoreStatus casCompressed(String key, byte[] compressed, int rawSize, long ttl,
+                                             long casUnique, long flag);
+
+    ResponseStatus.StoreStatus setCompressed(String key, byte[] compressed, int rawSize, long ttl, long flag);
+
+    // invalidates every item currently in the cache, after delay seconds
+    ResponseStatus.FlushStatus flushAll(long delay);
+
+    // a get whose miss hands out a lease, so only one of many concurrent missing clients refills the key
+    LeaseResult leaseGet(String key);
+
+    // stores a value only while the lease token is the key's current lease
+    ResponseStatus.StoreStatus leaseSet(String key, byte[] value, long ttl, long token, long flag);
+
+    ResponseStatus.StoreStatus leaseSet(String key, byte[][] chunks, long ttl, long token, long flag);
+
+    ResponseStatus.StoreStatus leaseSetCompressed(String key, byte[] compressed, int rawSize, long ttl,
+                                                  long token, long flag);
 }
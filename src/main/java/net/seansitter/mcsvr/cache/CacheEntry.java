@@ -13,10 +13,16 @@ package net.seansitter.mcsvr.cache;
 public class CacheEntry<T> {
     private final String key;
     private final T value;
+    private final boolean stale; // an expired item served in its stale grace window
 
     public CacheEntry(String key, T value) {
+        this(key, value, false);
+    }
+
+    public CacheEntry(String key, T value, boolean stale) {
         this.key = key;
         this.value = value;
+        this.stale = stale;
     }
 
     public String getKey() {
@@ -27,6 +33,10 @@ public class CacheEntry<T> {
         return value;
     }
 
+    public boolean isStale() {
+        return stale;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof CacheEntry)) {
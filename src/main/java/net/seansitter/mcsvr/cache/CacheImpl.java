@@ -1,18 +1,27 @@
 package net.seansitter.mcsvr.cache;
 
 import net.seansitter.mcsvr.cache.listener.*;
+import net.seansitter.mcsvr.extstore.ExtStore;
+import net.seansitter.mcsvr.wal.Mutation;
+import net.seansitter.mcsvr.wal.MutationLog;
+import net.seansitter.mcsvr.wal.SyncPolicy;
 
 import com.google.inject.name.Named;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.stream.Collectors;
+import java.util.function.LongFunction;
 
 import static net.seansitter.mcsvr.cache.CacheUtil.*;
 
@@ -20,6 +29,13 @@ import static net.seansitter.mcsvr.cache.CacheUtil.*;
  * The implementation of the actual cache
  */
 public class CacheImpl implements Cache {
+    // a parallel multi-get part is never smaller than this, below it the handoff costs more than the lookups
+    private static final int MIN_MULTI_GET_PART = 32;
+    // a refill slower than this is more likely a client that gave up, it isn't learned as the recompute time
+    private static final long MAX_RECOMPUTE_MILLIS = 60000;
+    // the largest -ln(u) for u in (0, 1] drawn as a double, no item further from expiry can expire early
+    private static final double XFETCH_MAX_GAP = 37;
+
     private final Logger logger = LoggerFactory.getLogger(CacheImpl.class);
 
     private final Map<String, CacheValue> cache; // the backing cache
@@ -27,15 +43,46 @@ public class CacheImpl implements Cache {
     private final AtomicLong casCounter; // atomic counter for cas unique value
     private final ReadWriteLock lock; // in non-test this needs to be reentrant
     private final CacheEventListener eventListener;
+    private final CacheMetricsRecorder metricsRecorder; // hits and misses skip the event listeners
     private final ScheduledExecutorService schedExecutor; // executor for the reaper
+    private final int multiGetThreshold; // multi-gets with more keys than this are looked up in parallel, 0 disables
+    private final int multiGetParallelism; // max number of parts a parallel multi-get is split into
+    private final ExecutorService multiGetExecutor; // runs all but the first part of a parallel multi-get
+    private final ExtStore extStore; // evicted items go here when enabled
+    private final MutationLog mutationLog; // mutations are queued here when enabled, for restarts
+    private final int leaseTimeout; // seconds a lease is held before another miss may take it
+    private final int staleGrace; // seconds past expiry an item may still be served stale, 0 disables
+    private final double xfetchBeta; // scales how early items may expire, 0 disables early expiration
+    private final Map<String, Lease> leases = new HashMap<>(); // outstanding leases, guarded by the lock
+    private volatile long flushCas = 0; // items with a cas unique at or below this were flushed
     private long relTime = 0;
 
+    // every feature off: sequential multi-gets, no extstore or mutation log, no stale or early expiration
+    public CacheImpl(Map<String, CacheValue> cache,
+                     Integer reapInterval,
+                     ReadWriteLock lock,
+                     ScheduledExecutorService schedExecutor,
+                     CacheEventListener eventListener,
+                     CacheMetricsRecorder metricsRecorder) {
+        this(cache, reapInterval, lock, schedExecutor, eventListener, metricsRecorder, 0, 1, null,
+                new ExtStore("", 0, 0, false), new MutationLog("", SyncPolicy.NONE, 0, 0), 10, 0, 0.0);
+    }
+
     @Inject
     public CacheImpl(@Named("cache") Map<String, CacheValue> cache,
                      @Named("reapInterval") Integer reapInterval,
                      @Named("cacheLock") ReadWriteLock lock,
                      @Named("cacheCleanup") ScheduledExecutorService schedExecutor,
-                     CacheEventListener eventListener) {
+                     CacheEventListener eventListener,
+                     CacheMetricsRecorder metricsRecorder,
+                     @Named("multiGetThreshold") Integer multiGetThreshold,
+                     @Named("multiGetParallelism") Integer multiGetParallelism,
+                     @Named("multiGetExecutor") ExecutorService multiGetExecutor,
+                     ExtStore extStore,
+                     MutationLog mutationLog,
+                     @Named("leaseTimeout") Integer leaseTimeout,
+                     @Named("staleGrace") Integer staleGrace,
+                     @Named("xfetchBeta") Double xfetchBeta) {
         this.cache = cache;
         this.reapInterval = reapInterval;
         // This will be an unfair lock, lock is much faster, slight order penalty
@@ -44,22 +91,38 @@ public class CacheImpl implements Cache {
         this.lock = lock;
         this.schedExecutor = schedExecutor;
         this.eventListener = eventListener;
+        this.metricsRecorder = metricsRecorder;
+        this.multiGetThreshold = null == multiGetExecutor ? 0 : multiGetThreshold;
+        this.multiGetParallelism = Math.max(1, multiGetParallelism);
+        this.multiGetExecutor = multiGetExecutor;
+        this.extStore = extStore;
+        this.mutationLog = mutationLog;
+        this.leaseTimeout = leaseTimeout;
+        this.staleGrace = staleGrace;
+        this.xfetchBeta = xfetchBeta;
         this.casCounter = new AtomicLong(0);
     }
 
     /**
-     * This allows us to synchronize the time for testing
+     * This allows us to synchronize the time for testing, and to run on trace time in simulation
      *
      * @param relTime
      */
-    protected void setRelTime(long relTime) {
+    public void setRelTime(long relTime) {
         this.relTime = relTime;
     }
 
     /**
-     * Starts asynchronous work
+     * Replays the mutation log, if there is one, and starts asynchronous work
      */
     public void start() {
+        try {
+            mutationLog.start(this);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("failed to replay mutation log", e);
+        }
+
         if (reapInterval > 0) {
             logger.info("starting reaper...");
             scheduleCleanup();
@@ -91,13 +154,14 @@ public class CacheImpl implements Cache {
             // so we have a consistent time for the duration of the sweep
             long currTime = getCurrTime();
             logger.info("running reaper at: " + currTime);
+            expireLeases(currTime);
 
             // first generate the list of expired keys with a read lock
             LinkedList<String> expKeys = new LinkedList<>();
             lock.readLock().lock();
             try {
                 cache.forEach((k, v) -> {
-                    if (isExpired(v, currTime)) {
+                    if (isExpired(v, currTime) && !isInGrace(v, currTime)) {
                         expKeys.add(k);
                     }
                 });
@@ -110,7 +174,7 @@ public class CacheImpl implements Cache {
                 return;
             }
 
-            destroyKeys(expKeys);
+            destroyKeys(expKeys, DestroyEntriesMessage.Cause.EXPIRED);
         };
     }
 
@@ -122,7 +186,7 @@ public class CacheImpl implements Cache {
      */
     @Override
     public ResponseStatus.DeleteStatus deleteKey(String key) {
-        logger.debug("got delete request for key: "+key);
+        logger.debug("got delete request for key: {}", key);
 
         // pre-empt taking a read lock
         if (null == key) {
@@ -133,7 +197,9 @@ public class CacheImpl implements Cache {
         lock.readLock().lock();
         try {
             CacheValue value = cache.get(key);
-            if (null == value || isExpired(value, getCurrTime())) { // reaper will get it if expired
+            // reaper will get it if expired, unless it's still being served stale
+            if ((null == value || (isExpired(value, getCurrTime()) && !isInGrace(value, getCurrTime())))
+                    && null == coldSlot(key, getCurrTime()) && !leases.containsKey(key)) {
                 return ResponseStatus.DeleteStatus.NOT_FOUND; // no key
             }
         }
@@ -145,13 +211,24 @@ public class CacheImpl implements Cache {
         try {
             CacheValue value = cache.get(key);
             if (null == value) { // re-check, could have been deleted in the meantime
-                return ResponseStatus.DeleteStatus.NOT_FOUND;
+                revokeLease(key, null); // the key missing is usually why it's leased
+                // or the item is in the extstore
+                ExtStore.Slot cold = extStore.isEnabled() ? extStore.invalidate(key) : null;
+                if (null == cold || isExpired(cold, getCurrTime())) {
+                    return ResponseStatus.DeleteStatus.NOT_FOUND;
+                }
+                mutationLog.logDelete(key);
+                return ResponseStatus.DeleteStatus.DELETED;
             }
 
             cache.remove(key); // actually remove the item
+            revokeLease(key, value);
+            mutationLog.logDelete(key);
             eventListener.sendMessage(EventMessage.delete(newStatsEntry(key, value)));
 
-            return ResponseStatus.DeleteStatus.DELETED;
+            // an item served stale is removed too, but it had already expired
+            return isExpired(value, getCurrTime()) ? ResponseStatus.DeleteStatus.NOT_FOUND :
+                    ResponseStatus.DeleteStatus.DELETED;
         }
         finally {
             lock.writeLock().unlock();
@@ -166,7 +243,18 @@ public class CacheImpl implements Cache {
      */
     @Override
     public List<CacheEntry<CacheValueStats>> destroyKeys(List<String> keys) {
-        logger.debug("got destroy request for keys: "+keys.toString());
+        return destroyKeys(keys, DestroyEntriesMessage.Cause.EVICTED);
+    }
+
+    /**
+     * Removes keys from the cache, listeners are told why the keys were removed
+     *
+     * @param keys list of keys to remove from the cache
+     * @param cause eviction or expiration
+     * @return
+     */
+    protected List<CacheEntry<CacheValueStats>> destroyKeys(List<String> keys, DestroyEntriesMessage.Cause cause) {
+        logger.debug("got destroy request for keys: {}", keys);
 
         // pre-empt taking a write lock
         if (null == keys || keys.isEmpty()) {
@@ -174,32 +262,53 @@ public class CacheImpl implements Cache {
             return Collections.unmodifiableList(new LinkedList<>());
         }
 
+        // evicted items move to the extstore, if there is one
+        boolean demote = cause == DestroyEntriesMessage.Cause.EVICTED && extStore.isEnabled();
+        List<String> demoted = demote ? new ArrayList<>(keys.size()) : null;
+
         // acquire write lock
         lock.writeLock().lock();
         LinkedList<CacheEntry<CacheValueStats>> deletedEntries = new LinkedList<>();
         try {
+            long currTime = getCurrTime();
             int delSz = 0;
             int delCt = 0;
+            int unfetchedCt = 0;
             for (int i=0; i < keys.size(); i++) {
                 CacheValue value = cache.remove(keys.get(i));
                 if (null != value) {
+                    mutationLog.logRemove(keys.get(i), cause == DestroyEntriesMessage.Cause.EXPIRED);
                     deletedEntries.add(newStatsEntry(keys.get(i), value));
                     delSz += value.getSize();
                     delCt += 1;
+                    if (!value.isFetched()) {
+                        unfetchedCt += 1;
+                    }
+                    if (demote && !isExpired(value, currTime)) {
+                        extStore.stage(keys.get(i), value);
+                        demoted.add(keys.get(i));
+                    }
                 }
             }
-            logger.info("destroyed "+delCt+" items(s) totaling "+delSz+" bytes");
+            logger.info("destroyed "+delCt+" items(s) totaling "+delSz+" bytes ("+cause+")");
 
+            // only the reaper reports unfetched items, that's the expired_unfetched stat
             eventListener.sendMessage(
                     EventMessage.newEventMessage(
                             Event.DESTROY_ENTRIES,
-                            new DestroyEntriesMessage(Collections.unmodifiableList(deletedEntries), delSz))
+                            new DestroyEntriesMessage(Collections.unmodifiableList(deletedEntries), delSz, cause,
+                                    cause == DestroyEntriesMessage.Cause.EXPIRED ? unfetchedCt : 0))
             );
         }
         finally {
             lock.writeLock().unlock();
         }
 
+        // the disk writes happen outside the lock, staged items are readable until then
+        if (demote) {
+            extStore.writePending(demoted);
+        }
+
         return Collections.unmodifiableList(deletedEntries);
     }
 
@@ -209,23 +318,161 @@ public class CacheImpl implements Cache {
             return Optional.empty();
         }
 
+       CacheEntry<CacheValue> entry;
        // acquire read lock
        lock.readLock().lock();
        try {
-           CacheValue value = cache.get(key);
-           if (null == value || isExpired(value, currTime)) { // if its expired, reaper will handle it
-               eventListener.sendMessage(EventMessage.cacheMiss(key));
-               return Optional.empty();
-           }
-
-           CacheEntry<CacheValue> entry = new CacheEntry<>(key, value);
-           eventListener.sendMessage(EventMessage.cacheHit(newStatsEntry(key, value)));
-
-           return Optional.of(entry);
+           entry = lookup(key, currTime);
        }
        finally {
            lock.readLock().unlock();
        }
+       return Optional.ofNullable(isCold(entry) ? readCold(key, currTime) : entry);
+    }
+
+    /**
+     * Looks up a single key, the caller must hold the read lock
+     *
+     * @param key
+     * @param currTime
+     * @return the entry, null on a miss, or an entry with a null value if the key is in the extstore,
+     * which the caller reads with readCold after releasing the lock
+     */
+    private CacheEntry<CacheValue> lookup(String key, long currTime) {
+        CacheValue value = cache.get(key);
+        if (null == value && extStore.isEnabled() && extStore.contains(key)) {
+            return new CacheEntry<>(key, null);
+        }
+        if (null != value && isExpired(value, currTime) && isInGrace(value, currTime)) {
+            return lookupStale(key, value);
+        }
+        if (null == value || isExpired(value, currTime)) { // if its expired, reaper will handle it
+            if (null != value && xfetchBeta > 0) {
+                value.claimRecache(getCurrTimeMillis()); // so the refill learns its recompute time
+            }
+            metricsRecorder.cacheMiss();
+            return null;
+        }
+        if (xfetchBeta > 0 && isEarlyExpired(value, currTime)) {
+            metricsRecorder.earlyExpire();
+            metricsRecorder.cacheMiss();
+            return null;
+        }
+
+        value.markFetched();
+        metricsRecorder.cacheHit();
+        // the lru still needs the hit to move the entry to the head
+        eventListener.sendMessage(EventMessage.cacheHit(newStatsEntry(key, value)));
+
+        return new CacheEntry<>(key, value);
+    }
+
+    /**
+     * Looks up an item that expired less than staleGrace seconds ago. The first get since it
+     * expired misses, which tells its caller to recache the value, and the rest are served the
+     * old value flagged stale, so the backing store sees one refresh rather than one per client.
+     * The caller must hold the read lock.
+     */
+    private CacheEntry<CacheValue> lookupStale(String key, CacheValue value) {
+        if (value.claimRecache(getCurrTimeMillis())) {
+            metricsRecorder.recache();
+            metricsRecorder.cacheMiss();
+            return null;
+        }
+        value.markFetched();
+        metricsRecorder.cacheHit();
+        metricsRecorder.staleHit();
+        return new CacheEntry<>(key, value, true);
+    }
+
+    /**
+     * XFetch: a get misses before the item expires with a probability that rises as expiry nears,
+     * so a client usually refreshes a key before it expires for everyone, and keys set together
+     * are refreshed at different times. The window scales with the key's recompute time, how long
+     * its last refill took, times beta. The caller must hold the read lock.
+     */
+    private boolean isEarlyExpired(CacheValue value, long currTime) {
+        int recompute = value.getRecomputeMillis();
+        if (0 == recompute || 0 == value.getExpiresAt()
+                || (value.getExpiresAt() - currTime) * 1000 > recompute * xfetchBeta * XFETCH_MAX_GAP) {
+            return false; // too far from expiry to ever expire early, skip the draw
+        }
+        double gap = -recompute * xfetchBeta * Math.log(1.0 - ThreadLocalRandom.current().nextDouble());
+        long nowMillis = getCurrTimeMillis();
+        if (nowMillis + gap < value.getExpiresAt() * 1000) {
+            return false;
+        }
+        value.claimRecache(nowMillis); // so the refill learns its recompute time
+        return true;
+    }
+
+    /**
+     * The time from the first get told to recache the old value until it was replaced, or the old
+     * value's recompute time if no get was
+     */
+    private int recomputeMillis(CacheValue oldValue) {
+        long missedAt = oldValue.getMissedAt();
+        if (0 == missedAt) {
+            return oldValue.getRecomputeMillis();
+        }
+        long took = getCurrTimeMillis() - missedAt;
+        return took > MAX_RECOMPUTE_MILLIS ? oldValue.getRecomputeMillis() : (int)Math.max(1, took);
+    }
+
+    private static boolean isCold(CacheEntry<CacheValue> entry) {
+        return null != entry && null == entry.getValue();
+    }
+
+    /**
+     * Reads a key from the extstore, without holding the lock so the read never blocks writers.
+     * A hit is moved back into memory if promotion is on.
+     *
+     * @return the entry, or null on a miss
+     */
+    private CacheEntry<CacheValue> readCold(String key, long currTime) {
+        CacheValue value = extStore.read(key);
+        if (null == value || isExpired(value, currTime)) {
+            metricsRecorder.cacheMiss();
+            return null;
+        }
+
+        metricsRecorder.cacheHit();
+        if (extStore.isPromote()) {
+            promote(key, value);
+        }
+        return new CacheEntry<>(key, value);
+    }
+
+    /**
+     * Moves a value read from the extstore back into memory, unless the key changed since the read
+     */
+    private void promote(String key, CacheValue value) {
+        lock.writeLock().lock();
+        try {
+            if (!cache.containsKey(key) && extStore.promote(key, value.getCasUnique())) {
+                value.markFetched();
+                cache.put(key, value);
+                eventListener.sendMessage(EventMessage.put(newStatsEntry(key, value)));
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the key's live extstore pointer, or null
+     */
+    private ExtStore.Slot coldSlot(String key, long currTime) {
+        if (!extStore.isEnabled()) {
+            return null;
+        }
+        ExtStore.Slot s = extStore.get(key);
+        return null == s || isExpired(s, currTime) ? null : s;
+    }
+
+    private boolean isExpired(ExtStore.Slot s, long currTime) {
+        return CacheUtil.isExpired(s.getExpiresAt(), currTime) || s.getCasUnique() <= flushCas;
     }
 
     /**
@@ -236,12 +483,15 @@ public class CacheImpl implements Cache {
      */
     @Override
     public Optional<CacheEntry<CacheValue>> get(String key) {
-        logger.debug("got get request for keys: "+key.toString());
+        logger.debug("got get request for keys: {}", key);
         return get(key, getCurrTime());
     }
 
     /**
-     * Bulk gets values from the cache
+     * Bulk gets values from the cache, hits are returned in request order. Up to the multi-get threshold
+     * the keys are looked up sequentially under a single read lock. Larger batches are split into
+     * contiguous parts that are looked up in parallel, each under its own read lock, so unlike the
+     * sequential path a large batch is not a snapshot with respect to concurrent writes.
      *
      * @param keys list of keys to get
      * @return
@@ -256,15 +506,108 @@ public class CacheImpl implements Cache {
         // so we have a consistent time for each get expiration check
         long currTime = getCurrTime();
 
+        int parts = multiGetParts(keys.size());
+        if (parts > 1) {
+            return getParallel(keys, parts, currTime);
+        }
+
+        List<CacheEntry<CacheValue>> entries = new ArrayList<>(keys.size());
+        boolean cold = false;
         // acquire read lock
         lock.readLock().lock();
         try {
-             return keys
-                     .stream()
-                     .map(k -> get(k, currTime))
-                     .filter(v -> v.isPresent())
-                     .map(v -> v.get())
-                     .collect(Collectors.toList());
+            for (String k : keys) {
+                CacheEntry<CacheValue> entry = null == k ? null : lookup(k, currTime);
+                if (null != entry) {
+                    entries.add(entry);
+                    cold |= isCold(entry);
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        return cold ? readCold(entries, currTime) : entries;
+    }
+
+    /**
+     * Replaces the extstore entries of a multi-get with their values, dropping misses
+     */
+    private List<CacheEntry<CacheValue>> readCold(List<CacheEntry<CacheValue>> entries, long currTime) {
+        List<CacheEntry<CacheValue>> hits = new ArrayList<>(entries.size());
+        for (CacheEntry<CacheValue> entry : entries) {
+            CacheEntry<CacheValue> hit = isCold(entry) ? readCold(entry.getKey(), currTime) : entry;
+            if (null != hit) {
+                hits.add(hit);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * @param keyCount number of keys in the multi-get
+     * @return number of parts to split the multi-get into, 1 for a sequential lookup
+     */
+    protected int multiGetParts(int keyCount) {
+        if (multiGetThreshold <= 0 || keyCount <= multiGetThreshold) {
+            return 1;
+        }
+        return Math.max(1, Math.min(multiGetParallelism, keyCount / MIN_MULTI_GET_PART));
+    }
+
+    /**
+     * Looks up the keys in parts, the calling thread does the first part while the executor does the rest.
+     * Each part writes its hits into its own slice of a slot list, which is then compacted in order. The parts only
+     * set elements, never resize the list, and the futures publish their writes.
+     */
+    private List<CacheEntry<CacheValue>> getParallel(List<String> keys, int parts, long currTime) {
+        String[] ks = keys.toArray(new String[keys.size()]); // keys are usually a linked list
+        List<CacheEntry<CacheValue>> slots = new ArrayList<>(Collections.nCopies(ks.length, null));
+        int partSize = (ks.length + parts - 1) / parts;
+
+        List<Future<?>> futures = new ArrayList<>(parts - 1);
+        for (int from = partSize; from < ks.length; from += partSize) {
+            int start = from;
+            int end = Math.min(ks.length, from + partSize);
+            futures.add(multiGetExecutor.submit(() -> lookupPart(ks, slots, start, end, currTime)));
+        }
+        lookupPart(ks, slots, 0, Math.min(ks.length, partSize), currTime);
+
+        // never wait while holding the read lock, a queued writer would block the parts from acquiring it
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(true));
+            throw new IllegalStateException("interrupted during multi-get", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("multi-get part failed", e.getCause());
+        }
+
+        List<CacheEntry<CacheValue>> entries = new ArrayList<>(ks.length);
+        for (CacheEntry<CacheValue> entry : slots) {
+            if (isCold(entry)) {
+                entry = readCold(entry.getKey(), currTime);
+            }
+            if (null != entry) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private void lookupPart(String[] keys, List<CacheEntry<CacheValue>> slots, int start, int end, long currTime) {
+        lock.readLock().lock();
+        try {
+            for (int i = start; i < end; i++) {
+                if (null != keys[i]) {
+                    slots.set(i, lookup(keys[i], currTime));
+                }
+            }
         }
         finally {
             lock.readLock().unlock();
@@ -283,7 +626,32 @@ public class CacheImpl implements Cache {
      */
     @Override
     public ResponseStatus.StoreStatus cas(String key, byte[] value, long ttl, long casUnique, long flag) {
-        logger.debug("got cas request for keys: "+key);
+        return cas(key, ttl, casUnique, cas -> newCacheValue(value, ttl, flag, cas));
+    }
+
+    /**
+     * Cas of a large value held as chunks
+     */
+    @Override
+    public ResponseStatus.StoreStatus cas(String key, byte[][] chunks, long ttl, long casUnique, long flag) {
+        return cas(key, ttl, casUnique, cas -> newCacheValue(chunks, ttl, flag, cas));
+    }
+
+    /**
+     * Cas of a compressed value
+     */
+    @Override
+    public ResponseStatus.StoreStatus casCompressed(String key, byte[] compressed, int rawSize, long ttl,
+                                                    long casUnique, long flag) {
+        return cas(key, ttl, casUnique, cas -> newCompressedCacheValue(compressed, rawSize, ttl, flag, cas));
+    }
+
+    /**
+     * @param valueFactory creates the value to store from its new cas unique value
+     */
+    protected ResponseStatus.StoreStatus cas(String key, long ttl, long casUnique,
+                                             LongFunction<CacheValue> valueFactory) {
+        logger.debug("got cas request for keys: {}", key);
         // pre-empt taking a read lock
         if (null == key) {
             return ResponseStatus.StoreStatus.NOT_FOUND;
@@ -293,10 +661,11 @@ public class CacheImpl implements Cache {
         lock.readLock().lock();
         try {
             CacheValue cacheValue = cache.get(key);
-            if (null == cacheValue) {
+            ExtStore.Slot cold = null == cacheValue ? coldSlot(key, getCurrTime()) : null;
+            if (null == cacheValue && null == cold) {
                 return ResponseStatus.StoreStatus.NOT_FOUND;
             }
-            else if (casUnique != cacheValue.getCasUnique()) {
+            else if (casUnique != (null != cacheValue ? cacheValue.getCasUnique() : cold.getCasUnique())) {
                 return ResponseStatus.StoreStatus.EXISTS;
             }
         }
@@ -310,6 +679,9 @@ public class CacheImpl implements Cache {
             long time = getCurrTime();
             // need to re-test item since it may have been removed or updated
             CacheValue newValue = cache.get(key);
+            if (null == newValue && null != coldSlot(key, time)) {
+                return casCold(key, casUnique, valueFactory);
+            }
             // need to check if it changed since we acquired the read lock
             if (null == newValue || isExpired(newValue, time)) { // check expired since may not have been reaped
                 return ResponseStatus.StoreStatus.NOT_FOUND;
@@ -319,12 +691,14 @@ public class CacheImpl implements Cache {
                 return ResponseStatus.StoreStatus.EXISTS;
             }
             else  {
-                newValue = newCacheValue(value, ttl, flag, casCounter.incrementAndGet());
-                CacheValue oldValue = cache.put(key, newValue);
+                CacheValue storedValue = valueFactory.apply(casCounter.incrementAndGet());
+                CacheValue oldValue = cache.put(key, storedValue);
+                mutationLog.logSet(key, storedValue);
+                dropLease(key);
 
                 // notify listeners
                 eventListener.sendMessage(
-                    EventMessage.update(newStatsEntry(key, oldValue), newStatsEntry(key, newValue))
+                    EventMessage.update(newStatsEntry(key, oldValue), newStatsEntry(key, storedValue))
                 );
 
                 return ResponseStatus.StoreStatus.STORED;
@@ -336,6 +710,22 @@ public class CacheImpl implements Cache {
         }
     }
 
+    /**
+     * Cas of an item in the extstore, the new value goes into memory. The caller holds the write lock.
+     */
+    private ResponseStatus.StoreStatus casCold(String key, long casUnique, LongFunction<CacheValue> valueFactory) {
+        if (coldSlot(key, getCurrTime()).getCasUnique() != casUnique) {
+            return ResponseStatus.StoreStatus.EXISTS;
+        }
+        extStore.invalidate(key);
+        CacheValue storedValue = valueFactory.apply(casCounter.incrementAndGet());
+        cache.put(key, storedValue);
+        mutationLog.logSet(key, storedValue);
+        dropLease(key);
+        eventListener.sendMessage(EventMessage.put(newStatsEntry(key, storedValue)));
+        return ResponseStatus.StoreStatus.STORED;
+    }
+
     /**
      * Sets a value in the cache, replacing if it exists
      *
@@ -347,7 +737,30 @@ public class CacheImpl implements Cache {
      */
     @Override
     public ResponseStatus.StoreStatus set(String key, byte[] value, long ttl, long flag) {
-        logger.debug("got get request for keys: "+key);
+        return set(key, ttl, cas -> newCacheValue(value, ttl, flag, cas));
+    }
+
+    /**
+     * Sets a large value held as chunks
+     */
+    @Override
+    public ResponseStatus.StoreStatus set(String key, byte[][] chunks, long ttl, long flag) {
+        return set(key, ttl, cas -> newCacheValue(chunks, ttl, flag, cas));
+    }
+
+    /**
+     * Sets a compressed value
+     */
+    @Override
+    public ResponseStatus.StoreStatus setCompressed(String key, byte[] compressed, int rawSize, long ttl, long flag) {
+        return set(key, ttl, cas -> newCompressedCacheValue(compressed, rawSize, ttl, flag, cas));
+    }
+
+    /**
+     * @param valueFactory creates the value to store from its new cas unique value
+     */
+    protected ResponseStatus.StoreStatus set(String key, long ttl, LongFunction<CacheValue> valueFactory) {
+        logger.debug("got get request for keys: {}", key);
 
         // pre-empt attempting to store expired ttl
         // note we can't do this in cas because we need the actual state for the response
@@ -369,8 +782,16 @@ public class CacheImpl implements Cache {
                 return ResponseStatus.StoreStatus.NOT_STORED; // why store a cache item thats already expired!
             }
 
-            CacheValue newValue = newCacheValue(value, ttl, flag, casCounter.incrementAndGet());
+            CacheValue newValue = valueFactory.apply(casCounter.incrementAndGet());
             CacheValue oldValue = cache.put(key, newValue);
+            if (xfetchBeta > 0 && null != oldValue) {
+                newValue.setRecomputeMillis(recomputeMillis(oldValue)); // readers see it once the lock is released
+            }
+            mutationLog.logSet(key, newValue);
+            dropLease(key); // the key is filled, whether or not by the lease holder
+            if (extStore.isEnabled()) {
+                extStore.invalidate(key); // the key may have been evicted to the extstore
+            }
 
             // notify listeners
             if (null == oldValue) {
@@ -378,8 +799,9 @@ public class CacheImpl implements Cache {
                 eventListener.sendMessage(EventMessage.put(newStatsEntry(key, newValue)));
             }
             else if (isExpired(oldValue, time)) {
+                // the old item was expired or flushed, but not yet reaped
                 eventListener.sendMessage(EventMessage.delete(newStatsEntry(key, oldValue)));
-                eventListener.sendMessage(EventMessage.put(newStatsEntry(key, oldValue)));
+                eventListener.sendMessage(EventMessage.put(newStatsEntry(key, newValue)));
             }
             else {
                 // we didn't have this key, it's an update
@@ -395,6 +817,325 @@ public class CacheImpl implements Cache {
         return ResponseStatus.StoreStatus.STORED;
     }
 
+    /**
+     * Invalidates all items in the cache. This is O(1), the flush only records the current cas unique
+     * value and every item stored at or before it becomes invisible. The memory is reclaimed lazily,
+     * by the reaper or the lru, exactly like an expired item.
+     *
+     * @param delay seconds to wait before flushing, relative or absolute per memcache ttl rules
+     * @return
+     */
+    @Override
+    public ResponseStatus.FlushStatus flushAll(long delay) {
+        logger.debug("got flush_all request with delay: {}", delay);
+
+        long time = getCurrTime();
+        long flushAt = normalizeTtl(delay, time);
+        if (flushAt <= time) {
+            flush();
+        }
+        else {
+            logger.info("scheduling flush in "+(flushAt - time)+" seconds");
+            schedExecutor.schedule(this::flush, flushAt - time, TimeUnit.SECONDS);
+        }
+
+        return ResponseStatus.FlushStatus.OK;
+    }
+
+    /**
+     * Moves the flush mark up to the last issued cas unique value. The write lock is only held
+     * so that a set in progress is either entirely before or entirely after the flush.
+     */
+    protected void flush() {
+        lock.writeLock().lock();
+        try {
+            flushCas = casCounter.get();
+            leases.clear(); // a fill read before the flush mustn't land after it, and flushed values aren't served stale
+            extStore.flush(flushCas);
+            mutationLog.logFlush(flushCas);
+            logger.info("flushed all items with cas unique <= "+flushCas);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets a key, a miss is handed a lease unless another client holds an unexpired one. The
+     * holder fills the key with leaseSet, while other misses are told to wait, or given the value
+     * the key had before it expired or was deleted. So a hot key going missing sends a single
+     * client to the backing store rather than all of them.
+     *
+     * @param key
+     * @return
+     */
+    @Override
+    public LeaseResult leaseGet(String key) {
+        logger.debug("got lease get request for key: {}", key);
+
+        Optional<CacheEntry<CacheValue>> hit = get(key, getCurrTime());
+        if (hit.isPresent() && !hit.get().isStale()) {
+            return LeaseResult.hit(hit.get());
+        }
+
+        // a miss takes the write lock to grant the lease, it goes to the backing store anyway
+        lock.writeLock().lock();
+        try {
+            long time = getCurrTime();
+            CacheValue value = cache.get(key);
+            if (null != value && !isExpired(value, time)) { // filled since the read
+                return LeaseResult.hit(new CacheEntry<>(key, value));
+            }
+
+            Lease lease = leases.get(key);
+            boolean live = null != lease && lease.expiresAt > time;
+            if (live && 0 != lease.token) {
+                return null == lease.stale ? LeaseResult.waitFor() : LeaseResult.stale(new CacheEntry<>(key, lease.stale));
+            }
+
+            // an expired value not yet reaped or the value of a recent delete can be served stale
+            CacheValue stale = live ? lease.stale : null;
+            if (null == stale && null != value && !isFlushed(value)) {
+                stale = value;
+            }
+            long token = casCounter.incrementAndGet();
+            leases.put(key, new Lease(token, time + leaseTimeout, stale));
+            return LeaseResult.leased(token);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Fills a key with a value read under a lease
+     */
+    @Override
+    public ResponseStatus.StoreStatus leaseSet(String key, byte[] value, long ttl, long token, long flag) {
+        return leaseSet(key, ttl, token, cas -> newCacheValue(value, ttl, flag, cas));
+    }
+
+    @Override
+    public ResponseStatus.StoreStatus leaseSet(String key, byte[][] chunks, long ttl, long token, long flag) {
+        return leaseSet(key, ttl, token, cas -> newCacheValue(chunks, ttl, flag, cas));
+    }
+
+    @Override
+    public ResponseStatus.StoreStatus leaseSetCompressed(String key, byte[] compressed, int rawSize, long ttl,
+                                                         long token, long flag) {
+        return leaseSet(key, ttl, token, cas -> newCompressedCacheValue(compressed, rawSize, ttl, flag, cas));
+    }
+
+    /**
+     * Stores like set, but only while the token is the key's unexpired lease. A delete, flush or
+     * set since the lease was granted, or a newer lease, means the value may be stale.
+     *
+     * @param valueFactory creates the value to store from its new cas unique value
+     */
+    protected ResponseStatus.StoreStatus leaseSet(String key, long ttl, long token,
+                                                  LongFunction<CacheValue> valueFactory) {
+        logger.debug("got lease set request for key: {}", key);
+
+        lock.writeLock().lock();
+        try {
+            Lease lease = leases.get(key);
+            if (null == lease || lease.token != token || lease.expiresAt <= getCurrTime()) {
+                return ResponseStatus.StoreStatus.NOT_STORED;
+            }
+            return set(key, ttl, valueFactory); // the lock is reentrant, the set drops the lease
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The caller holds the write lock
+     */
+    private void dropLease(String key) {
+        if (!leases.isEmpty()) {
+            leases.remove(key);
+        }
+    }
+
+    /**
+     * Invalidates the key's lease, its holder may have read what was just deleted. Until the lease
+     * would have timed out misses are served the deleted value, and the first is granted a new
+     * lease. The caller holds the write lock.
+     *
+     * @param deleted the deleted value, or null
+     */
+    private void revokeLease(String key, CacheValue deleted) {
+        Lease lease = leases.isEmpty() ? null : leases.get(key);
+        if (null != lease) {
+            CacheValue stale = null != deleted && !isFlushed(deleted) ? deleted : lease.stale;
+            leases.put(key, new Lease(0, lease.expiresAt, stale));
+        }
+    }
+
+    /**
+     * Drops timed out leases and the stale values they hold, from the reaper
+     */
+    private void expireLeases(long currTime) {
+        lock.writeLock().lock();
+        try {
+            leases.values().removeIf(l -> l.expiresAt <= currTime);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a mutation replayed from the mutation log or received from a replication leader.
+     * It isn't logged again.
+     */
+    public void restore(Mutation m) {
+        switch (m.op) {
+            case Mutation.SET:
+                restore(m.key, m.value);
+                break;
+            case Mutation.DELETE:
+            case Mutation.EXPIRE:
+            case Mutation.EVICT:
+                restoreRemove(m.key);
+                break;
+            case Mutation.FLUSH:
+                restoreFlush(m.cas);
+                break;
+            case Mutation.SYNC:
+                restoreClear(m.cas);
+                break;
+            default:
+                logger.error("unknown mutation "+m.op+" for key "+m.key);
+        }
+    }
+
+    /**
+     * Runs a batch of restores under one acquisition of the write lock
+     */
+    public void restoreBatch(Runnable restores) {
+        lock.writeLock().lock();
+        try {
+            restores.run();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Puts back an item replayed from the mutation log. It isn't logged again.
+     */
+    public void restore(String key, CacheValue value) {
+        lock.writeLock().lock();
+        try {
+            casCounter.accumulateAndGet(value.getCasUnique(), Math::max); // new items must get later cas uniques
+            if (isExpired(value)) {
+                restoreRemove(key);
+                return;
+            }
+            CacheValue oldValue = cache.put(key, value);
+            dropLease(key);
+            eventListener.sendMessage(null == oldValue ? EventMessage.put(newStatsEntry(key, value)) :
+                    EventMessage.update(newStatsEntry(key, oldValue), newStatsEntry(key, value)));
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an item deleted, expired or evicted in the replayed mutation log
+     */
+    public void restoreRemove(String key) {
+        lock.writeLock().lock();
+        try {
+            CacheValue value = cache.remove(key);
+            revokeLease(key, value);
+            if (extStore.isEnabled()) {
+                extStore.invalidate(key); // the key may have been evicted to the extstore
+            }
+            if (null != value) {
+                eventListener.sendMessage(EventMessage.delete(newStatsEntry(key, value)));
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Restores the flush mark of a replayed flush_all
+     */
+    public void restoreFlush(long flushCas) {
+        lock.writeLock().lock();
+        try {
+            casCounter.accumulateAndGet(flushCas, Math::max);
+            this.flushCas = Math.max(this.flushCas, flushCas);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes every item before a replica's full sync, the flush mark becomes the leader's
+     */
+    public void restoreClear(long flushCas) {
+        lock.writeLock().lock();
+        try {
+            Iterator<Map.Entry<String, CacheValue>> it = cache.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, CacheValue> e = it.next();
+                it.remove();
+                eventListener.sendMessage(EventMessage.delete(newStatsEntry(e.getKey(), e.getValue())));
+            }
+            leases.clear();
+            if (extStore.isEnabled()) {
+                extStore.clear();
+            }
+            casCounter.accumulateAndGet(flushCas, Math::max);
+            this.flushCas = flushCas;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the live items for a mutation log checkpoint or a replica's full sync. Only the references are copied, values
+     * never change once stored.
+     *
+     * @param atCopy runs under the same read lock as the copy, so no mutation lands between them
+     * @return the items that are neither expired nor flushed
+     */
+    public List<CacheEntry<CacheValue>> snapshot(Runnable atCopy) {
+        lock.readLock().lock();
+        try {
+            atCopy.run();
+            long currTime = getCurrTime();
+            List<CacheEntry<CacheValue>> items = new ArrayList<>(cache.size());
+            cache.forEach((k, v) -> {
+                if (!isExpired(v, currTime)) {
+                    items.add(new CacheEntry<>(k, v));
+                }
+            });
+            return items;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getFlushCas() {
+        return flushCas;
+    }
+
+    protected boolean isFlushed(CacheValue v) {
+        return v.getCasUnique() <= flushCas;
+    }
+
     protected long getCurrTime() {
         return getCurrTime(0);
     }
@@ -404,6 +1145,10 @@ public class CacheImpl implements Cache {
         return t + delta;
     }
 
+    protected long getCurrTimeMillis() {
+        return relTime > 0 ? relTime * 1000 : System.currentTimeMillis();
+    }
+
     protected boolean isExpired(long ttl) {
         return CacheUtil.isExpired(ttl, getCurrTime());
     }
@@ -412,11 +1157,32 @@ public class CacheImpl implements Cache {
         return CacheUtil.isExpired(ttl, currTime);
     }
 
+    // flushed items are treated exactly like expired ones, so the reaper and lru reclaim them
     protected boolean isExpired(CacheValue v, long currTime) {
-        return CacheUtil.isExpired(v, currTime);
+        return CacheUtil.isExpired(v, currTime) || isFlushed(v);
     }
 
     protected boolean isExpired(CacheValue v) {
-        return CacheUtil.isExpired(v, getCurrTime());
+        return isExpired(v, getCurrTime());
+    }
+
+    // an expired item that may still be served stale, flushed items never are
+    protected boolean isInGrace(CacheValue v, long currTime) {
+        return staleGrace > 0 && 0 != v.getExpiresAt() && v.getExpiresAt() + staleGrace >= currTime && !isFlushed(v);
+    }
+
+    /**
+     * A key's outstanding lease
+     */
+    private static class Lease {
+        final long token; // 0 once revoked by a delete
+        final long expiresAt; // seconds, when another miss may take the lease
+        final CacheValue stale; // served to misses while the lease is held, or null
+
+        Lease(long token, long expiresAt, CacheValue stale) {
+            this.token = token;
+            this.expiresAt = expiresAt;
+            this.stale = stale;
+        }
     }
 }
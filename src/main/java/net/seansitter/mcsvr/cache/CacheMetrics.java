@@ -8,4 +8,11 @@ public interface CacheMetrics {
     long getMisses();
     long getItems();
     long getSize();
+    long getTotalItems();
+    long getEvictions();
+    long getReclaimed();
+    long getExpiredUnfetched();
+    long getStaleHits();
+    long getRecaches();
+    long getEarlyExpirations();
 }
@@ -0,0 +1,16 @@
+package net.seansitter.mcsvr.cache;
+
+/**
+ * Receives hit and miss counts directly from the cache. Hits and misses happen on every
+ * retrieval, so they are not worth an event message and a trip through the broadcaster.
+ */
+public interface CacheMetricsRecorder {
+    void cacheHit();
+    void cacheMiss();
+    // a hit on an item in its stale grace window, also counted as a hit
+    void staleHit();
+    // a miss on an item in its stale grace window, its caller was picked to recache it
+    void recache();
+    // a miss on an item not yet expired, its caller was picked to refresh it early, also counted as a miss
+    void earlyExpire();
+}
@@ -39,6 +39,17 @@ public class CacheUtil {
         return new CacheValue(value, flag, createdAt, nTtl, casUnique);
     }
 
+    public static CacheValue newCacheValue(byte[][] chunks, long ttl, long flag, long casUnique) {
+        long createdAt = getCurrTime();
+        return new CacheValue(chunks, flag, createdAt, normalizeTtl(ttl, createdAt), casUnique);
+    }
+
+    public static CacheValue newCompressedCacheValue(byte[] compressed, int rawSize, long ttl, long flag,
+                                                     long casUnique) {
+        long createdAt = getCurrTime();
+        return new CacheValue(compressed, rawSize, flag, createdAt, normalizeTtl(ttl, createdAt), casUnique);
+    }
+
     /**
      * Heler to get current time in epoch seconds
      *
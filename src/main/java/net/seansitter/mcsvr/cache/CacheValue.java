@@ -1,25 +1,100 @@
 package net.seansitter.mcsvr.cache;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
- * Represents a value in the cache
+ * Represents a value in the cache. Large values are held as a list of fixed size chunks rather
+ * than one array, so storing them never needs a single huge contiguous allocation. A value may
+ * also be stored LZ4 compressed, in which case the payload is the compressed bytes and the size
+ * is what it occupies in the cache.
  */
 public class CacheValue {
-    private final byte[] payload;
+    private static final AtomicLongFieldUpdater<CacheValue> MISSED_AT =
+            AtomicLongFieldUpdater.newUpdater(CacheValue.class, "missedAt");
+
+    private final byte[] payload; // null if the value is chunked
+    private final byte[][] chunks; // null unless the value is chunked
+    private final int rawSize; // uncompressed size of a compressed value, -1 if not compressed
     private final long flag;
     private final long casUnique;
     private final CacheValueStats stats;
+    private boolean fetched; // racy by design, only feeds the expired_unfetched stat
+    private volatile long missedAt; // millis when a get was first told to recache the value, 0 if none yet
+    private int recomputeMillis; // how long the key took to refill last time, set before the value is stored
 
     public CacheValue(byte[] payload, long flag, long createdAt, long expiresAt, long casUnique) {
+        this(payload, null, payload.length, -1, flag, createdAt, expiresAt, casUnique);
+    }
+
+    public CacheValue(byte[][] chunks, long flag, long createdAt, long expiresAt, long casUnique) {
+        this(null, chunks, sizeOf(chunks), -1, flag, createdAt, expiresAt, casUnique);
+    }
+
+    /**
+     * A compressed value
+     *
+     * @param compressed the LZ4 compressed payload
+     * @param rawSize the uncompressed size
+     */
+    public CacheValue(byte[] compressed, int rawSize, long flag, long createdAt, long expiresAt, long casUnique) {
+        this(compressed, null, compressed.length, rawSize, flag, createdAt, expiresAt, casUnique);
+    }
+
+    private CacheValue(byte[] payload, byte[][] chunks, int size, int rawSize,
+                       long flag, long createdAt, long expiresAt, long casUnique) {
         this.payload = payload;
+        this.chunks = chunks;
+        this.rawSize = rawSize;
         this.flag = flag;
         this.casUnique = casUnique; // unique value assigned by the cache for cas operations
-        this.stats = new CacheValueStats(createdAt, expiresAt, payload.length);
+        this.stats = new CacheValueStats(createdAt, expiresAt, size);
     }
 
+    /**
+     * @return the value, a chunked value is copied into a new array so prefer getChunks for those
+     */
     public byte[] getPayload() {
-        return payload;
+        if (null == chunks) {
+            return payload;
+        }
+        byte[] p = new byte[stats.size];
+        int off = 0;
+        for (byte[] c : chunks) {
+            System.arraycopy(c, 0, p, off, c.length);
+            off += c.length;
+        }
+        return p;
+    }
+
+    public boolean isChunked() {
+        return null != chunks;
+    }
+
+    /**
+     * @return the chunks of a chunked value, in order, or null if the value isn't chunked
+     */
+    public byte[][] getChunks() {
+        return chunks;
+    }
+
+    public boolean isCompressed() {
+        return rawSize >= 0;
+    }
+
+    /**
+     * @return the uncompressed size of a compressed value, otherwise the size
+     */
+    public int getRawSize() {
+        return isCompressed() ? rawSize : stats.size;
+    }
+
+    public static int sizeOf(byte[][] chunks) {
+        int size = 0;
+        for (byte[] c : chunks) {
+            size += c.length;
+        }
+        return size;
     }
 
     public long getFlag() {
@@ -46,6 +121,36 @@ public class CacheValue {
         return stats;
     }
 
+    public boolean isFetched() {
+        return fetched;
+    }
+
+    public void markFetched() {
+        if (!fetched) { // avoid dirtying the cache line on every hit
+            fetched = true;
+        }
+    }
+
+    /**
+     * @param nowMillis recorded as when the recache started, to learn the recompute time
+     * @return true for exactly one caller, the one that should recache the value
+     */
+    public boolean claimRecache(long nowMillis) {
+        return 0 == missedAt && MISSED_AT.compareAndSet(this, 0, nowMillis);
+    }
+
+    public long getMissedAt() {
+        return missedAt;
+    }
+
+    public int getRecomputeMillis() {
+        return recomputeMillis;
+    }
+
+    public void setRecomputeMillis(int recomputeMillis) {
+        this.recomputeMillis = recomputeMillis;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof CacheValue)) {
@@ -53,14 +158,21 @@ public class CacheValue {
         }
 
         CacheValue v = (CacheValue)o;
-        if (v.flag != flag) {
+        if (v.flag != flag || v.rawSize != rawSize) {
             return false;
         }
-        if (payload != null && v.payload == null) {
-            return false;
+        if (isChunked() || v.isChunked()) {
+            if (!Arrays.equals(v.getPayload(), getPayload())) {
+                return false;
+            }
         }
-        if (payload != null && !Arrays.equals(v.payload, payload)) {
-            return false;
+        else {
+            if (payload != null && v.payload == null) {
+                return false;
+            }
+            if (payload != null && !Arrays.equals(v.payload, payload)) {
+                return false;
+            }
         }
         if (stats != null && v.stats == null) {
             return false;
@@ -0,0 +1,21 @@
+package net.seansitter.mcsvr.cache;
+
+/**
+ * Metrics recorder which ignores all hits and misses
+ */
+public class DummyCacheMetricsRecorder implements CacheMetricsRecorder {
+    @Override
+    public void cacheHit() { }
+
+    @Override
+    public void cacheMiss() { }
+
+    @Override
+    public void staleHit() { }
+
+    @Override
+    public void recache() { }
+
+    @Override
+    public void earlyExpire() { }
+}
@@ -0,0 +1,65 @@
+package net.seansitter.mcsvr.cache;
+
+/**
+ * The outcome of a lease get, see Cache.leaseGet
+ */
+public class LeaseResult {
+    public enum Status {
+        // the key was found
+        HIT,
+        // a miss, the caller holds the lease and is expected to fill the key with lset
+        LEASED,
+        // a miss another client holds the lease for, try again shortly
+        WAIT,
+        // like WAIT, but with the value the key had before it expired or was deleted
+        STALE
+    }
+
+    private final Status status;
+    private final CacheEntry<CacheValue> entry; // the hit or the stale value, otherwise null
+    private final long token; // the lease token if leased, otherwise 0
+
+    private LeaseResult(Status status, CacheEntry<CacheValue> entry, long token) {
+        this.status = status;
+        this.entry = entry;
+        this.token = token;
+    }
+
+    public static LeaseResult hit(CacheEntry<CacheValue> entry) {
+        return new LeaseResult(Status.HIT, entry, 0);
+    }
+
+    public static LeaseResult leased(long token) {
+        return new LeaseResult(Status.LEASED, null, token);
+    }
+
+    public static LeaseResult waitFor() {
+        return new LeaseResult(Status.WAIT, null, 0);
+    }
+
+    public static LeaseResult stale(CacheEntry<CacheValue> entry) {
+        return new LeaseResult(Status.STALE, entry, 0);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public CacheEntry<CacheValue> getEntry() {
+        return entry;
+    }
+
+    public long getToken() {
+        return token;
+    }
+
+    // the same result with its value replaced, e.g. by its uncompressed copy
+    public LeaseResult withEntry(CacheEntry<CacheValue> entry) {
+        return new LeaseResult(status, entry, token);
+    }
+
+    @Override
+    public String toString() {
+        return status+(null != entry ? " "+entry.getKey() : "")+(0 != token ? " "+token : "");
+    }
+}
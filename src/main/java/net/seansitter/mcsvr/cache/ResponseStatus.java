@@ -50,6 +50,23 @@ public class ResponseStatus {
         }
     }
 
+    /**
+     * Status for flush operations
+     */
+    public enum FlushStatus {
+        OK("OK");
+
+        private String status;
+        FlushStatus(String status) {
+            this.status = status;
+        }
+
+        @Override
+        public String toString() {
+            return status;
+        }
+    }
+
     /**
      * Error status
      */
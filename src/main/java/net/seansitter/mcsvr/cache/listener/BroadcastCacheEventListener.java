@@ -1,16 +1,22 @@
 package net.seansitter.mcsvr.cache.listener;
 
-import java.util.LinkedList;
+import java.util.Arrays;
 
 public class BroadcastCacheEventListener implements CacheEventListener {
-    private final LinkedList<CacheEventListener> listeners = new LinkedList<>();
+    // listeners are added at configuration time, an array keeps the per event loop free of iterators
+    private volatile CacheEventListener[] listeners = new CacheEventListener[0];
 
-    public void addListener(CacheEventListener listener) {
-        listeners.add(listener);
+    public synchronized void addListener(CacheEventListener listener) {
+        CacheEventListener[] l = Arrays.copyOf(listeners, listeners.length + 1);
+        l[l.length - 1] = listener;
+        listeners = l;
     }
 
     @Override
     public void sendMessage(EventMessage message) {
-        listeners.stream().forEach(l -> l.sendMessage(message));
+        CacheEventListener[] l = listeners;
+        for (int i = 0; i < l.length; i++) {
+            l[i].sendMessage(message);
+        }
     }
 }
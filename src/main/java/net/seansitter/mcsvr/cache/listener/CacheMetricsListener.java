@@ -2,23 +2,35 @@ package net.seansitter.mcsvr.cache.listener;
 
 import net.seansitter.mcsvr.cache.CacheEntry;
 import net.seansitter.mcsvr.cache.CacheMetrics;
+import net.seansitter.mcsvr.cache.CacheMetricsRecorder;
 import net.seansitter.mcsvr.cache.CacheValueStats;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-public class CacheMetricsListener implements CacheEventListener, CacheMetrics {
-    private final AtomicLong cacheHits = new AtomicLong(0);
-    private final AtomicLong cacheMisses = new AtomicLong(0);
-    private final AtomicLong cacheSize = new AtomicLong(0);
-    private final AtomicLong cacheItems = new AtomicLong(0);
+/**
+ * Collects cache metrics. Every counter is a LongAdder, which spreads concurrent updates over
+ * striped cells and only sums them on read. Readers (jmx, stats) are rare and writers are every
+ * worker thread, so this keeps the counters from becoming the hottest cache line in the process.
+ *
+ * Hits and misses are recorded directly by the cache through CacheMetricsRecorder, all
+ * other metrics come from cache events.
+ */
+public class CacheMetricsListener implements CacheEventListener, CacheMetrics, CacheMetricsRecorder {
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder cacheSize = new LongAdder();
+    private final LongAdder cacheItems = new LongAdder();
+    private final LongAdder totalItems = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder reclaimed = new LongAdder();
+    private final LongAdder expiredUnfetched = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder recaches = new LongAdder();
+    private final LongAdder earlyExpirations = new LongAdder();
 
     @Override
     public void sendMessage(EventMessage message) {
-        if (message.event == Event.CACHE_HIT) {
-            cacheHit();
-        } else if (message.event == Event.CACHE_MISS) {
-            cacheMiss();
-        } else if (message.event == Event.PUT_ENTRY) {
+        if (message.event == Event.PUT_ENTRY) {
             putEntry((CacheEntry<CacheValueStats>) message.data);
         } else if (message.event == Event.UPDATE_ENTRY) {
             updateEntry((UpdateEntryMessage) message.data);
@@ -31,50 +43,112 @@ public class CacheMetricsListener implements CacheEventListener, CacheMetrics {
 
     @Override
     public long getHits() {
-        return cacheHits.get();
+        return cacheHits.sum();
     }
 
     @Override
     public long getMisses() {
-        return cacheMisses.get();
+        return cacheMisses.sum();
     }
 
     @Override
     public long getItems() {
-        return cacheItems.get();
+        return cacheItems.sum();
     }
 
     @Override
     public long getSize() {
-        return cacheSize.get();
+        return cacheSize.sum();
     }
 
+    @Override
+    public long getTotalItems() {
+        return totalItems.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getReclaimed() {
+        return reclaimed.sum();
+    }
+
+    @Override
+    public long getExpiredUnfetched() {
+        return expiredUnfetched.sum();
+    }
+
+    @Override
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    @Override
+    public long getRecaches() {
+        return recaches.sum();
+    }
+
+    @Override
+    public long getEarlyExpirations() {
+        return earlyExpirations.sum();
+    }
+
+    @Override
     public void cacheHit() {
-        cacheHits.incrementAndGet();
+        cacheHits.increment();
     }
 
+    @Override
     public void cacheMiss() {
-        cacheMisses.incrementAndGet();
+        cacheMisses.increment();
+    }
+
+    @Override
+    public void staleHit() {
+        staleHits.increment();
+    }
+
+    @Override
+    public void recache() {
+        recaches.increment();
+    }
+
+    @Override
+    public void earlyExpire() {
+        earlyExpirations.increment();
     }
 
     public void putEntry(CacheEntry<CacheValueStats> entryMessage) {
-        cacheSize.addAndGet(entryMessage.getValue().size);
-        cacheItems.incrementAndGet();
+        cacheSize.add(entryMessage.getValue().size);
+        cacheItems.increment();
+        totalItems.increment();
     }
 
     public void updateEntry(UpdateEntryMessage updateEntryMessage) {
-        cacheSize.addAndGet(updateEntryMessage.szChange);
+        cacheSize.add(updateEntryMessage.szChange);
+        totalItems.increment();
     }
 
     public void deleteEntry(CacheEntry<CacheValueStats> entryMessage) {
         // not concerned about invariants here
-        cacheSize.addAndGet((-1) * entryMessage.getValue().size);
-        cacheItems.decrementAndGet();
+        cacheSize.add((-1) * entryMessage.getValue().size);
+        cacheItems.decrement();
     }
 
     public void destroyEntries(DestroyEntriesMessage destroyEntriesMessage) {
         // not concerned about invariants here
-        cacheSize.addAndGet((-1) * destroyEntriesMessage.szChange);
-        cacheItems.addAndGet((-1) * destroyEntriesMessage.entries.size());
+        cacheSize.add((-1) * destroyEntriesMessage.szChange);
+        cacheItems.add((-1) * destroyEntriesMessage.entries.size());
+
+        if (destroyEntriesMessage.cause == DestroyEntriesMessage.Cause.EVICTED) {
+            evictions.add(destroyEntriesMessage.entries.size());
+        }
+        else {
+            reclaimed.add(destroyEntriesMessage.entries.size());
+            expiredUnfetched.add(destroyEntriesMessage.unfetched);
+        }
     }
 }
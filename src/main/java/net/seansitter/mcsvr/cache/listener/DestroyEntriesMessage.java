@@ -7,12 +7,28 @@ import java.util.LinkedList;
 import java.util.List;
 
 public class DestroyEntriesMessage {
+    /**
+     * Why the entries were destroyed, evicted on lru advice or reclaimed by the reaper
+     */
+    public enum Cause {
+        EVICTED,
+        EXPIRED
+    }
+
     public final List<CacheEntry<CacheValueStats>> entries;
     public final int szChange;
+    public final Cause cause;
+    public final int unfetched; // number of entries which were never fetched before being destroyed
 
     public DestroyEntriesMessage(List<CacheEntry<CacheValueStats>> entries, int szChange) {
+        this(entries, szChange, Cause.EVICTED, 0);
+    }
+
+    public DestroyEntriesMessage(List<CacheEntry<CacheValueStats>> entries, int szChange, Cause cause, int unfetched) {
         this.entries = entries == null ? new LinkedList<>() : entries;
         this.szChange = szChange;
+        this.cause = cause;
+        this.unfetched = unfetched;
     }
 
     @Override
@@ -25,6 +41,9 @@ public class DestroyEntriesMessage {
         if (dm.szChange != szChange) {
             return false;
         }
+        if (dm.cause != cause || dm.unfetched != unfetched) {
+            return false;
+        }
         if (!entries.equals(dm.entries)) {
             return false;
         }
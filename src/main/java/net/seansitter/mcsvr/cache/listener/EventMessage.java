@@ -3,6 +3,7 @@ package net.seansitter.mcsvr.cache.listener;
 import net.seansitter.mcsvr.cache.CacheEntry;
 import net.seansitter.mcsvr.cache.CacheValueStats;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -32,7 +33,7 @@ public class EventMessage {
     }
 
     public static EventMessage update(CacheEntry<CacheValueStats> oldEntry, CacheEntry<CacheValueStats> newEntry) {
-        int szChange = oldEntry.getValue().size - newEntry.getValue().size;
+        int szChange = newEntry.getValue().size - oldEntry.getValue().size;
         UpdateEntryMessage msg = new UpdateEntryMessage(oldEntry, newEntry, szChange);
         return new EventMessage(Event.UPDATE_ENTRY, msg);
     }
@@ -50,6 +51,17 @@ public class EventMessage {
         return new EventMessage(Event.DESTROY_ENTRIES, new DestroyEntriesMessage(e, sz));
     }
 
+    @SafeVarargs
+    public static EventMessage expire(int unfetched, CacheEntry<CacheValueStats>... cacheEntryList) {
+        List<CacheEntry<CacheValueStats>> e = new ArrayList<>(cacheEntryList.length); // copied so the array doesn't escape
+        for (CacheEntry<CacheValueStats> ce : cacheEntryList) {
+            e.add(ce);
+        }
+        int sz = e.stream().mapToInt(ce -> ce.getValue().size).sum();
+        return new EventMessage(Event.DESTROY_ENTRIES,
+                new DestroyEntriesMessage(e, sz, DestroyEntriesMessage.Cause.EXPIRED, unfetched));
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof EventMessage)) {
@@ -117,7 +117,7 @@ public class LRUManagerListener implements CacheEventListener {
                 touchEntry((CacheEntry<CacheValueStats>)message.data);
             }
             else if (message.event == Event.UPDATE_ENTRY) {
-                touchEntry(((UpdateEntryMessage)message.data).newEntry);
+                updateEntry((UpdateEntryMessage)message.data);
             }
             else if (message.event == Event.DELETE_ENTRY) {
                 deleteEntry((CacheEntry<CacheValueStats>)message.data);
@@ -172,6 +172,22 @@ public class LRUManagerListener implements CacheEventListener {
             }
         }
 
+        /**
+         * Touches the updated entry and accounts for its change in size
+         *
+         * @param msg
+         */
+        protected void updateEntry(UpdateEntryMessage msg) {
+            touchEntry(msg.newEntry);
+
+            if (lruMap.containsKey(msg.newEntry.getKey())) {
+                currSz += msg.szChange;
+                if (msg.szChange > 0) {
+                    cleanupLru();
+                }
+            }
+        }
+
         /**
          * Creates a new entry in the lru for new nodes, puts the item at the
          *
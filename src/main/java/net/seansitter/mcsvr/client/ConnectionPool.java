@@ -0,0 +1,168 @@
+package net.seansitter.mcsvr.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.domain.command.ApiCommand;
+import net.seansitter.mcsvr.domain.result.CacheResult;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A few pipelined connections to one server, see PipelineHandler.
+ *
+ * A request goes out on the connection picked by its key's hash, so a caller's commands on a key
+ * stay in order even when it doesn't wait for replies. A connection is opened on first use, and
+ * reopened on the next request after it closes. While the server refuses connections, requests
+ * fail straight away for RETRY_MILLIS rather than each waiting on a connect.
+ */
+public class ConnectionPool {
+    private static final long RETRY_MILLIS = 1000;
+
+    private final InetSocketAddress addr;
+    private final Bootstrap bootstrap;
+    private final ChannelFuture[] connections;
+    private final long[] connectedAt;
+
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedKeys = new LongAdder();
+
+    /**
+     * A pool that doesn't batch gets
+     */
+    public ConnectionPool(InetSocketAddress addr, int connections, int connectTimeoutMillis, EventLoopGroup group) {
+        this(addr, connections, connectTimeoutMillis, 0, 0, group);
+    }
+
+    /**
+     * @param addr the server
+     * @param connections number of connections
+     * @param connectTimeoutMillis
+     * @param batchWindowNanos see PipelineHandler
+     * @param maxBatchKeys see PipelineHandler
+     * @param group runs the connections
+     */
+    public ConnectionPool(InetSocketAddress addr, int connections, int connectTimeoutMillis,
+                          long batchWindowNanos, int maxBatchKeys, EventLoopGroup group) {
+        this(addr, connections, connectTimeoutMillis, batchWindowNanos, maxBatchKeys, null, group);
+    }
+
+    /**
+     * @param onInvalidate turns client tracking on for every connection, see PipelineHandler
+     */
+    public ConnectionPool(InetSocketAddress addr, int connections, int connectTimeoutMillis,
+                          long batchWindowNanos, int maxBatchKeys, Consumer<String> onInvalidate,
+                          EventLoopGroup group) {
+        this.addr = addr;
+        this.connections = new ChannelFuture[Math.max(1, connections)];
+        this.connectedAt = new long[this.connections.length];
+        this.bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast("decoder", new McResponseDecoder());
+                        ch.pipeline().addLast("pipeline",
+                                new PipelineHandler(batchWindowNanos, maxBatchKeys, batches, batchedKeys, onInvalidate));
+                    }
+                });
+    }
+
+    /**
+     * Sends a command
+     *
+     * @param command
+     * @param hash picks the connection, the hash of the command's (first) key
+     * @return the server's result, or an exception if the connection failed
+     */
+    public CompletableFuture<CacheResult> send(ApiCommand command, long hash) {
+        PipelineHandler.Request r = new PipelineHandler.Request(command);
+        onConnection(hash, h -> h.write(r), r.result);
+        return r.result;
+    }
+
+    /**
+     * Adds a single key get to its connection's open batch
+     *
+     * @param key
+     * @param hash picks the connection, the hash of the key
+     * @param hit completed with the key's hit or empty on a miss, or exceptionally
+     */
+    public void batchGet(String key, long hash, CompletableFuture<Optional<CacheEntry<CacheValue>>> hit) {
+        onConnection(hash, h -> h.batchGet(key, hit), hit);
+    }
+
+    // runs on the event loop, in the order requests were made once connected
+    private void onConnection(long hash, Consumer<PipelineHandler> action, CompletableFuture<?> failed) {
+        ChannelFuture f = connection((int)((hash & Long.MAX_VALUE) % connections.length));
+        f.addListener(done -> {
+            PipelineHandler h = done.isSuccess() ? f.channel().pipeline().get(PipelineHandler.class) : null;
+            if (null != h) {
+                action.accept(h);
+            }
+            else {
+                failed.completeExceptionally(null != done.cause() ? done.cause() :
+                        new IOException("connection closed"));
+            }
+        });
+    }
+
+    private synchronized ChannelFuture connection(int i) {
+        ChannelFuture f = connections[i];
+        if (null != f && (!f.isDone() || f.channel().isActive())) {
+            return f;
+        }
+        if (null != f && !f.isSuccess() && System.currentTimeMillis() - connectedAt[i] < RETRY_MILLIS) {
+            return f; // still refusing
+        }
+        connects.increment();
+        connectedAt[i] = System.currentTimeMillis();
+        connections[i] = bootstrap.connect(addr);
+        return connections[i];
+    }
+
+    public synchronized void close() {
+        for (ChannelFuture f : connections) {
+            if (null != f) {
+                f.channel().close();
+            }
+        }
+    }
+
+    public synchronized int getConnected() {
+        int n = 0;
+        for (ChannelFuture f : connections) {
+            if (null != f && f.channel().isActive()) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    public long getConnects() {
+        return connects.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getBatchedKeys() {
+        return batchedKeys.sum();
+    }
+}
@@ -0,0 +1,310 @@
+package net.seansitter.mcsvr.client;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.domain.command.ApiCommand;
+import net.seansitter.mcsvr.domain.command.DeleteCommand;
+import net.seansitter.mcsvr.domain.command.FlushAllCommand;
+import net.seansitter.mcsvr.domain.command.GetCommand;
+import net.seansitter.mcsvr.domain.command.StoreCommand;
+import net.seansitter.mcsvr.domain.result.*;
+import net.seansitter.mcsvr.exception.ErrorResponseException;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A non-blocking client for the server's text protocol. Every call returns at once with a future
+ * of its result, a future completed exceptionally with ErrorResponseException if the server
+ * answered with an error, or with an IOException if the connection failed. Requests made on any
+ * number of threads share a few pipelined connections, see ConnectionPool and PipelineHandler.
+ *
+ * Single key gets are batched: those made within the batch window go to the server as one
+ * multi-get. And gets for a key that already has a get in flight are coalesced, they share its
+ * future rather than sending the key again. A coalesced get can return a value from before a
+ * write the caller made after the first get was sent, so a caller that needs to read its own
+ * writes should wait for the write first, or turn coalescing off. The futures may be shared and
+ * mustn't be completed by callers. A request isn't timed out, use the future's own timeouts.
+ *
+ * With a near cache, hits are kept in the client and served from it until the server pushes
+ * their invalidation, which needs a server started with trackingSlots, see NearCache.
+ *
+ *     McClient client = McClient.newBuilder().withServer("127.0.0.1", 11211).build();
+ *     client.set("k", value, 0, 0).join();
+ *     Optional<CacheEntry<CacheValue>> hit = client.get("k").join();
+ */
+public class McClient implements AutoCloseable {
+    private final ConnectionPool connections;
+    private final EventLoopGroup ownGroup; // null if the group is the caller's
+    private final boolean coalesceGets;
+    private final ConcurrentHashMap<String, CompletableFuture<Optional<CacheEntry<CacheValue>>>> inFlight =
+            new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+    private final NearCache nearCache; // null if off
+
+    McClient(ConnectionPool connections, EventLoopGroup ownGroup, boolean coalesceGets) {
+        this(connections, ownGroup, coalesceGets, null);
+    }
+
+    McClient(ConnectionPool connections, EventLoopGroup ownGroup, boolean coalesceGets, NearCache nearCache) {
+        this.connections = connections;
+        this.ownGroup = ownGroup;
+        this.coalesceGets = coalesceGets;
+        this.nearCache = nearCache;
+    }
+
+    /**
+     * @return the key's hit, or empty on a miss
+     */
+    public CompletableFuture<Optional<CacheEntry<CacheValue>>> get(String key) {
+        CacheEntry<CacheValue> near = null == nearCache ? null : nearCache.get(key);
+        if (null != near) {
+            return CompletableFuture.completedFuture(Optional.of(near));
+        }
+
+        if (!coalesceGets) {
+            CompletableFuture<Optional<CacheEntry<CacheValue>>> hit = newGet();
+            connections.batchGet(key, key.hashCode(), hit);
+            return hit;
+        }
+
+        CompletableFuture<Optional<CacheEntry<CacheValue>>> hit = inFlight.get(key);
+        if (null != hit) {
+            coalesced.increment();
+            return hit;
+        }
+        CompletableFuture<Optional<CacheEntry<CacheValue>>> mine = newGet();
+        hit = inFlight.putIfAbsent(key, mine);
+        if (null != hit) {
+            coalesced.increment();
+            return hit;
+        }
+        mine.whenComplete((h, e) -> inFlight.remove(key, mine));
+        connections.batchGet(key, key.hashCode(), mine);
+        return mine;
+    }
+
+    // fills the near cache as the response is read, before the connection reads anything after it
+    private CompletableFuture<Optional<CacheEntry<CacheValue>>> newGet() {
+        CompletableFuture<Optional<CacheEntry<CacheValue>>> hit = new CompletableFuture<>();
+        if (null != nearCache) {
+            hit.thenAccept(h -> h.ifPresent(nearCache::put));
+        }
+        return hit;
+    }
+
+    /**
+     * Gets keys with a single multi-get, bypassing the near cache
+     *
+     * @return the hits, in key order
+     */
+    public CompletableFuture<List<CacheEntry<CacheValue>>> get(List<String> keys) {
+        return multiGet("get", keys);
+    }
+
+    /**
+     * Gets keys with a single multi-get, with their cas uniques
+     *
+     * @return the hits, in key order
+     */
+    public CompletableFuture<List<CacheEntry<CacheValue>>> gets(List<String> keys) {
+        return multiGet("gets", keys);
+    }
+
+    private CompletableFuture<List<CacheEntry<CacheValue>>> multiGet(String name, List<String> keys) {
+        GetCommand.Builder b = GetCommand.newBuilder().withName(name);
+        keys.forEach(b::withKey);
+        return execute(b.build()).thenApply(r -> ((GetCacheResult)check(r)).getCacheEntries());
+    }
+
+    public CompletableFuture<ResponseStatus.StoreStatus> set(String key, byte[] value, int flags, long expTime) {
+        invalidateNear(key);
+        StoreCommand c = StoreCommand.newBuilder()
+                .withName("set")
+                .withKey(key)
+                .withPayload(value)
+                .withFlags(flags)
+                .withExpTime(expTime)
+                .build();
+        return execute(c).thenApply(r -> ((StoreCacheResult)check(r)).getStatus());
+    }
+
+    public CompletableFuture<ResponseStatus.StoreStatus> cas(String key, byte[] value, int flags, long expTime,
+                                                            long casUnique) {
+        invalidateNear(key);
+        StoreCommand c = StoreCommand.newBuilder()
+                .withName("cas")
+                .withKey(key)
+                .withPayload(value)
+                .withFlags(flags)
+                .withExpTime(expTime)
+                .withCasUnique(casUnique)
+                .build();
+        return execute(c).thenApply(r -> ((StoreCacheResult)check(r)).getStatus());
+    }
+
+    public CompletableFuture<ResponseStatus.DeleteStatus> delete(String key) {
+        invalidateNear(key);
+        DeleteCommand c = DeleteCommand.newBuilder().withKey(key).withIsNoReply(false).build();
+        return execute(c).thenApply(r -> ((DeleteCacheResult)check(r)).getStatus());
+    }
+
+    public CompletableFuture<ResponseStatus.FlushStatus> flushAll(long delay) {
+        invalidateNear(null);
+        FlushAllCommand c = FlushAllCommand.newBuilder().withDelay(delay).build();
+        return execute(c).thenApply(r -> ((FlushAllCacheResult)check(r)).getStatus());
+    }
+
+    /**
+     * Sends any command. An error response is returned as an ErrorResult rather than thrown, and
+     * a noreply command completes with null once written.
+     */
+    public CompletableFuture<CacheResult> execute(ApiCommand command) {
+        return connections.send(command, hash(command));
+    }
+
+    // the command's key picks its connection
+    private static long hash(ApiCommand c) {
+        if (c instanceof GetCommand && !((GetCommand)c).getKeys().isEmpty()) {
+            return ((GetCommand)c).getKeys().get(0).hashCode();
+        }
+        if (c instanceof StoreCommand) {
+            return ((StoreCommand)c).getKey().hashCode();
+        }
+        if (c instanceof DeleteCommand) {
+            return ((DeleteCommand)c).getKey().hashCode();
+        }
+        return 0;
+    }
+
+    // the server's push follows too, this drops the client's own stale copy before the write is answered
+    private void invalidateNear(String key) {
+        if (null != nearCache) {
+            nearCache.invalidate(key);
+        }
+    }
+
+    private static CacheResult check(CacheResult r) {
+        if (r instanceof ErrorResult) {
+            throw new ErrorResponseException(((ErrorResult)r).getStatusString());
+        }
+        return r;
+    }
+
+    @Override
+    public void close() {
+        connections.close();
+        if (null != ownGroup) {
+            ownGroup.shutdownGracefully();
+        }
+    }
+
+    public int getConnected() {
+        return connections.getConnected();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getBatches() {
+        return connections.getBatches();
+    }
+
+    public long getBatchedKeys() {
+        return connections.getBatchedKeys();
+    }
+
+    public long getNearHits() {
+        return null == nearCache ? 0 : nearCache.getHits();
+    }
+
+    public long getNearMisses() {
+        return null == nearCache ? 0 : nearCache.getMisses();
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private String host = "127.0.0.1";
+        private int port = 11211;
+        private int connections = 2;
+        private int connectTimeoutMillis = 1000;
+        private long batchWindowMicros = 10;
+        private int maxBatchKeys = 64; // 1 disables batching
+        private boolean coalesceGets = true;
+        private int nearCacheEntries = 0; // 0 disables the near cache
+        private long nearCacheMaxAgeMillis = 60000;
+        private EventLoopGroup group;
+
+        public Builder withServer(String host, int port) {
+            this.host = host;
+            this.port = port;
+            return this;
+        }
+
+        public Builder withConnections(int connections) {
+            this.connections = connections;
+            return this;
+        }
+
+        public Builder withConnectTimeoutMillis(int connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        public Builder withBatchWindowMicros(long batchWindowMicros) {
+            this.batchWindowMicros = batchWindowMicros;
+            return this;
+        }
+
+        public Builder withMaxBatchKeys(int maxBatchKeys) {
+            this.maxBatchKeys = maxBatchKeys;
+            return this;
+        }
+
+        public Builder withCoalesceGets(boolean coalesceGets) {
+            this.coalesceGets = coalesceGets;
+            return this;
+        }
+
+        /**
+         * Keeps up to maxEntries hits in the client, each for at most maxAgeMillis unless
+         * invalidated first. Needs a server with client tracking.
+         */
+        public Builder withNearCache(int maxEntries, long maxAgeMillis) {
+            this.nearCacheEntries = maxEntries;
+            this.nearCacheMaxAgeMillis = maxAgeMillis;
+            return this;
+        }
+
+        /**
+         * Runs the connections on the caller's event loop group, which the client won't shut down
+         */
+        public Builder withEventLoopGroup(EventLoopGroup group) {
+            this.group = group;
+            return this;
+        }
+
+        public McClient build() {
+            EventLoopGroup ownGroup = null == group ?
+                    new NioEventLoopGroup(Math.max(1, connections), new DefaultThreadFactory("mc-client", true)) : null;
+            NearCache nearCache = nearCacheEntries > 0 ? new NearCache(nearCacheEntries, nearCacheMaxAgeMillis) : null;
+            ConnectionPool pool = new ConnectionPool(new InetSocketAddress(host, port), connections,
+                    connectTimeoutMillis, TimeUnit.MICROSECONDS.toNanos(batchWindowMicros), maxBatchKeys,
+                    null == nearCache ? null : nearCache::invalidate, null == group ? ownGroup : group);
+            return new McClient(pool, ownGroup, coalesceGets, nearCache);
+        }
+    }
+}
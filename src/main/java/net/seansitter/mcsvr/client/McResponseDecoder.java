@@ -0,0 +1,78 @@
+package net.seansitter.mcsvr.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.ByteProcessor;
+import io.netty.util.CharsetUtil;
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes a server's text protocol responses, one message per request. A get response, VALUE
+ * blocks up to END, becomes the list of its hits. Any other response is its status line, as a
+ * String without the line ending, for PipelineHandler to interpret against the request.
+ */
+public class McResponseDecoder extends ByteToMessageDecoder {
+    private List<CacheEntry<CacheValue>> hits; // VALUE blocks of the current get response
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        while (in.isReadable()) {
+            int lf = in.forEachByte(ByteProcessor.FIND_LF);
+            if (lf < 0) {
+                return; // no full line yet
+            }
+
+            int start = in.readerIndex();
+            int lineLen = lf > start && in.getByte(lf - 1) == '\r' ? lf - start - 1 : lf - start;
+            if (startsWith(in, start, "VALUE ")) {
+                // VALUE <key> <flags> <bytes> [<cas unique>]
+                String[] parts = in.toString(start, lineLen, CharsetUtil.US_ASCII).split(" ");
+                if (parts.length < 4) {
+                    throw new DecoderException("bad VALUE line");
+                }
+                int bytes = Integer.parseInt(parts[3]);
+                if (in.writerIndex() < lf + 1 + bytes + 2) {
+                    return; // wait for the whole payload
+                }
+                byte[] payload = new byte[bytes];
+                in.getBytes(lf + 1, payload);
+                long cas = parts.length > 4 ? Long.parseLong(parts[4]) : 0;
+                if (null == hits) {
+                    hits = new ArrayList<>();
+                }
+                hits.add(new CacheEntry<>(parts[1], new CacheValue(payload, Long.parseLong(parts[2]), 0, 0, cas)));
+                in.readerIndex(lf + 1 + bytes + 2);
+                continue;
+            }
+
+            String line = in.toString(start, lineLen, CharsetUtil.US_ASCII);
+            in.readerIndex(lf + 1);
+            if (line.equals("END")) {
+                out.add(null == hits ? Collections.emptyList() : hits);
+                hits = null;
+            }
+            else {
+                out.add(line);
+            }
+        }
+    }
+
+    private static boolean startsWith(ByteBuf in, int idx, String s) {
+        if (in.writerIndex() - idx < s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (in.getByte(idx + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
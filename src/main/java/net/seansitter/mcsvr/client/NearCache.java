@@ -0,0 +1,102 @@
+package net.seansitter.mcsvr.client;
+
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hits the client read recently, served without asking the server until the server pushes their
+ * invalidation, see ClientTracker.
+ *
+ * Entries also expire maxAgeMillis after they were read. That bounds how stale a hit can be when
+ * no invalidation comes in time: the server only invalidates an expired item once the reaper
+ * reclaims it, and a delayed flush_all is pushed when it's sent rather than when it happens.
+ * Past maxEntries an arbitrary entry is dropped for each one added.
+ */
+class NearCache {
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long maxAgeNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    private static class Entry {
+        final CacheEntry<CacheValue> hit;
+        final long readAt;
+
+        Entry(CacheEntry<CacheValue> hit, long readAt) {
+            this.hit = hit;
+            this.readAt = readAt;
+        }
+    }
+
+    NearCache(int maxEntries, long maxAgeMillis) {
+        this.maxEntries = maxEntries;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+    }
+
+    /**
+     * @return the key's hit, or null if it isn't cached or is too old
+     */
+    CacheEntry<CacheValue> get(String key) {
+        Entry e = entries.get(key);
+        if (null != e && System.nanoTime() - e.readAt > maxAgeNanos) {
+            entries.remove(key, e);
+            e = null;
+        }
+        if (null == e) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return e.hit;
+    }
+
+    /**
+     * Caches a hit read from the server, called as its response is read, so before any
+     * invalidation that follows it on the connection
+     */
+    void put(CacheEntry<CacheValue> hit) {
+        if (null == entries.put(hit.getKey(), new Entry(hit, System.nanoTime())) && entries.size() > maxEntries) {
+            Iterator<String> it = entries.keySet().iterator();
+            if (it.hasNext()) {
+                entries.remove(it.next());
+            }
+        }
+    }
+
+    /**
+     * @param key the key to drop, or null to drop all
+     */
+    void invalidate(String key) {
+        invalidations.increment();
+        if (null == key) {
+            entries.clear();
+        }
+        else {
+            entries.remove(key);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getInvalidations() {
+        return invalidations.sum();
+    }
+}
@@ -0,0 +1,398 @@
+package net.seansitter.mcsvr.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.CharsetUtil;
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.domain.command.ApiCommand;
+import net.seansitter.mcsvr.domain.command.ClientTrackingCommand;
+import net.seansitter.mcsvr.domain.command.DeleteCommand;
+import net.seansitter.mcsvr.domain.command.FlushAllCommand;
+import net.seansitter.mcsvr.domain.command.GetCommand;
+import net.seansitter.mcsvr.domain.command.StoreCommand;
+import net.seansitter.mcsvr.domain.result.*;
+import net.seansitter.mcsvr.exception.ErrorResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static net.seansitter.mcsvr.cache.ResponseStatus.ErrorStatus;
+
+/**
+ * One connection to a server, shared by many callers.
+ *
+ * Requests are pipelined: each is written as soon as it arrives and its future queued, and since
+ * the server answers a connection's requests in order, each response completes the oldest queued
+ * future. Writes aren't flushed one by one. The first write after a flush schedules a flush on
+ * the event loop, so the requests of every caller that arrive meanwhile go out in one syscall.
+ *
+ * Single key gets can be batched: the keys that arrive within batchWindowNanos of the first, up
+ * to maxBatchKeys, go out as one multi-get whose hits are handed back key by key. Any other
+ * request sends the open batch first, so a connection's requests still reach the server in the
+ * order they were made. All of this runs on the connection's event loop.
+ *
+ * With an invalidation listener, the connection turns client tracking on before its first
+ * request, and the INVALIDATE lines the server pushes go to the listener rather than answering a
+ * request. The server forgets a connection's reads when it closes, so closing invalidates all.
+ */
+public class PipelineHandler extends ChannelInboundHandlerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(PipelineHandler.class);
+
+    private final long batchWindowNanos;
+    private final int maxBatchKeys;
+    private final LongAdder batches;
+    private final LongAdder batchedKeys;
+    private final Consumer<String> onInvalidate; // null unless tracking, a null key is all keys
+    private boolean trackingSent = false;
+
+    private final ArrayDeque<Request> pending = new ArrayDeque<>();
+    private ChannelHandlerContext ctx;
+    private boolean flushScheduled = false;
+    private final Runnable flush = () -> {
+        flushScheduled = false;
+        ctx.flush();
+    };
+
+    // the open batch of single key gets
+    private List<String> batchKeys = new ArrayList<>();
+    private List<CompletableFuture<Optional<CacheEntry<CacheValue>>>> batchHits = new ArrayList<>();
+    private long batchId = 0;
+
+    /**
+     * A command sent to the server, and its result
+     */
+    public static class Request {
+        final ApiCommand command;
+        final CompletableFuture<CacheResult> result = new CompletableFuture<>();
+
+        public Request(ApiCommand command) {
+            this.command = command;
+        }
+
+        public CompletableFuture<CacheResult> getResult() {
+            return result;
+        }
+    }
+
+    /**
+     * A connection that doesn't batch gets
+     */
+    public PipelineHandler() {
+        this(0, 0, new LongAdder(), new LongAdder());
+    }
+
+    /**
+     * @param batchWindowNanos how long a batch stays open after its first key, 0 until the event loop next runs
+     * @param maxBatchKeys keys after which a batch is sent straight away
+     * @param batches counts batches sent, shared by a client's connections
+     * @param batchedKeys counts keys sent in batches
+     */
+    public PipelineHandler(long batchWindowNanos, int maxBatchKeys, LongAdder batches, LongAdder batchedKeys) {
+        this(batchWindowNanos, maxBatchKeys, batches, batchedKeys, null);
+    }
+
+    /**
+     * @param onInvalidate receives the keys the server invalidates, null for all keys, or null for no tracking
+     */
+    public PipelineHandler(long batchWindowNanos, int maxBatchKeys, LongAdder batches, LongAdder batchedKeys,
+                           Consumer<String> onInvalidate) {
+        this.batchWindowNanos = batchWindowNanos;
+        this.maxBatchKeys = maxBatchKeys;
+        this.batches = batches;
+        this.batchedKeys = batchedKeys;
+        this.onInvalidate = onInvalidate;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * Writes a request, called on the event loop. A noreply request completes once written.
+     */
+    public void write(Request r) {
+        sendBatch(); // ahead of this request, so the server sees them in order
+        writeNow(r);
+    }
+
+    /**
+     * Adds a key to the open batch, called on the event loop
+     *
+     * @param key
+     * @param hit completed with the key's hit or empty on a miss, or exceptionally
+     */
+    public void batchGet(String key, CompletableFuture<Optional<CacheEntry<CacheValue>>> hit) {
+        if (!ctx.channel().isActive()) {
+            hit.completeExceptionally(new IOException("connection closed"));
+            return;
+        }
+        batchKeys.add(key);
+        batchHits.add(hit);
+        if (batchKeys.size() >= maxBatchKeys) {
+            sendBatch();
+        }
+        else if (batchKeys.size() == 1) {
+            long id = batchId;
+            Runnable timeout = () -> {
+                if (id == batchId) {
+                    sendBatch();
+                }
+            };
+            if (batchWindowNanos > 0) {
+                ctx.executor().schedule(timeout, batchWindowNanos, TimeUnit.NANOSECONDS);
+            }
+            else {
+                ctx.executor().execute(timeout);
+            }
+        }
+    }
+
+    private void sendBatch() {
+        if (batchKeys.isEmpty()) {
+            return;
+        }
+        List<String> keys = batchKeys;
+        List<CompletableFuture<Optional<CacheEntry<CacheValue>>>> hits = batchHits;
+        batchKeys = new ArrayList<>();
+        batchHits = new ArrayList<>();
+        batchId++;
+        batches.increment();
+        batchedKeys.add(keys.size());
+
+        GetCommand.Builder b = GetCommand.newBuilder().withName("get");
+        keys.forEach(b::withKey);
+        Request r = new Request(b.build());
+        r.result.whenComplete((result, e) -> completeBatch(keys, hits, result, e));
+        writeNow(r);
+    }
+
+    private static void completeBatch(List<String> keys, List<CompletableFuture<Optional<CacheEntry<CacheValue>>>> hits,
+                                      CacheResult result, Throwable e) {
+        if (null == e && !(result instanceof GetCacheResult)) {
+            e = new ErrorResponseException(((StatusCacheResult)result).getStatusString());
+        }
+        if (null != e) {
+            for (CompletableFuture<Optional<CacheEntry<CacheValue>>> hit : hits) {
+                hit.completeExceptionally(e);
+            }
+            return;
+        }
+
+        Map<String, CacheEntry<CacheValue>> byKey = new HashMap<>();
+        for (CacheEntry<CacheValue> entry : ((GetCacheResult)result).getCacheEntries()) {
+            byKey.put(entry.getKey(), entry);
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            hits.get(i).complete(Optional.ofNullable(byKey.get(keys.get(i))));
+        }
+    }
+
+    private void writeNow(Request r) {
+        if (!ctx.channel().isActive()) {
+            r.result.completeExceptionally(new IOException("connection closed"));
+            return;
+        }
+        if (null != onInvalidate && !trackingSent) {
+            trackingSent = true;
+            startTracking();
+        }
+        if (r.command.isNoReply()) {
+            r.result.complete(null);
+        }
+        else {
+            pending.add(r);
+        }
+        ctx.write(encode(r.command, ctx.alloc()), ctx.voidPromise());
+        if (!flushScheduled) {
+            flushScheduled = true;
+            ctx.executor().execute(flush);
+        }
+    }
+
+    /**
+     * Turns client tracking on ahead of the first read. Reads made without tracking could be
+     * cached and never invalidated, so if the server refuses, the connection is closed.
+     */
+    private void startTracking() {
+        Request r = new Request(ClientTrackingCommand.newBuilder().withOn(true).build());
+        r.result.whenComplete((result, e) -> {
+            if (null == e && !(result instanceof ClientTrackingCacheResult)) {
+                logger.warn("closing connection to "+ctx.channel().remoteAddress()+", client tracking refused: "+
+                        ((StatusCacheResult)result).getStatusString());
+                ctx.close();
+            }
+        });
+        pending.add(r);
+        ctx.write(encode(r.command, ctx.alloc()), ctx.voidPromise());
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (null != onInvalidate && msg instanceof String && ((String)msg).startsWith("INVALIDATE")) {
+            String line = (String)msg;
+            onInvalidate.accept(line.startsWith("INVALIDATE ") ? line.substring("INVALIDATE ".length()) : null);
+            return;
+        }
+        Request r = pending.poll();
+        if (null == r) {
+            logger.warn("unexpected response from "+ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        r.result.complete(toResult(r.command, msg));
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        IOException closed = new IOException("connection closed");
+        for (Request r; null != (r = pending.poll()); ) {
+            r.result.completeExceptionally(closed);
+        }
+        batchHits.forEach(hit -> hit.completeExceptionally(closed));
+        batchKeys.clear();
+        batchHits.clear();
+        if (null != onInvalidate) {
+            onInvalidate.accept(null); // invalidations sent after the close are lost
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        logger.warn("closing connection to "+ctx.channel().remoteAddress()+": "+cause.getMessage());
+        ctx.close();
+    }
+
+    /**
+     * Encodes a command in the text protocol. Chunked payloads are wrapped rather than copied.
+     */
+    public static ByteBuf encode(ApiCommand c, ByteBufAllocator alloc) {
+        StringBuilder line = new StringBuilder(64).append(c.getName());
+        if (c instanceof GetCommand) {
+            for (String key : ((GetCommand)c).getKeys()) {
+                line.append(' ').append(key);
+            }
+        }
+        else if (c instanceof StoreCommand) {
+            StoreCommand s = (StoreCommand)c;
+            line.append(' ').append(s.getKey())
+                    .append(' ').append(s.getFlags())
+                    .append(' ').append(s.getExpTime())
+                    .append(' ').append(s.getPayloadLen());
+            if (s.getName().equals("cas")) {
+                line.append(' ').append(s.getCasUnique());
+            }
+        }
+        else if (c instanceof DeleteCommand) {
+            line.append(' ').append(((DeleteCommand)c).getKey());
+        }
+        else if (c instanceof FlushAllCommand) {
+            line.append(' ').append(((FlushAllCommand)c).getDelay());
+        }
+        else if (c instanceof ClientTrackingCommand) {
+            line.append(((ClientTrackingCommand)c).isOn() ? " on" : " off");
+        }
+        if (c.isNoReply()) {
+            line.append(" noreply");
+        }
+        line.append("\r\n");
+
+        if (!(c instanceof StoreCommand)) {
+            ByteBuf buf = alloc.buffer(line.length());
+            buf.writeCharSequence(line, CharsetUtil.US_ASCII);
+            return buf;
+        }
+
+        StoreCommand s = (StoreCommand)c;
+        if (s.isChunked()) {
+            ByteBuf[] parts = new ByteBuf[s.getChunks().length + 2];
+            parts[0] = Unpooled.copiedBuffer(line, CharsetUtil.US_ASCII);
+            for (int i = 0; i < s.getChunks().length; i++) {
+                parts[i + 1] = Unpooled.wrappedBuffer(s.getChunks()[i]);
+            }
+            parts[parts.length - 1] = Unpooled.wrappedBuffer(new byte[] {'\r', '\n'});
+            return Unpooled.wrappedBuffer(parts);
+        }
+        ByteBuf buf = alloc.buffer(line.length() + s.getPayloadLen() + 2);
+        buf.writeCharSequence(line, CharsetUtil.US_ASCII);
+        buf.writeBytes(s.getPayload());
+        buf.writeByte('\r').writeByte('\n');
+        return buf;
+    }
+
+    /**
+     * Interprets a decoded response, see McResponseDecoder, as the result of the command
+     */
+    @SuppressWarnings("unchecked")
+    public static CacheResult toResult(ApiCommand c, Object msg) {
+        if (msg instanceof List) {
+            if (!c.getName().startsWith("get")) {
+                return unexpected(c, "END");
+            }
+            List<CacheEntry<CacheValue>> hits = (List<CacheEntry<CacheValue>>)msg;
+            return c.getName().equals("gets") ? new GetsCacheResult(hits) : new GetCacheResult(hits);
+        }
+
+        String line = (String)msg;
+        if (line.equals("ERROR")) {
+            return new ErrorResult(ErrorStatus.ERROR);
+        }
+        for (ErrorStatus e : new ErrorStatus[] {ErrorStatus.CLIENT_ERROR, ErrorStatus.SERVER_ERROR}) {
+            if (line.startsWith(e.toString())) {
+                String message = line.substring(e.toString().length()).trim();
+                return new ErrorResult(e, message.isEmpty() ? null : message);
+            }
+        }
+
+        switch (c.getName()) {
+            case "set":
+            case "cas":
+                for (ResponseStatus.StoreStatus s : ResponseStatus.StoreStatus.values()) {
+                    if (s.toString().equals(line)) {
+                        return new StoreCacheResult(s);
+                    }
+                }
+                break;
+            case "delete":
+                for (ResponseStatus.DeleteStatus s : ResponseStatus.DeleteStatus.values()) {
+                    if (s.toString().equals(line)) {
+                        return new DeleteCacheResult(s);
+                    }
+                }
+                break;
+            case "flush_all":
+                if (line.equals(ResponseStatus.FlushStatus.OK.toString())) {
+                    return new FlushAllCacheResult(ResponseStatus.FlushStatus.OK);
+                }
+                break;
+            case "client_tracking":
+                if (line.equals("OK")) {
+                    return new ClientTrackingCacheResult(((ClientTrackingCommand)c).isOn());
+                }
+                break;
+        }
+        return unexpected(c, line);
+    }
+
+    private static CacheResult unexpected(ApiCommand c, String response) {
+        logger.warn("unexpected response to "+c.getName()+": "+response);
+        return new ErrorResult(ErrorStatus.SERVER_ERROR, "unexpected response");
+    }
+}
@@ -0,0 +1,132 @@
+package net.seansitter.mcsvr.codec;
+
+import com.google.inject.name.Named;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.CharsetUtil;
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.domain.result.CacheResult;
+import net.seansitter.mcsvr.domain.result.GetCacheResult;
+import net.seansitter.mcsvr.domain.result.GetsCacheResult;
+
+import javax.inject.Inject;
+
+/**
+ * Writes large get responses one VALUE block at a time instead of encoding the whole response
+ * into a single buffer. Each block is the VALUE line followed by the item's payload wrapped,
+ * not copied, so the only bytes allocated are the VALUE lines. Blocks are written as ByteBufs,
+ * which pass through McTextEncoder untouched and count towards the channel's outbound buffer
+ * as soon as they are written, so the channel turns unwritable once the client falls behind
+ * and the caller waits before writing more.
+ *
+ * This must be called from the connection's command thread, never the event loop, since it
+ * blocks while the channel is unwritable.
+ */
+public class GetResponseStreamer {
+    private static final ByteBuf CRLF =
+            Unpooled.unreleasableBuffer(Unpooled.copiedBuffer("\r\n", CharsetUtil.UTF_8));
+    private static final ByteBuf END =
+            Unpooled.unreleasableBuffer(Unpooled.copiedBuffer("END\r\n", CharsetUtil.UTF_8));
+    private static final int FLUSH_BYTES = 64 * 1024; // flush at least this often so the first bytes go out early
+
+    private final int thresholdBytes; // responses with at least this many payload bytes are streamed, 0 disables
+    private final McTextEncoder format = new McTextEncoder(); // only used to format VALUE lines
+
+    @Inject
+    public GetResponseStreamer(@Named("getStreamThreshold") Integer thresholdBytes) {
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    /**
+     * @param result a command result
+     * @return true if the result is a get response big enough to be streamed, or has a chunked item
+     */
+    public boolean shouldStream(CacheResult result) {
+        if (thresholdBytes <= 0 || !(result instanceof GetCacheResult)) {
+            return false;
+        }
+        long bytes = 0;
+        for (CacheEntry<CacheValue> e : ((GetCacheResult)result).getCacheEntries()) {
+            bytes += e.getValue().getSize();
+            // a chunked item is always streamed, so it's never copied into one buffer
+            if (bytes >= thresholdBytes || e.getValue().isChunked()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the response block by block. Stops early if the channel closes. A small item is one
+     * block, a chunked item is written a chunk at a time so it is never held in one buffer either.
+     *
+     * @param ctx the command handler's context
+     * @param result the get or gets result
+     * @param awaitWritable blocks until the channel is writable or closed
+     */
+    public void stream(ChannelHandlerContext ctx, GetCacheResult result, Runnable awaitWritable) {
+        boolean withCas = result instanceof GetsCacheResult;
+        int unflushed = 0;
+        for (CacheEntry<CacheValue> e : result.getCacheEntries()) {
+            CacheValue v = e.getValue();
+            if (!ready(ctx, awaitWritable)) {
+                return;
+            }
+
+            ByteBuf line = ctx.alloc().buffer(64);
+            format.writeValueLine(e, withCas, line);
+            if (!v.isChunked()) {
+                unflushed += write(ctx, Unpooled.wrappedBuffer(line, Unpooled.wrappedBuffer(v.getPayload()),
+                        CRLF.duplicate()));
+            }
+            else {
+                unflushed += write(ctx, line);
+                byte[][] chunks = v.getChunks();
+                for (int i = 0; i < chunks.length; i++) {
+                    if (!ready(ctx, awaitWritable)) {
+                        return;
+                    }
+                    ByteBuf chunk = Unpooled.wrappedBuffer(chunks[i]);
+                    unflushed += write(ctx, i < chunks.length - 1 ? chunk :
+                            Unpooled.wrappedBuffer(chunk, CRLF.duplicate()));
+                    ctx.flush(); // chunks are large, send each one as it's written
+                    unflushed = 0;
+                }
+            }
+
+            if (unflushed >= FLUSH_BYTES) {
+                ctx.flush();
+                unflushed = 0;
+            }
+        }
+        ctx.writeAndFlush(END.duplicate());
+    }
+
+    /**
+     * Waits for the channel to be writable before the next block
+     *
+     * @return false if the response should be abandoned
+     */
+    private boolean ready(ChannelHandlerContext ctx, Runnable awaitWritable) {
+        if (!ctx.channel().isWritable()) {
+            ctx.flush();
+            awaitWritable.run();
+        }
+        if (!ctx.channel().isActive()) {
+            return false;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            ctx.close(); // the response can't be finished, the client would wait forever on END
+            return false;
+        }
+        return true;
+    }
+
+    private int write(ChannelHandlerContext ctx, ByteBuf block) {
+        int n = block.readableBytes();
+        ctx.write(block);
+        return n;
+    }
+}
@@ -7,6 +7,10 @@ public class McCodecUtil {
     public boolean hasPayload(String cmd) {
         return !(cmd.equalsIgnoreCase("get") ||
                 cmd.equalsIgnoreCase("gets") ||
-                cmd.equalsIgnoreCase("delete"));
+                cmd.equalsIgnoreCase("lget") ||
+                cmd.equalsIgnoreCase("delete") ||
+                cmd.equalsIgnoreCase("flush_all") ||
+                cmd.equalsIgnoreCase("stats") ||
+                cmd.equalsIgnoreCase("client_tracking"));
     }
 }
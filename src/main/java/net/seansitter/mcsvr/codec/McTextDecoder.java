@@ -6,14 +6,19 @@ import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.DecoderException;
 import net.seansitter.mcsvr.McServer;
 import net.seansitter.mcsvr.domain.command.ApiCommand;
+import net.seansitter.mcsvr.domain.command.ClientTrackingCommand;
 import net.seansitter.mcsvr.domain.command.DeleteCommand;
+import net.seansitter.mcsvr.domain.command.FlushAllCommand;
 import net.seansitter.mcsvr.domain.command.GetCommand;
+import net.seansitter.mcsvr.domain.command.StatsCommand;
 import net.seansitter.mcsvr.domain.command.StoreCommand;
+import net.seansitter.mcsvr.exception.ClientException;
 import net.seansitter.mcsvr.exception.InvalidCommandException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import java.nio.charset.Charset;
 import java.util.List;
 
@@ -29,16 +34,38 @@ import java.util.List;
  * <data>
  * Delete:
  * delete <key> [noreply]\r\n
+ * Flush:
+ * flush_all [delay] [noreply]\r\n
+ * Stats:
+ * stats [group]\r\n
+ * Client tracking:
+ * client_tracking on|off\r\n
+ * Leases:
+ * lget <key>\r\n
+ * lset <key> <flags> <exptime> <bytes> <lease token> [noreply]\r\n
+ * <data>
+ *
+ * Payloads larger than the item chunk size are copied into fixed size chunks as their bytes
+ * arrive, rather than waiting for the whole payload to accumulate in the input buffer and then
+ * copying it into one array.
  */
 public class McTextDecoder extends ByteToMessageDecoder {
     private final Logger logger = LoggerFactory.getLogger(McTextDecoder.class);
 
     private Object[] cmdLineObjs = null;
     private final McCodecUtil codecUtil;
+    private final int chunkSize; // payloads larger than this are chunked, 0 disables
+    private byte[][] chunks = null; // the chunks of the payload being received
+    private int chunkedBytes = 0; // payload bytes received into chunks so far
 
-    @Inject
     public McTextDecoder(McCodecUtil codecUtil) {
+        this(codecUtil, 0);
+    }
+
+    @Inject
+    public McTextDecoder(McCodecUtil codecUtil, @Named("itemChunkSize") Integer chunkSize) {
         this.codecUtil = new McCodecUtil();
+        this.chunkSize = chunkSize;
     }
 
     @Override
@@ -77,18 +104,22 @@ public class McTextDecoder extends ByteToMessageDecoder {
 
             // if our command is retrieval we don't expect a payload so we're done
             if (!codecUtil.hasPayload((String)cmdLineObjs[0])) {
-                ApiCommand cmd = cmdLineObjsToCmd(this.cmdLineObjs, null);
+                ApiCommand cmd = cmdLineObjsToCmd(this.cmdLineObjs, null, null);
                 reset();
                 return cmd;
             }
         }
 
         int byteLen = ((Integer)cmdLineObjs[4]).intValue();
+        if (chunkSize > 0 && byteLen > chunkSize) {
+            return decodeChunked(in, byteLen);
+        }
+
         if (in.isReadable() && (in.readableBytes() >= byteLen + 2)) {
             byte[] payload = new byte[byteLen];
             // TODO - this is causing a memory leak
             in.readSlice(byteLen).getBytes(0, payload);
-            ApiCommand cmd = cmdLineObjsToCmd(cmdLineObjs, payload);
+            ApiCommand cmd = cmdLineObjsToCmd(cmdLineObjs, payload, null);
 
             in.readSlice(2); // advance past \r\n
             reset();
@@ -98,6 +129,40 @@ public class McTextDecoder extends ByteToMessageDecoder {
         return null;
     }
 
+    /**
+     * Copies whatever part of a large payload has arrived into its chunks, so the input buffer
+     * never has to hold the whole payload
+     *
+     * @param in
+     * @param byteLen the payload length
+     * @return the command once the payload and trailing crlf have been read, otherwise null
+     */
+    private Object decodeChunked(ByteBuf in, int byteLen) {
+        if (null == chunks) {
+            chunks = new byte[(byteLen + chunkSize - 1) / chunkSize][];
+        }
+
+        while (chunkedBytes < byteLen && in.isReadable()) {
+            int idx = chunkedBytes / chunkSize;
+            int off = chunkedBytes % chunkSize;
+            if (null == chunks[idx]) {
+                chunks[idx] = new byte[Math.min(chunkSize, byteLen - idx * chunkSize)];
+            }
+            int n = Math.min(in.readableBytes(), chunks[idx].length - off);
+            in.readBytes(chunks[idx], off, n);
+            chunkedBytes += n;
+        }
+
+        if (chunkedBytes < byteLen || in.readableBytes() < 2) {
+            return null;
+        }
+
+        ApiCommand cmd = cmdLineObjsToCmd(cmdLineObjs, null, chunks);
+        in.skipBytes(2); // advance past \r\n
+        reset();
+        return cmd;
+    }
+
     /**
      * Parses a single command text line
      *
@@ -126,11 +191,31 @@ public class McTextDecoder extends ByteToMessageDecoder {
         in.readSlice(2);
 
         String[] cmdParts = cmdLine.split(" ");
+        String cmd = cmdParts[0];
+
+        // flush_all and stats are the only commands which may have no arguments
+        if (cmd.equalsIgnoreCase("flush_all")) {
+            if (cmdParts.length > 3) {
+                throw new DecoderException("'flush_all' command expects at most a delay and noreply");
+            }
+            for (int i = 1; i < cmdParts.length; i++) {
+                if (!cmdParts[i].equalsIgnoreCase("noreply")) {
+                    toFlushDelay(cmdParts[i]);
+                }
+            }
+            return cmdParts;
+        }
+        if (cmd.equalsIgnoreCase("stats")) {
+            if (cmdParts.length > 2) {
+                throw new DecoderException("'stats' command expects at most 1 group");
+            }
+            return cmdParts;
+        }
+
         if (cmdParts.length < 2) {
             throw new DecoderException("Invalid text line");
         }
 
-        String cmd = cmdParts[0];
         // if we have a retrieval / delete command, we are done
         if(cmd.equalsIgnoreCase("get") || cmd.equalsIgnoreCase("gets")) {
             if (cmdParts.length < 2) {
@@ -144,8 +229,21 @@ public class McTextDecoder extends ByteToMessageDecoder {
             }
             return cmdParts;
         }
-        else if (cmd.equalsIgnoreCase("cas")) {
-            return toCasArr(cmdParts);
+        else if (cmd.equalsIgnoreCase("lget")) {
+            if (cmdParts.length != 2) {
+                throw new DecoderException("'lget' command expects 1 key");
+            }
+            return cmdParts;
+        }
+        else if (cmd.equalsIgnoreCase("client_tracking")) {
+            if (cmdParts.length != 2 ||
+                    !(cmdParts[1].equalsIgnoreCase("on") || cmdParts[1].equalsIgnoreCase("off"))) {
+                throw new DecoderException("'client_tracking' command expects on or off");
+            }
+            return cmdParts;
+        }
+        else if (cmd.equalsIgnoreCase("cas") || cmd.equalsIgnoreCase("lset")) {
+            return toCasArr(cmdParts); // the lease token takes the place of the cas unique
         }
         else if (cmd.equalsIgnoreCase("set")){
             return toStoreArr(cmdParts);
@@ -160,6 +258,27 @@ public class McTextDecoder extends ByteToMessageDecoder {
      */
     private void reset() {
         cmdLineObjs = null;
+        chunks = null;
+        chunkedBytes = 0;
+    }
+
+    /**
+     * Parses a flush_all delay, a bad delay is the client's error
+     *
+     * @param arg
+     * @return the delay in seconds
+     */
+    private long toFlushDelay(String arg) {
+        try {
+            long delay = Long.parseLong(arg);
+            if (delay >= 0) {
+                return delay;
+            }
+        }
+        catch (NumberFormatException e) {
+            // not a number, same error as negative
+        }
+        throw new ClientException("bad flush_all delay: "+arg);
     }
 
     /**
@@ -206,12 +325,13 @@ public class McTextDecoder extends ByteToMessageDecoder {
      *
      * @param cmdLineObjs
      * @param payload
+     * @param chunks the payload of a large item, in which case payload is null
      * @return
      */
-    private ApiCommand cmdLineObjsToCmd(Object[] cmdLineObjs, byte[] payload) {
+    private ApiCommand cmdLineObjsToCmd(Object[] cmdLineObjs, byte[] payload, byte[][] chunks) {
         String cmd = (String)cmdLineObjs[0];
 
-        if (cmd.equalsIgnoreCase("get") || cmd.equalsIgnoreCase("gets")) {
+        if (cmd.equalsIgnoreCase("get") || cmd.equalsIgnoreCase("gets") || cmd.equalsIgnoreCase("lget")) {
             GetCommand.Builder b = GetCommand.newBuilder();
                     b.withName(cmd.toLowerCase());
             for (int i = 1; i < cmdLineObjs.length; i++) { // more efficent - avoid creating extra lists
@@ -237,19 +357,46 @@ public class McTextDecoder extends ByteToMessageDecoder {
                     .withExpTime((Long)cmdLineObjs[3])
                     .withIsNoReploy(isNoReply)
                     .withPayload(payload)
+                    .withChunks(chunks)
                     .build();
         }
-        if (cmd.equalsIgnoreCase("cas")) {
+        if (cmd.equalsIgnoreCase("cas") || cmd.equalsIgnoreCase("lset")) {
             boolean isNoReply = (cmdLineObjs.length == 7 && ((String)cmdLineObjs[6]).equalsIgnoreCase("noreply"));
 
             return StoreCommand.newBuilder()
-                    .withName("cas")
+                    .withName(cmd.toLowerCase())
                     .withKey((String)cmdLineObjs[1])
                     .withFlags((Integer)cmdLineObjs[2])
                     .withExpTime((Long)cmdLineObjs[3])
                     .withIsNoReploy(isNoReply)
                     .withCasUnique((Long)cmdLineObjs[5])
                     .withPayload(payload)
+                    .withChunks(chunks)
+                    .build();
+        }
+        if (cmd.equalsIgnoreCase("flush_all")) {
+            FlushAllCommand.Builder b = FlushAllCommand.newBuilder();
+            for (int i = 1; i < cmdLineObjs.length; i++) {
+                String arg = (String)cmdLineObjs[i];
+                if (arg.equalsIgnoreCase("noreply")) {
+                    b.withIsNoReply(true);
+                }
+                else {
+                    b.withDelay(toFlushDelay(arg));
+                }
+            }
+            return b.build();
+        }
+        if (cmd.equalsIgnoreCase("stats")) {
+            StatsCommand.Builder b = StatsCommand.newBuilder();
+            if (cmdLineObjs.length == 2) {
+                b.withGroup(((String)cmdLineObjs[1]).toLowerCase());
+            }
+            return b.build();
+        }
+        if (cmd.equalsIgnoreCase("client_tracking")) {
+            return ClientTrackingCommand.newBuilder()
+                    .withOn(((String)cmdLineObjs[1]).equalsIgnoreCase("on"))
                     .build();
         }
         return null;
@@ -5,9 +5,12 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 import net.seansitter.mcsvr.cache.CacheEntry;
 import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.LeaseResult;
 import net.seansitter.mcsvr.domain.result.CacheResult;
 import net.seansitter.mcsvr.domain.result.GetCacheResult;
 import net.seansitter.mcsvr.domain.result.GetsCacheResult;
+import net.seansitter.mcsvr.domain.result.LeaseGetCacheResult;
+import net.seansitter.mcsvr.domain.result.StatsCacheResult;
 import net.seansitter.mcsvr.domain.result.StatusCacheResult;
 
 import java.nio.charset.Charset;
@@ -32,6 +35,12 @@ public class McTextEncoder extends MessageToByteEncoder<CacheResult> {
         else if (msg instanceof StatusCacheResult) {
             writeStatusCacheResult((StatusCacheResult)msg, out);
         }
+        else if (msg instanceof StatsCacheResult) {
+            writeStatsCacheResult((StatsCacheResult)msg, out);
+        }
+        else if (msg instanceof LeaseGetCacheResult) {
+            writeLeaseGetCacheResult((LeaseGetCacheResult)msg, out);
+        }
     }
 
     protected void writeGetCacheResult(GetCacheResult r, ByteBuf out) {
@@ -45,27 +54,78 @@ public class McTextEncoder extends MessageToByteEncoder<CacheResult> {
     }
 
     protected void writeGetCacheEntry(CacheEntry cacheEntry, ByteBuf out) {
-        writeCacheValue(cacheEntry, out);
-        writeCrlf(out);
+        writeValueLine(cacheEntry, false, out);
         writeCachePayload(cacheEntry, out);
         writeCrlf(out);
     }
 
     protected void writeGetsCacheEntry(CacheEntry<CacheValue> cacheEntry, ByteBuf out) {
-        writeCacheValue(cacheEntry, out);
-        writeString(String.format(" %d", cacheEntry.getValue().getCasUnique()), out);
-        writeCrlf(out);
+        writeValueLine(cacheEntry, true, out);
         writeCachePayload(cacheEntry, out);
         writeCrlf(out);
     }
 
+    /**
+     * Writes the VALUE line that precedes an item's payload, including the crlf
+     *
+     * @param cacheEntry
+     * @param withCas true for gets, which adds the cas unique value
+     * @param out
+     */
+    protected void writeValueLine(CacheEntry<CacheValue> cacheEntry, boolean withCas, ByteBuf out) {
+        writeCacheValue(cacheEntry, out);
+        if (withCas) {
+            writeString(String.format(" %d", cacheEntry.getValue().getCasUnique()), out);
+        }
+        writeCrlf(out);
+    }
+
     protected void writeCacheValue(CacheEntry<CacheValue> cacheEntry, ByteBuf out) {
         CacheValue v = cacheEntry.getValue();
         writeString(String.format("VALUE %s %d %d", cacheEntry.getKey(), v.getFlag(), v.getSize()), out);
     }
 
     protected void writeCachePayload(CacheEntry<CacheValue> cacheEntry, ByteBuf out) {
-        out.writeBytes(cacheEntry.getValue().getPayload());
+        CacheValue v = cacheEntry.getValue();
+        if (v.isChunked()) {
+            for (byte[] chunk : v.getChunks()) {
+                out.writeBytes(chunk);
+            }
+        }
+        else {
+            out.writeBytes(v.getPayload());
+        }
+    }
+
+    /**
+     * A hit is written like a get. Otherwise one of:
+     * LEASE <key> <lease token>
+     * WAIT <key>
+     * STALE <key> <flags> <bytes>, then the payload
+     */
+    protected void writeLeaseGetCacheResult(LeaseGetCacheResult r, ByteBuf out) {
+        LeaseResult lease = r.getLease();
+        switch (lease.getStatus()) {
+            case HIT:
+                writeGetCacheEntry(lease.getEntry(), out);
+                break;
+            case LEASED:
+                writeString("LEASE "+r.getKey()+" "+lease.getToken(), out);
+                writeCrlf(out);
+                break;
+            case WAIT:
+                writeString("WAIT "+r.getKey(), out);
+                writeCrlf(out);
+                break;
+            case STALE:
+                CacheValue v = lease.getEntry().getValue();
+                writeString(String.format("STALE %s %d %d", r.getKey(), v.getFlag(), v.getSize()), out);
+                writeCrlf(out);
+                writeCachePayload(lease.getEntry(), out);
+                writeCrlf(out);
+                break;
+        }
+        writeEnd(out);
     }
 
     protected void writeStatusCacheResult(StatusCacheResult r, ByteBuf out) {
@@ -73,6 +133,14 @@ public class McTextEncoder extends MessageToByteEncoder<CacheResult> {
         writeCrlf(out);
     }
 
+    protected void writeStatsCacheResult(StatsCacheResult r, ByteBuf out) {
+        r.getStats().forEach((k, v) -> {
+            writeString("STAT "+k+" "+v, out);
+            writeCrlf(out);
+        });
+        writeEnd(out);
+    }
+
     protected void writeEnd(ByteBuf out) {
         writeString("END", out);
         writeCrlf(out);
@@ -0,0 +1,202 @@
+package net.seansitter.mcsvr.compress;
+
+/**
+ * A pure java compressor for the LZ4 block format. It is the fast greedy variant: a single hash
+ * table of the last position each 4 byte sequence was seen, no match chains. Output can be read by
+ * any LZ4 block decoder, so clients that opt in can decompress values themselves.
+ *
+ * Block format, a series of sequences:
+ * token (literal length:4 | match length - 4:4), [literal length bytes], literals,
+ * offset (2 bytes little endian), [match length bytes]
+ * The last sequence has only literals. Lengths of 15 or more continue in bytes of 255 until
+ * a byte below 255.
+ */
+public final class Lz4Codec {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5; // the last 5 bytes are always literals
+    private static final int MF_LIMIT = 12; // the last match must start at least 12 bytes before the end
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6; // step faster through data that isn't matching
+
+    private Lz4Codec() {}
+
+    /**
+     * @param len uncompressed length
+     * @return the largest compressed length possible for len bytes
+     */
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /**
+     * @param src
+     * @return the src compressed into a new array of exactly the compressed length
+     */
+    public static byte[] compress(byte[] src) {
+        byte[] dst = new byte[maxCompressedLength(src.length)];
+        int n = compress(src, dst);
+        byte[] out = new byte[n];
+        System.arraycopy(dst, 0, out, 0, n);
+        return out;
+    }
+
+    /**
+     * @param src
+     * @param dst at least maxCompressedLength(src.length) bytes
+     * @return the compressed length
+     */
+    public static int compress(byte[] src, byte[] dst) {
+        return compress(src, src.length, dst);
+    }
+
+    /**
+     * @param src
+     * @param srcLen compresses only the first srcLen bytes of src
+     * @param dst at least maxCompressedLength(srcLen) bytes
+     * @return the compressed length
+     */
+    public static int compress(byte[] src, int srcLen, byte[] dst) {
+        int anchor = 0; // start of the pending literals
+        int op = 0;
+
+        if (srcLen > MF_LIMIT) {
+            int[] table = new int[1 << HASH_LOG]; // position + 1 of the last occurrence, 0 if none
+            int limit = srcLen - MF_LIMIT;
+            int matchLimit = srcLen - LAST_LITERALS;
+            int ip = 0;
+            while (ip < limit) {
+                int seq = readInt(src, ip);
+                int h = hash(seq);
+                int ref = table[h] - 1;
+                table[h] = ip + 1;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                    ip += 1 + ((ip - anchor) >>> SKIP_TRIGGER);
+                    continue;
+                }
+
+                // extend the match backwards into the pending literals
+                while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLen = MIN_MATCH;
+                while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op);
+                ip += matchLen;
+                anchor = ip;
+            }
+        }
+
+        // whatever is left is the final literals only sequence
+        int litLen = srcLen - anchor;
+        int token = op++;
+        dst[token] = (byte)(Math.min(litLen, 15) << 4);
+        op = writeLength(litLen, dst, op);
+        System.arraycopy(src, anchor, dst, op, litLen);
+        return op + litLen;
+    }
+
+    /**
+     * @param src an LZ4 block
+     * @param rawLen the uncompressed length
+     * @return the uncompressed bytes
+     * @throws IllegalArgumentException if src is not a valid block of rawLen bytes
+     */
+    public static byte[] decompress(byte[] src, int rawLen) {
+        byte[] dst = new byte[rawLen];
+        int ip = 0;
+        int op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xff;
+                int litLen = token >>> 4;
+                if (litLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, litLen);
+                ip += litLen;
+                op += litLen;
+                if (ip >= src.length) {
+                    break; // the last sequence has no match
+                }
+
+                int offset = (src[ip++] & 0xff) | ((src[ip++] & 0xff) << 8);
+                int matchLen = token & 0xf;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+
+                int ref = op - offset;
+                if (offset == 0 || ref < 0 || op + matchLen > rawLen) {
+                    throw new IllegalArgumentException("malformed lz4 block at " + ip);
+                }
+                if (offset >= matchLen) {
+                    System.arraycopy(dst, ref, dst, op, matchLen);
+                }
+                else {
+                    // the match overlaps what it is copying, a short repeating pattern
+                    for (int i = 0; i < matchLen; i++) {
+                        dst[op + i] = dst[ref + i];
+                    }
+                }
+                op += matchLen;
+            }
+        }
+        catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("malformed lz4 block", e);
+        }
+
+        if (op != rawLen) {
+            throw new IllegalArgumentException("lz4 block is " + op + " bytes, expected " + rawLen);
+        }
+        return dst;
+    }
+
+    private static int writeSequence(byte[] src, int litStart, int litLen, int offset, int matchLen,
+                                     byte[] dst, int op) {
+        int token = op++;
+        int ml = matchLen - MIN_MATCH;
+        dst[token] = (byte)((Math.min(litLen, 15) << 4) | Math.min(ml, 15));
+        op = writeLength(litLen, dst, op);
+        System.arraycopy(src, litStart, dst, op, litLen);
+        op += litLen;
+        dst[op++] = (byte)offset;
+        dst[op++] = (byte)(offset >>> 8);
+        return writeLength(ml, dst, op);
+    }
+
+    // the continuation bytes of a length that didn't fit in its token nibble
+    private static int writeLength(int len, byte[] dst, int op) {
+        if (len < 15) {
+            return op;
+        }
+        len -= 15;
+        while (len >= 255) {
+            dst[op++] = (byte)255;
+            len -= 255;
+        }
+        dst[op++] = (byte)len;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
@@ -0,0 +1,175 @@
+package net.seansitter.mcsvr.compress;
+
+import com.google.inject.name.Named;
+
+import javax.inject.Inject;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides per item whether a value is stored compressed, and keeps the counters needed to weigh
+ * the memory saved against the cpu spent.
+ *
+ * Values of at least threshold bytes are compressed with LZ4, and the compressed bytes are kept
+ * only if they are at least minRatio times smaller. Incompressible traffic (already compressed
+ * images, say) would otherwise pay for a compression on every set, so the success rate of recent
+ * attempts is checked every WINDOW attempts, and while fewer than 1 in 10 succeed only 1 in
+ * BACKOFF_SAMPLE candidates is tried.
+ *
+ * A client that can decompress LZ4 itself marks its items with the passthrough flag bit. Those
+ * items are returned compressed with the bit set, and if the server doesn't compress one the bit
+ * is cleared, so the bit on a returned item always says whether its payload is compressed.
+ */
+public class ValueCompressor {
+    private static final int WINDOW = 1024;
+    private static final int BACKOFF_SAMPLE = 16;
+    private static final double MIN_SUCCESS_RATE = 0.1;
+
+    private final int threshold; // smallest value that is compressed, 0 disables compression
+    private final double minRatio; // raw / compressed size needed to keep the compressed bytes
+    private final long passthroughFlag; // flag bit of clients that decompress themselves, 0 for none
+
+    private final AtomicLong windowAttempts = new AtomicLong();
+    private final AtomicLong windowSuccesses = new AtomicLong();
+    private volatile boolean backedOff = false;
+
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder(); // raw size of compressed items
+    private final LongAdder compressedBytes = new LongAdder(); // stored size of compressed items
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressions = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+    private final LongAdder passthroughs = new LongAdder();
+
+    @Inject
+    public ValueCompressor(@Named("compressThreshold") Integer threshold,
+                           @Named("compressMinRatio") Double minRatio,
+                           @Named("compressFlag") Integer passthroughFlag) {
+        this.threshold = threshold;
+        this.minRatio = minRatio;
+        this.passthroughFlag = passthroughFlag;
+    }
+
+    public boolean isEnabled() {
+        return threshold > 0;
+    }
+
+    /**
+     * @param value the raw value of a set or cas
+     * @return the compressed value, or null if the value should be stored raw
+     */
+    public byte[] compress(byte[] value) {
+        if (!isEnabled() || value.length < threshold) {
+            return null;
+        }
+        if (backedOff && ThreadLocalRandom.current().nextInt(BACKOFF_SAMPLE) != 0) {
+            skipped.increment();
+            return null;
+        }
+
+        long start = System.nanoTime();
+        byte[] c = Lz4Codec.compress(value);
+        compressNanos.add(System.nanoTime() - start);
+        attempts.increment();
+
+        boolean keep = c.length * minRatio <= value.length;
+        if (keep) {
+            compressed.increment();
+            rawBytes.add(value.length);
+            compressedBytes.add(c.length);
+        }
+        observe(keep);
+        return keep ? c : null;
+    }
+
+    /**
+     * @param flag the item's flag as set by the client
+     * @param isCompressed whether the item is stored compressed
+     * @return the flag to store, the passthrough bit is cleared unless the item is compressed
+     */
+    public long storedFlag(long flag, boolean isCompressed) {
+        return isCompressed ? flag : flag & ~passthroughFlag;
+    }
+
+    /**
+     * @param flag a stored item's flag
+     * @return true if the item is returned to the client still compressed
+     */
+    public boolean isPassthrough(long flag) {
+        return passthroughFlag != 0 && (flag & passthroughFlag) != 0;
+    }
+
+    /**
+     * Decompresses a stored value for a get
+     */
+    public byte[] decompress(byte[] value, int rawSize) {
+        long start = System.nanoTime();
+        byte[] raw = Lz4Codec.decompress(value, rawSize);
+        decompressNanos.add(System.nanoTime() - start);
+        decompressions.increment();
+        return raw;
+    }
+
+    // a compressed item returned without decompressing it
+    public void passthrough() {
+        passthroughs.increment();
+    }
+
+    private void observe(boolean success) {
+        if (success) {
+            windowSuccesses.incrementAndGet();
+        }
+        if (windowAttempts.incrementAndGet() % WINDOW == 0) {
+            // racy against concurrent attempts, which only blurs the window edge
+            long s = windowSuccesses.getAndSet(0);
+            backedOff = s < WINDOW * MIN_SUCCESS_RATE;
+        }
+    }
+
+    public boolean isBackedOff() {
+        return backedOff;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    public long getCompressed() {
+        return compressed.sum();
+    }
+
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    public long getDecompressions() {
+        return decompressions.sum();
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+
+    public long getPassthroughs() {
+        return passthroughs.sum();
+    }
+}
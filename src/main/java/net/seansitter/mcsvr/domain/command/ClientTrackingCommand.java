@@ -0,0 +1,51 @@
+package net.seansitter.mcsvr.domain.command;
+
+/**
+ * Represents a client_tracking text command, which turns invalidation pushes for the keys the
+ * connection reads on or off
+ */
+public class ClientTrackingCommand implements ApiCommand {
+    public static final String name = "client_tracking";
+
+    private final boolean on;
+
+    private ClientTrackingCommand(boolean on) {
+        this.on = on;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public boolean isOn() {
+        return on;
+    }
+
+    @Override
+    public boolean isNoReply() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return name+" "+(on ? "on" : "off");
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private boolean on = true;
+
+        public Builder withOn(boolean on) {
+            this.on = on;
+            return this;
+        }
+
+        public ClientTrackingCommand build() {
+            return new ClientTrackingCommand(on);
+        }
+    }
+}
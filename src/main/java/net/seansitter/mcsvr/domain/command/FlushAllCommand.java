@@ -0,0 +1,58 @@
+package net.seansitter.mcsvr.domain.command;
+
+/**
+ * Represents a flush_all text command
+ */
+public class FlushAllCommand implements ApiCommand {
+    public static final String name = "flush_all";
+
+    private final long delay;
+    private final boolean isNoReply;
+
+    private FlushAllCommand(long delay, boolean isNoReply) {
+        this.delay = delay;
+        this.isNoReply = isNoReply;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    @Override
+    public boolean isNoReply() {
+        return isNoReply;
+    }
+
+    @Override
+    public String toString() {
+        return name+" "+delay;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private long delay = 0;
+        private boolean isNoReply = false;
+
+        public Builder withDelay(long delay) {
+            this.delay = delay;
+            return this;
+        }
+
+        public Builder withIsNoReply(boolean isNoReply) {
+            this.isNoReply = isNoReply;
+            return this;
+        }
+
+        public FlushAllCommand build() {
+            return new FlushAllCommand(delay, isNoReply);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package net.seansitter.mcsvr.domain.command;
+
+/**
+ * Represents a stats text command
+ */
+public class StatsCommand implements ApiCommand {
+    public static final String name = "stats";
+
+    private final String group;
+
+    private StatsCommand(String group) {
+        this.group = group;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the stats sub command (items, slabs, ...), empty for general stats
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    @Override
+    public boolean isNoReply() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return group.isEmpty() ? name : name+" "+group;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private String group = "";
+
+        public Builder withGroup(String group) {
+            this.group = group;
+            return this;
+        }
+
+        public StatsCommand build() {
+            return new StatsCommand(group);
+        }
+    }
+}
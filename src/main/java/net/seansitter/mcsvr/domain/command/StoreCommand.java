@@ -1,27 +1,32 @@
 package net.seansitter.mcsvr.domain.command;
 
+import net.seansitter.mcsvr.cache.CacheValue;
+
 /**
- * Represents a set/cas text command
+ * Represents a set/cas/lset text command
  */
 public class StoreCommand implements ApiCommand {
     private final String name;
     private final String key;
-    private final byte[] payload;
+    private final byte[] payload; // null if the payload was decoded into chunks
+    private final byte[][] chunks; // a large payload in fixed size chunks, or null
     private final int payloadLen;
     private final int flags; // protocol requires 16 bit unsigned, unsigned not available in java < 8
     private final long expTime;
-    private final long casUnique;
+    private final long casUnique; // the cas unique of a cas, or the lease token of an lset
     private final boolean isNoReply;
 
-    private StoreCommand(String name, String key, int flags, long expTime, long casUnique, boolean isNoReply, byte[] payload) {
+    private StoreCommand(String name, String key, int flags, long expTime, long casUnique, boolean isNoReply,
+                         byte[] payload, byte[][] chunks) {
         this.name = name;
         this.key = key;
-        this.payloadLen = payload.length;
+        this.payloadLen = null != chunks ? CacheValue.sizeOf(chunks) : payload.length;
         this.flags = flags;
         this.expTime = expTime;
         this.casUnique = casUnique;
         this.isNoReply = isNoReply;
         this.payload = payload;
+        this.chunks = chunks;
     }
 
     @Override
@@ -37,6 +42,14 @@ public class StoreCommand implements ApiCommand {
         return payload;
     }
 
+    public boolean isChunked() {
+        return null != chunks;
+    }
+
+    public byte[][] getChunks() {
+        return chunks;
+    }
+
     public int getPayloadLen() {
         return payloadLen;
     }
@@ -65,7 +78,7 @@ public class StoreCommand implements ApiCommand {
         sb.append(" "+flags);
         sb.append(" "+expTime);
         sb.append(" "+payloadLen);
-        if (name.equals("cas")) {
+        if (name.equals("cas") || name.equals("lset")) {
             sb.append(" "+casUnique);
         }
         if (isNoReply) {
@@ -82,6 +95,7 @@ public class StoreCommand implements ApiCommand {
         private String name;
         private String key;
         private byte[] payload; // treat this as effectively immutable, avoid copy
+        private byte[][] chunks;
         private int flags = 0; // protocol requires 16 bit unsigned, unsigned not available in java < 8
         private long expTime = 0;
         private long casUnique = 0;
@@ -102,6 +116,11 @@ public class StoreCommand implements ApiCommand {
             return this;
         }
 
+        public Builder withChunks(byte[][] chunks) {
+            this.chunks = chunks;
+            return this;
+        }
+
         public Builder withFlags(int flags) {
             this.flags = flags;
             return this;
@@ -123,7 +142,7 @@ public class StoreCommand implements ApiCommand {
         }
 
         public StoreCommand build() {
-            return new StoreCommand(name, key, flags, expTime, casUnique, isNoReply, payload);
+            return new StoreCommand(name, key, flags, expTime, casUnique, isNoReply, payload, chunks);
         }
     }
 }
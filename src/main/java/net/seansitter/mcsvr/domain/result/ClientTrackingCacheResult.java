@@ -0,0 +1,23 @@
+package net.seansitter.mcsvr.domain.result;
+
+public class ClientTrackingCacheResult implements StatusCacheResult {
+    private final boolean on;
+
+    public ClientTrackingCacheResult(boolean on) {
+        this.on = on;
+    }
+
+    public boolean isOn() {
+        return on;
+    }
+
+    @Override
+    public String getStatusString() {
+        return "OK";
+    }
+
+    @Override
+    public String toString() {
+        return "client_tracking: "+(on ? "on" : "off");
+    }
+}
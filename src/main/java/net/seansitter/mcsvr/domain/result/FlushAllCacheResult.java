@@ -0,0 +1,25 @@
+package net.seansitter.mcsvr.domain.result;
+
+import net.seansitter.mcsvr.cache.ResponseStatus;
+
+public class FlushAllCacheResult implements StatusCacheResult {
+    private final ResponseStatus.FlushStatus status;
+
+    public FlushAllCacheResult(ResponseStatus.FlushStatus status) {
+        this.status = status;
+    }
+
+    public ResponseStatus.FlushStatus getStatus() {
+        return status;
+    }
+
+    @Override
+    public String getStatusString() {
+        return status.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "flush_all: "+status.toString();
+    }
+}
@@ -0,0 +1,26 @@
+package net.seansitter.mcsvr.domain.result;
+
+/**
+ * An invalidation pushed to a connection with client tracking on, not the response to a command
+ */
+public class InvalidateResult implements StatusCacheResult {
+    private final String key; // null for all keys
+
+    public InvalidateResult(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public String getStatusString() {
+        return null == key ? "INVALIDATE_ALL" : "INVALIDATE "+key;
+    }
+
+    @Override
+    public String toString() {
+        return getStatusString();
+    }
+}
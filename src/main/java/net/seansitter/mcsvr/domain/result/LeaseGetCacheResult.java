@@ -0,0 +1,29 @@
+package net.seansitter.mcsvr.domain.result;
+
+import net.seansitter.mcsvr.cache.LeaseResult;
+
+/**
+ * The response to an lget: the hit, the lease token, a wait, or a stale value
+ */
+public class LeaseGetCacheResult implements CacheResult {
+    private final String key;
+    private final LeaseResult lease;
+
+    public LeaseGetCacheResult(String key, LeaseResult lease) {
+        this.key = key;
+        this.lease = lease;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public LeaseResult getLease() {
+        return lease;
+    }
+
+    @Override
+    public String toString() {
+        return "lget "+key+": "+lease;
+    }
+}
@@ -0,0 +1,20 @@
+package net.seansitter.mcsvr.domain.result;
+
+import java.util.Map;
+
+public class StatsCacheResult implements CacheResult {
+    private final Map<String, String> stats;
+
+    public StatsCacheResult(Map<String, String> stats) {
+        this.stats = stats;
+    }
+
+    public Map<String, String> getStats() {
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "stats: "+stats.size()+" values";
+    }
+}
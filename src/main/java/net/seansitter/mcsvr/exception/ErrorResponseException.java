@@ -0,0 +1,17 @@
+package net.seansitter.mcsvr.exception;
+
+/**
+ * Exception class completing a client's request when the server answers it with an error
+ */
+public class ErrorResponseException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param response the server's error line, ex SERVER_ERROR out of memory
+     */
+    public ErrorResponseException(String response) {
+        super(response);
+    }
+}
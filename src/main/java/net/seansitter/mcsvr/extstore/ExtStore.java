@@ -0,0 +1,601 @@
+package net.seansitter.mcsvr.extstore;
+
+import net.seansitter.mcsvr.cache.CacheUtil;
+import net.seansitter.mcsvr.cache.CacheValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A second tier for items evicted from memory, in the style of memcached's extstore. Evicted values
+ * are appended to a log of segment files in a local directory, and only the key and a pointer to its
+ * record stay in memory. Records are read back with positional reads, so reads never contend with
+ * the appender or each other.
+ *
+ * An eviction is staged first, under the cache's write lock, with the value itself as the pointer.
+ * The record is then written outside the lock and the pointer swapped in only if it is still the
+ * staged one, so a set or delete that lands in between is never undone by the write.
+ *
+ * Segments fill up to segmentBytes. A background task rewrites the live records of segments that
+ * are mostly dead (deleted, replaced, promoted or expired) into the active segment and deletes the
+ * old file. When the log passes maxBytes the oldest segment is dropped with its items.
+ *
+ * The log does not survive a restart, leftover segments are deleted on start.
+ *
+ * Record: magic, key length, value length, chunk size (0 if not chunked), raw size (-1 if not
+ * compressed), flag, created at, expires at, cas unique, key bytes, value bytes
+ */
+public class ExtStore {
+    private static final Logger logger = LoggerFactory.getLogger(ExtStore.class);
+
+    static final int MAGIC = 0x4d435831; // MCX1
+    static final int HEADER_BYTES = 5 * 4 + 4 * 8;
+    private static final String SEGMENT_PREFIX = "extstore.";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int COMPACT_INTERVAL_S = 10;
+    private static final double COMPACT_LIVE_RATIO = 0.5; // segments with less live data than this are compacted
+
+    private final String dir;
+    private final long maxBytes;
+    private final int segmentBytes;
+    private final boolean promote;
+
+    private final Map<String, Slot> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>(); // oldest first
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private volatile Segment active; // written under the append lock
+    private int nextSegmentId = 0; // guarded by the append lock
+    private volatile long flushCas = 0; // records with a cas unique at or below this were flushed
+    private ScheduledExecutorService compactor;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder writeBytes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder readErrors = new LongAdder();
+    private final LongAdder promotions = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+    private final LongAdder compactedItems = new LongAdder();
+    private final LongAdder droppedItems = new LongAdder();
+
+    @Inject
+    public ExtStore(@Named("extStorePath") String dir,
+                    @Named("extStoreBytes") long maxBytes,
+                    @Named("extSegmentBytes") int segmentBytes,
+                    @Named("extPromote") boolean promote) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        this.promote = promote;
+    }
+
+    public boolean isEnabled() {
+        return null != dir && !dir.isEmpty();
+    }
+
+    /**
+     * @return true if a cold hit should be moved back into memory
+     */
+    public boolean isPromote() {
+        return promote;
+    }
+
+    /**
+     * Clears the directory of old segments, opens the first segment and starts compaction,
+     * does nothing when disabled
+     *
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        if (!isEnabled() || null != active) {
+            return;
+        }
+
+        Path d = Paths.get(dir);
+        Files.createDirectories(d);
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(d, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path p : old) {
+                Files.delete(p);
+            }
+        }
+
+        appendLock.lock();
+        try {
+            roll();
+        }
+        finally {
+            appendLock.unlock();
+        }
+
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "extstore-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(this::compact, COMPACT_INTERVAL_S, COMPACT_INTERVAL_S, TimeUnit.SECONDS);
+        logger.info("storing evicted items in "+dir+", up to "+maxBytes+" bytes");
+    }
+
+    /**
+     * Stops compaction and closes the segments
+     */
+    public synchronized void stop() {
+        if (null != compactor) {
+            compactor.shutdownNow();
+        }
+        appendLock.lock();
+        try {
+            segments.values().forEach(Segment::close);
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Stages an evicted value, it is readable right away and written by writePending. Must be called
+     * under the cache's write lock, so it is ordered with the sets and deletes of the key.
+     *
+     * @param key
+     * @param value
+     */
+    public void stage(String key, CacheValue value) {
+        release(index.put(key, new Slot(value)));
+    }
+
+    /**
+     * Writes staged values to the log, outside of the cache's lock
+     *
+     * @param keys keys passed to stage
+     */
+    public void writePending(List<String> keys) {
+        for (String key : keys) {
+            Slot pending = index.get(key);
+            if (null == pending || null == pending.pending) {
+                continue; // replaced or deleted since it was staged
+            }
+            try {
+                Slot written = append(key, pending.pending);
+                if (!index.replace(key, pending, written)) {
+                    release(written);
+                }
+            }
+            catch (IOException e) {
+                logger.error("failed to write "+key+" to extstore, dropping it", e);
+                index.remove(key, pending);
+            }
+        }
+    }
+
+    /**
+     * @return true if the key has a value in the store, which may have expired
+     */
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * @return the key's pointer, or null
+     */
+    public Slot get(String key) {
+        return index.get(key);
+    }
+
+    /**
+     * Reads a value back, the caller checks expiry
+     *
+     * @param key
+     * @return the value, or null if the key isn't stored or can't be read
+     */
+    public CacheValue read(String key) {
+        Slot s = index.get(key);
+        if (null == s) {
+            return null;
+        }
+        if (null != s.pending) {
+            hits.increment();
+            return s.pending;
+        }
+
+        try {
+            CacheValue v = readRecord(key, s);
+            hits.increment();
+            return v;
+        }
+        catch (IOException e) {
+            // the segment was dropped or compacted under the read, or the file is damaged
+            logger.debug("failed to read "+key+" from extstore", e);
+            readErrors.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Removes a key, must be called under the cache's write lock
+     *
+     * @param key
+     * @return the removed pointer, or null if the key wasn't stored
+     */
+    public Slot invalidate(String key) {
+        Slot s = index.remove(key);
+        release(s);
+        return s;
+    }
+
+    /**
+     * Removes every key, must be called under the cache's write lock. The dead records are reclaimed by compaction.
+     */
+    public void clear() {
+        index.entrySet().removeIf(e -> {
+            release(e.getValue());
+            return true;
+        });
+    }
+
+    /**
+     * Removes a key that is being moved back into memory, must be called under the cache's write lock
+     *
+     * @param key
+     * @param casUnique the cas unique of the value read
+     * @return false if the key was replaced since it was read
+     */
+    public boolean promote(String key, long casUnique) {
+        Slot s = index.get(key);
+        if (null == s || s.casUnique != casUnique || !index.remove(key, s)) {
+            return false;
+        }
+        release(s);
+        promotions.increment();
+        return true;
+    }
+
+    /**
+     * Flushed records are reclaimed by compaction
+     *
+     * @param flushCas the cache's flush mark
+     */
+    public void flush(long flushCas) {
+        this.flushCas = flushCas;
+    }
+
+    /**
+     * Compacts the sealed segments that are mostly dead
+     */
+    protected void compact() {
+        for (Segment seg : segments.values()) {
+            if (seg != active && seg.live.get() <= seg.size * COMPACT_LIVE_RATIO) {
+                try {
+                    compact(seg);
+                }
+                catch (Exception e) {
+                    logger.error("failed to compact extstore segment "+seg.id, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the live records of a segment into the active segment and deletes it. No pointers to
+     * a sealed segment are created, so one pass over the index finds all of its records.
+     */
+    protected void compact(Segment seg) throws IOException {
+        long now = CacheUtil.getCurrTime();
+        long moved = 0;
+        for (Map.Entry<String, Slot> e : index.entrySet()) {
+            Slot s = e.getValue();
+            if (s.segment != seg) {
+                continue;
+            }
+            if (isDead(s, now)) {
+                if (index.remove(e.getKey(), s)) {
+                    release(s);
+                }
+                continue;
+            }
+
+            Slot copy;
+            try {
+                copy = append(e.getKey(), readRecord(e.getKey(), s));
+            }
+            catch (IOException ex) {
+                logger.error("failed to move "+e.getKey()+" out of extstore segment "+seg.id+", dropping it", ex);
+                index.remove(e.getKey(), s);
+                continue;
+            }
+            if (index.replace(e.getKey(), s, copy)) {
+                moved++;
+            }
+            else {
+                release(copy); // replaced or deleted while it was copied
+            }
+        }
+
+        segments.remove(seg.id);
+        seg.delete();
+        compactions.increment();
+        compactedItems.add(moved);
+        logger.info("compacted extstore segment "+seg.id+", moved "+moved+" item(s)");
+    }
+
+    private boolean isDead(Slot s, long now) {
+        return CacheUtil.isExpired(s.expiresAt, now) || s.casUnique <= flushCas;
+    }
+
+    private Slot append(String key, CacheValue v) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer[] record = encode(k, v);
+        long len = 0;
+        for (ByteBuffer b : record) {
+            len += b.remaining();
+        }
+
+        appendLock.lock();
+        try {
+            Segment seg = active;
+            if (seg.size > 0 && seg.size + len > segmentBytes) {
+                seg = roll();
+            }
+            long offset = seg.size;
+            for (long written = 0; written < len; ) {
+                written += seg.ch.write(record);
+            }
+            seg.size += len;
+            seg.live.addAndGet(len);
+            writes.increment();
+            writeBytes.add(len);
+            return new Slot(seg, offset, len, v.getExpiresAt(), v.getCasUnique());
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    private ByteBuffer[] encode(byte[] key, CacheValue v) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + key.length);
+        header.putInt(MAGIC)
+                .putInt(key.length)
+                .putInt(v.getSize())
+                .putInt(v.isChunked() ? v.getChunks()[0].length : 0)
+                .putInt(v.isCompressed() ? v.getRawSize() : -1)
+                .putLong(v.getFlag())
+                .putLong(v.getCreatedAt())
+                .putLong(v.getExpiresAt())
+                .putLong(v.getCasUnique())
+                .put(key);
+        header.flip();
+
+        if (!v.isChunked()) {
+            return new ByteBuffer[] {header, ByteBuffer.wrap(v.getPayload())};
+        }
+        byte[][] chunks = v.getChunks();
+        ByteBuffer[] record = new ByteBuffer[chunks.length + 1];
+        record[0] = header;
+        for (int i = 0; i < chunks.length; i++) {
+            record[i + 1] = ByteBuffer.wrap(chunks[i]);
+        }
+        return record;
+    }
+
+    private CacheValue readRecord(String key, Slot s) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + k.length);
+        long pos = readFully(s.segment.ch, header, s.offset);
+        header.flip();
+
+        if (header.getInt() != MAGIC || header.getInt() != k.length) {
+            throw new IOException("bad extstore record at "+s.offset+" in segment "+s.segment.id);
+        }
+        int valueLen = header.getInt();
+        int chunkSize = header.getInt();
+        int rawSize = header.getInt();
+        long flag = header.getLong();
+        long createdAt = header.getLong();
+        long expiresAt = header.getLong();
+        long casUnique = header.getLong();
+        for (byte b : k) {
+            if (header.get() != b) {
+                throw new IOException("extstore record at "+s.offset+" is not for key "+key);
+            }
+        }
+
+        if (chunkSize > 0) {
+            byte[][] chunks = new byte[(valueLen + chunkSize - 1) / chunkSize][];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = new byte[Math.min(chunkSize, valueLen - i * chunkSize)];
+                pos = readFully(s.segment.ch, ByteBuffer.wrap(chunks[i]), pos);
+            }
+            return new CacheValue(chunks, flag, createdAt, expiresAt, casUnique);
+        }
+
+        byte[] payload = new byte[valueLen];
+        readFully(s.segment.ch, ByteBuffer.wrap(payload), pos);
+        return rawSize >= 0 ?
+                new CacheValue(payload, rawSize, flag, createdAt, expiresAt, casUnique) :
+                new CacheValue(payload, flag, createdAt, expiresAt, casUnique);
+    }
+
+    private static long readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            pos += n;
+        }
+        return pos;
+    }
+
+    /**
+     * Starts a new active segment, then drops the oldest segments while the log is over its max.
+     * Must hold the append lock.
+     */
+    private Segment roll() throws IOException {
+        int id = nextSegmentId++;
+        Path p = Paths.get(dir, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+        Segment seg = new Segment(id, p, FileChannel.open(p,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.put(id, seg);
+        active = seg;
+
+        while (segments.size() > 1 && getDiskBytes() > maxBytes) {
+            drop(segments.firstEntry().getValue());
+        }
+        return seg;
+    }
+
+    private void drop(Segment seg) {
+        long before = index.size();
+        index.entrySet().removeIf(e -> e.getValue().segment == seg);
+        droppedItems.add(before - index.size());
+        segments.remove(seg.id);
+        seg.delete();
+        logger.info("extstore is over "+maxBytes+" bytes, dropped segment "+seg.id);
+    }
+
+    private static void release(Slot s) {
+        if (null != s && null != s.segment) {
+            s.segment.live.addAndGet(-s.length);
+        }
+    }
+
+    public long getItems() {
+        return index.size();
+    }
+
+    public int getSegments() {
+        return segments.size();
+    }
+
+    public long getDiskBytes() {
+        return segments.values().stream().mapToLong(s -> s.size).sum();
+    }
+
+    public long getLiveBytes() {
+        return segments.values().stream().mapToLong(s -> s.live.get()).sum();
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getWriteBytes() {
+        return writeBytes.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getReadErrors() {
+        return readErrors.sum();
+    }
+
+    public long getPromotions() {
+        return promotions.sum();
+    }
+
+    public long getCompactions() {
+        return compactions.sum();
+    }
+
+    public long getCompactedItems() {
+        return compactedItems.sum();
+    }
+
+    public long getDroppedItems() {
+        return droppedItems.sum();
+    }
+
+    /**
+     * An item's pointer into the log, or the value itself while it is staged
+     */
+    public static final class Slot {
+        final Segment segment; // null while staged
+        final long offset;
+        final long length;
+        final long expiresAt;
+        final long casUnique;
+        final CacheValue pending; // the value until it is written, then null
+
+        Slot(CacheValue pending) {
+            this.segment = null;
+            this.offset = 0;
+            this.length = 0;
+            this.expiresAt = pending.getExpiresAt();
+            this.casUnique = pending.getCasUnique();
+            this.pending = pending;
+        }
+
+        Slot(Segment segment, long offset, long length, long expiresAt, long casUnique) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.expiresAt = expiresAt;
+            this.casUnique = casUnique;
+            this.pending = null;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        public long getCasUnique() {
+            return casUnique;
+        }
+    }
+
+    static final class Segment {
+        final int id;
+        final Path path;
+        final FileChannel ch;
+        volatile long size; // written under the append lock
+        final AtomicLong live = new AtomicLong(); // bytes of records still pointed to
+
+        Segment(int id, Path path, FileChannel ch) {
+            this.id = id;
+            this.path = path;
+            this.ch = ch;
+        }
+
+        void close() {
+            try {
+                ch.close();
+            }
+            catch (IOException e) {
+                logger.error("failed to close extstore segment "+id, e);
+            }
+        }
+
+        // readers still on this segment fail and count a miss
+        void delete() {
+            close();
+            try {
+                Files.deleteIfExists(path);
+            }
+            catch (IOException e) {
+                logger.error("failed to delete extstore segment "+path, e);
+            }
+        }
+    }
+}
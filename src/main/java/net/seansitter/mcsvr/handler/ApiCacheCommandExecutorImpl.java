@@ -1,15 +1,33 @@
 package net.seansitter.mcsvr.handler;
 
 import net.seansitter.mcsvr.cache.Cache;
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.LeaseResult;
+import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.compress.ValueCompressor;
 import net.seansitter.mcsvr.domain.command.ApiCommand;
 import net.seansitter.mcsvr.domain.command.DeleteCommand;
+import net.seansitter.mcsvr.domain.command.FlushAllCommand;
 import net.seansitter.mcsvr.domain.command.GetCommand;
+import net.seansitter.mcsvr.domain.command.StatsCommand;
 import net.seansitter.mcsvr.domain.command.StoreCommand;
 import net.seansitter.mcsvr.domain.result.*;
+import net.seansitter.mcsvr.stats.HotKeyTracker;
+import net.seansitter.mcsvr.stats.ServerStats;
+import net.seansitter.mcsvr.stats.StatsReporter;
+import net.seansitter.mcsvr.trace.TraceRecord;
+import net.seansitter.mcsvr.trace.TraceRecorder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static net.seansitter.mcsvr.cache.ResponseStatus.ErrorStatus;
 
 /**
  * This class dispatches a command to a method call in the cache. It is used
@@ -19,15 +37,38 @@ public class ApiCacheCommandExecutorImpl implements ApiCacheCommandExecutor {
     Logger logger = LoggerFactory.getLogger(ApiCacheCommandExecutorImpl.class);
 
     private final Cache cache;
+    private final ServerStats serverStats;
+    private final StatsReporter statsReporter;
+    private final HotKeyTracker hotKeys;
+    private final TraceRecorder tracer;
+    private final ValueCompressor compressor;
 
     @Inject
-    public ApiCacheCommandExecutorImpl(Cache cache) {
+    public ApiCacheCommandExecutorImpl(Cache cache,
+                                       ServerStats serverStats,
+                                       StatsReporter statsReporter,
+                                       HotKeyTracker hotKeys,
+                                       TraceRecorder tracer,
+                                       ValueCompressor compressor) {
         this.cache = cache;
+        this.serverStats = serverStats;
+        this.statsReporter = statsReporter;
+        this.hotKeys = hotKeys;
+        this.tracer = tracer;
+        this.compressor = compressor;
+    }
+
+    public ApiCacheCommandExecutorImpl(Cache cache,
+                                       ServerStats serverStats,
+                                       StatsReporter statsReporter,
+                                       HotKeyTracker hotKeys,
+                                       TraceRecorder tracer) {
+        this(cache, serverStats, statsReporter, hotKeys, tracer, new ValueCompressor(0, 1.0, 0));
     }
 
     @Override
     public CacheResult execute(ApiCommand command) {
-        logger.debug("executing command: "+command);
+        logger.debug("executing command: {}", command);
 
         CacheResult result = null;
         if (command.getName().equals("gets")) {
@@ -45,31 +86,199 @@ public class ApiCacheCommandExecutorImpl implements ApiCacheCommandExecutor {
         else if (command.getName().equals("cas")) {
             result = executeCasCommand((StoreCommand)command);
         }
+        else if (command.getName().equals("flush_all")) {
+            result = executeFlushAllCommand((FlushAllCommand)command);
+        }
+        else if (command.getName().equals("stats")) {
+            result = executeStatsCommand((StatsCommand)command);
+        }
+        else if (command.getName().equals("lget")) {
+            result = executeLeaseGetCommand((GetCommand)command);
+        }
+        else if (command.getName().equals("lset")) {
+            result = executeLeaseSetCommand((StoreCommand)command);
+        }
 
         if (null != result) {
-            logger.debug("got result: "+result);
+            logger.debug("got result: {}", result);
         }
 
         return result;
     }
 
     private CacheResult executeGetsCommand(GetCommand c) {
-        return new GetsCacheResult(cache.get(c.getKeys()));
+        serverStats.cmdGet(c.getKeys().size());
+        return new GetsCacheResult(decompress(trackGet(c.getKeys(), cache.get(c.getKeys()))));
     }
 
     private CacheResult executeGetCommand(GetCommand c) {
-        return new GetCacheResult(cache.get(c.getKeys()));
+        serverStats.cmdGet(c.getKeys().size());
+        return new GetCacheResult(decompress(trackGet(c.getKeys(), cache.get(c.getKeys()))));
+    }
+
+    private List<CacheEntry<CacheValue>> trackGet(List<String> keys, List<CacheEntry<CacheValue>> entries) {
+        if (hotKeys.isEnabled()) {
+            // plain loops, capturing lambdas would be allocated on every get
+            for (String key : keys) {
+                hotKeys.recordRequest(key);
+            }
+            for (CacheEntry<CacheValue> e : entries) {
+                hotKeys.recordBytes(e.getKey(), e.getValue().getSize());
+            }
+        }
+        if (tracer.isEnabled()) {
+            // entries are the hits, in key order
+            int hit = 0;
+            for (String key : keys) {
+                if (hit < entries.size() && entries.get(hit).getKey().equals(key)) {
+                    tracer.record(TraceRecord.GET, key, entries.get(hit++).getValue().getSize(), 0);
+                }
+                else {
+                    tracer.record(TraceRecord.GET, key, -1, 0);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Replaces compressed hits with their uncompressed values, except those the client
+     * decompresses itself
+     */
+    private List<CacheEntry<CacheValue>> decompress(List<CacheEntry<CacheValue>> entries) {
+        List<CacheEntry<CacheValue>> out = null; // only copied if there is a compressed hit
+        for (int i = 0; i < entries.size(); i++) {
+            CacheValue v = entries.get(i).getValue();
+            if (v.isCompressed() && compressor.isPassthrough(v.getFlag())) {
+                compressor.passthrough();
+            }
+            else if (v.isCompressed()) {
+                if (null == out) {
+                    out = new ArrayList<>(entries);
+                }
+                byte[] raw = compressor.decompress(v.getPayload(), v.getRawSize());
+                out.set(i, new CacheEntry<>(entries.get(i).getKey(), new CacheValue(raw, v.getFlag(),
+                        v.getCreatedAt(), v.getExpiresAt(), v.getCasUnique()), entries.get(i).isStale()));
+            }
+        }
+        return null == out ? entries : out;
     }
 
     private CacheResult executeSetCommand(StoreCommand c) {
-        return new StoreCacheResult(cache.set(c.getKey(), c.getPayload(), c.getExpTime(), c.getFlags()));
+        serverStats.cmdSet();
+        hotKeys.recordRequest(c.getKey());
+        tracer.record(TraceRecord.SET, c.getKey(), c.getPayloadLen(), c.getExpTime());
+        if (c.isChunked()) {
+            return new StoreCacheResult(cache.set(c.getKey(), c.getChunks(), c.getExpTime(),
+                    compressor.storedFlag(c.getFlags(), false)));
+        }
+        byte[] compressed = compressor.compress(c.getPayload());
+        if (null != compressed) {
+            return new StoreCacheResult(cache.setCompressed(c.getKey(), compressed, c.getPayload().length,
+                    c.getExpTime(), c.getFlags()));
+        }
+        return new StoreCacheResult(cache.set(c.getKey(), c.getPayload(), c.getExpTime(),
+                compressor.storedFlag(c.getFlags(), false)));
     }
 
     private CacheResult executeCasCommand(StoreCommand c) {
-        return new StoreCacheResult(cache.cas(c.getKey(), c.getPayload(), c.getExpTime(), c.getCasUnique(), c.getFlags()));
+        serverStats.cmdSet();
+        hotKeys.recordRequest(c.getKey());
+        tracer.record(TraceRecord.CAS, c.getKey(), c.getPayloadLen(), c.getExpTime());
+        ResponseStatus.StoreStatus status;
+        byte[] compressed;
+        if (c.isChunked()) {
+            status = cache.cas(c.getKey(), c.getChunks(), c.getExpTime(), c.getCasUnique(),
+                    compressor.storedFlag(c.getFlags(), false));
+        }
+        else if (null != (compressed = compressor.compress(c.getPayload()))) {
+            status = cache.casCompressed(c.getKey(), compressed, c.getPayload().length, c.getExpTime(),
+                    c.getCasUnique(), c.getFlags());
+        }
+        else {
+            status = cache.cas(c.getKey(), c.getPayload(), c.getExpTime(), c.getCasUnique(),
+                    compressor.storedFlag(c.getFlags(), false));
+        }
+
+        if (status == ResponseStatus.StoreStatus.STORED) {
+            serverStats.casHit();
+        }
+        else if (status == ResponseStatus.StoreStatus.EXISTS) {
+            serverStats.casBadVal();
+        }
+        else {
+            serverStats.casMiss();
+        }
+
+        return new StoreCacheResult(status);
+    }
+
+    private CacheResult executeLeaseGetCommand(GetCommand c) {
+        serverStats.cmdGet(1);
+        String key = c.getKeys().get(0);
+        LeaseResult lease = cache.leaseGet(key);
+        if (lease.getStatus() == LeaseResult.Status.LEASED) {
+            serverStats.leaseGranted();
+        }
+        else if (lease.getStatus() != LeaseResult.Status.HIT) {
+            serverStats.leaseWaited(lease.getStatus() == LeaseResult.Status.STALE);
+        }
+        if (null != lease.getEntry()) {
+            lease = lease.withEntry(decompress(Collections.singletonList(lease.getEntry())).get(0));
+        }
+        return new LeaseGetCacheResult(key, lease);
+    }
+
+    private CacheResult executeLeaseSetCommand(StoreCommand c) {
+        serverStats.cmdSet();
+        hotKeys.recordRequest(c.getKey());
+        tracer.record(TraceRecord.SET, c.getKey(), c.getPayloadLen(), c.getExpTime());
+        ResponseStatus.StoreStatus status;
+        byte[] compressed;
+        if (c.isChunked()) {
+            status = cache.leaseSet(c.getKey(), c.getChunks(), c.getExpTime(), c.getCasUnique(),
+                    compressor.storedFlag(c.getFlags(), false));
+        }
+        else if (null != (compressed = compressor.compress(c.getPayload()))) {
+            status = cache.leaseSetCompressed(c.getKey(), compressed, c.getPayload().length, c.getExpTime(),
+                    c.getCasUnique(), c.getFlags());
+        }
+        else {
+            status = cache.leaseSet(c.getKey(), c.getPayload(), c.getExpTime(), c.getCasUnique(),
+                    compressor.storedFlag(c.getFlags(), false));
+        }
+
+        if (status != ResponseStatus.StoreStatus.STORED) {
+            serverStats.leaseSetRefused();
+        }
+        return new StoreCacheResult(status);
     }
 
     private CacheResult executeDeleteCommand(DeleteCommand c) {
-        return new DeleteCacheResult(cache.deleteKey(c.getKey()));
+        tracer.record(TraceRecord.DELETE, c.getKey(), 0, 0);
+        ResponseStatus.DeleteStatus status = cache.deleteKey(c.getKey());
+
+        if (status == ResponseStatus.DeleteStatus.DELETED) {
+            serverStats.deleteHit();
+        }
+        else {
+            serverStats.deleteMiss();
+        }
+
+        return new DeleteCacheResult(status);
+    }
+
+    private CacheResult executeFlushAllCommand(FlushAllCommand c) {
+        serverStats.cmdFlush();
+        return new FlushAllCacheResult(cache.flushAll(c.getDelay()));
+    }
+
+    private CacheResult executeStatsCommand(StatsCommand c) {
+        Map<String, String> stats = statsReporter.report(c.getGroup());
+        if (null == stats) {
+            // unknown stats group, per protocol
+            return new ErrorResult(ErrorStatus.ERROR);
+        }
+        return new StatsCacheResult(stats);
     }
 }
@@ -1,26 +1,94 @@
 package net.seansitter.mcsvr.handler;
 
 import com.google.inject.name.Named;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.codec.GetResponseStreamer;
 import net.seansitter.mcsvr.domain.command.ApiCommand;
+import net.seansitter.mcsvr.domain.command.ClientTrackingCommand;
+import net.seansitter.mcsvr.domain.command.FlushAllCommand;
+import net.seansitter.mcsvr.domain.command.GetCommand;
 import net.seansitter.mcsvr.domain.result.CacheResult;
+import net.seansitter.mcsvr.domain.result.ClientTrackingCacheResult;
+import net.seansitter.mcsvr.domain.result.ErrorResult;
+import net.seansitter.mcsvr.domain.result.GetCacheResult;
+import net.seansitter.mcsvr.domain.result.InvalidateResult;
+import net.seansitter.mcsvr.stats.CommandLatencies;
+import net.seansitter.mcsvr.stats.ServerStats;
+import net.seansitter.mcsvr.tracking.ClientTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class executes decoded commands and sends the response (unless noreply)
+ *
+ * It also applies backpressure to the connection. Reads are paused while the channel is unwritable,
+ * meaning the client isn't reading its responses, or while maxOutstanding commands are waiting for
+ * a response. Reads resume once the channel is writable and at most half of maxOutstanding remain.
+ * Commands decoded from bytes already read when the pause began still run, unless they take the
+ * connection past twice maxOutstanding, in which case they are shed with a SERVER_ERROR.
+ *
+ * With client tracking on, the keys the connection gets are tracked before they are read, and
+ * their invalidations are pushed through the connection's executor, see ClientTracker.
  */
 public class CommandHandler extends SimpleChannelInboundHandler<ApiCommand> {
+    private static final Logger logger = LoggerFactory.getLogger(CommandHandler.class);
 
     // executes the command against the cache
     private final ApiCacheCommandExecutor commandExecutor;
     // calls commandExecutor.execute() on a new thread
     private final ExecutorService executorService;
+    // queue wait and execution time histograms
+    private final CommandLatencies latencies;
+    // writes large get responses a block at a time
+    private final GetResponseStreamer streamer;
+    // the command thread waits on this while a streamed response is blocked on an unwritable channel
+    private final ReentrantLock writableLock = new ReentrantLock();
+    private final Condition writableChanged = writableLock.newCondition();
+    // paused connection and shed command counters
+    private final ServerStats serverStats;
+    // reads pause at this many commands without a response, 0 disables
+    private final int maxOutstanding;
+    // commands received but not yet answered
+    private final AtomicInteger outstanding = new AtomicInteger();
+    // reads are paused, only changed on the event loop
+    private volatile boolean paused = false;
+    // shared so a response doesn't allocate a listener
+    private final ChannelFutureListener onResponded = f -> responded(f.channel());
+    // remembers which connections read which keys, for invalidation pushes
+    private final ClientTracker tracker;
+    // this connection's reads, null unless it turned client tracking on, only changed on the command thread
+    private volatile ClientTracker.Connection tracked;
+
+    public CommandHandler(ExecutorService executorService,
+                          ApiCacheCommandExecutor commandExecutor,
+                          CommandLatencies latencies,
+                          GetResponseStreamer streamer,
+                          ServerStats serverStats,
+                          Integer maxOutstanding) {
+        this(executorService, commandExecutor, latencies, streamer, serverStats, maxOutstanding,
+                new ClientTracker(0, serverStats));
+    }
 
     @Inject
-    public CommandHandler(@Named("cmdSnglThrdExec") ExecutorService executorService, ApiCacheCommandExecutor commandExecutor){
+    public CommandHandler(@Named("cmdSnglThrdExec") ExecutorService executorService,
+                          ApiCacheCommandExecutor commandExecutor,
+                          CommandLatencies latencies,
+                          GetResponseStreamer streamer,
+                          ServerStats serverStats,
+                          @Named("maxOutstanding") Integer maxOutstanding,
+                          ClientTracker tracker){
         // This will be a Executors.newSingleThreadExecutor()
         // This is cheating a bit, as its probably not efficient to create a new executor for every new instance
         // of this class, but THE MOST IMPORTANT THING is that for a given client, all operations are ordered for the
@@ -32,20 +100,226 @@ public class CommandHandler extends SimpleChannelInboundHandler<ApiCommand> {
         // For the purposes of this exercise, the executor provides a nice interface + built in queueing.
         this.executorService = executorService;
         this.commandExecutor = commandExecutor;
+        this.latencies = latencies;
+        this.streamer = streamer;
+        this.serverStats = serverStats;
+        this.maxOutstanding = maxOutstanding;
+        this.tracker = tracker;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // the executor belongs to this connection, let its thread exit once queued commands finish
+        executorService.shutdown();
+        signalWritableChanged(); // a streamed response waiting on the channel should give up
+        ClientTracker.Connection t = tracked;
+        if (null != t) {
+            t.close();
+        }
+        if (paused) {
+            paused = false;
+            serverStats.connectionResumed();
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        signalWritableChanged();
+        updateReads(ctx.channel());
+        super.channelWritabilityChanged(ctx);
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, ApiCommand command) throws Exception {
         // critically important to not block the netty thread, so we execute cache operation in a separate thread
         // ctx can accept write in different thread
+        long receivedAt = System.nanoTime();
+        int n = outstanding.incrementAndGet();
+        if (maxOutstanding > 0 && n >= maxOutstanding) {
+            updateReads(ctx.channel());
+            if (n > 2 * maxOutstanding) {
+                shed(ctx, command);
+                return;
+            }
+        }
+
+        executorService.execute(() -> {
+            boolean listening = false; // onResponded will count the response
+            boolean streaming = false;
+            try {
+                long startedAt = System.nanoTime();
+                CacheResult result = execute(ctx, command);
+                long execNanos = System.nanoTime() - startedAt;
+                latencies.record(command.getName(), startedAt - receivedAt, execNanos);
+                if (command instanceof GetCommand) {
+                    latencies.recordMultiGet(((GetCommand)command).getKeys().size(), execNanos);
+                }
+                if (command.isNoReply()) {
+                    ctx.flush();
+                }
+                else if (streamer.shouldStream(result)) {
+                    streaming = true;
+                    streamer.stream(ctx, (GetCacheResult)result, () -> awaitWritable(ctx));
+                }
+                else {
+                    ctx.writeAndFlush(result).addListener(onResponded);
+                    listening = true;
+                }
+            }
+            catch (RuntimeException e) {
+                logger.error("failed to execute "+command.getName(), e);
+                if (streaming) {
+                    ctx.close(); // part of the response may be written, an error can't follow it
+                }
+                else if (!command.isNoReply()) {
+                    ctx.writeAndFlush(new ErrorResult(ResponseStatus.ErrorStatus.SERVER_ERROR,
+                            "the server encountered an error"));
+                }
+            }
+            finally {
+                // a response that's never counted would leave reads paused for good
+                if (!listening) {
+                    responded(ctx.channel());
+                }
+            }
+        });
+    }
+
+    /**
+     * Executes a command against the cache, or turns client tracking on or off
+     */
+    private CacheResult execute(ChannelHandlerContext ctx, ApiCommand command) {
+        if (command instanceof ClientTrackingCommand) {
+            return clientTracking(ctx, ((ClientTrackingCommand)command).isOn());
+        }
+        ClientTracker.Connection t = tracked;
+        if (null != t && command instanceof GetCommand) {
+            t.track(((GetCommand)command).getKeys());
+        }
+        CacheResult result = commandExecutor.execute(command);
+        if (tracker.isEnabled() && command instanceof FlushAllCommand) {
+            // a flush doesn't send cache events, every item just becomes invisible
+            tracker.invalidateAll();
+        }
+        return result;
+    }
+
+    private CacheResult clientTracking(ChannelHandlerContext ctx, boolean on) {
+        if (!tracker.isEnabled()) {
+            return new ErrorResult(ResponseStatus.ErrorStatus.CLIENT_ERROR, "client tracking is disabled");
+        }
+        if (on && null == tracked) {
+            tracked = tracker.connect(key -> push(ctx, key));
+        }
+        else if (!on && null != tracked) {
+            tracked.close();
+            tracked = null;
+        }
+        return new ClientTrackingCacheResult(on);
+    }
+
+    /**
+     * Writes an invalidation, from whichever thread changed the key. It goes through the command
+     * executor, so it is never written inside another response, and it follows the response to
+     * a get that read the key before it changed.
+     */
+    private void push(ChannelHandlerContext ctx, String key) {
+        try {
+            executorService.execute(() -> ctx.writeAndFlush(new InvalidateResult(key), ctx.voidPromise()));
+        }
+        catch (RejectedExecutionException e) {
+            // the connection closed, its tracking is being closed too
+        }
+    }
+
+    /**
+     * Answers a command with an error without executing it. It still goes through the executor so
+     * the error is written in order with the responses ahead of it.
+     */
+    private void shed(ChannelHandlerContext ctx, ApiCommand command) {
+        serverStats.commandShed();
         executorService.execute(() -> {
-            CacheResult result = commandExecutor.execute(command);
             if (command.isNoReply()) {
-                ctx.flush();
+                responded(ctx.channel());
             }
             else {
-                ctx.writeAndFlush(result);
+                ctx.writeAndFlush(new ErrorResult(ResponseStatus.ErrorStatus.SERVER_ERROR, "too many outstanding requests"))
+                        .addListener(onResponded);
             }
         });
     }
+
+    private void responded(Channel ch) {
+        int n = outstanding.decrementAndGet();
+        // read paused after the decrement, updateReads reads outstanding after setting paused, so one of us resumes
+        if (paused && n <= maxOutstanding / 2) {
+            if (ch.eventLoop().inEventLoop()) {
+                updateReads(ch);
+            }
+            else {
+                ch.eventLoop().execute(() -> updateReads(ch));
+            }
+        }
+    }
+
+    /**
+     * Pauses or resumes reads from the connection, always called on the event loop
+     */
+    protected void updateReads(Channel ch) {
+        if (!paused && (!ch.isWritable() || overloaded())) {
+            paused = true;
+            ch.config().setAutoRead(false);
+            serverStats.connectionPaused();
+        }
+        if (paused && ch.isWritable() && !backlogged() && ch.isActive()) {
+            paused = false;
+            ch.config().setAutoRead(true);
+            serverStats.connectionResumed();
+        }
+    }
+
+    private boolean overloaded() {
+        return maxOutstanding > 0 && outstanding.get() >= maxOutstanding;
+    }
+
+    private boolean backlogged() {
+        return maxOutstanding > 0 && outstanding.get() > maxOutstanding / 2;
+    }
+
+    /**
+     * @return true if reads from the connection are paused
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Blocks the command thread until the channel is writable or closed. The wait is bounded so
+     * that a missed signal only costs a short delay.
+     */
+    protected void awaitWritable(ChannelHandlerContext ctx) {
+        writableLock.lock();
+        try {
+            while (!ctx.channel().isWritable() && ctx.channel().isActive()) {
+                writableChanged.await(100, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            writableLock.unlock();
+        }
+    }
+
+    private void signalWritableChanged() {
+        writableLock.lock();
+        try {
+            writableChanged.signalAll();
+        }
+        finally {
+            writableLock.unlock();
+        }
+    }
 }
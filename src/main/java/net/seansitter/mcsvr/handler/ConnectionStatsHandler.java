@@ -0,0 +1,54 @@
+package net.seansitter.mcsvr.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import net.seansitter.mcsvr.stats.ServerStats;
+
+import javax.inject.Inject;
+
+/**
+ * Counts connections and the raw bytes read and written. It must be first in the pipeline
+ * so that it sees the bytes before decoding and after encoding.
+ *
+ * This handler is stateless so a single instance is shared by all channels.
+ */
+@ChannelHandler.Sharable
+public class ConnectionStatsHandler extends ChannelDuplexHandler {
+    private final ServerStats serverStats;
+
+    @Inject
+    public ConnectionStatsHandler(ServerStats serverStats) {
+        this.serverStats = serverStats;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        serverStats.connectionOpened();
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        serverStats.connectionClosed();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            serverStats.bytesRead(((ByteBuf)msg).readableBytes());
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            serverStats.bytesWritten(((ByteBuf)msg).readableBytes());
+        }
+        super.write(ctx, msg, promise);
+    }
+}
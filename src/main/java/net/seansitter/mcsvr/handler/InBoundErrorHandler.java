@@ -34,8 +34,11 @@ public class InBoundErrorHandler extends ChannelInboundHandlerAdapter {
             logger.info("client error - invalid command");
         }
         else if(ExceptionUtils.indexOfThrowable(cause, ClientException.class) >= 0) {
-            ctx.writeAndFlush(new ErrorResult(ErrorStatus.CLIENT_ERROR, cause.getMessage()));
-            logger.info("client error - " + cause.getMessage());
+            // the decoder's exceptions reach here wrapped, reply with the client exception's own message
+            int i = ExceptionUtils.indexOfThrowable(cause, ClientException.class);
+            String msg = ExceptionUtils.getThrowables(cause)[i].getMessage();
+            ctx.writeAndFlush(new ErrorResult(ErrorStatus.CLIENT_ERROR, msg));
+            logger.info("client error - " + msg);
         }
         else { // all other exceptions are server exceptions
             // not sure what is appropriate reason here
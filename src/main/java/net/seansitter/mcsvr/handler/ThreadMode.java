@@ -0,0 +1,70 @@
+package net.seansitter.mcsvr.handler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * How commands for a connection are executed. Either way each connection gets its own single
+ * threaded executor, so commands from a connection run in order.
+ *
+ * PLATFORM runs each connection on its own platform thread.
+ * VIRTUAL runs each connection on its own virtual thread, which needs jdk 21+. An idle connection's
+ * virtual thread is parked off its carrier thread, so idle connections cost little more than
+ * their queue. The project compiles for java 8, so virtual threads are created reflectively.
+ */
+public enum ThreadMode {
+    PLATFORM,
+    VIRTUAL;
+
+    private volatile ThreadFactory virtualFactory;
+
+    /**
+     * @param name platform or virtual
+     * @return
+     */
+    public static ThreadMode of(String name) {
+        return valueOf(name.toUpperCase());
+    }
+
+    /**
+     * Fails fast if this mode can't run on this jvm
+     *
+     * @throws IllegalStateException
+     */
+    public void check() {
+        if (this == VIRTUAL) {
+            virtualThreadFactory();
+        }
+    }
+
+    /**
+     * @return a new single threaded executor for a connection
+     */
+    public ExecutorService newConnectionExecutor() {
+        if (this == VIRTUAL) {
+            return Executors.newSingleThreadExecutor(virtualThreadFactory());
+        }
+        return Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * @return Thread.ofVirtual().factory()
+     * @throws IllegalStateException if the jvm doesn't have virtual threads
+     */
+    private ThreadFactory virtualThreadFactory() {
+        ThreadFactory f = virtualFactory;
+        if (null == f) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                f = (ThreadFactory)Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+                virtualFactory = f;
+            }
+            catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("virtual threads need jdk 21 or later, running on "+
+                        System.getProperty("java.version"), e);
+            }
+        }
+        return f;
+    }
+}
@@ -35,4 +35,24 @@ public class CacheMetricsJmx implements CacheMetricsJmxMBean {
     public long getSize() {
         return cacheMetrics.getSize();
     }
+
+    @Override
+    public long getTotalItems() {
+        return cacheMetrics.getTotalItems();
+    }
+
+    @Override
+    public long getEvictions() {
+        return cacheMetrics.getEvictions();
+    }
+
+    @Override
+    public long getReclaimed() {
+        return cacheMetrics.getReclaimed();
+    }
+
+    @Override
+    public long getExpiredUnfetched() {
+        return cacheMetrics.getExpiredUnfetched();
+    }
 }
@@ -5,4 +5,8 @@ public interface CacheMetricsJmxMBean {
     long getMisses();
     long getItems();
     long getSize();
+    long getTotalItems();
+    long getEvictions();
+    long getReclaimed();
+    long getExpiredUnfetched();
 }
@@ -0,0 +1,54 @@
+package net.seansitter.mcsvr.jmx;
+
+import net.seansitter.mcsvr.stats.CommandLatencies;
+
+/**
+ * This is a mbean wrapper for the latencies of a single command
+ */
+public class CommandLatencyJmx implements CommandLatencyJmxMBean {
+    private final CommandLatencies.Latency latency;
+
+    public CommandLatencyJmx(CommandLatencies.Latency latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getQueueP50Micros() {
+        return latency.getQueueMicros(50);
+    }
+
+    @Override
+    public long getQueueP99Micros() {
+        return latency.getQueueMicros(99);
+    }
+
+    @Override
+    public long getQueueP999Micros() {
+        return latency.getQueueMicros(99.9);
+    }
+
+    @Override
+    public long getExecP50Micros() {
+        return latency.getExecMicros(50);
+    }
+
+    @Override
+    public long getExecP99Micros() {
+        return latency.getExecMicros(99);
+    }
+
+    @Override
+    public long getExecP999Micros() {
+        return latency.getExecMicros(99.9);
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+    }
+}
@@ -0,0 +1,12 @@
+package net.seansitter.mcsvr.jmx;
+
+public interface CommandLatencyJmxMBean {
+    long getCount();
+    long getQueueP50Micros();
+    long getQueueP99Micros();
+    long getQueueP999Micros();
+    long getExecP50Micros();
+    long getExecP99Micros();
+    long getExecP999Micros();
+    void reset();
+}
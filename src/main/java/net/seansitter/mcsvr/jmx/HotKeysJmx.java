@@ -0,0 +1,38 @@
+package net.seansitter.mcsvr.jmx;
+
+import net.seansitter.mcsvr.stats.HotKeyTracker;
+
+import javax.inject.Inject;
+
+/**
+ * This is a mbean wrapper for the hot key tracker. Each entry is "key per_sec"
+ */
+public class HotKeysJmx implements HotKeysJmxMBean {
+    private final HotKeyTracker hotKeys;
+    private volatile int topN = 10;
+
+    @Inject
+    public HotKeysJmx(HotKeyTracker hotKeys) {
+        this.hotKeys = hotKeys;
+    }
+
+    @Override
+    public String[] getTopKeysByRequests() {
+        return hotKeys.topByRequests(topN).stream().map(HotKeyTracker.HotKey::toString).toArray(String[]::new);
+    }
+
+    @Override
+    public String[] getTopKeysByBytes() {
+        return hotKeys.topByBytes(topN).stream().map(HotKeyTracker.HotKey::toString).toArray(String[]::new);
+    }
+
+    @Override
+    public int getTopN() {
+        return topN;
+    }
+
+    @Override
+    public void setTopN(int n) {
+        topN = n;
+    }
+}
@@ -0,0 +1,8 @@
+package net.seansitter.mcsvr.jmx;
+
+public interface HotKeysJmxMBean {
+    String[] getTopKeysByRequests();
+    String[] getTopKeysByBytes();
+    int getTopN();
+    void setTopN(int n);
+}
@@ -1,15 +1,23 @@
 package net.seansitter.mcsvr.jmx;
 
+import net.seansitter.mcsvr.stats.CommandLatencies;
+
 import javax.inject.Inject;
 import javax.management.*;
 import java.lang.management.ManagementFactory;
 
 public class MCServerManagement {
     private final CacheMetricsJmxMBean cacheMetricsMBean;
+    private final HotKeysJmxMBean hotKeysMBean;
+    private final CommandLatencies commandLatencies;
 
     @Inject
-    public MCServerManagement(CacheMetricsJmxMBean cacheMetricsBean) {
+    public MCServerManagement(CacheMetricsJmxMBean cacheMetricsBean,
+                              HotKeysJmxMBean hotKeysBean,
+                              CommandLatencies commandLatencies) {
         this.cacheMetricsMBean = cacheMetricsBean;
+        this.hotKeysMBean = hotKeysBean;
+        this.commandLatencies = commandLatencies;
     }
 
     public void start() throws MalformedObjectNameException, NotCompliantMBeanException, InstanceAlreadyExistsException, MBeanRegistrationException {
@@ -19,5 +27,14 @@ public class MCServerManagement {
         ObjectName name = null;
         name = new ObjectName("net.seansitter.mcserver.jmx:type=CacheMetrics");
         mbs.registerMBean(cacheMetricsMBean, name);
+
+        name = new ObjectName("net.seansitter.mcserver.jmx:type=HotKeys");
+        mbs.registerMBean(hotKeysMBean, name);
+
+        // one latency bean per command
+        for (String cmd : CommandLatencies.COMMANDS) {
+            name = new ObjectName("net.seansitter.mcserver.jmx:type=CommandLatency,name="+cmd);
+            mbs.registerMBean(new CommandLatencyJmx(commandLatencies.forCommand(cmd)), name);
+        }
     }
 }
@@ -0,0 +1,112 @@
+package net.seansitter.mcsvr.loadgen;
+
+import java.util.Random;
+
+/**
+ * Picks the index of the next key to request, in [0, keyCount)
+ */
+public interface KeyDistribution {
+    int next(Random r);
+
+    /**
+     * @param name uniform, zipf or hotset
+     * @param config
+     * @return the key distribution, or null if the name is unknown
+     */
+    static KeyDistribution of(String name, LoadGenConfig config) {
+        switch (name.toLowerCase()) {
+            case "uniform":
+                return new Uniform(config.keyCount);
+            case "zipf":
+                return new Zipfian(config.keyCount, config.zipfTheta);
+            case "hotset":
+                return new HotSet(config.keyCount, config.hotSetFraction, config.hotSetTraffic);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Every key is equally likely
+     */
+    class Uniform implements KeyDistribution {
+        private final int keyCount;
+
+        public Uniform(int keyCount) {
+            this.keyCount = keyCount;
+        }
+
+        @Override
+        public int next(Random r) {
+            return r.nextInt(keyCount);
+        }
+    }
+
+    /**
+     * Key i is requested with probability proportional to 1/(i+1)^theta, so key 0 is the hottest.
+     * Uses the constant time method from Gray et al, "Quickly Generating Billion-Record Synthetic
+     * Databases", which is also what YCSB uses. Setup is O(keyCount) to compute zeta.
+     */
+    class Zipfian implements KeyDistribution {
+        private final int keyCount;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+        private final double halfPowTheta;
+
+        public Zipfian(int keyCount, double theta) {
+            this.keyCount = keyCount;
+            this.theta = theta;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zetan = zeta(keyCount, theta);
+            this.eta = (1 - Math.pow(2.0 / keyCount, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+            this.halfPowTheta = 1.0 + Math.pow(0.5, theta);
+        }
+
+        @Override
+        public int next(Random r) {
+            double u = r.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < halfPowTheta) {
+                return 1;
+            }
+            int i = (int)(keyCount * Math.pow(eta * u - eta + 1, alpha));
+            return Math.min(i, keyCount - 1);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1.0 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * hotTraffic of the requests go to the first hotFraction of the keys, the rest go to the others
+     */
+    class HotSet implements KeyDistribution {
+        private final int keyCount;
+        private final int hotCount;
+        private final double hotTraffic;
+
+        public HotSet(int keyCount, double hotFraction, double hotTraffic) {
+            this.keyCount = keyCount;
+            this.hotCount = Math.max(1, Math.min(keyCount, (int)(keyCount * hotFraction)));
+            this.hotTraffic = hotTraffic;
+        }
+
+        @Override
+        public int next(Random r) {
+            if (hotCount == keyCount || r.nextDouble() < hotTraffic) {
+                return r.nextInt(hotCount);
+            }
+            return hotCount + r.nextInt(keyCount - hotCount);
+        }
+    }
+}
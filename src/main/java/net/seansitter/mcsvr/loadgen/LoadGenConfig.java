@@ -0,0 +1,84 @@
+package net.seansitter.mcsvr.loadgen;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+
+/**
+ * Load generator settings, parsed from the command line
+ */
+public class LoadGenConfig {
+    public final String host;
+    public final int port;
+    public final int connections;
+    public final int threads;
+    public final int pipeline;
+    public final double getRatio;
+    public final int keyCount;
+    public final String keyDist;
+    public final double zipfTheta;
+    public final double hotSetFraction;
+    public final double hotSetTraffic;
+    public final int minValueSize;
+    public final int maxValueSize;
+    public final int rate;
+    public final int warmup;
+    public final int duration;
+    public final boolean embedded;
+
+    public LoadGenConfig(CommandLine cmdLine) {
+        host = cmdLine.getOptionValue("host", "127.0.0.1");
+        port = intOpt(cmdLine, "port", 11211);
+        connections = intOpt(cmdLine, "connections", 4);
+        threads = intOpt(cmdLine, "threads", Math.min(connections, Runtime.getRuntime().availableProcessors()));
+        pipeline = intOpt(cmdLine, "pipeline", 1);
+        getRatio = doubleOpt(cmdLine, "getRatio", 0.9);
+        keyCount = intOpt(cmdLine, "keys", 100000);
+        keyDist = cmdLine.getOptionValue("keyDist", "zipf");
+        zipfTheta = doubleOpt(cmdLine, "zipfTheta", 0.99);
+        hotSetFraction = doubleOpt(cmdLine, "hotSetFraction", 0.01);
+        hotSetTraffic = doubleOpt(cmdLine, "hotSetTraffic", 0.9);
+        rate = intOpt(cmdLine, "rate", 0);
+        warmup = intOpt(cmdLine, "warmup", 5);
+        duration = intOpt(cmdLine, "duration", 30);
+        embedded = cmdLine.hasOption("embedded");
+
+        // either a fixed size or min-max
+        String[] sz = cmdLine.getOptionValue("valueSize", "100").split("-");
+        minValueSize = Integer.parseInt(sz[0]);
+        maxValueSize = sz.length > 1 ? Integer.parseInt(sz[1]) : minValueSize;
+        if (maxValueSize < minValueSize) {
+            throw new IllegalArgumentException("valueSize max is less than min");
+        }
+    }
+
+    public static Options options() {
+        Options opts = new Options();
+        opts.addOption("help", "show help message");
+        opts.addOption("host", true, "server host, default 127.0.0.1");
+        opts.addOption("port", true, "server port, default 11211");
+        opts.addOption("embedded", "start a server in process on loopback at port");
+        opts.addOption("connections", true, "number of connections, default 4");
+        opts.addOption("threads", true, "number of event loop threads, default min(connections, cores)");
+        opts.addOption("pipeline", true, "max outstanding requests per connection, default 1");
+        opts.addOption("rate", true, "total requests/sec sent on schedule (open loop), 0 sends as fast as " +
+                "responses arrive (closed loop), default 0");
+        opts.addOption("getRatio", true, "fraction of requests which are gets, the rest are sets, default 0.9");
+        opts.addOption("keys", true, "number of distinct keys, default 100000");
+        opts.addOption("keyDist", true, "key distribution: uniform, zipf or hotset, default zipf");
+        opts.addOption("zipfTheta", true, "zipf skew, default 0.99");
+        opts.addOption("hotSetFraction", true, "fraction of keys in the hot set, default 0.01");
+        opts.addOption("hotSetTraffic", true, "fraction of requests to the hot set, default 0.9");
+        opts.addOption("valueSize", true, "set value size in bytes, fixed or uniform in min-max, default 100");
+        opts.addOption("warmup", true, "seconds of load before measuring, default 5");
+        opts.addOption("duration", true, "seconds of measured load, default 30");
+        return opts;
+    }
+
+    private static int intOpt(CommandLine cmdLine, String opt, int dflt) {
+        return cmdLine.hasOption(opt) ? Integer.parseInt(cmdLine.getOptionValue(opt)) : dflt;
+    }
+
+    private static double doubleOpt(CommandLine cmdLine, String opt, double dflt) {
+        return cmdLine.hasOption(opt) ? Double.parseDouble(cmdLine.getOptionValue(opt)) : dflt;
+    }
+}
@@ -0,0 +1,174 @@
+package net.seansitter.mcsvr.loadgen;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives requests on a single connection. Everything runs on the channel's event loop, so
+ * there is no synchronization.
+ *
+ * In open loop mode requests are scheduled every 1/rate seconds, independent of responses.
+ * A tick moves every request whose scheduled time has passed onto the due queue, and requests
+ * are sent from the due queue while fewer than pipeline are outstanding. In closed loop mode a
+ * new request is sent as soon as there is room in the pipeline.
+ *
+ * Requests come from a RequestSource. When the source runs out and every response has come
+ * back, done() completes.
+ */
+public class LoadGenConnection extends ChannelInboundHandlerAdapter {
+    private static final long TICK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final LoadGenConfig config;
+    private final LoadGenReport report;
+    private final RequestSource source;
+    private final long intervalNanos; // 0 for closed loop
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    private final LongQueue due = new LongQueue(); // scheduled, not yet sent
+    private final LongQueue scheduledAt = new LongQueue(); // outstanding, in send order
+    private final LongQueue sentAt = new LongQueue();
+    private long nextScheduled;
+    private boolean stopped;
+    private boolean exhausted; // source has no more requests
+    private ScheduledFuture<?> ticker;
+    private ChannelHandlerContext ctx;
+
+    public LoadGenConnection(LoadGenConfig config, LoadGenReport report, RequestSource source) {
+        this.config = config;
+        this.report = report;
+        this.source = source;
+        this.intervalNanos = config.rate > 0 ?
+                (long)(TimeUnit.SECONDS.toNanos(1) / ((double)config.rate / config.connections)) : 0;
+    }
+
+    /**
+     * @return completes when the source is exhausted and all responses are in, or the connection closes
+     */
+    public CompletableFuture<Void> done() {
+        return done;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+        nextScheduled = System.nanoTime();
+        if (intervalNanos > 0) {
+            ticker = ctx.executor().scheduleAtFixedRate(this::tick, 0, TICK_NANOS, TimeUnit.NANOSECONDS);
+        }
+        else {
+            pump();
+        }
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        long now = System.nanoTime();
+        report.record((ResponseDecoder.Response)msg, now - scheduledAt.poll(), now - sentAt.poll());
+        pump();
+        if (exhausted && scheduledAt.isEmpty()) {
+            done.complete(null);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        stop();
+        done.complete(null);
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * Stops sending, must be called on the event loop
+     */
+    public void stop() {
+        stopped = true;
+        if (null != ticker) {
+            ticker.cancel(false);
+        }
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        while (!stopped && nextScheduled <= now) {
+            due.add(nextScheduled);
+            nextScheduled += intervalNanos;
+        }
+        pump();
+    }
+
+    private void pump() {
+        if (stopped || exhausted) {
+            return;
+        }
+
+        boolean wrote = false;
+        while (scheduledAt.size() < config.pipeline && (intervalNanos == 0 || !due.isEmpty())) {
+            ByteBuf req = source.next(ctx.alloc());
+            if (null == req) {
+                exhausted = true;
+                stop();
+                if (scheduledAt.isEmpty()) {
+                    done.complete(null);
+                }
+                break;
+            }
+
+            long now = System.nanoTime();
+            long scheduled = intervalNanos > 0 ? due.poll() : now;
+            ctx.write(req);
+            scheduledAt.add(scheduled);
+            sentAt.add(now);
+            wrote = true;
+        }
+
+        if (wrote) {
+            ctx.flush();
+        }
+    }
+
+    /**
+     * Growable ring of primitive longs, so queuing timestamps doesn't box
+     */
+    protected static class LongQueue {
+        private long[] ring = new long[64];
+        private int head = 0;
+        private int size = 0;
+
+        protected void add(long v) {
+            if (size == ring.length) {
+                long[] grown = new long[ring.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = ring[(head + i) % ring.length];
+                }
+                ring = grown;
+                head = 0;
+            }
+            ring[(head + size) % ring.length] = v;
+            size++;
+        }
+
+        protected long poll() {
+            if (size == 0) {
+                throw new IllegalStateException("queue is empty");
+            }
+            long v = ring[head];
+            head = (head + 1) % ring.length;
+            size--;
+            return v;
+        }
+
+        protected int size() {
+            return size;
+        }
+
+        protected boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package net.seansitter.mcsvr.loadgen;
+
+import com.google.inject.Guice;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import net.seansitter.mcsvr.McServer;
+import net.seansitter.mcsvr.McServerConfig;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates load against a server and reports throughput and latency percentiles.
+ *
+ * $> ./gradlew loadgen -Pargs="-embedded -connections 8 -pipeline 4 -rate 100000"
+ */
+public class LoadGenMain {
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenMain.class);
+
+    public static void main(String[] args) throws Exception {
+        Options options = LoadGenConfig.options();
+        CommandLine cmdLine = new DefaultParser().parse(options, args);
+        if (cmdLine.hasOption("help")) {
+            new HelpFormatter().printHelp("loadgen", options);
+            System.exit(0);
+        }
+
+        LoadGenConfig config = new LoadGenConfig(cmdLine);
+        KeyDistribution keys = KeyDistribution.of(config.keyDist, config);
+        if (null == keys) {
+            System.err.println("unknown key distribution: "+config.keyDist);
+            System.exit(1);
+        }
+
+        if (config.embedded) {
+            startEmbeddedServer(config.port);
+        }
+
+        LoadGenReport report = new LoadGenReport();
+        EventLoopGroup group = new NioEventLoopGroup(config.threads);
+        List<Channel> channels = new ArrayList<>(config.connections);
+        List<LoadGenConnection> conns = new ArrayList<>(config.connections);
+        try {
+            for (int i = 0; i < config.connections; i++) {
+                LoadGenConnection conn = new LoadGenConnection(config, report,
+                        new RandomRequestSource(config, keys, System.nanoTime() + i));
+                conns.add(conn);
+                channels.add(connect(config, group, conn));
+            }
+
+            System.out.println("warming up for "+config.warmup+" s");
+            TimeUnit.SECONDS.sleep(config.warmup);
+            report.reset();
+
+            System.out.println("measuring for "+config.duration+" s");
+            TimeUnit.SECONDS.sleep(config.duration);
+
+            for (int i = 0; i < channels.size(); i++) {
+                LoadGenConnection conn = conns.get(i);
+                channels.get(i).eventLoop().submit(conn::stop).sync();
+            }
+            report.print(System.out);
+        }
+        finally {
+            channels.forEach(Channel::close);
+            group.shutdownGracefully();
+        }
+
+        System.exit(report.getErrors() > 0 ? 1 : 0);
+    }
+
+    /**
+     * Connects a load generator connection to the server
+     *
+     * @param config
+     * @param group
+     * @param conn
+     * @return the connected channel
+     * @throws InterruptedException
+     */
+    public static Channel connect(LoadGenConfig config, EventLoopGroup group, LoadGenConnection conn)
+            throws InterruptedException {
+        return new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast("decoder", new ResponseDecoder());
+                        ch.pipeline().addLast("loadGen", conn);
+                    }
+                })
+                .connect(new InetSocketAddress(config.host, config.port))
+                .sync()
+                .channel();
+    }
+
+    /**
+     * Starts a server on loopback in a daemon thread and waits until it accepts connections
+     *
+     * @param port
+     * @param args more server options, ex a proxy's -proxyBackends
+     */
+    public static void startEmbeddedServer(int port, String... args) throws Exception {
+        // the server logs every command at debug
+        org.slf4j.Logger root = LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        if (root instanceof ch.qos.logback.classic.Logger) {
+            ((ch.qos.logback.classic.Logger)root).setLevel(ch.qos.logback.classic.Level.WARN);
+        }
+
+        List<String> serverArgs = new ArrayList<>(Arrays.asList("-port", String.valueOf(port)));
+        serverArgs.addAll(Arrays.asList(args));
+        McServer server = Guice.createInjector(new McServerConfig(serverArgs.toArray(new String[0])))
+                .getInstance(McServer.class);
+        Thread t = new Thread(() -> {
+            try {
+                server.start();
+            }
+            catch (Exception e) {
+                logger.error("embedded server failed", e);
+            }
+        }, "embedded-server");
+        t.setDaemon(true);
+        t.start();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            try {
+                new Socket("127.0.0.1", port).close(); // only checks the server is accepting
+                return;
+            }
+            catch (Exception e) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("embedded server didn't start on port "+port, e);
+                }
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package net.seansitter.mcsvr.loadgen;
+
+import net.seansitter.mcsvr.stats.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects load generator results from all connections.
+ *
+ * Latency is recorded twice. Response time is measured from when the request was scheduled to
+ * be sent, so a stalled server is charged for the requests that queued up behind the stall
+ * (corrects for coordinated omission). Service time is measured from when the request was
+ * actually written, which is what a closed loop client would see.
+ */
+public class LoadGenReport {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final LatencyHistogram responseTime = new LatencyHistogram();
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder sets = new LongAdder();
+    private final LongAdder deletes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile long startedAt = System.nanoTime();
+
+    public void record(ResponseDecoder.Response response, long responseNanos, long serviceNanos) {
+        responseTime.record(responseNanos);
+        serviceTime.record(serviceNanos);
+
+        switch (response) {
+            case HIT:
+                hits.increment();
+                break;
+            case MISS:
+                misses.increment();
+                break;
+            case STORED:
+            case NOT_STORED:
+                sets.increment();
+                break;
+            case DELETED:
+            case NOT_FOUND:
+                deletes.increment();
+                break;
+            default:
+                errors.increment();
+        }
+    }
+
+    /**
+     * Drops everything recorded so far, called at the end of warmup
+     */
+    public void reset() {
+        responseTime.reset();
+        serviceTime.reset();
+        hits.reset();
+        misses.reset();
+        sets.reset();
+        deletes.reset();
+        errors.reset();
+        startedAt = System.nanoTime();
+    }
+
+    public long getCount() {
+        return responseTime.getCount();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public void print(PrintStream out) {
+        double secs = (System.nanoTime() - startedAt) / 1e9;
+        long count = responseTime.getCount();
+        long gets = hits.sum() + misses.sum();
+
+        out.printf("requests:       %d in %.1f s%n", count, secs);
+        out.printf("throughput:     %.0f req/s%n", count / secs);
+        out.printf("gets:           %d (hit ratio %.3f)%n", gets, gets > 0 ? (double)hits.sum() / gets : 0.0);
+        out.printf("sets:           %d%n", sets.sum());
+        out.printf("deletes:        %d%n", deletes.sum());
+        out.printf("errors:         %d%n", errors.sum());
+        out.println();
+        out.printf("%-14s %14s %14s%n", "latency (us)", "response", "service");
+        for (double p : PERCENTILES) {
+            out.printf("%-14s %14d %14d%n", "p"+p,
+                    micros(responseTime.getValueAtPercentile(p)), micros(serviceTime.getValueAtPercentile(p)));
+        }
+        out.printf("%-14s %14d %14d%n", "max", micros(responseTime.getMaxValue()), micros(serviceTime.getMaxValue()));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
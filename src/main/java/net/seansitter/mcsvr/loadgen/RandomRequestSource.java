@@ -0,0 +1,69 @@
+package net.seansitter.mcsvr.loadgen;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Endless gets and sets, in the configured ratio, of keys from the key distribution. Not thread
+ * safe, each connection has its own.
+ */
+public class RandomRequestSource implements RequestSource {
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final LoadGenConfig config;
+    private final KeyDistribution keys;
+    private final Random random;
+    private final byte[] value;
+
+    public RandomRequestSource(LoadGenConfig config, KeyDistribution keys, long seed) {
+        this.config = config;
+        this.keys = keys;
+        this.random = new Random(seed);
+
+        value = new byte[config.maxValueSize];
+        Arrays.fill(value, (byte)'x');
+    }
+
+    @Override
+    public ByteBuf next(ByteBufAllocator alloc) {
+        String key = "key_" + keys.next(random);
+        if (random.nextDouble() < config.getRatio) {
+            return get(alloc, key);
+        }
+
+        int size = config.minValueSize == config.maxValueSize ? config.minValueSize :
+                config.minValueSize + random.nextInt(config.maxValueSize - config.minValueSize + 1);
+        return set(alloc, key, value, size, 0);
+    }
+
+    public static ByteBuf get(ByteBufAllocator alloc, String key) {
+        ByteBuf buf = alloc.buffer(key.length() + 6);
+        ByteBufUtil.writeAscii(buf, "get ");
+        ByteBufUtil.writeAscii(buf, key);
+        buf.writeBytes(CRLF);
+        return buf;
+    }
+
+    public static ByteBuf set(ByteBufAllocator alloc, String key, byte[] value, int size, int ttl) {
+        ByteBuf buf = alloc.buffer(key.length() + size + 40);
+        ByteBufUtil.writeAscii(buf, "set ");
+        ByteBufUtil.writeAscii(buf, key);
+        ByteBufUtil.writeAscii(buf, " 0 " + ttl + " " + size);
+        buf.writeBytes(CRLF);
+        buf.writeBytes(value, 0, size);
+        buf.writeBytes(CRLF);
+        return buf;
+    }
+
+    public static ByteBuf delete(ByteBufAllocator alloc, String key) {
+        ByteBuf buf = alloc.buffer(key.length() + 9);
+        ByteBufUtil.writeAscii(buf, "delete ");
+        ByteBufUtil.writeAscii(buf, key);
+        buf.writeBytes(CRLF);
+        return buf;
+    }
+}
@@ -0,0 +1,15 @@
+package net.seansitter.mcsvr.loadgen;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * Supplies encoded requests to a LoadGenConnection
+ */
+public interface RequestSource {
+    /**
+     * @param alloc
+     * @return the next request, or null when there are no more
+     */
+    ByteBuf next(ByteBufAllocator alloc);
+}
@@ -0,0 +1,87 @@
+package net.seansitter.mcsvr.loadgen;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.ByteProcessor;
+import io.netty.util.CharsetUtil;
+
+import java.util.List;
+
+/**
+ * Decodes the server's text protocol responses into one Response per request. A get response
+ * is any number of VALUE blocks followed by END, everything else is a single line.
+ */
+public class ResponseDecoder extends ByteToMessageDecoder {
+    public enum Response {
+        HIT, MISS, STORED, NOT_STORED, DELETED, NOT_FOUND, ERROR, OTHER
+    }
+
+    private boolean gotValue = false; // saw a VALUE block for the current get
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        while (in.isReadable()) {
+            int lf = in.forEachByte(ByteProcessor.FIND_LF);
+            if (lf < 0) {
+                return; // no full line yet
+            }
+
+            int start = in.readerIndex();
+            int lineLen = lf - start - 1; // without the cr
+            if (startsWith(in, start, "VALUE ")) {
+                // VALUE <key> <flags> <bytes> [<cas unique>]
+                String[] parts = in.toString(start, lineLen, CharsetUtil.US_ASCII).split(" ");
+                if (parts.length < 4) {
+                    throw new DecoderException("bad VALUE line");
+                }
+                int bytes = Integer.parseInt(parts[3]);
+                if (in.writerIndex() < lf + 1 + bytes + 2) {
+                    return; // wait for the whole payload
+                }
+                in.readerIndex(lf + 1 + bytes + 2);
+                gotValue = true;
+                continue;
+            }
+
+            in.readerIndex(lf + 1);
+            if (startsWith(in, start, "END")) {
+                out.add(gotValue ? Response.HIT : Response.MISS);
+                gotValue = false;
+            }
+            else if (startsWith(in, start, "STORED")) {
+                out.add(Response.STORED);
+            }
+            else if (startsWith(in, start, "NOT_STORED")) {
+                out.add(Response.NOT_STORED);
+            }
+            else if (startsWith(in, start, "DELETED")) {
+                out.add(Response.DELETED);
+            }
+            else if (startsWith(in, start, "NOT_FOUND")) {
+                out.add(Response.NOT_FOUND);
+            }
+            else if (startsWith(in, start, "ERROR") ||
+                    startsWith(in, start, "CLIENT_ERROR") ||
+                    startsWith(in, start, "SERVER_ERROR")) {
+                out.add(Response.ERROR);
+            }
+            else {
+                out.add(Response.OTHER);
+            }
+        }
+    }
+
+    private static boolean startsWith(ByteBuf in, int idx, String s) {
+        if (in.writerIndex() - idx < s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (in.getByte(idx + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
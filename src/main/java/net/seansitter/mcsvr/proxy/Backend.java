@@ -0,0 +1,78 @@
+package net.seansitter.mcsvr.proxy;
+
+import io.netty.channel.EventLoopGroup;
+import net.seansitter.mcsvr.client.ConnectionPool;
+import net.seansitter.mcsvr.domain.command.ApiCommand;
+import net.seansitter.mcsvr.domain.result.CacheResult;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One server in the proxy's pool, reached over a few pipelined connections shared by all of the
+ * proxy's clients, see ConnectionPool.
+ */
+public class Backend {
+    private final String name; // host:port
+    private final ConnectionPool connections;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    Backend(String name, int connections, int connectTimeoutMillis, EventLoopGroup group) {
+        this.name = name;
+        this.connections = new ConnectionPool(parse(name), connections, connectTimeoutMillis, group);
+    }
+
+    /**
+     * Sends a command to the backend
+     *
+     * @param command the command, as the client sent it
+     * @param hash picks the connection, the hash of the command's (first) key
+     * @return the backend's result, or an exception if the connection failed
+     */
+    public CompletableFuture<CacheResult> send(ApiCommand command, long hash) {
+        requests.increment();
+        return connections.send(command, hash);
+    }
+
+    /**
+     * Counts a request that failed or timed out
+     */
+    void error() {
+        errors.increment();
+    }
+
+    void close() {
+        connections.close();
+    }
+
+    private static InetSocketAddress parse(String hostPort) {
+        int colon = hostPort.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("proxy backend must be host:port, not "+hostPort);
+        }
+        return new InetSocketAddress(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getConnected() {
+        return connections.getConnected();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getConnects() {
+        return connections.getConnects();
+    }
+}
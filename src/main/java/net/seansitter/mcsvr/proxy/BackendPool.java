@@ -0,0 +1,84 @@
+package net.seansitter.mcsvr.proxy;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The servers a proxy fronts, see ProxyCommandExecutor, and the ketama ring that spreads keys
+ * over them. The backends' connections share one small event loop group.
+ */
+public class BackendPool {
+    private static final Logger logger = LoggerFactory.getLogger(BackendPool.class);
+
+    private final List<Backend> backends = new ArrayList<>();
+    private final int timeoutMillis;
+    private final KetamaRing ring;
+    private final EventLoopGroup group;
+
+    /**
+     * @param backends comma separated host:port of each backend, empty if this isn't a proxy
+     * @param connections number of connections to each backend
+     * @param timeoutMillis how long a request waits on a backend
+     */
+    @Inject
+    public BackendPool(@Named("proxyBackends") String backends,
+                       @Named("proxyConnections") int connections,
+                       @Named("proxyTimeout") int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        List<String> names = new ArrayList<>();
+        for (String b : null == backends ? new String[0] : backends.split(",")) {
+            if (!b.trim().isEmpty()) {
+                names.add(b.trim());
+            }
+        }
+        if (names.isEmpty()) {
+            ring = null;
+            group = null;
+            return;
+        }
+
+        ring = new KetamaRing(names);
+        int threads = Math.min(names.size() * connections, Runtime.getRuntime().availableProcessors());
+        group = new NioEventLoopGroup(Math.max(1, threads), new DefaultThreadFactory("proxy", true));
+        for (String name : names) {
+            this.backends.add(new Backend(name, Math.max(1, connections), timeoutMillis, group));
+        }
+        logger.info("proxying to "+names.size()+" backend(s): "+String.join(",", names));
+    }
+
+    public boolean isEnabled() {
+        return null != ring;
+    }
+
+    /**
+     * @param hash a key's hash, see KetamaRing.hash()
+     * @return the backend the key lives on
+     */
+    public Backend route(long hash) {
+        return backends.get(ring.serverFor(hash));
+    }
+
+    public List<Backend> getBackends() {
+        return Collections.unmodifiableList(backends);
+    }
+
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void stop() {
+        backends.forEach(Backend::close);
+        if (null != group) {
+            group.shutdownGracefully();
+        }
+    }
+}
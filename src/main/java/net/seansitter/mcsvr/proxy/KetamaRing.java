@@ -0,0 +1,111 @@
+package net.seansitter.mcsvr.proxy;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * A ketama consistent hash ring, laid out the way libmemcached lays out its ketama ring so that
+ * clients using it and the proxy agree on where a key lives.
+ *
+ * Each server gets POINTS_PER_SERVER points: the md5 of "host:port-i" (just "host-i" on the
+ * default port) for i below POINTS_PER_SERVER / 4, each digest cut into four little endian 32 bit
+ * points. A key's hash is the first four bytes of its md5, little endian, and the key belongs to
+ * the server owning the first point at or after it, wrapping around. Adding or removing a server
+ * only moves the keys on the arcs it gains or loses.
+ */
+public class KetamaRing {
+    static final int POINTS_PER_SERVER = 160;
+    private static final int DEFAULT_PORT = 11211;
+
+    private static final ThreadLocal<MessageDigest> md5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final long[] points; // sorted
+    private final int[] owners; // index of the server owning each point
+
+    /**
+     * @param servers host:port of each server, a key maps to an index in this list
+     */
+    public KetamaRing(List<String> servers) {
+        if (servers.isEmpty()) {
+            throw new IllegalArgumentException("a ring needs at least one server");
+        }
+        int n = servers.size() * POINTS_PER_SERVER;
+        long[] unsorted = new long[n];
+        int[] unsortedOwners = new int[n];
+        int p = 0;
+        for (int s = 0; s < servers.size(); s++) {
+            String name = pointName(servers.get(s));
+            for (int i = 0; i < POINTS_PER_SERVER / 4; i++) {
+                byte[] digest = md5(name + "-" + i);
+                for (int h = 0; h < 4; h++) {
+                    unsorted[p] = le32(digest, h * 4);
+                    unsortedOwners[p++] = s;
+                }
+            }
+        }
+
+        Integer[] order = IntStream.range(0, n).boxed().toArray(Integer[]::new);
+        Arrays.sort(order, Comparator.comparingLong(i -> unsorted[i]));
+        points = new long[n];
+        owners = new int[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = unsorted[order[i]];
+            owners[i] = unsortedOwners[order[i]];
+        }
+    }
+
+    /**
+     * @return the index of the server the key belongs to
+     */
+    public int serverFor(String key) {
+        return serverFor(hash(key));
+    }
+
+    /**
+     * @param hash a key's hash, see hash()
+     * @return the index of the server the key belongs to
+     */
+    public int serverFor(long hash) {
+        int i = Arrays.binarySearch(points, hash);
+        if (i < 0) {
+            i = -i - 1; // first point after the hash
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /**
+     * @return the key's position on the ring, an unsigned 32 bit value
+     */
+    public static long hash(String key) {
+        return le32(md5(key), 0);
+    }
+
+    // libmemcached leaves the port out of the name on the default port
+    private static String pointName(String server) {
+        return server.endsWith(":" + DEFAULT_PORT) ?
+                server.substring(0, server.length() - (":" + DEFAULT_PORT).length()) : server;
+    }
+
+    private static byte[] md5(String s) {
+        return md5.get().digest(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long le32(byte[] b, int off) {
+        return (b[off] & 0xffL)
+                | (b[off + 1] & 0xffL) << 8
+                | (b[off + 2] & 0xffL) << 16
+                | (b[off + 3] & 0xffL) << 24;
+    }
+}
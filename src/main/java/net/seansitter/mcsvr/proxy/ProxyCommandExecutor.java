@@ -0,0 +1,206 @@
+package net.seansitter.mcsvr.proxy;
+
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.domain.command.ApiCommand;
+import net.seansitter.mcsvr.domain.command.DeleteCommand;
+import net.seansitter.mcsvr.domain.command.GetCommand;
+import net.seansitter.mcsvr.domain.command.StatsCommand;
+import net.seansitter.mcsvr.domain.command.StoreCommand;
+import net.seansitter.mcsvr.domain.result.*;
+import net.seansitter.mcsvr.handler.ApiCacheCommandExecutor;
+import net.seansitter.mcsvr.stats.ServerStats;
+import net.seansitter.mcsvr.stats.StatsReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static net.seansitter.mcsvr.cache.ResponseStatus.ErrorStatus;
+
+/**
+ * Executes commands by forwarding them to the backend their key hashes to, in place of
+ * ApiCacheCommandExecutorImpl when the server runs as a proxy.
+ *
+ * A get whose keys live on several backends is split, the parts are sent to their backends at
+ * once, and the hits are merged back in key order. A backend that fails or times out on a get
+ * answers it with misses, as though the items had been evicted, while a failed store or delete is
+ * a SERVER_ERROR. flush_all goes to every backend. stats reports on the proxy itself, with a
+ * "proxy" group for its backends.
+ */
+public class ProxyCommandExecutor implements ApiCacheCommandExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(ProxyCommandExecutor.class);
+
+    private final BackendPool pool;
+    private final ServerStats serverStats;
+    private final StatsReporter statsReporter;
+
+    @Inject
+    public ProxyCommandExecutor(BackendPool pool, ServerStats serverStats, StatsReporter statsReporter) {
+        this.pool = pool;
+        this.serverStats = serverStats;
+        this.statsReporter = statsReporter;
+    }
+
+    @Override
+    public CacheResult execute(ApiCommand command) {
+        logger.debug("proxying command: "+command);
+
+        switch (command.getName()) {
+            case "get":
+            case "gets":
+                return executeGetCommand((GetCommand)command);
+            case "set":
+            case "cas":
+                serverStats.cmdSet();
+                return forward(command, ((StoreCommand)command).getKey());
+            case "delete":
+                return forward(command, ((DeleteCommand)command).getKey());
+            case "flush_all":
+                serverStats.cmdFlush();
+                return broadcast(command);
+            case "stats":
+                return executeStatsCommand((StatsCommand)command);
+            case "lget":
+            case "lset":
+                // a lease lives in the cache that granted it, the client library doesn't speak leases yet
+                return new ErrorResult(ResponseStatus.ErrorStatus.CLIENT_ERROR, "leases are not proxied");
+        }
+        return null;
+    }
+
+    private CacheResult executeGetCommand(GetCommand c) {
+        List<String> keys = c.getKeys();
+        serverStats.cmdGet(keys.size());
+
+        // the keys of each backend, in the order their backends first come up
+        Map<Backend, GetCommand.Builder> parts = new LinkedHashMap<>();
+        Map<Backend, Long> hashes = new HashMap<>();
+        for (String key : keys) {
+            long hash = KetamaRing.hash(key);
+            Backend b = pool.route(hash);
+            parts.computeIfAbsent(b, x -> GetCommand.newBuilder().withName(c.getName())).withKey(key);
+            hashes.putIfAbsent(b, hash);
+        }
+
+        if (parts.size() == 1) {
+            Backend b = parts.keySet().iterator().next();
+            CacheResult r = await(b, b.send(c, hashes.get(b)));
+            return r instanceof GetCacheResult ? r : emptyGet(c);
+        }
+
+        List<Backend> sentTo = new ArrayList<>(parts.size());
+        List<CompletableFuture<CacheResult>> sent = new ArrayList<>(parts.size());
+        for (Map.Entry<Backend, GetCommand.Builder> e : parts.entrySet()) {
+            sentTo.add(e.getKey());
+            sent.add(e.getKey().send(e.getValue().build(), hashes.get(e.getKey())));
+        }
+
+        Map<String, CacheEntry<CacheValue>> hits = new HashMap<>();
+        for (int i = 0; i < sent.size(); i++) {
+            CacheResult r = await(sentTo.get(i), sent.get(i));
+            if (r instanceof GetCacheResult) {
+                for (CacheEntry<CacheValue> e : ((GetCacheResult)r).getCacheEntries()) {
+                    hits.put(e.getKey(), e);
+                }
+            }
+        }
+
+        List<CacheEntry<CacheValue>> entries = new ArrayList<>(hits.size());
+        for (String key : keys) {
+            CacheEntry<CacheValue> e = hits.get(key);
+            if (null != e) {
+                entries.add(e);
+            }
+        }
+        return c.getName().equals("gets") ? new GetsCacheResult(entries) : new GetCacheResult(entries);
+    }
+
+    private CacheResult forward(ApiCommand c, String key) {
+        long hash = KetamaRing.hash(key);
+        Backend b = pool.route(hash);
+        CompletableFuture<CacheResult> result = b.send(c, hash);
+        return c.isNoReply() ? null : await(b, result);
+    }
+
+    private CacheResult broadcast(ApiCommand c) {
+        List<CompletableFuture<CacheResult>> sent = new ArrayList<>();
+        for (Backend b : pool.getBackends()) {
+            sent.add(b.send(c, 0));
+        }
+        if (c.isNoReply()) {
+            return null;
+        }
+
+        CacheResult result = new FlushAllCacheResult(ResponseStatus.FlushStatus.OK);
+        for (int i = 0; i < sent.size(); i++) {
+            CacheResult r = await(pool.getBackends().get(i), sent.get(i));
+            if (!(r instanceof FlushAllCacheResult)) {
+                result = r; // report a backend's failure, after waiting on the rest
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Waits for a backend's result
+     *
+     * @return the result, or a SERVER_ERROR if the backend failed or timed out
+     */
+    private CacheResult await(Backend b, CompletableFuture<CacheResult> result) {
+        try {
+            return result.get(pool.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            b.error();
+            return new ErrorResult(ErrorStatus.SERVER_ERROR, "backend timed out");
+        }
+        catch (ExecutionException e) {
+            b.error();
+            logger.debug("backend "+b.getName()+" failed: "+e.getCause().getMessage());
+            return new ErrorResult(ErrorStatus.SERVER_ERROR, "backend unavailable");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ErrorResult(ErrorStatus.SERVER_ERROR, "interrupted");
+        }
+    }
+
+    private static CacheResult emptyGet(GetCommand c) {
+        return c.getName().equals("gets") ? new GetsCacheResult(new ArrayList<>()) :
+                new GetCacheResult(new ArrayList<>());
+    }
+
+    private CacheResult executeStatsCommand(StatsCommand c) {
+        Map<String, String> stats = "proxy".equalsIgnoreCase(c.getGroup()) ? proxyStats() :
+                statsReporter.report(c.getGroup());
+        if (null == stats) {
+            // unknown stats group, per protocol
+            return new ErrorResult(ErrorStatus.ERROR);
+        }
+        return new StatsCacheResult(stats);
+    }
+
+    protected Map<String, String> proxyStats() {
+        Map<String, String> s = new LinkedHashMap<>();
+        s.put("proxy:backends", String.valueOf(pool.getBackends().size()));
+        for (Backend b : pool.getBackends()) {
+            String prefix = "proxy:"+b.getName()+":";
+            s.put(prefix+"connected", String.valueOf(b.getConnected()));
+            s.put(prefix+"connects", String.valueOf(b.getConnects()));
+            s.put(prefix+"requests", String.valueOf(b.getRequests()));
+            s.put(prefix+"errors", String.valueOf(b.getErrors()));
+        }
+        return s;
+    }
+}
@@ -0,0 +1,112 @@
+package net.seansitter.mcsvr.repl;
+
+import net.seansitter.mcsvr.compress.Lz4Codec;
+import net.seansitter.mcsvr.wal.Mutation;
+import net.seansitter.mcsvr.wal.MutationCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Batches mutations into the frames of the replication stream.
+ *
+ * Stream: magic, then frames. Frame: raw length, length, bytes. The bytes are LZ4 compressed
+ * MutationCodec records if length is less than raw length, otherwise the records themselves.
+ * A frame is cut once it holds FRAME_BYTES of records, or when the sender runs out of queued
+ * mutations, so a quiet leader doesn't hold a mutation back.
+ */
+class FrameWriter {
+    static final int MAGIC = 0x4d435250; // MCRP
+    static final int FRAME_BYTES = 256 * 1024;
+
+    private final GatheringByteChannel ch;
+    private final List<ByteBuffer> records = new ArrayList<>();
+    private byte[] raw = new byte[FRAME_BYTES];
+    private byte[] compressed = new byte[Lz4Codec.maxCompressedLength(FRAME_BYTES)];
+    private final ByteBuffer header = ByteBuffer.allocate(8);
+    private int rawLen;
+
+    private final LongAdder frames;
+    private final LongAdder rawBytes;
+    private final LongAdder sentBytes;
+
+    // the counters are shared by all of the leader's streams
+    FrameWriter(GatheringByteChannel ch, LongAdder frames, LongAdder rawBytes, LongAdder sentBytes) {
+        this.ch = ch;
+        this.frames = frames;
+        this.rawBytes = rawBytes;
+        this.sentBytes = sentBytes;
+    }
+
+    void writeMagic() throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(4).putInt(MAGIC);
+        b.flip();
+        writeFully(b);
+    }
+
+    /**
+     * Adds a mutation to the current frame, writing the frame once it is full
+     */
+    void add(Mutation m) throws IOException {
+        records.clear();
+        MutationCodec.encode(m, records);
+        int len = 0;
+        for (ByteBuffer b : records) {
+            len += b.remaining();
+        }
+
+        if (rawLen + len > raw.length) {
+            raw = Arrays.copyOf(raw, Math.max(rawLen + len, raw.length * 2)); // a large value
+            compressed = new byte[Lz4Codec.maxCompressedLength(raw.length)];
+        }
+        for (ByteBuffer b : records) {
+            int n = b.remaining();
+            b.get(raw, rawLen, n);
+            rawLen += n;
+        }
+
+        if (rawLen >= FRAME_BYTES) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the current frame, if it has anything in it
+     */
+    void flush() throws IOException {
+        if (rawLen == 0) {
+            return;
+        }
+        int len = Lz4Codec.compress(raw, rawLen, compressed);
+        boolean isCompressed = len < rawLen;
+        header.clear();
+        header.putInt(rawLen).putInt(isCompressed ? len : rawLen);
+        header.flip();
+        ByteBuffer body = ByteBuffer.wrap(isCompressed ? compressed : raw, 0, isCompressed ? len : rawLen);
+        writeFully(header, body);
+
+        frames.increment();
+        rawBytes.add(rawLen);
+        sentBytes.add(8 + body.limit());
+        rawLen = 0;
+        if (raw.length > FRAME_BYTES * 4) {
+            raw = new byte[FRAME_BYTES]; // don't keep a buffer grown for one large value
+            compressed = new byte[Lz4Codec.maxCompressedLength(FRAME_BYTES)];
+        }
+    }
+
+    private void writeFully(ByteBuffer... bufs) throws IOException {
+        long len = 0;
+        for (ByteBuffer b : bufs) {
+            len += b.remaining();
+        }
+        for (long written = 0; written < len; ) {
+            written += ch.write(bufs);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package net.seansitter.mcsvr.repl;
+
+import net.seansitter.mcsvr.cache.CacheImpl;
+import net.seansitter.mcsvr.compress.Lz4Codec;
+import net.seansitter.mcsvr.wal.Mutation;
+import net.seansitter.mcsvr.wal.MutationCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Follows a ReplicationLeader, applying its mutations to this server's cache, so this server holds
+ * a warm copy of the leader's cache and can take over from it.
+ *
+ * A frame is decompressed and decoded outside the cache lock, then all of its mutations are
+ * applied under one acquisition of the write lock. Applied mutations aren't logged or streamed
+ * on. If the connection drops the follower keeps its items, and serving them, and reconnects
+ * every RETRY_MILLIS, each connection starting with a full sync that replaces them.
+ */
+public class ReplicationFollower {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationFollower.class);
+
+    private static final long RETRY_MILLIS = 1000;
+    private static final int MAX_FRAME = 1 << 30;
+
+    private final String leader; // host:port
+    private final CacheImpl cache;
+
+    private volatile boolean running;
+    private volatile boolean connected;
+    private volatile Socket socket;
+
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder fullSyncs = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
+
+    @Inject
+    public ReplicationFollower(@Named("replicaOf") String leader, CacheImpl cache) {
+        this.leader = leader;
+        this.cache = cache;
+    }
+
+    public boolean isEnabled() {
+        return null != leader && !leader.isEmpty();
+    }
+
+    /**
+     * Starts following the leader. Does nothing when disabled.
+     */
+    public synchronized void start() {
+        if (!isEnabled() || running) {
+            return;
+        }
+        InetSocketAddress addr = parse(leader);
+        running = true;
+
+        Thread t = new Thread(() -> followLoop(addr), "repl-follower");
+        t.setDaemon(true);
+        t.start();
+        logger.info("following replication leader "+leader);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        close(socket);
+    }
+
+    private void followLoop(InetSocketAddress addr) {
+        while (running) {
+            Socket s = new Socket();
+            socket = s;
+            try {
+                s.connect(addr, (int)RETRY_MILLIS);
+                s.setTcpNoDelay(true);
+                connected = true;
+                connects.increment();
+                follow(new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024)));
+            }
+            catch (IOException e) {
+                if (running) {
+                    logger.warn("lost replication leader "+leader+": "+e.getMessage());
+                }
+            }
+            finally {
+                connected = false;
+                close(s);
+            }
+
+            try {
+                TimeUnit.MILLISECONDS.sleep(RETRY_MILLIS);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(DataInputStream in) throws IOException {
+        if (in.readInt() != FrameWriter.MAGIC) {
+            throw new IOException("not a replication leader");
+        }
+        while (running) {
+            int rawLen = in.readInt();
+            int len = in.readInt();
+            if (len < 0 || rawLen < len || rawLen > MAX_FRAME) {
+                throw new IOException("bad frame length "+len+"/"+rawLen);
+            }
+            byte[] frame = new byte[len];
+            in.readFully(frame);
+            receivedBytes.add(8 + len);
+            apply(frame, rawLen);
+        }
+    }
+
+    /**
+     * Decodes a frame and applies its mutations
+     *
+     * @param frame the frame's bytes, compressed if shorter than rawLen
+     * @param rawLen the length of the frame's records
+     * @throws IOException if the frame is damaged
+     */
+    protected void apply(byte[] frame, int rawLen) throws IOException {
+        byte[] raw;
+        try {
+            raw = frame.length < rawLen ? Lz4Codec.decompress(frame, rawLen) : frame;
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("bad frame", e);
+        }
+
+        ByteBuffer records = ByteBuffer.wrap(raw);
+        List<Mutation> mutations = new ArrayList<>();
+        for (Mutation m; null != (m = MutationCodec.read(records)); ) {
+            mutations.add(m);
+            if (m.op == Mutation.SYNC) {
+                fullSyncs.increment();
+                logger.info("full sync from replication leader "+leader);
+            }
+        }
+
+        cache.restoreBatch(() -> mutations.forEach(cache::restore));
+        applied.add(mutations.size());
+        frames.increment();
+    }
+
+    private static InetSocketAddress parse(String hostPort) {
+        int colon = hostPort.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("replication leader must be host:port, not "+hostPort);
+        }
+        return new InetSocketAddress(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+    }
+
+    private static void close(Socket s) {
+        if (null == s) {
+            return;
+        }
+        try {
+            s.close();
+        }
+        catch (IOException e) {
+            logger.error("failed to close replication connection", e);
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getConnects() {
+        return connects.sum();
+    }
+
+    public long getFullSyncs() {
+        return fullSyncs.sum();
+    }
+
+    public long getApplied() {
+        return applied.sum();
+    }
+
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.sum();
+    }
+}
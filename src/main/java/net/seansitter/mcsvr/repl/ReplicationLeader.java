@@ -0,0 +1,249 @@
+package net.seansitter.mcsvr.repl;
+
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheImpl;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.wal.Mutation;
+import net.seansitter.mcsvr.wal.MutationListener;
+import net.seansitter.mcsvr.wal.MutationLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streams the cache's mutations to followers, see ReplicationFollower.
+ *
+ * Each follower that connects first gets a full sync: the items are copied under the cache's read
+ * lock, and under the same lock the follower's stream starts listening for mutations, so the copy
+ * and the stream that follows it neither miss nor repeat a mutation. The copy is sent as a SYNC
+ * followed by a SET for each item, then the stream sends the mutations queued meanwhile and after.
+ *
+ * The cache's write path only offers a mutation to each follower's queue. A follower that falls
+ * queueSize mutations behind is disconnected rather than slowing the cache down, it reconnects
+ * and is fully synced again. Mutations are batched into LZ4 compressed frames by a thread per
+ * follower.
+ */
+public class ReplicationLeader {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationLeader.class);
+
+    private static final int MAX_BATCH = 1024;
+
+    private final int port;
+    private final int queueSize;
+    private final CacheImpl cache;
+    private final MutationLog mutationLog;
+    private final Set<Stream> streams = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean running;
+    private ServerSocketChannel server;
+
+    private final LongAdder fullSyncs = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private final LongAdder mutations = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+
+    @Inject
+    public ReplicationLeader(@Named("replPort") int port,
+                             @Named("replQueueSize") int queueSize,
+                             CacheImpl cache,
+                             MutationLog mutationLog) {
+        this.port = port;
+        this.queueSize = queueSize;
+        this.cache = cache;
+        this.mutationLog = mutationLog;
+    }
+
+    public boolean isEnabled() {
+        return port > 0;
+    }
+
+    /**
+     * Listens for followers. Does nothing when disabled.
+     *
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        if (!isEnabled() || running) {
+            return;
+        }
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        running = true;
+
+        Thread acceptor = new Thread(this::acceptLoop, "repl-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("replication leader listening on port "+port);
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            server.close();
+        }
+        catch (IOException e) {
+            logger.error("failed to close replication listener", e);
+        }
+        streams.forEach(Stream::close);
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel ch = server.accept();
+                ch.socket().setTcpNoDelay(true);
+                Stream s = new Stream(ch);
+                streams.add(s);
+                Thread t = new Thread(s, "repl-stream-"+ch.getRemoteAddress());
+                t.setDaemon(true);
+                t.start();
+            }
+            catch (IOException e) {
+                if (running) {
+                    logger.error("failed to accept follower", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * One follower's connection
+     */
+    private class Stream implements MutationListener, Runnable {
+        private final SocketChannel ch;
+        private final BlockingQueue<Mutation> queue = new ArrayBlockingQueue<>(queueSize);
+        private volatile boolean overflowed;
+
+        Stream(SocketChannel ch) {
+            this.ch = ch;
+        }
+
+        @Override
+        public void mutated(Mutation m) {
+            if (!overflowed && !queue.offer(m)) {
+                overflowed = true; // the stream closes the connection, never block the cache
+            }
+        }
+
+        @Override
+        public void run() {
+            logger.info("follower connected from "+ch.socket().getRemoteSocketAddress());
+            FrameWriter out = new FrameWriter(ch, frames, rawBytes, sentBytes);
+            try {
+                out.writeMagic();
+                fullSync(out);
+                stream(out);
+            }
+            catch (IOException e) {
+                logger.warn("replication to "+ch.socket().getRemoteSocketAddress()+" stopped: "+e.getMessage());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                close();
+            }
+        }
+
+        private void fullSync(FrameWriter out) throws IOException {
+            long[] flushCas = new long[1];
+            List<CacheEntry<CacheValue>> items = cache.snapshot(() -> {
+                mutationLog.addListener(this);
+                flushCas[0] = cache.getFlushCas();
+            });
+
+            out.add(new Mutation(Mutation.SYNC, null, null, flushCas[0]));
+            for (CacheEntry<CacheValue> e : items) {
+                out.add(new Mutation(Mutation.SET, e.getKey(), e.getValue(), e.getValue().getCasUnique()));
+            }
+            out.flush();
+            fullSyncs.increment();
+            mutations.add(items.size() + 1);
+            logger.info("fully synced "+items.size()+" item(s) to "+ch.socket().getRemoteSocketAddress());
+        }
+
+        private void stream(FrameWriter out) throws IOException, InterruptedException {
+            List<Mutation> batch = new ArrayList<>(MAX_BATCH);
+            while (running) {
+                if (overflowed) {
+                    overflows.increment();
+                    throw new IOException("follower fell "+queueSize+" mutations behind, it must resync");
+                }
+                Mutation first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (Mutation m : batch) {
+                    out.add(m);
+                }
+                mutations.add(batch.size());
+                batch.clear();
+
+                // cut the frame once nothing more is waiting
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        }
+
+        void close() {
+            mutationLog.removeListener(this);
+            streams.remove(this);
+            try {
+                ch.close();
+            }
+            catch (IOException e) {
+                logger.error("failed to close follower connection", e);
+            }
+        }
+    }
+
+    public int getFollowers() {
+        return streams.size();
+    }
+
+    public long getFullSyncs() {
+        return fullSyncs.sum();
+    }
+
+    public long getOverflows() {
+        return overflows.sum();
+    }
+
+    public long getMutations() {
+        return mutations.sum();
+    }
+
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.sum();
+    }
+}
@@ -0,0 +1,123 @@
+package net.seansitter.mcsvr.stats;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms for each cache command. Each command tracks the time it waited in the
+ * command executor queue and the time it took to execute against the cache. A long queue wait
+ * with a short execution points to a busy connection, while long executions across connections
+ * point to lock contention in the cache.
+ *
+ * Multi-gets additionally track execution time by the number of keys requested, since a 500 key
+ * get is expected to take longer than a single key one.
+ */
+public class CommandLatencies {
+    public static final List<String> COMMANDS =
+            Collections.unmodifiableList(Arrays.asList("get", "gets", "set", "cas", "delete"));
+
+    // upper bound (inclusive) on the key count of each multi-get bucket, the last bucket is open ended
+    private static final int[] MULTI_GET_BOUNDS = {1, 10, 50, 100, 500, Integer.MAX_VALUE};
+    public static final List<String> MULTI_GET_BUCKETS =
+            Collections.unmodifiableList(Arrays.asList("1", "2-10", "11-50", "51-100", "101-500", "501+"));
+
+    private final Latency get = new Latency();
+    private final Latency gets = new Latency();
+    private final Latency set = new Latency();
+    private final Latency cas = new Latency();
+    private final Latency delete = new Latency();
+    private final LatencyHistogram[] multiGet = new LatencyHistogram[MULTI_GET_BOUNDS.length];
+
+    public CommandLatencies() {
+        for (int i = 0; i < multiGet.length; i++) {
+            multiGet[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records a command's latency, commands without a histogram are ignored
+     *
+     * @param command the command name
+     * @param queueNanos nanos between receiving the command and starting execution
+     * @param execNanos nanos executing the command
+     */
+    public void record(String command, long queueNanos, long execNanos) {
+        Latency l = forCommand(command);
+        if (null != l) {
+            l.queue.record(queueNanos);
+            l.exec.record(execNanos);
+        }
+    }
+
+    /**
+     * Records a get or gets execution time in the bucket for its key count
+     *
+     * @param keyCount number of keys requested
+     * @param execNanos nanos executing the command
+     */
+    public void recordMultiGet(int keyCount, long execNanos) {
+        multiGet[bucketFor(keyCount)].record(execNanos);
+    }
+
+    /**
+     * @param bucket one of MULTI_GET_BUCKETS
+     * @return the execution histogram for multi-gets in the bucket
+     */
+    public LatencyHistogram forMultiGet(String bucket) {
+        int i = MULTI_GET_BUCKETS.indexOf(bucket);
+        return i < 0 ? null : multiGet[i];
+    }
+
+    private static int bucketFor(int keyCount) {
+        int i = 0;
+        while (keyCount > MULTI_GET_BOUNDS[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param command the command name
+     * @return the latencies for a command, or null if the command is not tracked
+     */
+    public Latency forCommand(String command) {
+        if (null == command) {
+            return null;
+        }
+        switch (command) {
+            case "get": return get;
+            case "gets": return gets;
+            case "set": return set;
+            case "cas": return cas;
+            case "delete": return delete;
+            default: return null;
+        }
+    }
+
+    /**
+     * Queue wait and execution histograms for a single command
+     */
+    public static class Latency {
+        public final LatencyHistogram queue = new LatencyHistogram();
+        public final LatencyHistogram exec = new LatencyHistogram();
+
+        public long getCount() {
+            return exec.getCount();
+        }
+
+        public long getQueueMicros(double percentile) {
+            return TimeUnit.NANOSECONDS.toMicros(queue.getValueAtPercentile(percentile));
+        }
+
+        public long getExecMicros(double percentile) {
+            return TimeUnit.NANOSECONDS.toMicros(exec.getValueAtPercentile(percentile));
+        }
+
+        public void reset() {
+            queue.reset();
+            exec.reset();
+        }
+    }
+}
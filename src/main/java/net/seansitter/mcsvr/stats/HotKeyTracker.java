@@ -0,0 +1,178 @@
+package net.seansitter.mcsvr.stats;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tracks the hottest keys by request rate and by bytes served over a sliding window.
+ *
+ * To keep overhead off the hot path only 1 in sampleRate calls is recorded, the others cost a
+ * thread local random number. Sampled calls go to a space-saving sketch under a lock, the sketch
+ * is bounded to capacity keys so memory is bounded as well. Reported counts are scaled back up
+ * by the sample rate.
+ *
+ * A ReentrantLock rather than a monitor, so a contended lock doesn't pin a virtual thread's carrier.
+ *
+ * The window is made of two halves. Every half window the older half is dropped, so a report
+ * always covers between half a window and a full window of traffic.
+ */
+public class HotKeyTracker {
+    private final int sampleRate;
+    private final int capacity;
+    private final long halfWindowNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // guarded by lock
+    private SpaceSavingSketch currRequests;
+    private SpaceSavingSketch currBytes;
+    private SpaceSavingSketch prevRequests;
+    private SpaceSavingSketch prevBytes;
+    private long currStartedAt;
+    private long prevStartedAt;
+
+    @Inject
+    public HotKeyTracker(@Named("hotKeySampleRate") int sampleRate,
+                         @Named("hotKeyCapacity") int capacity,
+                         @Named("hotKeyWindow") int windowSecs) {
+        this.sampleRate = sampleRate;
+        this.capacity = capacity;
+        this.halfWindowNanos = TimeUnit.SECONDS.toNanos(Math.max(windowSecs, 2)) / 2;
+        this.currRequests = new SpaceSavingSketch(capacity);
+        this.currBytes = new SpaceSavingSketch(capacity);
+        this.prevRequests = new SpaceSavingSketch(capacity);
+        this.prevBytes = new SpaceSavingSketch(capacity);
+        this.currStartedAt = this.prevStartedAt = System.nanoTime();
+    }
+
+    public boolean isEnabled() {
+        return sampleRate > 0;
+    }
+
+    /**
+     * Records a request for a key
+     *
+     * @param key
+     */
+    public void recordRequest(String key) {
+        if (sample()) {
+            lock.lock();
+            try {
+                rotate(System.nanoTime());
+                currRequests.add(key, 1);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Records bytes served for a key
+     *
+     * @param key
+     * @param bytes
+     */
+    public void recordBytes(String key, long bytes) {
+        if (sample()) {
+            lock.lock();
+            try {
+                rotate(System.nanoTime());
+                currBytes.add(key, bytes);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @param n
+     * @return the top n keys by estimated requests per second
+     */
+    public List<HotKey> topByRequests(int n) {
+        return top(n, true);
+    }
+
+    /**
+     * @param n
+     * @return the top n keys by estimated bytes served per second
+     */
+    public List<HotKey> topByBytes(int n) {
+        return top(n, false);
+    }
+
+    private List<HotKey> top(int n, boolean requests) {
+        List<SpaceSavingSketch.Counter> top;
+        long elapsed;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            rotate(now);
+            SpaceSavingSketch merged = new SpaceSavingSketch(capacity * 2);
+            merged.addAll(requests ? prevRequests : prevBytes);
+            merged.addAll(requests ? currRequests : currBytes);
+            top = merged.top(n);
+            elapsed = now - prevStartedAt;
+        }
+        finally {
+            lock.unlock();
+        }
+
+        double secs = Math.max(1.0, elapsed / 1e9);
+        List<HotKey> hot = new ArrayList<>(top.size());
+        top.forEach(c -> hot.add(new HotKey(c.key, (long)((c.count * sampleRate) / secs))));
+        return hot;
+    }
+
+    // must hold the lock
+    private void rotate(long now) {
+        if (now - currStartedAt < halfWindowNanos) {
+            return;
+        }
+
+        // recycle the older half
+        SpaceSavingSketch r = prevRequests;
+        SpaceSavingSketch b = prevBytes;
+        r.clear();
+        b.clear();
+
+        if (now - currStartedAt >= 2 * halfWindowNanos) {
+            // idle for a whole window, both halves are stale
+            currRequests.clear();
+            currBytes.clear();
+            currStartedAt = now - halfWindowNanos;
+        }
+
+        prevRequests = currRequests;
+        prevBytes = currBytes;
+        prevStartedAt = currStartedAt;
+        currRequests = r;
+        currBytes = b;
+        currStartedAt = now;
+    }
+
+    private boolean sample() {
+        return sampleRate > 0 && (sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0);
+    }
+
+    public static class HotKey {
+        public final String key;
+        public final long perSecond;
+
+        public HotKey(String key, long perSecond) {
+            this.key = key;
+            this.perSecond = perSecond;
+        }
+
+        @Override
+        public String toString() {
+            return key+" "+perSecond;
+        }
+    }
+}
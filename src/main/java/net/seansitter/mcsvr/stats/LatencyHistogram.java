@@ -0,0 +1,132 @@
+package net.seansitter.mcsvr.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A log-linear latency histogram in the style of HdrHistogram. Values are bucketed by their
+ * power of two, and each power of two is split into 2^SUB_BITS linear sub-buckets, which bounds
+ * the relative error of any reported value to about 3%.
+ *
+ * The buckets are a fixed AtomicLongArray, so recording never allocates or locks. Percentiles
+ * are computed by walking the buckets on read, readers may see a slightly torn snapshot which
+ * is fine for monitoring.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_BITS = 40; // ~18 minutes in nanos, larger values are clamped
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int BUCKET_COUNT = (MAX_BITS - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Records a single value
+     *
+     * @param value, normally nanoseconds
+     */
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(value));
+    }
+
+    /**
+     * Records a value count times, used for coordinated omission correction
+     *
+     * @param value
+     * @param count
+     */
+    public void record(long value, long count) {
+        counts.addAndGet(indexOf(value), count);
+    }
+
+    public long getCount() {
+        long c = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            c += counts.get(i);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the value at the given percentile
+     *
+     * @param percentile between 0 and 100, ex: 99.9
+     * @return the highest value equivalent to the bucket the percentile falls in, 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long)Math.ceil((percentile / 100) * total));
+        long acc = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            acc += counts.get(i);
+            if (acc >= target) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return highestEquivalentValue(BUCKET_COUNT - 1);
+    }
+
+    public long getMaxValue() {
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds all the counts of another histogram to this one
+     *
+     * @param other
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = other.counts.get(i);
+            if (c > 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    protected static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return value < 0 ? 0 : (int)value;
+        }
+        if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BITS; // low bits dropped by this bucket
+        int sub = (int)(value >>> shift) & (SUB_COUNT - 1);
+        return (shift + 1) * SUB_COUNT + sub;
+    }
+
+    protected static long lowestEquivalentValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        int sub = index % SUB_COUNT;
+        return ((long)(SUB_COUNT + sub)) << shift;
+    }
+
+    protected static long highestEquivalentValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        return lowestEquivalentValue(index) + (1L << shift) - 1;
+    }
+}
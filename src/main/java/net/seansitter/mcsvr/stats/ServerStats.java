@@ -0,0 +1,218 @@
+package net.seansitter.mcsvr.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server wide command and connection counters, reported by the stats command.
+ *
+ * The counters are incremented from every worker and io thread, so they are kept in
+ * striped LongAdders. Writers never contend on a single cache line, and the cells are
+ * only summed when stats are collected.
+ */
+public class ServerStats {
+    private final long startedAt = System.currentTimeMillis() / 1000;
+
+    private final LongAdder cmdGet = new LongAdder();
+    private final LongAdder cmdSet = new LongAdder();
+    private final LongAdder cmdFlush = new LongAdder();
+    private final LongAdder deleteHits = new LongAdder();
+    private final LongAdder deleteMisses = new LongAdder();
+    private final LongAdder casHits = new LongAdder();
+    private final LongAdder casMisses = new LongAdder();
+    private final LongAdder casBadVal = new LongAdder();
+    private final LongAdder currConnections = new LongAdder();
+    private final LongAdder totalConnections = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder currPaused = new LongAdder();
+    private final LongAdder totalPaused = new LongAdder();
+    private final LongAdder commandsShed = new LongAdder();
+    private final LongAdder currTracking = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder leaseGrants = new LongAdder();
+    private final LongAdder leaseWaits = new LongAdder();
+    private final LongAdder leaseStale = new LongAdder();
+    private final LongAdder leaseSetsRefused = new LongAdder();
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    // one per key requested, so cmd_get = get_hits + get_misses
+    public void cmdGet(int keys) {
+        cmdGet.add(keys);
+    }
+
+    public void cmdSet() {
+        cmdSet.increment();
+    }
+
+    public void cmdFlush() {
+        cmdFlush.increment();
+    }
+
+    public void deleteHit() {
+        deleteHits.increment();
+    }
+
+    public void deleteMiss() {
+        deleteMisses.increment();
+    }
+
+    public void casHit() {
+        casHits.increment();
+    }
+
+    public void casMiss() {
+        casMisses.increment();
+    }
+
+    public void casBadVal() {
+        casBadVal.increment();
+    }
+
+    public void connectionOpened() {
+        currConnections.increment();
+        totalConnections.increment();
+    }
+
+    public void connectionClosed() {
+        currConnections.decrement();
+    }
+
+    public void bytesRead(long n) {
+        bytesRead.add(n);
+    }
+
+    public void bytesWritten(long n) {
+        bytesWritten.add(n);
+    }
+
+    // reads from a connection were paused for backpressure
+    public void connectionPaused() {
+        currPaused.increment();
+        totalPaused.increment();
+    }
+
+    public void connectionResumed() {
+        currPaused.decrement();
+    }
+
+    // a command was answered with an error instead of executed
+    public void commandShed() {
+        commandsShed.increment();
+    }
+
+    // a connection turned client tracking on
+    public void trackingStarted() {
+        currTracking.increment();
+    }
+
+    public void trackingStopped() {
+        currTracking.decrement();
+    }
+
+    // an invalidation was pushed to a tracking connection
+    public void invalidationPushed() {
+        invalidations.increment();
+    }
+
+    // an lget missed and was granted the lease
+    public void leaseGranted() {
+        leaseGrants.increment();
+    }
+
+    // an lget missed while another client held the lease, stale if it was served the old value
+    public void leaseWaited(boolean stale) {
+        (stale ? leaseStale : leaseWaits).increment();
+    }
+
+    // an lset was refused, its lease was revoked, replaced or timed out
+    public void leaseSetRefused() {
+        leaseSetsRefused.increment();
+    }
+
+    public long getCmdGet() {
+        return cmdGet.sum();
+    }
+
+    public long getCmdSet() {
+        return cmdSet.sum();
+    }
+
+    public long getCmdFlush() {
+        return cmdFlush.sum();
+    }
+
+    public long getDeleteHits() {
+        return deleteHits.sum();
+    }
+
+    public long getDeleteMisses() {
+        return deleteMisses.sum();
+    }
+
+    public long getCasHits() {
+        return casHits.sum();
+    }
+
+    public long getCasMisses() {
+        return casMisses.sum();
+    }
+
+    public long getCasBadVal() {
+        return casBadVal.sum();
+    }
+
+    public long getCurrConnections() {
+        return currConnections.sum();
+    }
+
+    public long getTotalConnections() {
+        return totalConnections.sum();
+    }
+
+    public long getCurrPaused() {
+        return currPaused.sum();
+    }
+
+    public long getTotalPaused() {
+        return totalPaused.sum();
+    }
+
+    public long getCommandsShed() {
+        return commandsShed.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getCurrTracking() {
+        return currTracking.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public long getLeaseGrants() {
+        return leaseGrants.sum();
+    }
+
+    public long getLeaseWaits() {
+        return leaseWaits.sum();
+    }
+
+    public long getLeaseStale() {
+        return leaseStale.sum();
+    }
+
+    public long getLeaseSetsRefused() {
+        return leaseSetsRefused.sum();
+    }
+}
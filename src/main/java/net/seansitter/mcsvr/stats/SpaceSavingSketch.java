@@ -0,0 +1,101 @@
+package net.seansitter.mcsvr.stats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Space-saving heavy hitters sketch (Metwally et al). Tracks at most capacity keys. When a new key
+ * arrives and the sketch is full, the key with the smallest count is replaced and the new key
+ * inherits its count as error. Any key with a true count above total / capacity is guaranteed to
+ * be in the sketch, and each reported count overestimates by at most its error.
+ *
+ * This class is not thread safe.
+ */
+public class SpaceSavingSketch {
+    private final int capacity;
+    private final HashMap<String, Counter> counters;
+
+    public SpaceSavingSketch(int capacity) {
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Adds weight to a key, weight is 1 when counting requests or the item size when counting bytes
+     *
+     * @param key
+     * @param weight
+     */
+    public void add(String key, long weight) {
+        Counter c = counters.get(key);
+        if (null != c) {
+            c.count += weight;
+            return;
+        }
+
+        if (counters.size() < capacity) {
+            counters.put(key, new Counter(key, weight, 0));
+            return;
+        }
+
+        // replace the minimum, capacity is small so a scan is cheaper than maintaining a heap
+        Counter min = null;
+        for (Counter x : counters.values()) {
+            if (null == min || x.count < min.count) {
+                min = x;
+            }
+        }
+        counters.remove(min.key);
+        counters.put(key, new Counter(key, min.count + weight, min.count));
+    }
+
+    /**
+     * Adds all the counts of another sketch to this one
+     *
+     * @param other
+     */
+    public void addAll(SpaceSavingSketch other) {
+        other.counters.values().forEach(c -> {
+            Counter mine = counters.get(c.key);
+            if (null != mine) {
+                mine.count += c.count;
+                mine.error += c.error;
+            }
+            else {
+                counters.put(c.key, new Counter(c.key, c.count, c.error));
+            }
+        });
+    }
+
+    /**
+     * @param n
+     * @return copies of the n counters with the highest counts, highest first
+     */
+    public List<Counter> top(int n) {
+        List<Counter> l = new ArrayList<>(counters.size());
+        counters.values().forEach(c -> l.add(new Counter(c.key, c.count, c.error)));
+        l.sort((a, b) -> Long.compare(b.count, a.count));
+        return l.size() > n ? new ArrayList<>(l.subList(0, n)) : l;
+    }
+
+    public int size() {
+        return counters.size();
+    }
+
+    public void clear() {
+        counters.clear();
+    }
+
+    public static class Counter {
+        public final String key;
+        public long count;
+        public long error;
+
+        public Counter(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package net.seansitter.mcsvr.stats;
+
+import net.seansitter.mcsvr.cache.CacheMetrics;
+import net.seansitter.mcsvr.compress.ValueCompressor;
+import net.seansitter.mcsvr.extstore.ExtStore;
+import net.seansitter.mcsvr.repl.ReplicationFollower;
+import net.seansitter.mcsvr.repl.ReplicationLeader;
+import net.seansitter.mcsvr.wal.MutationLog;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the server counters, cache metrics and settings into the name/value pairs
+ * of the memcache stats command. Groups:
+ * stats\r\n
+ * stats items\r\n
+ * stats slabs\r\n
+ * stats settings\r\n
+ * stats latency\r\n
+ * stats hotkeys\r\n
+ * stats compression\r\n
+ * stats extstore\r\n
+ * stats wal\r\n
+ * stats repl\r\n
+ */
+public class StatsReporter {
+    private static final String VERSION = "1.0";
+    private static final int HOT_KEYS_REPORTED = 10;
+
+    private final ServerStats serverStats;
+    private final CacheMetrics cacheMetrics;
+    private final CommandLatencies latencies;
+    private final HotKeyTracker hotKeys;
+    private final ValueCompressor compressor;
+    private final ExtStore extStore;
+    private final MutationLog mutationLog;
+    private final ReplicationLeader replicationLeader;
+    private final ReplicationFollower replicationFollower;
+    private final int port;
+    private final int maxCacheBytes;
+    private final int reapInterval;
+    private final int idleTimeout;
+    private final int serverTimeout;
+    private final int lruRecoverPct;
+
+    @Inject
+    public StatsReporter(ServerStats serverStats,
+                         @Named("cacheMetrics") CacheMetrics cacheMetrics,
+                         CommandLatencies latencies,
+                         HotKeyTracker hotKeys,
+                         ValueCompressor compressor,
+                         ExtStore extStore,
+                         MutationLog mutationLog,
+                         ReplicationLeader replicationLeader,
+                         ReplicationFollower replicationFollower,
+                         @Named("svrPort") int port,
+                         @Named("maxCacheBytes") int maxCacheBytes,
+                         @Named("reapInterval") int reapInterval,
+                         @Named("idleTimeout") int idleTimeout,
+                         @Named("serverTimeout") int serverTimeout,
+                         @Named("lruRecoverPct") int lruRecoverPct) {
+        this.serverStats = serverStats;
+        this.cacheMetrics = cacheMetrics;
+        this.latencies = latencies;
+        this.hotKeys = hotKeys;
+        this.compressor = compressor;
+        this.extStore = extStore;
+        this.mutationLog = mutationLog;
+        this.replicationLeader = replicationLeader;
+        this.replicationFollower = replicationFollower;
+        this.port = port;
+        this.maxCacheBytes = maxCacheBytes;
+        this.reapInterval = reapInterval;
+        this.idleTimeout = idleTimeout;
+        this.serverTimeout = serverTimeout;
+        this.lruRecoverPct = lruRecoverPct;
+    }
+
+    /**
+     * Reports a stats group
+     *
+     * @param group the stats sub command, empty for general stats
+     * @return ordered stat names and values, or null if the group is unknown
+     */
+    public Map<String, String> report(String group) {
+        if (null == group || group.isEmpty()) {
+            return general();
+        }
+        if (group.equalsIgnoreCase("items")) {
+            return items();
+        }
+        if (group.equalsIgnoreCase("slabs")) {
+            return slabs();
+        }
+        if (group.equalsIgnoreCase("settings")) {
+            return settings();
+        }
+        if (group.equalsIgnoreCase("latency")) {
+            return latency();
+        }
+        if (group.equalsIgnoreCase("hotkeys")) {
+            return hotKeys();
+        }
+        if (group.equalsIgnoreCase("compression")) {
+            return compression();
+        }
+        if (group.equalsIgnoreCase("extstore")) {
+            return extStore();
+        }
+        if (group.equalsIgnoreCase("wal")) {
+            return wal();
+        }
+        if (group.equalsIgnoreCase("repl")) {
+            return repl();
+        }
+        return null;
+    }
+
+    protected Map<String, String> general() {
+        long now = System.currentTimeMillis() / 1000;
+
+        Map<String, String> s = new LinkedHashMap<>();
+        s.put("pid", pid());
+        s.put("uptime", String.valueOf(now - serverStats.getStartedAt()));
+        s.put("time", String.valueOf(now));
+        s.put("version", VERSION);
+        s.put("pointer_size", System.getProperty("sun.arch.data.model", "64"));
+        s.put("curr_connections", String.valueOf(serverStats.getCurrConnections()));
+        s.put("total_connections", String.valueOf(serverStats.getTotalConnections()));
+        s.put("curr_paused_connections", String.valueOf(serverStats.getCurrPaused()));
+        s.put("total_paused_connections", String.valueOf(serverStats.getTotalPaused()));
+        s.put("shed_commands", String.valueOf(serverStats.getCommandsShed()));
+        s.put("tracking_connections", String.valueOf(serverStats.getCurrTracking()));
+        s.put("tracking_invalidations", String.valueOf(serverStats.getInvalidations()));
+        s.put("lease_grants", String.valueOf(serverStats.getLeaseGrants()));
+        s.put("lease_waits", String.valueOf(serverStats.getLeaseWaits()));
+        s.put("lease_stale", String.valueOf(serverStats.getLeaseStale()));
+        s.put("lease_sets_refused", String.valueOf(serverStats.getLeaseSetsRefused()));
+        s.put("cmd_get", String.valueOf(serverStats.getCmdGet()));
+        s.put("cmd_set", String.valueOf(serverStats.getCmdSet()));
+        s.put("cmd_flush", String.valueOf(serverStats.getCmdFlush()));
+        s.put("get_hits", String.valueOf(cacheMetrics.getHits()));
+        s.put("get_misses", String.valueOf(cacheMetrics.getMisses()));
+        s.put("get_stale", String.valueOf(cacheMetrics.getStaleHits()));
+        s.put("get_recache", String.valueOf(cacheMetrics.getRecaches()));
+        s.put("get_early_expire", String.valueOf(cacheMetrics.getEarlyExpirations()));
+        s.put("delete_misses", String.valueOf(serverStats.getDeleteMisses()));
+        s.put("delete_hits", String.valueOf(serverStats.getDeleteHits()));
+        s.put("cas_misses", String.valueOf(serverStats.getCasMisses()));
+        s.put("cas_hits", String.valueOf(serverStats.getCasHits()));
+        s.put("cas_badval", String.valueOf(serverStats.getCasBadVal()));
+        s.put("bytes_read", String.valueOf(serverStats.getBytesRead()));
+        s.put("bytes_written", String.valueOf(serverStats.getBytesWritten()));
+        s.put("limit_maxbytes", String.valueOf(maxCacheBytes));
+        s.put("bytes", String.valueOf(cacheMetrics.getSize()));
+        s.put("curr_items", String.valueOf(cacheMetrics.getItems()));
+        s.put("total_items", String.valueOf(cacheMetrics.getTotalItems()));
+        s.put("expired_unfetched", String.valueOf(cacheMetrics.getExpiredUnfetched()));
+        s.put("evictions", String.valueOf(cacheMetrics.getEvictions()));
+        s.put("reclaimed", String.valueOf(cacheMetrics.getReclaimed()));
+        return s;
+    }
+
+    /**
+     * The cache has a single lru, so items are reported as one class
+     */
+    protected Map<String, String> items() {
+        Map<String, String> s = new LinkedHashMap<>();
+        s.put("items:1:number", String.valueOf(cacheMetrics.getItems()));
+        s.put("items:1:evicted", String.valueOf(cacheMetrics.getEvictions()));
+        s.put("items:1:expired_unfetched", String.valueOf(cacheMetrics.getExpiredUnfetched()));
+        s.put("items:1:reclaimed", String.valueOf(cacheMetrics.getReclaimed()));
+        return s;
+    }
+
+    /**
+     * Values are allocated on the heap rather than in slabs, so this reports the whole
+     * cache as a single slab class
+     */
+    protected Map<String, String> slabs() {
+        Map<String, String> s = new LinkedHashMap<>();
+        s.put("1:used_chunks", String.valueOf(cacheMetrics.getItems()));
+        s.put("1:mem_requested", String.valueOf(cacheMetrics.getSize()));
+        s.put("1:cmd_set", String.valueOf(serverStats.getCmdSet()));
+        s.put("active_slabs", "1");
+        s.put("total_malloced", String.valueOf(cacheMetrics.getSize()));
+        return s;
+    }
+
+    protected Map<String, String> settings() {
+        Map<String, String> s = new LinkedHashMap<>();
+        s.put("maxbytes", String.valueOf(maxCacheBytes));
+        s.put("tcpport", String.valueOf(port));
+        s.put("evictions", "on");
+        s.put("cas_enabled", "yes");
+        s.put("reap_interval", String.valueOf(reapInterval));
+        s.put("idle_timeout", String.valueOf(idleTimeout));
+        s.put("server_timeout", String.valueOf(serverTimeout));
+        s.put("lru_recover_pct", String.valueOf(lruRecoverPct));
+        return s;
+    }
+
+    /**
+     * Queue wait and execution percentiles in micros for each command, and multi-get execution
+     * percentiles by the number of keys requested
+     */
+    protected Map<String, String> latency() {
+        Map<String, String> s = new LinkedHashMap<>();
+        for (String cmd : CommandLatencies.COMMANDS) {
+            CommandLatencies.Latency l = latencies.forCommand(cmd);
+            s.put(cmd+":count", String.valueOf(l.getCount()));
+            s.put(cmd+":queue_p50_us", String.valueOf(l.getQueueMicros(50)));
+            s.put(cmd+":queue_p99_us", String.valueOf(l.getQueueMicros(99)));
+            s.put(cmd+":queue_p999_us", String.valueOf(l.getQueueMicros(99.9)));
+            s.put(cmd+":exec_p50_us", String.valueOf(l.getExecMicros(50)));
+            s.put(cmd+":exec_p99_us", String.valueOf(l.getExecMicros(99)));
+            s.put(cmd+":exec_p999_us", String.valueOf(l.getExecMicros(99.9)));
+        }
+        for (String bucket : CommandLatencies.MULTI_GET_BUCKETS) {
+            LatencyHistogram h = latencies.forMultiGet(bucket);
+            s.put("get_keys_"+bucket+":count", String.valueOf(h.getCount()));
+            s.put("get_keys_"+bucket+":exec_p50_us", String.valueOf(micros(h, 50)));
+            s.put("get_keys_"+bucket+":exec_p99_us", String.valueOf(micros(h, 99)));
+            s.put("get_keys_"+bucket+":exec_p999_us", String.valueOf(micros(h, 99.9)));
+        }
+        return s;
+    }
+
+    private static long micros(LatencyHistogram h, double percentile) {
+        return TimeUnit.NANOSECONDS.toMicros(h.getValueAtPercentile(percentile));
+    }
+
+    /**
+     * Estimated requests/sec and bytes/sec of the hottest keys over the hot key window,
+     * as hotkeys:requests:<rank>:<key> <per sec>
+     */
+    protected Map<String, String> hotKeys() {
+        Map<String, String> s = new LinkedHashMap<>();
+        s.put("hotkeys:enabled", hotKeys.isEnabled() ? "yes" : "no");
+        int rank = 1;
+        for (HotKeyTracker.HotKey k : hotKeys.topByRequests(HOT_KEYS_REPORTED)) {
+            s.put("hotkeys:requests:"+(rank++)+":"+k.key, String.valueOf(k.perSecond));
+        }
+        rank = 1;
+        for (HotKeyTracker.HotKey k : hotKeys.topByBytes(HOT_KEYS_REPORTED)) {
+            s.put("hotkeys:bytes:"+(rank++)+":"+k.key, String.valueOf(k.perSecond));
+        }
+        return s;
+    }
+
+    /**
+     * How often compression pays off, the bytes it saves and the cpu it costs. The hit ratio is
+     * the share of compression attempts whose result was kept.
+     */
+    protected Map<String, String> compression() {
+        long attempts = compressor.getAttempts();
+        long compressed = compressor.getCompressed();
+        long raw = compressor.getRawBytes();
+        long stored = compressor.getCompressedBytes();
+
+        Map<String, String> s = new LinkedHashMap<>();
+        s.put("compression:enabled", compressor.isEnabled() ? "yes" : "no");
+        s.put("compression:threshold", String.valueOf(compressor.getThreshold()));
+        s.put("compression:backed_off", compressor.isBackedOff() ? "yes" : "no");
+        s.put("compression:attempts", String.valueOf(attempts));
+        s.put("compression:hits", String.valueOf(compressed));
+        s.put("compression:misses", String.valueOf(attempts - compressed));
+        s.put("compression:skipped", String.valueOf(compressor.getSkipped()));
+        s.put("compression:hit_ratio", String.format(Locale.ROOT, "%.3f", attempts == 0 ? 0.0 : (double)compressed / attempts));
+        s.put("compression:raw_bytes", String.valueOf(raw));
+        s.put("compression:compressed_bytes", String.valueOf(stored));
+        s.put("compression:saved_bytes", String.valueOf(raw - stored));
+        s.put("compression:ratio", String.format(Locale.ROOT, "%.2f", stored == 0 ? 0.0 : (double)raw / stored));
+        s.put("compression:compress_us", String.valueOf(TimeUnit.NANOSECONDS.toMicros(compressor.getCompressNanos())));
+        s.put("compression:decompressions", String.valueOf(compressor.getDecompressions()));
+        s.put("compression:decompress_us",
+                String.valueOf(TimeUnit.NANOSECONDS.toMicros(compressor.getDecompressNanos())));
+        s.put("compression:passthroughs", String.valueOf(compressor.getPassthroughs()));
+        return s;
+    }
+
+    /**
+     * Items evicted to disk. Cold hits are also counted in get_hits.
+     */
+    protected Map<String, String> extStore() {
+        Map<String, String> s = new LinkedHashMap<>();
+        s.put("extstore:enabled", extStore.isEnabled() ? "yes" : "no");
+        s.put("extstore:items", String.valueOf(extStore.getItems()));
+        s.put("extstore:segments", String.valueOf(extStore.getSegments()));
+        s.put("extstore:disk_bytes", String.valueOf(extStore.getDiskBytes()));
+        s.put("extstore:live_bytes", String.valueOf(extStore.getLiveBytes()));
+        s.put("extstore:writes", String.valueOf(extStore.getWrites()));
+        s.put("extstore:write_bytes", String.valueOf(extStore.getWriteBytes()));
+        s.put("extstore:hits", String.valueOf(extStore.getHits()));
+        s.put("extstore:read_errors", String.valueOf(extStore.getReadErrors()));
+        s.put("extstore:promotions", String.valueOf(extStore.getPromotions()));
+        s.put("extstore:compactions", String.valueOf(extStore.getCompactions()));
+        s.put("extstore:compacted_items", String.valueOf(extStore.getCompactedItems()));
+        s.put("extstore:dropped_items", String.valueOf(extStore.getDroppedItems()));
+        return s;
+    }
+
+    /**
+     * The mutation log. Stalls are writes that waited on a full queue, the writer falling behind.
+     */
+    protected Map<String, String> wal() {
+        Map<String, String> s = new LinkedHashMap<>();
+        s.put("wal:enabled", mutationLog.isEnabled() ? "yes" : "no");
+        s.put("wal:generation", String.valueOf(mutationLog.getGeneration()));
+        s.put("wal:queued", String.valueOf(mutationLog.getQueued()));
+        s.put("wal:records", String.valueOf(mutationLog.getRecords()));
+        s.put("wal:bytes", String.valueOf(mutationLog.getBytes()));
+        s.put("wal:batches", String.valueOf(mutationLog.getBatches()));
+        s.put("wal:syncs", String.valueOf(mutationLog.getSyncs()));
+        s.put("wal:overflows", String.valueOf(mutationLog.getOverflows()));
+        s.put("wal:checkpoints", String.valueOf(mutationLog.getCheckpoints()));
+        s.put("wal:replayed", String.valueOf(mutationLog.getReplayed()));
+        return s;
+    }
+
+    /**
+     * Replication, as a leader and as a follower. Raw bytes are the frames' size before compression.
+     */
+    protected Map<String, String> repl() {
+        Map<String, String> s = new LinkedHashMap<>();
+        s.put("repl:leader", replicationLeader.isEnabled() ? "yes" : "no");
+        s.put("repl:followers", String.valueOf(replicationLeader.getFollowers()));
+        s.put("repl:full_syncs_sent", String.valueOf(replicationLeader.getFullSyncs()));
+        s.put("repl:overflows", String.valueOf(replicationLeader.getOverflows()));
+        s.put("repl:sent_mutations", String.valueOf(replicationLeader.getMutations()));
+        s.put("repl:sent_frames", String.valueOf(replicationLeader.getFrames()));
+        s.put("repl:sent_raw_bytes", String.valueOf(replicationLeader.getRawBytes()));
+        s.put("repl:sent_bytes", String.valueOf(replicationLeader.getSentBytes()));
+        s.put("repl:follower", replicationFollower.isEnabled() ? "yes" : "no");
+        s.put("repl:connected", replicationFollower.isConnected() ? "yes" : "no");
+        s.put("repl:connects", String.valueOf(replicationFollower.getConnects()));
+        s.put("repl:full_syncs_received", String.valueOf(replicationFollower.getFullSyncs()));
+        s.put("repl:applied_mutations", String.valueOf(replicationFollower.getApplied()));
+        s.put("repl:received_frames", String.valueOf(replicationFollower.getFrames()));
+        s.put("repl:received_bytes", String.valueOf(replicationFollower.getReceivedBytes()));
+        return s;
+    }
+
+    private String pid() {
+        // jvm name is pid@host
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int at = name.indexOf('@');
+        return at > 0 ? name.substring(0, at) : name;
+    }
+}
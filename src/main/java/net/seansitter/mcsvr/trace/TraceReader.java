@@ -0,0 +1,80 @@
+package net.seansitter.mcsvr.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a trace file written by TraceRecorder, one record at a time into a reused TraceRecord
+ */
+public class TraceReader implements Closeable {
+    private final FileChannel ch;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(TraceRecord.RECORD_BYTES * 4096);
+    private final long startMillis;
+    private boolean eof = false;
+
+    public TraceReader(Path path) throws IOException {
+        ch = FileChannel.open(path, StandardOpenOption.READ);
+        buf.flip(); // start empty
+        if (!fill(TraceRecord.HEADER_BYTES)) {
+            ch.close();
+            throw new IOException("trace file is too short: "+path);
+        }
+
+        int magic = buf.getInt();
+        int version = buf.getInt();
+        if (magic != TraceRecord.MAGIC || version != TraceRecord.VERSION) {
+            ch.close();
+            throw new IOException("not a version "+TraceRecord.VERSION+" trace file: "+path);
+        }
+        startMillis = buf.getLong();
+    }
+
+    /**
+     * @return the time the trace started, in epoch millis
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Reads the next record
+     *
+     * @param r the record to read into
+     * @return false at the end of the trace
+     * @throws IOException
+     */
+    public boolean next(TraceRecord r) throws IOException {
+        if (!fill(TraceRecord.RECORD_BYTES)) {
+            return false;
+        }
+
+        r.nanos = buf.getLong();
+        r.op = buf.get();
+        r.keyHash = buf.getLong();
+        r.valueSize = buf.getInt();
+        r.ttl = buf.getInt();
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ch.close();
+    }
+
+    // makes sure at least n bytes are buffered, false if the file ends first
+    private boolean fill(int n) throws IOException {
+        while (buf.remaining() < n) {
+            if (eof) {
+                return false;
+            }
+            buf.compact();
+            eof = ch.read(buf) < 0;
+            buf.flip();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,55 @@
+package net.seansitter.mcsvr.trace;
+
+/**
+ * A single traced operation. Records are written in a fixed 25 byte binary layout:
+ * nanos since trace start (long), op (byte), key hash (long), value size (int), ttl (int).
+ * The file starts with a 16 byte header: magic (int), version (int), start time in epoch millis (long).
+ *
+ * Keys are stored as a 64 bit hash, so traces don't hold customer keys and records are fixed size.
+ */
+public class TraceRecord {
+    public static final int MAGIC = 0x4d435452; // MCTR
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 16;
+    public static final int RECORD_BYTES = 25;
+
+    public static final byte GET = 1;
+    public static final byte SET = 2;
+    public static final byte CAS = 3;
+    public static final byte DELETE = 4;
+
+    public long nanos;
+    public byte op;
+    public long keyHash;
+    public int valueSize; // for gets, the size of the hit or -1 for a miss
+    public int ttl; // relative seconds, 0 for no expiration
+
+    /**
+     * 64 bit FNV-1a hash of the key's chars
+     *
+     * @param key
+     * @return
+     */
+    public static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * @param keyHash
+     * @return a key for replaying a hashed key
+     */
+    public static String key(long keyHash) {
+        return "k"+Long.toHexString(keyHash);
+    }
+
+    @Override
+    public String toString() {
+        return "TraceRecord{nanos="+nanos+", op="+op+", keyHash="+keyHash+
+                ", valueSize="+valueSize+", ttl="+ttl+"}";
+    }
+}
@@ -0,0 +1,219 @@
+package net.seansitter.mcsvr.trace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Records operations to a binary trace file (see TraceRecord) for replay.
+ *
+ * Command threads claim a slot in a preallocated ring with a cas and fill it in, a writer thread
+ * drains the ring to the file in order. Recording never blocks or allocates. If the writer falls
+ * a full ring behind, records are dropped and counted rather than slowing down commands.
+ *
+ * Disabled when the trace file is empty, then record() is a single branch.
+ */
+public class TraceRecorder {
+    private static final Logger logger = LoggerFactory.getLogger(TraceRecorder.class);
+    private static final int MAX_RELATIVE_TTL = 60 * 60 * 24 * 30; // larger ttls are unix times
+
+    private final String traceFile;
+    private final int capacity;
+    private final int mask;
+
+    // the ring, struct of arrays so slots don't need objects
+    private final long[] nanos;
+    private final byte[] ops;
+    private final long[] keyHashes;
+    private final int[] valueSizes;
+    private final int[] ttls;
+    private final AtomicLongArray published; // slot holds seq + 1 once its record is written
+
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final LongSupplier nanoClock;
+    private final long startNanos;
+    private final long startMillis;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    @Inject
+    public TraceRecorder(@Named("traceFile") String traceFile, @Named("traceBufferSize") int bufferSize) {
+        this(traceFile, bufferSize, System.currentTimeMillis(), System::nanoTime);
+    }
+
+    // for tests, startMillis is the wall time when nanoClock reads its first value
+    TraceRecorder(String traceFile, int bufferSize, long startMillis, LongSupplier nanoClock) {
+        this.traceFile = traceFile;
+        this.nanoClock = nanoClock;
+        this.startNanos = nanoClock.getAsLong();
+        this.startMillis = startMillis;
+        // round up to a power of two so the slot is a mask
+        this.capacity = Integer.highestOneBit(Math.max(bufferSize, 2) - 1) << 1;
+        this.mask = capacity - 1;
+
+        int sz = isEnabled() ? capacity : 0;
+        nanos = new long[sz];
+        ops = new byte[sz];
+        keyHashes = new long[sz];
+        valueSizes = new int[sz];
+        ttls = new int[sz];
+        published = new AtomicLongArray(sz);
+    }
+
+    public boolean isEnabled() {
+        return null != traceFile && !traceFile.isEmpty();
+    }
+
+    /**
+     * Opens the trace file and starts the writer thread, does nothing when disabled
+     *
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        if (!isEnabled() || running) {
+            return;
+        }
+
+        FileChannel ch = FileChannel.open(Paths.get(traceFile),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        running = true;
+        writer = new Thread(() -> writeLoop(ch), "trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+        logger.info("tracing operations to "+traceFile);
+    }
+
+    /**
+     * Stops the writer after it drains the ring
+     */
+    public void stop() {
+        Thread w;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            w = writer;
+        }
+
+        try {
+            w.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Records an operation
+     *
+     * @param op one of the TraceRecord ops
+     * @param key
+     * @param valueSize
+     * @param ttl as sent by the client
+     */
+    public void record(byte op, String key, int valueSize, long ttl) {
+        if (!running) {
+            return;
+        }
+
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - consumed.get() >= capacity) {
+                dropped.increment(); // writer is a full ring behind
+                return;
+            }
+        }
+        while (!claimed.compareAndSet(seq, seq + 1));
+
+        int i = (int)(seq & mask);
+        nanos[i] = nanoClock.getAsLong() - startNanos;
+        ops[i] = op;
+        keyHashes[i] = TraceRecord.hash(key);
+        valueSizes[i] = valueSize;
+        // whole seconds of the record's wall time, truncating the start and elapsed parts apart can be a second off
+        ttls[i] = (int)(ttl > MAX_RELATIVE_TTL ?
+                Math.max(1, ttl - (startMillis + nanos[i] / 1000000L) / 1000) : ttl);
+        published.lazySet(i, seq + 1);
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void writeLoop(FileChannel ch) {
+        ByteBuffer buf = ByteBuffer.allocateDirect(TraceRecord.RECORD_BYTES * 4096);
+        long written = 0;
+        try {
+            buf.putInt(TraceRecord.MAGIC).putInt(TraceRecord.VERSION).putLong(startMillis);
+
+            // keep draining after stop until everything claimed is written
+            while (running || consumed.get() < claimed.get()) {
+                int n = drain(ch, buf);
+                written += n;
+                if (n == 0) {
+                    flush(ch, buf);
+                    if (!running && consumed.get() < claimed.get()) {
+                        break; // a claimed slot was never published, don't spin forever
+                    }
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+            }
+            flush(ch, buf);
+        }
+        catch (IOException e) {
+            logger.error("failed to write trace, tracing stopped", e);
+            running = false;
+        }
+        finally {
+            try {
+                ch.close();
+            }
+            catch (IOException e) {
+                logger.error("failed to close trace file", e);
+            }
+        }
+        logger.info("wrote "+written+" trace records, dropped "+getDropped());
+    }
+
+    private int drain(FileChannel ch, ByteBuffer buf) throws IOException {
+        long next = consumed.get();
+        int n = 0;
+        int i;
+        while (published.get(i = (int)(next & mask)) == next + 1) {
+            if (buf.remaining() < TraceRecord.RECORD_BYTES) {
+                flush(ch, buf);
+            }
+            buf.putLong(nanos[i]).put(ops[i]).putLong(keyHashes[i]).putInt(valueSizes[i]).putInt(ttls[i]);
+            consumed.lazySet(++next); // frees the slot for producers
+            n++;
+        }
+        return n;
+    }
+
+    private void flush(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+}
@@ -0,0 +1,85 @@
+package net.seansitter.mcsvr.trace;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import net.seansitter.mcsvr.loadgen.LoadGenConfig;
+import net.seansitter.mcsvr.loadgen.LoadGenConnection;
+import net.seansitter.mcsvr.loadgen.LoadGenMain;
+import net.seansitter.mcsvr.loadgen.LoadGenReport;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Replays a trace recorded with -traceFile.
+ *
+ * sim mode runs the trace against a CacheImpl in process (see TraceSimulator).
+ * server mode sends the trace to a server using the load generator's connection, pipeline, rate
+ * and -embedded options. Records are spread over the connections in trace order.
+ *
+ * $> ./gradlew replay -Pargs="-trace ops.trace -mode sim -maxCacheBytes 67108864"
+ */
+public class TraceReplayMain {
+    public static void main(String[] args) throws Exception {
+        Options options = LoadGenConfig.options();
+        options.addOption("trace", true, "trace file to replay");
+        options.addOption("mode", true, "sim or server, default sim");
+        options.addOption("maxCacheBytes", true, "sim: max cache size in bytes, default 64mb");
+        options.addOption("lruRecoverPct", true, "sim: percent of max size to recover on lru sweep, default 20");
+        options.addOption("fillOnMiss", "sim: set values the traced server hit but the simulation missed");
+
+        CommandLine cmdLine = new DefaultParser().parse(options, args);
+        if (cmdLine.hasOption("help") || !cmdLine.hasOption("trace")) {
+            new HelpFormatter().printHelp("replay", options);
+            System.exit(cmdLine.hasOption("help") ? 0 : 1);
+        }
+
+        try (TraceReader reader = new TraceReader(Paths.get(cmdLine.getOptionValue("trace")))) {
+            if (cmdLine.getOptionValue("mode", "sim").equalsIgnoreCase("server")) {
+                replayServer(new LoadGenConfig(cmdLine), reader);
+            }
+            else {
+                TraceSimulator sim = new TraceSimulator(
+                        Integer.parseInt(cmdLine.getOptionValue("maxCacheBytes", String.valueOf(64 * 1024 * 1024))),
+                        Integer.parseInt(cmdLine.getOptionValue("lruRecoverPct", "20")),
+                        cmdLine.hasOption("fillOnMiss"));
+                sim.run(reader);
+                sim.print(System.out);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void replayServer(LoadGenConfig config, TraceReader reader) throws Exception {
+        if (config.embedded) {
+            LoadGenMain.startEmbeddedServer(config.port);
+        }
+
+        TraceRequestSource source = new TraceRequestSource(reader);
+        LoadGenReport report = new LoadGenReport();
+        EventLoopGroup group = new NioEventLoopGroup(config.threads);
+        List<Channel> channels = new ArrayList<>(config.connections);
+        List<CompletableFuture<Void>> done = new ArrayList<>(config.connections);
+        try {
+            for (int i = 0; i < config.connections; i++) {
+                LoadGenConnection conn = new LoadGenConnection(config, report, source);
+                done.add(conn.done());
+                channels.add(LoadGenMain.connect(config, group, conn));
+            }
+
+            CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+            report.print(System.out);
+        }
+        finally {
+            channels.forEach(Channel::close);
+            group.shutdownGracefully();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package net.seansitter.mcsvr.trace;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import net.seansitter.mcsvr.loadgen.RandomRequestSource;
+import net.seansitter.mcsvr.loadgen.RequestSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Turns trace records into requests. Shared by all replay connections, so the trace is read
+ * once in order. Cas is replayed as set, since the cas unique of the original isn't known.
+ */
+public class TraceRequestSource implements RequestSource {
+    private final TraceReader reader;
+    private final TraceRecord record = new TraceRecord();
+    private byte[] value = new byte[0];
+
+    public TraceRequestSource(TraceReader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public synchronized ByteBuf next(ByteBufAllocator alloc) {
+        try {
+            if (!reader.next(record)) {
+                return null;
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        String key = TraceRecord.key(record.keyHash);
+        switch (record.op) {
+            case TraceRecord.SET:
+            case TraceRecord.CAS:
+                if (record.valueSize > value.length) {
+                    value = new byte[record.valueSize];
+                    Arrays.fill(value, (byte)'x');
+                }
+                return RandomRequestSource.set(alloc, key, value, record.valueSize, record.ttl);
+            case TraceRecord.DELETE:
+                return RandomRequestSource.delete(alloc, key);
+            default:
+                return RandomRequestSource.get(alloc, key);
+        }
+    }
+}
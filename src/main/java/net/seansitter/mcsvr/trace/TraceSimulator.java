@@ -0,0 +1,126 @@
+package net.seansitter.mcsvr.trace;
+
+import net.seansitter.mcsvr.cache.CacheImpl;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.listener.BroadcastCacheEventListener;
+import net.seansitter.mcsvr.cache.listener.CacheMetricsListener;
+import net.seansitter.mcsvr.cache.listener.EventMessage;
+import net.seansitter.mcsvr.cache.listener.LRUManagerListener;
+import net.seansitter.mcsvr.stats.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Replays a trace directly against a CacheImpl with the server's lru, with no network, to see how
+ * a cache size and eviction settings would have done on recorded traffic. The cache clock follows
+ * the trace timestamps so ttls expire as they would have. The lru runs on its own thread, as in
+ * the server.
+ */
+public class TraceSimulator {
+    private final int maxCacheBytes;
+    private final int lruRecoverPct;
+    private final boolean fillOnMiss;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Map<Integer, byte[]> values = new HashMap<>(); // payloads are never read, so share them by size
+    private long ops, gets, hits, traceHits, fills;
+    private long elapsedNanos;
+    private CacheMetricsListener metrics;
+
+    /**
+     * @param maxCacheBytes
+     * @param lruRecoverPct
+     * @param fillOnMiss set the value after a miss which the traced server hit, like a cache-aside client
+     */
+    public TraceSimulator(int maxCacheBytes, int lruRecoverPct, boolean fillOnMiss) {
+        this.maxCacheBytes = maxCacheBytes;
+        this.lruRecoverPct = lruRecoverPct;
+        this.fillOnMiss = fillOnMiss;
+    }
+
+    public void run(TraceReader reader) throws IOException {
+        metrics = new CacheMetricsListener();
+        BroadcastCacheEventListener listener = new BroadcastCacheEventListener();
+        ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor();
+        CacheImpl cache = new CacheImpl(new HashMap<>(), 0, new ReentrantReadWriteLock(), reaper, listener, metrics);
+        listener.addListener(new LRUManagerListener(cache, new LinkedBlockingQueue<EventMessage>(),
+                maxCacheBytes, lruRecoverPct));
+        listener.addListener(metrics);
+
+        long startSecs = reader.getStartMillis() / 1000;
+        TraceRecord r = new TraceRecord();
+        long started = System.nanoTime();
+        try {
+            while (reader.next(r)) {
+                cache.setRelTime(startSecs + TimeUnit.NANOSECONDS.toSeconds(r.nanos));
+                String key = TraceRecord.key(r.keyHash);
+
+                long opStart = System.nanoTime();
+                switch (r.op) {
+                    case TraceRecord.GET:
+                        gets++;
+                        if (r.valueSize >= 0) {
+                            traceHits++;
+                        }
+                        if (cache.get(key).isPresent()) {
+                            hits++;
+                        }
+                        else if (fillOnMiss && r.valueSize >= 0) {
+                            cache.set(key, value(r.valueSize), r.ttl, 0);
+                            fills++;
+                        }
+                        break;
+                    case TraceRecord.SET:
+                    case TraceRecord.CAS:
+                        cache.set(key, value(r.valueSize), r.ttl, 0);
+                        break;
+                    case TraceRecord.DELETE:
+                        cache.deleteKey(key);
+                        break;
+                }
+                latency.record(System.nanoTime() - opStart);
+                ops++;
+            }
+        }
+        finally {
+            elapsedNanos = System.nanoTime() - started;
+            reaper.shutdownNow();
+        }
+    }
+
+    public long getGets() {
+        return gets;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public void print(PrintStream out) {
+        double secs = elapsedNanos / 1e9;
+        out.printf("ops:                %d in %.1f s%n", ops, secs);
+        out.printf("throughput:         %.0f ops/s%n", ops / secs);
+        out.printf("gets:               %d%n", gets);
+        out.printf("hit ratio:          %.4f%n", gets > 0 ? (double)hits / gets : 0.0);
+        out.printf("traced hit ratio:   %.4f%n", gets > 0 ? (double)traceHits / gets : 0.0);
+        out.printf("fills:              %d%n", fills);
+        out.printf("evictions:          %d%n", metrics.getEvictions());
+        out.printf("bytes:              %d of %d%n", metrics.getSize(), maxCacheBytes);
+        out.println();
+        out.printf("op latency (ns)     p50 %d, p99 %d, p99.9 %d, max %d%n",
+                latency.getValueAtPercentile(50), latency.getValueAtPercentile(99),
+                latency.getValueAtPercentile(99.9), latency.getMaxValue());
+    }
+
+    private byte[] value(int size) {
+        return values.computeIfAbsent(Math.max(size, 0), byte[]::new);
+    }
+}
@@ -0,0 +1,208 @@
+package net.seansitter.mcsvr.tracking;
+
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValueStats;
+import net.seansitter.mcsvr.cache.listener.CacheEventListener;
+import net.seansitter.mcsvr.cache.listener.DestroyEntriesMessage;
+import net.seansitter.mcsvr.cache.listener.Event;
+import net.seansitter.mcsvr.cache.listener.EventMessage;
+import net.seansitter.mcsvr.cache.listener.UpdateEntryMessage;
+import net.seansitter.mcsvr.stats.ServerStats;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Remembers which connections read which keys, for clients that keep a near cache and have sent
+ * "client_tracking on". When a key is set, cas'd, deleted, evicted or expired, every connection
+ * that read it is pushed "INVALIDATE <key>", so its client can drop its copy.
+ *
+ * Reads are remembered in a fixed table of slots indexed by key hash, each slot holding the
+ * connections that read any key hashing to it, so memory is bounded by the slots and tracking
+ * connections however many keys are read. Keys sharing a slot share invalidations, so a
+ * connection may be pushed a key it never read, which its client ignores. A connection stays in
+ * a slot until it closes, an invalidation doesn't clear the slot, since another key of the slot
+ * may still be in the client's near cache.
+ */
+public class ClientTracker implements CacheEventListener {
+    private final AtomicReferenceArray<Connection[]> slots; // null if disabled
+    private final int mask;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final ServerStats serverStats;
+
+    @Inject
+    public ClientTracker(@Named("trackingSlots") int slots, ServerStats serverStats) {
+        // a power of two, so a slot is the hash's low bits
+        int n = slots <= 1 ? slots : Integer.highestOneBit(slots - 1) << 1;
+        this.slots = n > 0 ? new AtomicReferenceArray<>(n) : null;
+        this.mask = n - 1;
+        this.serverStats = serverStats;
+    }
+
+    public boolean isEnabled() {
+        return null != slots;
+    }
+
+    /**
+     * Starts tracking a connection's reads
+     *
+     * @param push writes a pushed message to the connection, in order with its responses, and mustn't block
+     */
+    public Connection connect(Consumer<String> push) {
+        Connection c = new Connection(push);
+        connections.add(c);
+        serverStats.trackingStarted();
+        return c;
+    }
+
+    /**
+     * Tells every tracking connection to drop its whole near cache, after a flush_all
+     */
+    public void invalidateAll() {
+        connections.forEach(c -> c.push(null));
+    }
+
+    @Override
+    public void sendMessage(EventMessage message) {
+        if (message.event == Event.PUT_ENTRY || message.event == Event.DELETE_ENTRY) {
+            invalidate(((CacheEntry<?>)message.data).getKey());
+        }
+        else if (message.event == Event.UPDATE_ENTRY) {
+            invalidate(((UpdateEntryMessage)message.data).newEntry.getKey());
+        }
+        else if (message.event == Event.DESTROY_ENTRIES) {
+            List<CacheEntry<CacheValueStats>> entries = ((DestroyEntriesMessage)message.data).entries;
+            for (int i = 0; i < entries.size(); i++) {
+                invalidate(entries.get(i).getKey());
+            }
+        }
+    }
+
+    /**
+     * Pushes the key to the connections of its slot. Called for every mutation, so a slot no
+     * connection read costs a single array read.
+     */
+    protected void invalidate(String key) {
+        Connection[] cs = slots.get(slot(key));
+        if (null == cs) {
+            return;
+        }
+        for (int i = 0; i < cs.length; i++) {
+            cs[i].push(key);
+        }
+    }
+
+    private void track(Connection c, String key) {
+        int slot = slot(key);
+        while (true) {
+            Connection[] cs = slots.get(slot);
+            if (null != cs && contains(cs, c)) {
+                return; // the common case once a client is warm, no write
+            }
+            if (slots.compareAndSet(slot, cs, add(cs, c))) {
+                return;
+            }
+        }
+    }
+
+    // a scan of the whole table, only when a connection stops tracking
+    private void untrack(Connection c) {
+        for (int slot = 0; slot < slots.length(); slot++) {
+            Connection[] cs;
+            while (null != (cs = slots.get(slot)) && contains(cs, c)) {
+                if (slots.compareAndSet(slot, cs, remove(cs, c))) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private int slot(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static boolean contains(Connection[] cs, Connection c) {
+        for (int i = 0; i < cs.length; i++) {
+            if (cs[i] == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Connection[] add(Connection[] cs, Connection c) {
+        if (null == cs) {
+            return new Connection[] {c};
+        }
+        Connection[] a = Arrays.copyOf(cs, cs.length + 1);
+        a[cs.length] = c;
+        return a;
+    }
+
+    private static Connection[] remove(Connection[] cs, Connection c) {
+        if (cs.length == 1) {
+            return null;
+        }
+        Connection[] a = new Connection[cs.length - 1];
+        int j = 0;
+        for (int i = 0; i < cs.length; i++) {
+            if (cs[i] != c) {
+                a[j++] = cs[i];
+            }
+        }
+        return a;
+    }
+
+    /**
+     * A connection with tracking on
+     */
+    public class Connection {
+        private final Consumer<String> push;
+        private volatile boolean closed = false;
+
+        private Connection(Consumer<String> push) {
+            this.push = push;
+        }
+
+        /**
+         * Remembers that the connection read keys, before they are read, so a write racing with
+         * the read is pushed after its response
+         */
+        public void track(List<String> keys) {
+            for (int i = 0; i < keys.size(); i++) {
+                ClientTracker.this.track(this, keys.get(i));
+            }
+            if (closed) {
+                untrack(this); // closed while tracking, don't leave it in a slot
+            }
+        }
+
+        /**
+         * Stops tracking, when tracking is turned off or the connection closes
+         */
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            connections.remove(this);
+            untrack(this);
+            serverStats.trackingStopped();
+        }
+
+        // null for all keys
+        private void push(String key) {
+            if (!closed) {
+                serverStats.invalidationPushed();
+                push.accept(key);
+            }
+        }
+    }
+}
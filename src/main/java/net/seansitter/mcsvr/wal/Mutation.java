@@ -0,0 +1,28 @@
+package net.seansitter.mcsvr.wal;
+
+import net.seansitter.mcsvr.cache.CacheValue;
+
+/**
+ * A change to the cache, as written to the mutation log and streamed to replicas
+ */
+public final class Mutation {
+    public static final byte ROTATE = 0; // switch to the next log file, queued by a checkpoint and never written
+    public static final byte SET = 1; // a set or cas, or a restored snapshot item
+    public static final byte DELETE = 2;
+    public static final byte EXPIRE = 3; // removed by the reaper
+    public static final byte EVICT = 4; // removed by the lru
+    public static final byte FLUSH = 5; // flush_all, cas is the flush mark
+    public static final byte SYNC = 6; // a replica's full sync starts, cas is the flush mark
+
+    public final byte op;
+    public final String key; // null for flush, rotate and sync
+    public final CacheValue value; // only for set
+    public final long cas; // the value's cas unique, the flush mark, or the generation to rotate to
+
+    public Mutation(byte op, String key, CacheValue value, long cas) {
+        this.op = op;
+        this.key = key;
+        this.value = value;
+        this.cas = cas;
+    }
+}
@@ -0,0 +1,166 @@
+package net.seansitter.mcsvr.wal;
+
+import net.seansitter.mcsvr.cache.CacheValue;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The binary record of a mutation, shared by the mutation log and the replication stream.
+ *
+ * Record: body length, body, crc32 of the body. Body: op, cas, key length, key, and for a set:
+ * flag, created at, expires at, raw size (-1 if not compressed), chunk size (0 if not chunked),
+ * value length, value bytes
+ */
+public final class MutationCodec {
+    private static final int MIN_BODY = 1 + 8 + 4;
+    private static final int MAX_BODY = Integer.MAX_VALUE - 64;
+
+    private MutationCodec() {}
+
+    /**
+     * Encodes a mutation without copying its value, the value's arrays are wrapped
+     *
+     * @param m
+     * @param out the record's buffers are added to this, ready to be written
+     */
+    public static void encode(Mutation m, List<ByteBuffer> out) {
+        byte[] key = null == m.key ? new byte[0] : m.key.getBytes(StandardCharsets.UTF_8);
+        CacheValue v = m.value;
+        int bodyLen = MIN_BODY + key.length + (null == v ? 0 : 8 * 3 + 4 * 3 + v.getSize());
+
+        ByteBuffer header = ByteBuffer.allocate(4 + bodyLen - (null == v ? 0 : v.getSize()));
+        header.putInt(bodyLen).put(m.op).putLong(m.cas).putInt(key.length).put(key);
+        if (null != v) {
+            header.putLong(v.getFlag())
+                    .putLong(v.getCreatedAt())
+                    .putLong(v.getExpiresAt())
+                    .putInt(v.isCompressed() ? v.getRawSize() : -1)
+                    .putInt(v.isChunked() && v.getChunks().length > 0 ? v.getChunks()[0].length : 0)
+                    .putInt(v.getSize());
+        }
+        header.flip();
+        out.add(header);
+
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 4, header.limit() - 4);
+        if (null != v) {
+            byte[][] chunks = v.isChunked() ? v.getChunks() : new byte[][] {v.getPayload()};
+            for (byte[] c : chunks) {
+                crc.update(c, 0, c.length);
+                out.add(ByteBuffer.wrap(c));
+            }
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(4).putInt((int)crc.getValue());
+        trailer.flip();
+        out.add(trailer);
+    }
+
+    /**
+     * @param in a stream of records
+     * @return the next mutation, or null at the end of the stream
+     * @throws IOException if the record is damaged or cut short
+     */
+    public static Mutation read(DataInput in) throws IOException {
+        int bodyLen;
+        try {
+            bodyLen = in.readInt();
+        }
+        catch (EOFException e) {
+            return null; // clean end
+        }
+        checkLength(bodyLen);
+
+        byte[] body = new byte[bodyLen];
+        in.readFully(body);
+        checkCrc(body, 0, bodyLen, in.readInt());
+        return decode(ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Decodes in place, the value is copied out of the buffer
+     *
+     * @param in records, from the position to the limit
+     * @return the next mutation, or null if the buffer has no more
+     * @throws IOException if the record is damaged or cut short
+     */
+    public static Mutation read(ByteBuffer in) throws IOException {
+        if (!in.hasRemaining()) {
+            return null;
+        }
+        try {
+            int bodyLen = in.getInt();
+            checkLength(bodyLen);
+            int start = in.position();
+            checkCrc(in.array(), in.arrayOffset() + start, bodyLen, in.getInt(start + bodyLen));
+
+            ByteBuffer body = in.slice();
+            body.limit(bodyLen);
+            in.position(start + bodyLen + 4);
+            return decode(body);
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("record cut short", e);
+        }
+    }
+
+    private static void checkLength(int bodyLen) throws IOException {
+        if (bodyLen < MIN_BODY || bodyLen > MAX_BODY) {
+            throw new IOException("bad record length "+bodyLen);
+        }
+    }
+
+    private static void checkCrc(byte[] body, int off, int len, int expected) throws IOException {
+        CRC32 c = new CRC32();
+        c.update(body, off, len);
+        if ((int)c.getValue() != expected) {
+            throw new IOException("bad record crc");
+        }
+    }
+
+    private static Mutation decode(ByteBuffer body) throws IOException {
+        try {
+            byte op = body.get();
+            long cas = body.getLong();
+            byte[] k = new byte[body.getInt()];
+            body.get(k);
+            String key = k.length == 0 && op != Mutation.SET ? null : new String(k, StandardCharsets.UTF_8);
+            if (op != Mutation.SET) {
+                return new Mutation(op, key, null, cas);
+            }
+
+            long flag = body.getLong();
+            long createdAt = body.getLong();
+            long expiresAt = body.getLong();
+            int rawSize = body.getInt();
+            int chunkSize = body.getInt();
+            int valueLen = body.getInt();
+            CacheValue v;
+            if (chunkSize > 0) {
+                byte[][] chunks = new byte[(valueLen + chunkSize - 1) / chunkSize][];
+                for (int i = 0; i < chunks.length; i++) {
+                    chunks[i] = new byte[Math.min(chunkSize, valueLen - i * chunkSize)];
+                    body.get(chunks[i]);
+                }
+                v = new CacheValue(chunks, flag, createdAt, expiresAt, cas);
+            }
+            else {
+                byte[] payload = new byte[valueLen];
+                body.get(payload);
+                v = rawSize >= 0 ?
+                        new CacheValue(payload, rawSize, flag, createdAt, expiresAt, cas) :
+                        new CacheValue(payload, flag, createdAt, expiresAt, cas);
+            }
+            return new Mutation(op, key, v, cas);
+        }
+        catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IOException("bad record body", e);
+        }
+    }
+}
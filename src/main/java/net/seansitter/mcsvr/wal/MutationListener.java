@@ -0,0 +1,11 @@
+package net.seansitter.mcsvr.wal;
+
+/**
+ * Receives every mutation of the cache, whether or not the mutation log is on
+ */
+public interface MutationListener {
+    /**
+     * Called under the cache's write lock, in mutation order, so it must only hand the mutation off
+     */
+    void mutated(Mutation m);
+}
@@ -0,0 +1,569 @@
+package net.seansitter.mcsvr.wal;
+
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheImpl;
+import net.seansitter.mcsvr.cache.CacheValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An append only log of the cache's mutations, so a restart can rebuild the cache.
+ *
+ * The cache only queues mutations, under its write lock so the queue is in mutation order. A writer
+ * thread drains whatever is queued as one batch, a group commit, and writes it with a single
+ * gathering FileChannel write, then forces it to disk per the SyncPolicy. Values are not copied,
+ * a stored value's bytes never change. The cache never waits on the writer: while the queue is full
+ * mutations are dropped, a gap marker file is written and a checkpoint is taken as soon as the queue
+ * drains. Logging resumes at the checkpoint's rotation, and the snapshot covers what was dropped.
+ * A start that finds the marker, a crash before that checkpoint finished, discards the log and starts
+ * empty rather than replay a state that is missing mutations.
+ *
+ * Once the log passes checkpointBytes, a checkpoint copies the cache's items under its read lock and,
+ * under the same lock, queues a switch to the next log file. The copy then holds exactly the
+ * mutations queued before the switch. It is written as a snapshot by a separate thread, after which
+ * the older logs and snapshot are deleted. Replay reads the newest snapshot and the logs from its
+ * generation on, so replay time is bounded by the cache size plus checkpointBytes of log.
+ *
+ * Files: snapshot.<gen>.dat is the state as of the start of wal.<gen>.log, wal.gap is the gap marker. Each start replays and
+ * then writes to a new generation, so a torn record at the end of a log, from a crash, is only
+ * ever at the end of the file. Replay of a file stops at the first record that fails its crc.
+ * Records are in the MutationCodec format.
+ *
+ * Listeners, replication, see every mutation too, even with the log itself off.
+ */
+public class MutationLog {
+    private static final Logger logger = LoggerFactory.getLogger(MutationLog.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x4d435353; // MCSS
+    private static final String LOG_PREFIX = "wal.";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot.";
+    private static final String SNAPSHOT_SUFFIX = ".dat";
+    private static final String GAP_MARKER = "wal.gap";
+    private static final int MAX_BATCH = 1024;
+    private static final long SYNC_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String dir;
+    private final SyncPolicy sync;
+    private final long checkpointBytes;
+    private final BlockingQueue<Mutation> queue;
+
+    private volatile boolean running;
+    private CacheImpl cache;
+    private Thread writer;
+    private ExecutorService checkpointer;
+    private final AtomicBoolean checkpointing = new AtomicBoolean();
+    private volatile boolean overflowed; // mutations are being dropped until the next checkpoint's rotation
+    private final Object gapLock = new Object();
+    private boolean gapMarked; // guarded by gapLock, the gap marker file exists
+    private volatile MutationListener[] listeners = new MutationListener[0]; // copy on write
+
+    // only touched by the writer thread once it has started
+    private FileChannel log;
+    private long logBytes;
+    private volatile int generation;
+    private volatile int checkpointGeneration; // the generation the last checkpoint rotated to
+
+    private final LongAdder records = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private final LongAdder checkpoints = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+
+    @Inject
+    public MutationLog(@Named("walPath") String dir,
+                       SyncPolicy sync,
+                       @Named("walCheckpointBytes") long checkpointBytes,
+                       @Named("walQueueSize") int queueSize) {
+        this.dir = dir;
+        this.sync = sync;
+        this.checkpointBytes = checkpointBytes;
+        this.queue = isEnabled() ? new ArrayBlockingQueue<>(queueSize) : null;
+    }
+
+    public boolean isEnabled() {
+        return null != dir && !dir.isEmpty();
+    }
+
+    /**
+     * Replays the newest snapshot and the logs after it into the cache, then starts logging.
+     * Does nothing when disabled.
+     *
+     * @param cache an empty cache, that isn't serving yet
+     * @throws IOException
+     */
+    public synchronized void start(CacheImpl cache) throws IOException {
+        if (!isEnabled() || running) {
+            return;
+        }
+        this.cache = cache;
+
+        Path d = Paths.get(dir);
+        Files.createDirectories(d);
+        if (Files.exists(d.resolve(GAP_MARKER))) {
+            // replaying would bring back values the dropped mutations changed or deleted
+            logger.error("mutation log in "+dir+" is missing mutations dropped on overflow, starting empty");
+            deleteBefore(Integer.MAX_VALUE);
+            Files.delete(d.resolve(GAP_MARKER));
+        }
+        TreeMap<Integer, Path> snapshots = list(d, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        TreeMap<Integer, Path> logs = list(d, LOG_PREFIX, LOG_SUFFIX);
+
+        long start = System.nanoTime();
+        int from = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+        if (!snapshots.isEmpty()) {
+            replay(snapshots.lastEntry().getValue(), true);
+        }
+        for (Path p : logs.tailMap(from).values()) {
+            replay(p, false);
+        }
+        logger.info("replayed "+replayed.sum()+" mutation(s) in "+
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)+" ms");
+
+        // a checkpoint that didn't finish can leave older files and a partial snapshot behind
+        deleteBefore(from);
+        try (DirectoryStream<Path> tmp = Files.newDirectoryStream(d, SNAPSHOT_PREFIX + "*.tmp")) {
+            for (Path p : tmp) {
+                Files.delete(p);
+            }
+        }
+
+        int next = Math.max(from, logs.isEmpty() ? 0 : logs.lastKey() + 1);
+        openLog(next);
+        checkpointGeneration = next;
+        running = true;
+        checkpointer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "wal-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        writer = new Thread(this::writeLoop, "wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+        logger.info("logging mutations to "+dir+", sync "+sync.name().toLowerCase());
+    }
+
+    /**
+     * Stops the writer after it drains the queue and forces the log. A checkpoint in progress is
+     * finished first, its rotation must reach the writer.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+
+        try {
+            checkpointer.shutdown();
+            checkpointer.awaitTermination(30, TimeUnit.SECONDS);
+            running = false;
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException e) {
+            running = false;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Logs a set or cas, the caller holds the cache's write lock
+     */
+    public void logSet(String key, CacheValue value) {
+        if (running || listeners.length > 0) {
+            publish(new Mutation(Mutation.SET, key, value, value.getCasUnique()));
+        }
+    }
+
+    /**
+     * Logs a delete, the caller holds the cache's write lock
+     */
+    public void logDelete(String key) {
+        if (running || listeners.length > 0) {
+            publish(new Mutation(Mutation.DELETE, key, null, 0));
+        }
+    }
+
+    /**
+     * Logs an item removed by the reaper (expired) or the lru, the caller holds the cache's write lock
+     */
+    public void logRemove(String key, boolean expired) {
+        if (running || listeners.length > 0) {
+            publish(new Mutation(expired ? Mutation.EXPIRE : Mutation.EVICT, key, null, 0));
+        }
+    }
+
+    /**
+     * Logs a flush_all, the caller holds the cache's write lock
+     */
+    public void logFlush(long flushCas) {
+        if (running || listeners.length > 0) {
+            publish(new Mutation(Mutation.FLUSH, null, null, flushCas));
+        }
+    }
+
+    /**
+     * Adds a listener. Added under the cache's read lock, it sees exactly the mutations after a copy
+     * taken under the same lock.
+     */
+    public synchronized void addListener(MutationListener l) {
+        MutationListener[] ls = Arrays.copyOf(listeners, listeners.length + 1);
+        ls[listeners.length] = l;
+        listeners = ls;
+    }
+
+    public synchronized void removeListener(MutationListener l) {
+        listeners = Arrays.stream(listeners).filter(x -> x != l).toArray(MutationListener[]::new);
+    }
+
+    private void publish(Mutation m) {
+        if (running) {
+            if (overflowed) {
+                overflows.increment(); // dropped, the next checkpoint's snapshot covers it
+            }
+            else {
+                enqueue(m);
+            }
+        }
+        for (MutationListener l : listeners) {
+            l.mutated(m);
+        }
+    }
+
+    private void enqueue(Mutation m) {
+        if (queue.offer(m)) {
+            return;
+        }
+        // never wait under the cache's lock, drop mutations until a checkpoint covers them
+        overflowed = true;
+        overflows.increment();
+        logger.warn("mutation log fell "+queue.size()+" mutations behind, dropping mutations until a checkpoint");
+    }
+
+    private void writeLoop() {
+        List<Mutation> batch = new ArrayList<>(MAX_BATCH);
+        long lastSync = System.nanoTime();
+        boolean dirty = false;
+        try {
+            // keep draining after stop until everything queued is written
+            while (running || !queue.isEmpty()) {
+                Mutation first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (null != first) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    write(batch);
+                    batch.clear();
+                    batches.increment();
+                    dirty = true;
+                }
+
+                long now = System.nanoTime();
+                if (dirty && (sync == SyncPolicy.BATCH ||
+                        (sync == SyncPolicy.INTERVAL && now - lastSync >= SYNC_INTERVAL_NANOS))) {
+                    force();
+                    lastSync = now;
+                    dirty = false;
+                }
+                if (overflowed) {
+                    markGap();
+                }
+                // not while a checkpoint's rotation is still queued, the log would look just as long.
+                // after an overflow, once the queue is empty so the rotation is sure to fit
+                if (((logBytes >= checkpointBytes && generation == checkpointGeneration) ||
+                        (overflowed && queue.isEmpty())) && checkpointing.compareAndSet(false, true)) {
+                    try {
+                        checkpointer.execute(this::checkpoint);
+                    }
+                    catch (RejectedExecutionException e) {
+                        checkpointing.set(false); // stopping
+                    }
+                }
+            }
+            force();
+        }
+        catch (IOException | InterruptedException e) {
+            logger.error("failed to write mutation log, mutations are no longer logged", e);
+            running = false;
+            queue.clear(); // nothing drains it anymore
+        }
+        finally {
+            close(log);
+        }
+    }
+
+    /**
+     * Marks the log as missing mutations, start discards a log with the marker
+     */
+    private void markGap() throws IOException {
+        synchronized (gapLock) {
+            // a checkpoint may have ended the overflow since it was seen
+            if (gapMarked || !overflowed) {
+                return;
+            }
+            Path marker = Paths.get(dir, GAP_MARKER);
+            try (FileChannel ch = FileChannel.open(marker, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            gapMarked = true;
+        }
+    }
+
+    /**
+     * Removes the gap marker once a snapshot covers the dropped mutations, unless mutations are being
+     * dropped again
+     */
+    private void clearGap() throws IOException {
+        synchronized (gapLock) {
+            if (!gapMarked || overflowed) {
+                return;
+            }
+            Files.deleteIfExists(Paths.get(dir, GAP_MARKER));
+            gapMarked = false;
+        }
+    }
+
+    /**
+     * Writes a batch with as few gathering writes as possible, a rotation splits the batch
+     */
+    private void write(List<Mutation> batch) throws IOException {
+        List<ByteBuffer> out = new ArrayList<>(batch.size() * 3);
+        for (Mutation m : batch) {
+            if (m.op == Mutation.ROTATE) {
+                writeAll(log, out);
+                out.clear();
+                force();
+                close(log);
+                openLog((int)m.cas);
+                continue;
+            }
+            MutationCodec.encode(m, out);
+            records.increment();
+        }
+        writeAll(log, out);
+    }
+
+    private void writeAll(FileChannel ch, List<ByteBuffer> out) throws IOException {
+        if (out.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] bufs = out.toArray(new ByteBuffer[out.size()]);
+        long len = 0;
+        for (ByteBuffer b : bufs) {
+            len += b.remaining();
+        }
+        for (long written = 0; written < len; ) {
+            written += ch.write(bufs);
+        }
+        if (ch == log) {
+            logBytes += len;
+            bytes.add(len);
+        }
+    }
+
+    private void force() throws IOException {
+        log.force(false);
+        syncs.increment();
+    }
+
+    private void openLog(int gen) throws IOException {
+        Path p = Paths.get(dir, LOG_PREFIX + gen + LOG_SUFFIX);
+        log = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        logBytes = 0;
+        generation = gen;
+    }
+
+    /**
+     * Runs on the checkpoint thread. The copy and the rotation are taken under the cache's read lock,
+     * so no mutation lands between them.
+     */
+    protected void checkpoint() {
+        try {
+            int gen = checkpointGeneration + 1;
+            long[] flushCas = new long[1];
+            boolean[] rotated = new boolean[1];
+            List<CacheEntry<CacheValue>> items = cache.snapshot(() -> {
+                // no mutation is published under the read lock, mutations after it go to the new log
+                rotated[0] = queue.offer(new Mutation(Mutation.ROTATE, null, null, gen));
+                if (rotated[0]) {
+                    overflowed = false;
+                }
+                flushCas[0] = cache.getFlushCas();
+            });
+            if (!rotated[0]) {
+                return; // the queue is full, the writer checkpoints again once it drains
+            }
+            checkpointGeneration = gen;
+
+            Path tmp = Paths.get(dir, SNAPSHOT_PREFIX + gen + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(12).putInt(SNAPSHOT_MAGIC).putLong(flushCas[0]);
+                header.flip();
+                List<ByteBuffer> out = new ArrayList<>();
+                out.add(header);
+                for (CacheEntry<CacheValue> e : items) {
+                    MutationCodec.encode(new Mutation(Mutation.SET, e.getKey(), e.getValue(), e.getValue().getCasUnique()), out);
+                    if (out.size() >= MAX_BATCH) {
+                        writeAll(ch, out);
+                        out.clear();
+                    }
+                }
+                writeAll(ch, out);
+                ch.force(true);
+            }
+            Files.move(tmp, Paths.get(dir, SNAPSHOT_PREFIX + gen + SNAPSHOT_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+            clearGap();
+
+            // everything before the rotation is in the snapshot, even if the writer hasn't rotated yet
+            deleteBefore(gen);
+            checkpoints.increment();
+            logger.info("checkpointed "+items.size()+" item(s) to snapshot "+gen);
+        }
+        catch (Exception e) {
+            logger.error("failed to checkpoint the mutation log", e);
+        }
+        finally {
+            checkpointing.set(false);
+        }
+    }
+
+    private void deleteBefore(int gen) throws IOException {
+        Path d = Paths.get(dir);
+        for (Path p : list(d, LOG_PREFIX, LOG_SUFFIX).headMap(gen).values()) {
+            Files.delete(p);
+        }
+        for (Path p : list(d, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headMap(gen).values()) {
+            Files.delete(p);
+        }
+    }
+
+    /**
+     * Applies a snapshot or log to the cache, stopping at the end or the first damaged record
+     */
+    private void replay(Path p, boolean isSnapshot) throws IOException {
+        long n = 0;
+        try (InputStream is = Files.newInputStream(p);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(is, 64 * 1024))) {
+            if (isSnapshot) {
+                if (in.readInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException("not a snapshot: "+p);
+                }
+                cache.restoreFlush(in.readLong());
+            }
+
+            Mutation m;
+            while (null != (m = read(in, p))) {
+                cache.restore(m);
+                n++;
+            }
+        }
+        replayed.add(n);
+        logger.info("replayed "+n+" mutation(s) from "+p);
+    }
+
+    /**
+     * @return the next record, or null at the end of the file or at a torn or damaged record
+     */
+    private static Mutation read(DataInputStream in, Path p) {
+        try {
+            return MutationCodec.read(in);
+        }
+        catch (IOException e) {
+            logger.warn("stopped replay of "+p+" at a damaged or partly written record: "+e.getMessage());
+            return null;
+        }
+    }
+
+    private static TreeMap<Integer, Path> list(Path d, String prefix, String suffix) throws IOException {
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(d, prefix + "*" + suffix)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                try {
+                    files.put(Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length())), p);
+                }
+                catch (NumberFormatException e) {
+                    logger.warn("ignoring unexpected file "+p);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static void close(FileChannel ch) {
+        if (null == ch) {
+            return;
+        }
+        try {
+            ch.close();
+        }
+        catch (IOException e) {
+            logger.error("failed to close mutation log", e);
+        }
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public int getQueued() {
+        return null == queue ? 0 : queue.size();
+    }
+
+    public long getRecords() {
+        return records.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getSyncs() {
+        return syncs.sum();
+    }
+
+    public long getOverflows() {
+        return overflows.sum();
+    }
+
+    public long getCheckpoints() {
+        return checkpoints.sum();
+    }
+
+    public long getReplayed() {
+        return replayed.sum();
+    }
+}
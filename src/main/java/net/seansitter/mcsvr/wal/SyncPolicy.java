@@ -0,0 +1,23 @@
+package net.seansitter.mcsvr.wal;
+
+/**
+ * When the mutation log is forced to disk. Mutations are never acknowledged later because of it,
+ * the policy only bounds how much of the log a crash of the machine (not the process) can lose.
+ *
+ * NONE leaves it to the os.
+ * BATCH forces after every group commit, losing at most the batch being written.
+ * INTERVAL forces at most once a second, losing at most about a second.
+ */
+public enum SyncPolicy {
+    NONE,
+    BATCH,
+    INTERVAL;
+
+    /**
+     * @param name none, batch or interval
+     * @return
+     */
+    public static SyncPolicy of(String name) {
+        return valueOf(name.toUpperCase());
+    }
+}
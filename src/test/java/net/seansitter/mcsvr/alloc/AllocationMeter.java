@@ -0,0 +1,84 @@
+package net.seansitter.mcsvr.alloc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures bytes allocated per operation on the calling thread with ThreadMXBean, and checks them
+ * against the budgets in alloc-budgets.properties.
+ *
+ * Operations are warmed up first so they are measured after jit compilation, then the least of
+ * several rounds is taken to filter out one-off allocation such as class loading. The result of
+ * each operation is kept in a field so the jit can't eliminate its allocation.
+ */
+public class AllocationMeter {
+    private static final int WARMUP_OPS = 20000;
+    private static final int ROUNDS = 5;
+    private static final int OPS_PER_ROUND = 10000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    private static final Properties BUDGETS = loadBudgets();
+
+    private static Object sink;
+
+    /**
+     * Fails if op allocates more than the named budget
+     *
+     * @param name budget name in alloc-budgets.properties
+     * @param op
+     */
+    public static void assertWithinBudget(String name, Supplier<?> op) {
+        assumeTrue("thread allocation counting not supported", THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        String budget = BUDGETS.getProperty(name);
+        assertNotNull("no allocation budget for "+name, budget);
+
+        long bytes = bytesPerOp(op);
+        assertTrue(name+" allocated "+bytes+" bytes per op, budget is "+budget, bytes <= Long.parseLong(budget));
+    }
+
+    /**
+     * @param op
+     * @return bytes allocated per call to op
+     */
+    public static long bytesPerOp(Supplier<?> op) {
+        for (int i = 0; i < WARMUP_OPS; i++) {
+            sink = op.get();
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = allocated();
+            for (int i = 0; i < OPS_PER_ROUND; i++) {
+                sink = op.get();
+            }
+            best = Math.min(best, (allocated() - start) / OPS_PER_ROUND);
+        }
+        return best;
+    }
+
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static Properties loadBudgets() {
+        Properties p = new Properties();
+        try (InputStream in = AllocationMeter.class.getResourceAsStream("/alloc-budgets.properties")) {
+            if (null != in) {
+                p.load(in);
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("failed to load allocation budgets", e);
+        }
+        return p;
+    }
+}
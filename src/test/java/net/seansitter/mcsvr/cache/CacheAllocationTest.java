@@ -0,0 +1,48 @@
+package net.seansitter.mcsvr.cache;
+
+import net.seansitter.mcsvr.cache.listener.DummyCacheEventListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static net.seansitter.mcsvr.alloc.AllocationMeter.assertWithinBudget;
+
+public class CacheAllocationTest {
+    final byte[] VALUE = new byte[100];
+
+    ScheduledExecutorService executorService;
+    CacheImpl cache;
+
+    @Before
+    public void setup() {
+        executorService = Executors.newSingleThreadScheduledExecutor();
+        cache = new CacheImpl(new HashMap<>(), 0, new ReentrantReadWriteLock(), executorService,
+                new DummyCacheEventListener(), new DummyCacheMetricsRecorder());
+        cache.set("some_key", VALUE, 0, 0);
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testGetHit() {
+        assertWithinBudget("cache.get.hit", () -> cache.get("some_key"));
+    }
+
+    @Test
+    public void testGetMiss() {
+        assertWithinBudget("cache.get.miss", () -> cache.get("missing_key"));
+    }
+
+    @Test
+    public void testSetReplace() {
+        assertWithinBudget("cache.set.replace", () -> cache.set("some_key", VALUE, 0, 0));
+    }
+}
@@ -4,13 +4,27 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.util.CharsetUtil;
 import net.seansitter.mcsvr.cache.listener.CacheEventListener;
+import net.seansitter.mcsvr.cache.listener.DestroyEntriesMessage;
+import net.seansitter.mcsvr.cache.listener.Event;
 import net.seansitter.mcsvr.cache.listener.EventMessage;
+import net.seansitter.mcsvr.extstore.ExtStore;
+import net.seansitter.mcsvr.wal.MutationLog;
+import net.seansitter.mcsvr.wal.SyncPolicy;
 import static net.seansitter.mcsvr.cache.ResponseStatus.*;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -34,8 +48,11 @@ public class CacheImplTest {
     Lock readLock, writeLock;
     Map<String, CacheValue> map;
     CacheEventListener eventListener;
+    CacheMetricsRecorder metricsRecorder;
     ScheduledExecutorService executorService;
     CacheImpl cache;
+    Path extDir; // only for extstore tests
+    ExtStore extStore;
 
     @Before
     public void setup() {
@@ -46,11 +63,21 @@ public class CacheImplTest {
         when(lock.writeLock()).thenReturn(writeLock);
         map = spy(new HashMap<>());
         eventListener = mock(CacheEventListener.class);
+        metricsRecorder = mock(CacheMetricsRecorder.class);
         executorService = mock(ScheduledExecutorService.class);
-        cache = new CacheImpl(map, 0, lock, executorService, eventListener);
+        cache = new CacheImpl(map, 0, lock, executorService, eventListener, metricsRecorder);
         cache.setRelTime(NOW);
     }
 
+    @After
+    public void tearDown() throws IOException {
+        if (null != extStore) {
+            extStore.stop();
+            Arrays.stream(extDir.toFile().listFiles()).forEach(File::delete);
+            Files.delete(extDir);
+        }
+    }
+
     @Test
     public void testRelTime1() throws InterruptedException {
         cache.setRelTime(0);
@@ -192,6 +219,166 @@ public class CacheImplTest {
                 cache.get("missing").isPresent());
     }
 
+    @Test
+    public void testSetGetChunked() {
+        byte[][] chunks = {byteVal("some_"), byteVal("val"), byteVal("ue")};
+        assertEquals(StoreStatus.STORED, cache.set(DEFKEY, chunks, DEFTTL, DEFFLAG));
+        CacheValue v = cache.get(DEFKEY).get().getValue();
+        assertTrue(v.isChunked());
+        assertSame("chunks are stored as is", chunks, v.getChunks());
+        assertEquals(DEFVAL_B.length, v.getSize());
+        assertArrayEquals(DEFVAL_B, v.getPayload());
+    }
+
+    @Test
+    public void testCasChunked() {
+        setDefaultValueInCache();
+        long casUnique = cache.get(DEFKEY).get().getValue().getCasUnique();
+        byte[][] chunks = {byteVal("new "), byteVal("value")};
+        assertEquals(StoreStatus.STORED, cache.cas(DEFKEY, chunks, DEFTTL, casUnique, DEFFLAG));
+        assertArrayEquals(byteVal("new value"), cache.get(DEFKEY).get().getValue().getPayload());
+    }
+
+    // TESTING MULTI-GET
+
+    @Test
+    public void testMultiGetOrder() {
+        cache.set("k1", DEFVAL_B, DEFTTL, DEFFLAG);
+        cache.set("k3", DEFVAL_B, DEFTTL, DEFFLAG);
+        List<CacheEntry<CacheValue>> res = cache.get(Arrays.asList("k3", "k2", "k1"));
+        assertEquals("hits only", 2, res.size());
+        assertEquals("request order", "k3", res.get(0).getKey());
+        assertEquals("request order", "k1", res.get(1).getKey());
+        verify(readLock, times(1)).lock();
+    }
+
+    @Test
+    public void testMultiGetParallelOrder() throws InterruptedException {
+        ExecutorService multiGetExecutor = Executors.newFixedThreadPool(3);
+        try {
+            cache = new CacheImpl(map, 0, new ReentrantReadWriteLock(), executorService, eventListener,
+                    metricsRecorder, 100, 4, multiGetExecutor, new ExtStore("", 0, 0, false),
+                    new MutationLog("", SyncPolicy.NONE, 0, 0), 10, 0, 0.0);
+            cache.setRelTime(NOW);
+
+            List<String> keys = new LinkedList<>();
+            for (int i = 0; i < 500; i++) {
+                keys.add("key_" + i);
+                if (i % 3 != 0) {
+                    cache.set("key_" + i, DEFVAL_B, DEFTTL, DEFFLAG);
+                }
+            }
+
+            List<CacheEntry<CacheValue>> res = cache.get(keys);
+            assertEquals("hits only", 333, res.size());
+            int last = -1;
+            for (CacheEntry<CacheValue> e : res) {
+                int i = Integer.parseInt(e.getKey().substring(4));
+                assertTrue("request order", i > last);
+                assertNotEquals("misses skipped", 0, i % 3);
+                last = i;
+            }
+            verify(metricsRecorder, times(333)).cacheHit();
+            verify(metricsRecorder, times(167)).cacheMiss();
+        }
+        finally {
+            multiGetExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMultiGetParts() {
+        cache = new CacheImpl(map, 0, lock, executorService, eventListener, metricsRecorder,
+                100, 4, mock(ExecutorService.class), new ExtStore("", 0, 0, false),
+                new MutationLog("", SyncPolicy.NONE, 0, 0), 10, 0, 0.0);
+        assertEquals("at threshold is sequential", 1, cache.multiGetParts(100));
+        assertEquals("parts are at least 32 keys", 3, cache.multiGetParts(101));
+        assertEquals("capped at parallelism", 4, cache.multiGetParts(500));
+    }
+
+    @Test
+    public void testMultiGetNoExecutorSequential() {
+        assertEquals("no executor is sequential", 1, cache.multiGetParts(10000));
+    }
+
+    // TESTING FLUSH
+
+    @Test
+    public void testFlushAllHidesItems() {
+        setDefaultValueInCache();
+        cache.set(DEFKEY+"2", DEFVAL_B, DEFTTL, DEFFLAG);
+        assertEquals(FlushStatus.OK, cache.flushAll(0));
+        assertFalse(cache.get(DEFKEY).isPresent());
+        assertFalse(cache.get(DEFKEY+"2").isPresent());
+    }
+
+    @Test
+    public void testFlushAllNewItemsVisible() {
+        setDefaultValueInCache();
+        cache.flushAll(0);
+        cache.set(DEFKEY+"2", DEFVAL_B, DEFTTL, DEFFLAG);
+        assertFalse(cache.get(DEFKEY).isPresent());
+        assertTrue(cache.get(DEFKEY+"2").isPresent());
+    }
+
+    @Test
+    public void testFlushAllDoesNotWalkCache() {
+        setDefaultValueInCache();
+        clearInvocations(map);
+        reset(eventListener);
+        cache.flushAll(0);
+        verifyZeroInteractions(map);
+        verifyZeroInteractions(eventListener);
+    }
+
+    @Test
+    public void testFlushAllDeleteCasMiss() {
+        setDefaultValueInCache();
+        cache.flushAll(0);
+        assertEquals(DeleteStatus.NOT_FOUND, cache.deleteKey(DEFKEY));
+        assertEquals(StoreStatus.NOT_FOUND, cache.cas(DEFKEY, byteVal("new value"), DEFTTL, DEFCASUNQ, DEFFLAG));
+    }
+
+    @Test
+    public void testFlushAllSetReplacesFlushed() {
+        setDefaultValueInCache();
+        cache.flushAll(0);
+        reset(eventListener);
+
+        byte[] newPayload = byteVal("new value");
+        CacheValue newValue = CacheUtil.newCacheValue(newPayload, DEFTTL, DEFFLAG, DEFCASUNQ+1);
+        cache.set(DEFKEY, newPayload, DEFTTL, DEFFLAG);
+
+        // the flushed item is deleted and the new one put, so lru and metrics sizes stay correct
+        verify(eventListener).sendMessage(EventMessage.delete(DEFCSTATENTRY));
+        verify(eventListener).sendMessage(EventMessage.put(new CacheEntry<>(DEFKEY, newValue.getStats())));
+        assertTrue(cache.get(DEFKEY).isPresent());
+    }
+
+    @Test
+    public void testFlushAllReaped() {
+        setDefaultValueInCache();
+        cache.flushAll(0);
+        reset(eventListener);
+
+        cache.newReaperTask().run();
+
+        assertFalse(map.containsKey(DEFKEY));
+        verify(eventListener).sendMessage(EventMessage.expire(1, DEFCSTATENTRY));
+    }
+
+    @Test
+    public void testFlushAllDelayed() {
+        setDefaultValueInCache();
+        cache.flushAll(30);
+        ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+        verify(executorService).schedule(flush.capture(), eq(30L), eq(TimeUnit.SECONDS));
+        assertTrue("not flushed before delay", cache.get(DEFKEY).isPresent());
+
+        flush.getValue().run();
+        assertFalse("flushed after delay", cache.get(DEFKEY).isPresent());
+    }
+
      // TESTING LOCKS
 
     @Test
@@ -307,6 +494,24 @@ public class CacheImplTest {
         assertTrue(cache.get(DEFKEY+2).isPresent());
     }
 
+    @Test
+    public void testReaperExpiredUnfetched() {
+        cache.set(DEFKEY+1, byteVal("1"), NOW+5, DEFFLAG);
+        cache.set(DEFKEY+2, byteVal("2"), NOW+5, DEFFLAG);
+        cache.get(DEFKEY+2);
+        cache.setRelTime(NOW+30);
+        reset(eventListener);
+
+        cache.newReaperTask().run();
+
+        ArgumentCaptor<EventMessage> msg = ArgumentCaptor.forClass(EventMessage.class);
+        verify(eventListener).sendMessage(msg.capture());
+        DestroyEntriesMessage dm = (DestroyEntriesMessage)msg.getValue().data;
+        assertEquals("reaper expires items", DestroyEntriesMessage.Cause.EXPIRED, dm.cause);
+        assertEquals("2 items reaped", 2, dm.entries.size());
+        assertEquals("1 item was never fetched", 1, dm.unfetched);
+    }
+
     // TESTING EXPIRATION
 
     @Test
@@ -359,7 +564,9 @@ public class CacheImplTest {
     @Test
     public void testMissEventListener() {
         cache.get(DEFKEY);
-        verify(eventListener, only()).sendMessage(EventMessage.cacheMiss(DEFKEY));
+        // misses go straight to the metrics recorder, no listener needs them
+        verifyZeroInteractions(eventListener);
+        verify(metricsRecorder, only()).cacheMiss();
     }
 
     @Test
@@ -368,6 +575,7 @@ public class CacheImplTest {
         reset(eventListener);
         cache.get(DEFKEY);
         verify(eventListener, only()).sendMessage(EventMessage.cacheHit(DEFCSTATENTRY));
+        verify(metricsRecorder, only()).cacheHit();
     }
 
     @Test
@@ -476,6 +684,296 @@ public class CacheImplTest {
         assertEquals("checking cas unique increments",2, cache.get(DEFKEY).get().getValue().getCasUnique());
     }
 
+    // LEASES
+
+    @Test
+    public void testLeaseGrantedToFirstMiss() {
+        LeaseResult first = cache.leaseGet(DEFKEY);
+        assertEquals(LeaseResult.Status.LEASED, first.getStatus());
+        assertEquals("other misses wait", LeaseResult.Status.WAIT, cache.leaseGet(DEFKEY).getStatus());
+
+        assertEquals(StoreStatus.STORED, cache.leaseSet(DEFKEY, DEFVAL_B, DEFTTL, first.getToken(), DEFFLAG));
+        LeaseResult hit = cache.leaseGet(DEFKEY);
+        assertEquals(LeaseResult.Status.HIT, hit.getStatus());
+        assertArrayEquals(DEFVAL_B, hit.getEntry().getValue().getPayload());
+        assertEquals("the lease is used up", StoreStatus.NOT_STORED,
+                cache.leaseSet(DEFKEY, DEFVAL_B, DEFTTL, first.getToken(), DEFFLAG));
+    }
+
+    @Test
+    public void testDeleteRevokesLease() {
+        long token = cache.leaseGet(DEFKEY).getToken();
+        assertEquals(DeleteStatus.NOT_FOUND, cache.deleteKey(DEFKEY));
+        assertEquals(StoreStatus.NOT_STORED, cache.leaseSet(DEFKEY, DEFVAL_B, DEFTTL, token, DEFFLAG));
+
+        LeaseResult next = cache.leaseGet(DEFKEY);
+        assertEquals("the next miss takes a new lease", LeaseResult.Status.LEASED, next.getStatus());
+        assertNotEquals(token, next.getToken());
+    }
+
+    @Test
+    public void testSetDropsLease() {
+        long token = cache.leaseGet(DEFKEY).getToken();
+        setDefaultValueInCache();
+        assertEquals(StoreStatus.NOT_STORED, cache.leaseSet(DEFKEY, byteVal("old_value"), DEFTTL, token, DEFFLAG));
+        assertArrayEquals(DEFVAL_B, cache.get(DEFKEY).get().getValue().getPayload());
+    }
+
+    @Test
+    public void testLeaseTimesOut() {
+        long token = cache.leaseGet(DEFKEY).getToken();
+        cache.setRelTime(NOW + 11);
+        LeaseResult next = cache.leaseGet(DEFKEY);
+        assertEquals(LeaseResult.Status.LEASED, next.getStatus());
+        assertEquals(StoreStatus.NOT_STORED, cache.leaseSet(DEFKEY, DEFVAL_B, DEFTTL, token, DEFFLAG));
+        assertEquals(StoreStatus.STORED, cache.leaseSet(DEFKEY, DEFVAL_B, DEFTTL, next.getToken(), DEFFLAG));
+    }
+
+    @Test
+    public void testExpiredServedStaleWhileLeased() {
+        cache.set(DEFKEY, DEFVAL_B, NOW + 1, DEFFLAG);
+        cache.setRelTime(NOW + 2);
+        assertEquals(LeaseResult.Status.LEASED, cache.leaseGet(DEFKEY).getStatus());
+
+        // reaped or not, waiting misses get the expired value
+        cache.destroyKeys(Arrays.asList(DEFKEY), DestroyEntriesMessage.Cause.EXPIRED);
+        LeaseResult stale = cache.leaseGet(DEFKEY);
+        assertEquals(LeaseResult.Status.STALE, stale.getStatus());
+        assertArrayEquals(DEFVAL_B, stale.getEntry().getValue().getPayload());
+    }
+
+    @Test
+    public void testFlushClearsLeases() {
+        cache.set(DEFKEY, DEFVAL_B, NOW + 1, DEFFLAG);
+        cache.setRelTime(NOW + 2);
+        long token = cache.leaseGet(DEFKEY).getToken();
+        cache.flush();
+        assertEquals(StoreStatus.NOT_STORED, cache.leaseSet(DEFKEY, DEFVAL_B, DEFTTL, token, DEFFLAG));
+        assertEquals(LeaseResult.Status.LEASED, cache.leaseGet(DEFKEY).getStatus());
+        assertEquals("flushed values aren't served stale", LeaseResult.Status.WAIT,
+                cache.leaseGet(DEFKEY).getStatus());
+    }
+
+    // STALE GRACE
+
+    @Test
+    public void testExpiredServedStaleInGrace() {
+        cache = newCache(5, 0);
+        cache.set(DEFKEY, DEFVAL_B, NOW + 1, DEFFLAG);
+        cache.setRelTime(NOW + 3);
+
+        assertFalse("the first get recaches", cache.get(DEFKEY).isPresent());
+        verify(metricsRecorder).recache();
+        for (int i = 0; i < 2; i++) {
+            CacheEntry<CacheValue> e = cache.get(DEFKEY).get();
+            assertTrue(e.isStale());
+            assertArrayEquals(DEFVAL_B, e.getValue().getPayload());
+        }
+        verify(metricsRecorder, times(2)).staleHit();
+
+        cache.setRelTime(NOW + 7);
+        assertFalse("past the grace window", cache.get(DEFKEY).isPresent());
+    }
+
+    @Test
+    public void testStaleNotReapedInGrace() {
+        cache = newCache(5, 0);
+        cache.set(DEFKEY, DEFVAL_B, NOW + 1, DEFFLAG);
+        cache.setRelTime(NOW + 3);
+        cache.newReaperTask().run();
+        assertTrue(map.containsKey(DEFKEY));
+
+        cache.setRelTime(NOW + 7);
+        cache.newReaperTask().run();
+        assertFalse(map.containsKey(DEFKEY));
+    }
+
+    @Test
+    public void testDeleteAndFlushEndStale() {
+        cache = newCache(5, 0);
+        cache.set(DEFKEY, DEFVAL_B, NOW + 1, DEFFLAG);
+        cache.set("other", DEFVAL_B, NOW + 1, DEFFLAG);
+        cache.setRelTime(NOW + 3);
+        cache.get(Arrays.asList(DEFKEY, "other")); // both recache
+
+        assertEquals("already expired", DeleteStatus.NOT_FOUND, cache.deleteKey(DEFKEY));
+        assertFalse(cache.get(DEFKEY).isPresent());
+        cache.flush();
+        assertFalse(cache.get("other").isPresent());
+    }
+
+    @Test
+    public void testLeaseGetOnStale() {
+        cache = newCache(5, 0);
+        cache.set(DEFKEY, DEFVAL_B, NOW + 1, DEFFLAG);
+        cache.setRelTime(NOW + 3);
+        assertEquals(LeaseResult.Status.LEASED, cache.leaseGet(DEFKEY).getStatus());
+        assertEquals(LeaseResult.Status.STALE, cache.leaseGet(DEFKEY).getStatus());
+    }
+
+    // EARLY EXPIRATION
+
+    @Test
+    public void testRecomputeTimeLearnedFromRefill() {
+        cache = newCache(0, 1.0);
+        cache.set(DEFKEY, DEFVAL_B, NOW + 10, DEFFLAG);
+        cache.setRelTime(NOW + 11);
+        assertFalse(cache.get(DEFKEY).isPresent());
+        cache.setRelTime(NOW + 13);
+        cache.set(DEFKEY, DEFVAL_B, NOW + 100, DEFFLAG);
+        assertEquals("from the miss to the set", 2000, map.get(DEFKEY).getRecomputeMillis());
+    }
+
+    @Test
+    public void testEarlyExpirationNearExpiry() {
+        cache = newCache(0, 1.0);
+        cache.set(DEFKEY, DEFVAL_B, NOW + 100, DEFFLAG);
+        assertEquals("nothing learned yet", 0, map.get(DEFKEY).getRecomputeMillis());
+        map.get(DEFKEY).setRecomputeMillis(2000);
+
+        cache.setRelTime(NOW + 13);
+        for (int i = 0; i < 100; i++) {
+            assertTrue("never this far from expiry", cache.get(DEFKEY).isPresent());
+        }
+        cache.setRelTime(NOW + 100);
+        assertFalse("always at expiry", cache.get(DEFKEY).isPresent());
+        verify(metricsRecorder).earlyExpire();
+        assertEquals((NOW + 100) * 1000, map.get(DEFKEY).getMissedAt());
+    }
+
+    @Test
+    public void testNoEarlyExpirationWhenOff() {
+        cache.set(DEFKEY, DEFVAL_B, NOW + 100, DEFFLAG);
+        map.get(DEFKEY).setRecomputeMillis(2000);
+        cache.setRelTime(NOW + 100);
+        assertTrue(cache.get(DEFKEY).isPresent());
+        verify(metricsRecorder, never()).earlyExpire();
+    }
+
+    // EXTSTORE
+
+    @Test
+    public void testEvictedReadFromExtStore() throws IOException {
+        CacheImpl c = newExtStoreCache(false);
+        c.set(DEFKEY, DEFVAL_B, DEFTTL, DEFFLAG);
+        c.destroyKeys(Arrays.asList(DEFKEY));
+        assertFalse("evicted from memory", map.containsKey(DEFKEY));
+        assertEquals(1, extStore.getWrites());
+
+        CacheValue v = c.get(DEFKEY).get().getValue();
+        assertArrayEquals(DEFVAL_B, v.getPayload());
+        assertEquals(DEFFLAG, v.getFlag());
+        List<CacheEntry<CacheValue>> entries = c.get(Arrays.asList("missing_key", DEFKEY));
+        assertEquals(1, entries.size());
+        assertEquals(DEFKEY, entries.get(0).getKey());
+        assertFalse("not promoted", map.containsKey(DEFKEY));
+    }
+
+    @Test
+    public void testExpiredNotDemoted() throws IOException {
+        CacheImpl c = newExtStoreCache(false);
+        c.set(DEFKEY, DEFVAL_B, NOW + 1, DEFFLAG);
+        c.setRelTime(NOW + 2);
+        c.destroyKeys(Arrays.asList(DEFKEY));
+        assertFalse(extStore.contains(DEFKEY));
+    }
+
+    @Test
+    public void testDeleteCold() throws IOException {
+        CacheImpl c = newExtStoreCache(false);
+        c.set(DEFKEY, DEFVAL_B, DEFTTL, DEFFLAG);
+        c.destroyKeys(Arrays.asList(DEFKEY));
+        assertEquals(DeleteStatus.DELETED, c.deleteKey(DEFKEY));
+        assertFalse(c.get(DEFKEY).isPresent());
+        assertEquals(DeleteStatus.NOT_FOUND, c.deleteKey(DEFKEY));
+    }
+
+    @Test
+    public void testSetReplacesCold() throws IOException {
+        CacheImpl c = newExtStoreCache(false);
+        c.set(DEFKEY, DEFVAL_B, DEFTTL, DEFFLAG);
+        c.destroyKeys(Arrays.asList(DEFKEY));
+        c.set(DEFKEY, byteVal("new_value"), DEFTTL, DEFFLAG);
+        assertFalse(extStore.contains(DEFKEY));
+
+        // deleting the new value must not bring back the evicted one
+        c.deleteKey(DEFKEY);
+        assertFalse(c.get(DEFKEY).isPresent());
+    }
+
+    @Test
+    public void testCasCold() throws IOException {
+        CacheImpl c = newExtStoreCache(false);
+        c.set(DEFKEY, DEFVAL_B, DEFTTL, DEFFLAG);
+        c.destroyKeys(Arrays.asList(DEFKEY));
+        assertEquals(StoreStatus.EXISTS, c.cas(DEFKEY, byteVal("new_value"), DEFTTL, DEFCASUNQ + 1, DEFFLAG));
+        assertEquals(StoreStatus.STORED, c.cas(DEFKEY, byteVal("new_value"), DEFTTL, DEFCASUNQ, DEFFLAG));
+        assertFalse(extStore.contains(DEFKEY));
+        assertArrayEquals(byteVal("new_value"), c.get(DEFKEY).get().getValue().getPayload());
+    }
+
+    @Test
+    public void testFlushHidesCold() throws IOException {
+        CacheImpl c = newExtStoreCache(false);
+        c.set(DEFKEY, DEFVAL_B, DEFTTL, DEFFLAG);
+        c.destroyKeys(Arrays.asList(DEFKEY));
+        c.flushAll(0);
+        assertFalse(c.get(DEFKEY).isPresent());
+        assertEquals(StoreStatus.NOT_FOUND, c.cas(DEFKEY, DEFVAL_B, DEFTTL, DEFCASUNQ, DEFFLAG));
+    }
+
+    @Test
+    public void testPromoteCold() throws IOException {
+        CacheImpl c = newExtStoreCache(true);
+        c.set(DEFKEY, DEFVAL_B, DEFTTL, DEFFLAG);
+        c.destroyKeys(Arrays.asList(DEFKEY));
+        reset(eventListener);
+
+        assertTrue(c.get(DEFKEY).isPresent());
+        assertTrue("promoted", map.containsKey(DEFKEY));
+        assertFalse(extStore.contains(DEFKEY));
+        assertEquals(1, extStore.getPromotions());
+        verify(eventListener).sendMessage(argThat(m -> m.event == Event.PUT_ENTRY));
+    }
+
+    @Test
+    public void testRestoreRemoveCold() throws IOException {
+        CacheImpl c = newExtStoreCache(false);
+        c.set(DEFKEY, DEFVAL_B, DEFTTL, DEFFLAG);
+        c.destroyKeys(Arrays.asList(DEFKEY));
+        c.restoreRemove(DEFKEY);
+        assertFalse(extStore.contains(DEFKEY));
+        assertFalse(c.get(DEFKEY).isPresent());
+    }
+
+    @Test
+    public void testRestoreClearCold() throws IOException {
+        CacheImpl c = newExtStoreCache(false);
+        c.set(DEFKEY, DEFVAL_B, DEFTTL, DEFFLAG);
+        c.destroyKeys(Arrays.asList(DEFKEY));
+        c.restoreClear(0);
+        assertEquals(0, extStore.getItems());
+        assertEquals(0, extStore.getLiveBytes());
+        assertFalse(c.get(DEFKEY).isPresent());
+    }
+
+    CacheImpl newExtStoreCache(boolean promote) throws IOException {
+        extDir = Files.createTempDirectory("mcsvr-extstore");
+        extStore = new ExtStore(extDir.toString(), 1024 * 1024, 64 * 1024, promote);
+        extStore.start();
+        CacheImpl c = new CacheImpl(map, 0, lock, executorService, eventListener, metricsRecorder,
+                0, 1, null, extStore, new MutationLog("", SyncPolicy.NONE, 0, 0), 10, 0, 0.0);
+        c.setRelTime(NOW);
+        return c;
+    }
+
+    CacheImpl newCache(int staleGrace, double xfetchBeta) {
+        CacheImpl c = new CacheImpl(map, 0, lock, executorService, eventListener, metricsRecorder, 0, 1, null,
+                new ExtStore("", 0, 0, false), new MutationLog("", SyncPolicy.NONE, 0, 0), 10, staleGrace, xfetchBeta);
+        c.setRelTime(NOW);
+        return c;
+    }
+
     void setDefaultValueInCache() {
         cache.set(DEFKEY, DEFVAL_B, DEFTTL, DEFFLAG);
     }
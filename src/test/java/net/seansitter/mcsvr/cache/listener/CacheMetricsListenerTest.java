@@ -0,0 +1,93 @@
+package net.seansitter.mcsvr.cache.listener;
+
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValueStats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CacheMetricsListenerTest {
+    CacheMetricsListener metrics;
+
+    @Before
+    public void setup() {
+        metrics = new CacheMetricsListener();
+    }
+
+    @Test
+    public void testHitMiss() {
+        metrics.cacheHit();
+        metrics.cacheHit();
+        metrics.cacheMiss();
+        assertEquals(2, metrics.getHits());
+        assertEquals(1, metrics.getMisses());
+    }
+
+    @Test
+    public void testHitMissEventsIgnored() {
+        metrics.sendMessage(EventMessage.cacheHit(newCacheEntry("k", 10)));
+        metrics.sendMessage(EventMessage.cacheMiss("k"));
+        assertEquals("hits are recorded directly", 0, metrics.getHits());
+        assertEquals("misses are recorded directly", 0, metrics.getMisses());
+    }
+
+    @Test
+    public void testPutUpdateDelete() {
+        CacheEntry<CacheValueStats> e = newCacheEntry("k", 10);
+        metrics.sendMessage(EventMessage.put(e));
+        assertEquals(1, metrics.getItems());
+        assertEquals(10, metrics.getSize());
+
+        CacheEntry<CacheValueStats> bigger = newCacheEntry("k", 25);
+        metrics.sendMessage(EventMessage.update(e, bigger));
+        assertEquals("update grows size", 25, metrics.getSize());
+
+        metrics.sendMessage(EventMessage.delete(bigger));
+        assertEquals(0, metrics.getItems());
+        assertEquals(0, metrics.getSize());
+        assertEquals(2, metrics.getTotalItems());
+    }
+
+    @Test
+    public void testEvictAndExpire() {
+        CacheEntry<CacheValueStats> e1 = newCacheEntry("k1", 10);
+        CacheEntry<CacheValueStats> e2 = newCacheEntry("k2", 10);
+        CacheEntry<CacheValueStats> e3 = newCacheEntry("k3", 10);
+        metrics.sendMessage(EventMessage.put(e1));
+        metrics.sendMessage(EventMessage.put(e2));
+        metrics.sendMessage(EventMessage.put(e3));
+
+        metrics.sendMessage(EventMessage.destroy(e1));
+        metrics.sendMessage(EventMessage.expire(1, e2, e3));
+
+        assertEquals(0, metrics.getItems());
+        assertEquals(1, metrics.getEvictions());
+        assertEquals(2, metrics.getReclaimed());
+        assertEquals(1, metrics.getExpiredUnfetched());
+    }
+
+    @Test
+    public void testConcurrentHits() throws InterruptedException {
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            exec.execute(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    metrics.cacheHit();
+                }
+            });
+        }
+        exec.shutdown();
+        assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(80000, metrics.getHits());
+    }
+
+    CacheEntry<CacheValueStats> newCacheEntry(String key, int sz) {
+        long time = System.currentTimeMillis() / 1000;
+        return new CacheEntry<>(key, new CacheValueStats(time, time + 15, sz));
+    }
+}
@@ -0,0 +1,111 @@
+package net.seansitter.mcsvr.client;
+
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.domain.command.StoreCommand;
+import net.seansitter.mcsvr.domain.result.ErrorResult;
+import net.seansitter.mcsvr.domain.result.StoreCacheResult;
+import net.seansitter.mcsvr.exception.ErrorResponseException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class McClientTest {
+    ConnectionPool pool;
+    McClient client;
+
+    @Before
+    public void setup() {
+        pool = mock(ConnectionPool.class);
+        client = new McClient(pool, null, true);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConcurrentGetsCoalesced() {
+        CompletableFuture<Optional<CacheEntry<CacheValue>>> first = client.get("k");
+        CompletableFuture<Optional<CacheEntry<CacheValue>>> second = client.get("k");
+        assertSame(first, second);
+        assertEquals(1, client.getCoalesced());
+
+        ArgumentCaptor<CompletableFuture> sent = ArgumentCaptor.forClass(CompletableFuture.class);
+        verify(pool, times(1)).batchGet(eq("k"), anyLong(), sent.capture());
+        sent.getValue().complete(Optional.empty());
+        assertFalse(second.join().isPresent());
+
+        // once answered, the next get goes to the server
+        assertNotSame(first, client.get("k"));
+        verify(pool, times(2)).batchGet(eq("k"), anyLong(), any());
+    }
+
+    @Test
+    public void testGetsNotCoalescedWhenOff() {
+        client = new McClient(pool, null, false);
+        assertNotSame(client.get("k"), client.get("k"));
+        verify(pool, times(2)).batchGet(eq("k"), anyLong(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testNearCacheServesHitsUntilInvalidated() {
+        NearCache nearCache = new NearCache(10, 60000);
+        client = new McClient(pool, null, true, nearCache);
+        when(pool.send(any(), anyLong())).thenReturn(CompletableFuture.completedFuture(
+                new StoreCacheResult(ResponseStatus.StoreStatus.STORED)));
+
+        CompletableFuture<Optional<CacheEntry<CacheValue>>> first = client.get("k");
+        ArgumentCaptor<CompletableFuture> sent = ArgumentCaptor.forClass(CompletableFuture.class);
+        verify(pool).batchGet(eq("k"), anyLong(), sent.capture());
+        sent.getValue().complete(Optional.of(new CacheEntry<>("k", new CacheValue(new byte[] {'v'}, 0, 0, 0, 0))));
+        assertTrue(first.join().isPresent());
+
+        assertEquals("k", client.get("k").join().get().getKey());
+        verify(pool, times(1)).batchGet(eq("k"), anyLong(), any());
+        assertEquals(1, client.getNearHits());
+
+        // pushed by the server
+        nearCache.invalidate("k");
+        client.get("k");
+        verify(pool, times(2)).batchGet(eq("k"), anyLong(), any());
+
+        // the client's own write drops its copy straight away
+        nearCache.put(new CacheEntry<>("k", new CacheValue(new byte[] {'v'}, 0, 0, 0, 0)));
+        client.set("k", new byte[] {'w'}, 0, 0).join();
+        assertEquals(0, nearCache.size());
+    }
+
+    @Test
+    public void testErrorResponseThrown() {
+        when(pool.send(any(), anyLong())).thenReturn(CompletableFuture.completedFuture(
+                new ErrorResult(ResponseStatus.ErrorStatus.SERVER_ERROR, "out of memory")));
+        try {
+            client.set("k", new byte[1], 0, 0).join();
+            fail("expected an error response");
+        }
+        catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof ErrorResponseException);
+            assertEquals("SERVER_ERROR out of memory", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testSetSendsStoreCommand() {
+        ArgumentCaptor<StoreCommand> sent = ArgumentCaptor.forClass(StoreCommand.class);
+        when(pool.send(sent.capture(), anyLong())).thenReturn(CompletableFuture.completedFuture(
+                new StoreCacheResult(ResponseStatus.StoreStatus.STORED)));
+
+        assertEquals(ResponseStatus.StoreStatus.STORED, client.set("k", new byte[] {'v'}, 3, 60).join());
+        assertEquals("set", sent.getValue().getName());
+        assertEquals("k", sent.getValue().getKey());
+        assertEquals(3, sent.getValue().getFlags());
+        assertEquals(60, sent.getValue().getExpTime());
+    }
+}
@@ -0,0 +1,118 @@
+package net.seansitter.mcsvr.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.CharsetUtil;
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.domain.command.ApiCommand;
+import net.seansitter.mcsvr.domain.command.DeleteCommand;
+import net.seansitter.mcsvr.domain.command.GetCommand;
+import net.seansitter.mcsvr.domain.command.StoreCommand;
+import net.seansitter.mcsvr.domain.result.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class McResponseDecoderTest {
+    McResponseDecoder decoder;
+    List<Object> out;
+
+    @Before
+    public void setup() {
+        decoder = new McResponseDecoder();
+        out = new ArrayList<>();
+    }
+
+    @Test
+    public void testGetResponses() {
+        decode("VALUE a 3 5 17\r\nhello\r\nVALUE b 0 0 18\r\n\r\nEND\r\nEND\r\n");
+        assertEquals(2, out.size());
+
+        @SuppressWarnings("unchecked")
+        List<CacheEntry<CacheValue>> hits = (List<CacheEntry<CacheValue>>)out.get(0);
+        assertEquals(2, hits.size());
+        assertEquals("a", hits.get(0).getKey());
+        assertArrayEquals("hello".getBytes(CharsetUtil.UTF_8), hits.get(0).getValue().getPayload());
+        assertEquals(3, hits.get(0).getValue().getFlag());
+        assertEquals(17, hits.get(0).getValue().getCasUnique());
+        assertEquals(0, hits.get(1).getValue().getPayload().length);
+        assertTrue(((List<?>)out.get(1)).isEmpty());
+    }
+
+    @Test
+    public void testStatusLines() {
+        decode("STORED\r\nNOT_FOUND\r\nSERVER_ERROR out of memory\r\n");
+        assertEquals(Arrays.asList("STORED", "NOT_FOUND", "SERVER_ERROR out of memory"), out);
+    }
+
+    @Test
+    public void testPartialValue() {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeCharSequence("VALUE k 0 10\r\nhello", CharsetUtil.UTF_8);
+        decoder.decode(null, buf, out);
+        assertTrue(out.isEmpty());
+        assertEquals("waits for the payload before consuming the line", 0, buf.readerIndex());
+
+        buf.writeCharSequence("world\r\nEN", CharsetUtil.UTF_8);
+        decoder.decode(null, buf, out);
+        assertTrue(out.isEmpty());
+
+        buf.writeCharSequence("D\r\n", CharsetUtil.UTF_8);
+        decoder.decode(null, buf, out);
+        assertEquals(1, out.size());
+        assertFalse(buf.isReadable());
+    }
+
+    @Test
+    public void testToResult() {
+        StoreCommand set = StoreCommand.newBuilder().withName("set").withKey("k").withPayload(new byte[1]).build();
+        DeleteCommand delete = DeleteCommand.newBuilder().withKey("k").withIsNoReply(false).build();
+        GetCommand gets = GetCommand.newBuilder().withName("gets").withKey("k").build();
+
+        assertEquals(ResponseStatus.StoreStatus.NOT_FOUND,
+                ((StoreCacheResult)PipelineHandler.toResult(set, "NOT_FOUND")).getStatus());
+        assertEquals(ResponseStatus.DeleteStatus.NOT_FOUND,
+                ((DeleteCacheResult)PipelineHandler.toResult(delete, "NOT_FOUND")).getStatus());
+        assertTrue(PipelineHandler.toResult(gets, new ArrayList<>()) instanceof GetsCacheResult);
+        assertEquals(new ErrorResult(ResponseStatus.ErrorStatus.CLIENT_ERROR, "bad data chunk"),
+                PipelineHandler.toResult(set, "CLIENT_ERROR bad data chunk"));
+        assertEquals(new ErrorResult(ResponseStatus.ErrorStatus.SERVER_ERROR, "unexpected response"),
+                PipelineHandler.toResult(set, "DELETED"));
+    }
+
+    @Test
+    public void testEncode() {
+        StoreCommand cas = StoreCommand.newBuilder().withName("cas").withKey("k").withFlags(2).withExpTime(30)
+                .withCasUnique(9).withIsNoReploy(true).withChunks(new byte[][] {bytes("ab"), bytes("c")}).build();
+        assertEquals("cas k 2 30 3 9 noreply\r\nabc\r\n", encode(cas));
+
+        GetCommand get = GetCommand.newBuilder().withName("get").withKey("a").withKey("b").build();
+        assertEquals("get a b\r\n", encode(get));
+    }
+
+    private String encode(ApiCommand c) {
+        ByteBuf buf = PipelineHandler.encode(c, UnpooledByteBufAllocator.DEFAULT);
+        try {
+            return buf.toString(CharsetUtil.UTF_8);
+        }
+        finally {
+            buf.release();
+        }
+    }
+
+    private void decode(String s) {
+        decoder.decode(null, Unpooled.copiedBuffer(s, CharsetUtil.UTF_8), out);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(CharsetUtil.UTF_8);
+    }
+}
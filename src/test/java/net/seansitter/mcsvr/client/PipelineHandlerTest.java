@@ -0,0 +1,141 @@
+package net.seansitter.mcsvr.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.domain.command.StoreCommand;
+import net.seansitter.mcsvr.domain.result.StoreCacheResult;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.*;
+
+public class PipelineHandlerTest {
+    EmbeddedChannel channel;
+    PipelineHandler handler;
+    LongAdder batches;
+    LongAdder batchedKeys;
+
+    @Before
+    public void setup() {
+        batches = new LongAdder();
+        batchedKeys = new LongAdder();
+        handler = new PipelineHandler(0, 3, batches, batchedKeys);
+        channel = new EmbeddedChannel(new McResponseDecoder(), handler);
+    }
+
+    @Test
+    public void testGetsBatched() {
+        CompletableFuture<Optional<CacheEntry<CacheValue>>> a = new CompletableFuture<>();
+        CompletableFuture<Optional<CacheEntry<CacheValue>>> b = new CompletableFuture<>();
+        handler.batchGet("a", a);
+        handler.batchGet("b", b);
+        assertNull("nothing sent until the window closes", channel.readOutbound());
+
+        channel.runPendingTasks();
+        assertEquals("get a b\r\n", readOutbound());
+        assertEquals(1, batches.sum());
+        assertEquals(2, batchedKeys.sum());
+
+        respond("VALUE b 0 1\r\nx\r\nEND\r\n");
+        assertFalse(a.join().isPresent());
+        assertEquals("b", b.join().get().getKey());
+    }
+
+    @Test
+    public void testFullBatchSentAtOnce() {
+        for (String key : new String[] {"a", "b", "c", "d"}) {
+            handler.batchGet(key, new CompletableFuture<>());
+        }
+        channel.runPendingTasks();
+        assertEquals("get a b c\r\n", readOutbound());
+        assertEquals("get d\r\n", readOutbound());
+    }
+
+    @Test
+    public void testWriteSendsBatchFirst() {
+        CompletableFuture<Optional<CacheEntry<CacheValue>>> a = new CompletableFuture<>();
+        handler.batchGet("a", a);
+        PipelineHandler.Request set = new PipelineHandler.Request(StoreCommand.newBuilder()
+                .withName("set").withKey("a").withPayload(new byte[] {'x'}).build());
+        handler.write(set);
+        channel.runPendingTasks();
+        assertEquals("get a\r\n", readOutbound());
+        assertEquals("set a 0 0 1\r\nx\r\n", readOutbound());
+
+        respond("END\r\nSTORED\r\n");
+        assertFalse(a.join().isPresent());
+        assertEquals(ResponseStatus.StoreStatus.STORED, ((StoreCacheResult)set.getResult().join()).getStatus());
+    }
+
+    @Test
+    public void testCloseFailsOutstanding() {
+        CompletableFuture<Optional<CacheEntry<CacheValue>>> sent = new CompletableFuture<>();
+        CompletableFuture<Optional<CacheEntry<CacheValue>>> open = new CompletableFuture<>();
+        handler.batchGet("a", sent);
+        channel.runPendingTasks();
+        handler.batchGet("b", open);
+        channel.close();
+        assertTrue(sent.isCompletedExceptionally());
+        assertTrue(open.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testTrackingInvalidations() {
+        List<String> invalidated = new ArrayList<>();
+        handler = new PipelineHandler(0, 3, batches, batchedKeys, invalidated::add);
+        channel = new EmbeddedChannel(new McResponseDecoder(), handler);
+
+        CompletableFuture<Optional<CacheEntry<CacheValue>>> a = new CompletableFuture<>();
+        handler.batchGet("a", a);
+        channel.runPendingTasks();
+        assertEquals("client_tracking on\r\n", readOutbound());
+        assertEquals("get a\r\n", readOutbound());
+
+        respond("OK\r\nINVALIDATE x\r\nEND\r\nINVALIDATE_ALL\r\n");
+        assertFalse(a.join().isPresent());
+        assertTrue(channel.isActive());
+        assertEquals(Arrays.asList("x", null), invalidated);
+
+        channel.close();
+        assertEquals("all invalidated on close", Arrays.asList("x", null, null), invalidated);
+    }
+
+    @Test
+    public void testTrackingRefusedCloses() {
+        handler = new PipelineHandler(0, 3, batches, batchedKeys, k -> {});
+        channel = new EmbeddedChannel(new McResponseDecoder(), handler);
+
+        CompletableFuture<Optional<CacheEntry<CacheValue>>> a = new CompletableFuture<>();
+        handler.batchGet("a", a);
+        channel.runPendingTasks();
+        respond("CLIENT_ERROR client tracking is disabled\r\n");
+        assertFalse(channel.isActive());
+        assertTrue(a.isCompletedExceptionally());
+    }
+
+    private String readOutbound() {
+        ByteBuf buf = channel.readOutbound();
+        try {
+            return buf.toString(CharsetUtil.UTF_8);
+        }
+        finally {
+            buf.release();
+        }
+    }
+
+    private void respond(String s) {
+        channel.writeInbound(Unpooled.copiedBuffer(s, CharsetUtil.UTF_8));
+    }
+}
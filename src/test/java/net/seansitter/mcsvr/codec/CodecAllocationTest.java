@@ -0,0 +1,77 @@
+package net.seansitter.mcsvr.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.domain.result.CacheResult;
+import net.seansitter.mcsvr.domain.result.GetCacheResult;
+import net.seansitter.mcsvr.domain.result.StoreCacheResult;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.seansitter.mcsvr.alloc.AllocationMeter.assertWithinBudget;
+
+public class CodecAllocationTest {
+    McTextDecoder decoder;
+    McTextEncoder encoder;
+    List<Object> decoded;
+    ByteBuf encoded;
+
+    @Before
+    public void setup() {
+        decoder = new McTextDecoder(new McCodecUtil());
+        encoder = new McTextEncoder();
+        decoded = new ArrayList<>(1);
+        encoded = Unpooled.buffer(1024);
+    }
+
+    @Test
+    public void testDecodeGet() {
+        ByteBuf in = Unpooled.copiedBuffer("get some_key\r\n", CharsetUtil.UTF_8);
+        assertWithinBudget("codec.decode.get", () -> decode(in));
+    }
+
+    @Test
+    public void testDecodeSet() {
+        byte[] payload = new byte[100];
+        Arrays.fill(payload, (byte)'x');
+        ByteBuf in = Unpooled.buffer();
+        in.writeCharSequence("set some_key 0 0 100\r\n", CharsetUtil.UTF_8);
+        in.writeBytes(payload);
+        in.writeCharSequence("\r\n", CharsetUtil.UTF_8);
+        assertWithinBudget("codec.decode.set", () -> decode(in));
+    }
+
+    @Test
+    public void testEncodeGet() {
+        CacheValue v = new CacheValue(new byte[100], 0, 0, 0, 1);
+        GetCacheResult r = new GetCacheResult(Arrays.asList(new CacheEntry<>("some_key", v)));
+        assertWithinBudget("codec.encode.get", () -> encode(r));
+    }
+
+    @Test
+    public void testEncodeStored() {
+        StoreCacheResult r = new StoreCacheResult(ResponseStatus.StoreStatus.STORED);
+        assertWithinBudget("codec.encode.stored", () -> encode(r));
+    }
+
+    private Object decode(ByteBuf in) {
+        in.readerIndex(0);
+        decoded.clear();
+        decoder.doDecode(in, decoded);
+        return decoded.get(0);
+    }
+
+    private Object encode(CacheResult r) {
+        encoded.clear();
+        encoder.doEncode(r, encoded);
+        return encoded;
+    }
+}
@@ -0,0 +1,116 @@
+package net.seansitter.mcsvr.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.domain.result.GetCacheResult;
+import net.seansitter.mcsvr.domain.result.GetsCacheResult;
+import net.seansitter.mcsvr.domain.result.StoreCacheResult;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GetResponseStreamerTest {
+    EmbeddedChannel channel;
+    ChannelHandlerContext ctx;
+    GetResponseStreamer streamer;
+
+    @Before
+    public void setup() {
+        channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ctx = channel.pipeline().firstContext();
+        streamer = new GetResponseStreamer(16);
+    }
+
+    @Test
+    public void testShouldStream() {
+        assertFalse("below threshold", streamer.shouldStream(getResult(entry("k1", 8))));
+        assertTrue("at threshold", streamer.shouldStream(getResult(entry("k1", 8), entry("k2", 8))));
+        assertFalse("not a get", streamer.shouldStream(new StoreCacheResult(ResponseStatus.StoreStatus.STORED)));
+        assertFalse("disabled", new GetResponseStreamer(0).shouldStream(getResult(entry("k1", 1024))));
+    }
+
+    @Test
+    public void testStreamMatchesEncoder() {
+        GetCacheResult r = getResult(entry("k1", 10), entry("k2", 2000), entry("k3", 0));
+        streamer.stream(ctx, r, () -> {});
+        assertEquals(encoded(r), written());
+    }
+
+    @Test
+    public void testStreamGets() {
+        GetCacheResult r = new GetsCacheResult(Arrays.asList(entry("k1", 10), entry("k2", 20)));
+        streamer.stream(ctx, r, () -> {});
+        assertEquals(encoded(r), written());
+    }
+
+    @Test
+    public void testWaitsWhenUnwritable() {
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(8, 16));
+        AtomicInteger waits = new AtomicInteger();
+        GetCacheResult r = getResult(entry("k1", 100), entry("k2", 100), entry("k3", 100));
+        streamer.stream(ctx, r, waits::incrementAndGet);
+        assertTrue("waits for the channel to drain", waits.get() >= 2);
+        assertEquals(encoded(r), written());
+    }
+
+    @Test
+    public void testStreamChunked() {
+        byte[][] chunks = {new byte[8], new byte[8], new byte[3]};
+        CacheEntry<CacheValue> chunked = new CacheEntry<>("big", new CacheValue(chunks, 5, 0, 0, 12));
+        GetCacheResult r = getResult(entry("k1", 4), chunked);
+        assertTrue("chunked items are always streamed", streamer.shouldStream(getResult(chunked)));
+
+        streamer.stream(ctx, r, () -> {});
+        String out = written();
+        assertEquals(encoded(r), out);
+        assertTrue(out.contains("VALUE big 5 19\r\n"));
+    }
+
+    @Test
+    public void testStopsWhenClosed() {
+        GetCacheResult r = getResult(entry("k1", 10), entry("k2", 10));
+        channel.close();
+        streamer.stream(ctx, r, () -> {});
+        assertNull("nothing written", channel.readOutbound());
+    }
+
+    private String encoded(GetCacheResult r) {
+        ByteBuf out = Unpooled.buffer();
+        new McTextEncoder().doEncode(r, out);
+        return out.toString(CharsetUtil.UTF_8);
+    }
+
+    private String written() {
+        StringBuilder sb = new StringBuilder();
+        ByteBuf b;
+        while (null != (b = channel.readOutbound())) {
+            sb.append(b.toString(CharsetUtil.UTF_8));
+            b.release();
+        }
+        return sb.toString();
+    }
+
+    @SafeVarargs
+    private final GetCacheResult getResult(CacheEntry<CacheValue>... entries) {
+        return new GetCacheResult(new ArrayList<>(Arrays.asList(entries)));
+    }
+
+    private CacheEntry<CacheValue> entry(String key, int size) {
+        byte[] payload = new byte[size];
+        Arrays.fill(payload, (byte)'x');
+        return new CacheEntry<>(key, new CacheValue(payload, 5, 0, 0, 12));
+    }
+}
@@ -18,11 +18,14 @@ public class McCodecUtilTest {
         assertFalse(codecUtil.hasPayload("get"));
         assertFalse(codecUtil.hasPayload("gets"));
         assertFalse(codecUtil.hasPayload("delete"));
+        assertFalse(codecUtil.hasPayload("flush_all"));
+        assertFalse(codecUtil.hasPayload("lget"));
     }
 
     @Test
     public void tesHasPayload() {
         assertTrue(codecUtil.hasPayload("set"));
         assertTrue(codecUtil.hasPayload("cas"));
+        assertTrue(codecUtil.hasPayload("lset"));
     }
 }
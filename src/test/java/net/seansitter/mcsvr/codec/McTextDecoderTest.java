@@ -3,10 +3,15 @@ package net.seansitter.mcsvr.codec;
 import io.netty.buffer.ByteBuf;
 import static io.netty.buffer.Unpooled.*;
 
+import io.netty.handler.codec.DecoderException;
 import io.netty.util.CharsetUtil;
+import net.seansitter.mcsvr.domain.command.ClientTrackingCommand;
 import net.seansitter.mcsvr.domain.command.DeleteCommand;
+import net.seansitter.mcsvr.domain.command.FlushAllCommand;
 import net.seansitter.mcsvr.domain.command.GetCommand;
+import net.seansitter.mcsvr.domain.command.StatsCommand;
 import net.seansitter.mcsvr.domain.command.StoreCommand;
+import net.seansitter.mcsvr.exception.ClientException;
 import net.seansitter.mcsvr.exception.InvalidCommandException;
 import org.junit.Before;
 import org.junit.Test;
@@ -212,6 +217,121 @@ public class McTextDecoderTest {
         assertTrue("cas is noreply", c.isNoReply());
     }
 
+    @Test
+    public void testFlushAll() {
+        writeString("flush_all");
+        writeCrlf();
+        decoder.doDecode(buf, out);
+
+        assertEquals("1 decoded item", 1, out.size());
+        assertTrue("command is a flush_all type", out.get(0) instanceof FlushAllCommand);
+        FlushAllCommand c = (FlushAllCommand)out.get(0);
+        assertEquals("command name is flush_all", "flush_all", c.getName());
+        assertEquals("no delay", 0, c.getDelay());
+        assertFalse("flush_all is not noreply", c.isNoReply());
+    }
+
+    @Test
+    public void testFlushAllDelayNoReply() {
+        writeString("flush_all 30 noreply");
+        writeCrlf();
+        decoder.doDecode(buf, out);
+
+        FlushAllCommand c = (FlushAllCommand)out.get(0);
+        assertEquals("flush delay", 30, c.getDelay());
+        assertTrue("flush_all is noreply", c.isNoReply());
+    }
+
+    @Test
+    public void testFlushAllNoReply() {
+        writeString("flush_all noreply");
+        writeCrlf();
+        decoder.doDecode(buf, out);
+
+        FlushAllCommand c = (FlushAllCommand)out.get(0);
+        assertEquals("no delay", 0, c.getDelay());
+        assertTrue("flush_all is noreply", c.isNoReply());
+    }
+
+    @Test(expected = ClientException.class)
+    public void testFlushAllBadDelay() {
+        writeString("flush_all abc");
+        writeCrlf();
+        decoder.doDecode(buf, out);
+    }
+
+    @Test(expected = ClientException.class)
+    public void testFlushAllNegativeDelay() {
+        writeString("flush_all -1 noreply");
+        writeCrlf();
+        decoder.doDecode(buf, out);
+    }
+
+    @Test
+    public void testStats() {
+        writeString("stats");
+        writeCrlf();
+        decoder.doDecode(buf, out);
+
+        assertTrue("command is a stats type", out.get(0) instanceof StatsCommand);
+        assertEquals("general stats", "", ((StatsCommand)out.get(0)).getGroup());
+    }
+
+    @Test
+    public void testStatsGroup() {
+        writeString("stats items");
+        writeCrlf();
+        decoder.doDecode(buf, out);
+
+        assertEquals("stats group", "items", ((StatsCommand)out.get(0)).getGroup());
+    }
+
+    @Test
+    public void testClientTracking() {
+        writeString("client_tracking on");
+        writeCrlf();
+        writeString("client_tracking OFF");
+        writeCrlf();
+        decoder.doDecode(buf, out);
+
+        assertTrue("tracking on", ((ClientTrackingCommand)out.get(0)).isOn());
+        assertFalse("tracking off", ((ClientTrackingCommand)out.get(1)).isOn());
+    }
+
+    @Test(expected = DecoderException.class)
+    public void testClientTrackingNeedsOnOrOff() {
+        writeString("client_tracking yes");
+        writeCrlf();
+        decoder.doDecode(buf, out);
+    }
+
+    @Test
+    public void testLeaseGetAndSet() {
+        writeString("lget some_key");
+        writeCrlf();
+        writeString("lset some_key 2 5 3 42 noreply");
+        writeCrlf();
+        writeString("abc");
+        writeCrlf();
+        decoder.doDecode(buf, out);
+
+        GetCommand g = (GetCommand)out.get(0);
+        assertEquals("lget", g.getName());
+        assertEquals("some_key", g.getKeys().get(0));
+        StoreCommand s = (StoreCommand)out.get(1);
+        assertEquals("lset", s.getName());
+        assertEquals("lease token", 42, s.getCasUnique());
+        assertEquals(3, s.getPayloadLen());
+        assertTrue(s.isNoReply());
+    }
+
+    @Test(expected = DecoderException.class)
+    public void testLeaseGetOneKey() {
+        writeString("lget k1 k2");
+        writeCrlf();
+        decoder.doDecode(buf, out);
+    }
+
     /**
      * Tests multiple commands in the buffer
      */
@@ -222,6 +342,47 @@ public class McTextDecoderTest {
         decoder.doDecode(buf, out);
     }
 
+    @Test
+    public void testSetChunked() {
+        decoder = new McTextDecoder(new McCodecUtil(), 4);
+        writeString("set some_key 5 0 10");
+        writeCrlf();
+        writeString("abc");
+        decoder.doDecode(buf, out);
+        assertEquals("payload incomplete", 0, out.size());
+        assertEquals("partial payload consumed into chunks", 0, buf.readableBytes());
+
+        writeString("defghij");
+        decoder.doDecode(buf, out);
+        assertEquals("waiting on crlf", 0, out.size());
+
+        writeCrlf();
+        writeString("get some_key");
+        writeCrlf();
+        decoder.doDecode(buf, out);
+        assertEquals("set and get decoded", 2, out.size());
+
+        StoreCommand c = (StoreCommand)out.get(0);
+        assertTrue("payload is chunked", c.isChunked());
+        assertEquals(3, c.getChunks().length);
+        assertEquals(2, c.getChunks()[2].length);
+        assertEquals(10, c.getPayloadLen());
+        assertEquals("abcdefghij", new String(c.getChunks()[0], CharsetUtil.UTF_8) +
+                new String(c.getChunks()[1], CharsetUtil.UTF_8) + new String(c.getChunks()[2], CharsetUtil.UTF_8));
+        assertTrue("next command follows", out.get(1) instanceof GetCommand);
+    }
+
+    @Test
+    public void testSetAtChunkSizeNotChunked() {
+        decoder = new McTextDecoder(new McCodecUtil(), 4);
+        writeString("set some_key 5 0 4");
+        writeCrlf();
+        writeString("abcd");
+        writeCrlf();
+        decoder.doDecode(buf, out);
+        assertFalse(((StoreCommand)out.get(0)).isChunked());
+    }
+
     void writeString(String s) {
         writeString(s, buf);
     }
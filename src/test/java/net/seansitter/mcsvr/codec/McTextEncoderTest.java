@@ -5,6 +5,7 @@ import io.netty.buffer.Unpooled;
 import io.netty.util.CharsetUtil;
 import net.seansitter.mcsvr.cache.CacheEntry;
 import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.LeaseResult;
 import net.seansitter.mcsvr.cache.ResponseStatus;
 import net.seansitter.mcsvr.domain.result.*;
 import org.junit.Before;
@@ -12,7 +13,9 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class McTextEncoderTest {
     McTextEncoder encoder;
@@ -125,6 +128,35 @@ public class McTextEncoderTest {
         assertEquals("got not found result", "NOT_FOUND\r\n", out.toString(CharsetUtil.UTF_8));
     }
 
+    @Test
+    public void testFlushAllResult() {
+        FlushAllCacheResult fr = new FlushAllCacheResult(ResponseStatus.FlushStatus.OK);
+        encoder.doEncode(fr, out);
+        assertEquals("got ok result", "OK\r\n", out.toString(CharsetUtil.UTF_8));
+    }
+
+    @Test
+    public void testStatsResult() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("curr_items", "5");
+        stats.put("bytes", "120");
+        encoder.doEncode(new StatsCacheResult(stats), out);
+        assertEquals("got stats result", "STAT curr_items 5\r\nSTAT bytes 120\r\nEND\r\n",
+                out.toString(CharsetUtil.UTF_8));
+    }
+
+    @Test
+    public void testLeaseGetResults() {
+        encoder.doEncode(new LeaseGetCacheResult("k", LeaseResult.leased(42)), out);
+        encoder.doEncode(new LeaseGetCacheResult("k", LeaseResult.waitFor()), out);
+        encoder.doEncode(new LeaseGetCacheResult("k", LeaseResult.stale(newCacheEnrty("k", "old"))), out);
+        encoder.doEncode(new LeaseGetCacheResult("k", LeaseResult.hit(newCacheEnrty("k", "new"))), out);
+        assertEquals("LEASE k 42\r\nEND\r\n" +
+                "WAIT k\r\nEND\r\n" +
+                "STALE k "+flags+" 3\r\nold\r\nEND\r\n" +
+                "VALUE k "+flags+" 3\r\nnew\r\nEND\r\n", out.toString(CharsetUtil.UTF_8));
+    }
+
     private GetsCacheResult newGetsCacheResult(CacheEntry<CacheValue>... values) {
         List<CacheEntry<CacheValue>> results = Arrays.asList(values);
         return new GetsCacheResult(results);
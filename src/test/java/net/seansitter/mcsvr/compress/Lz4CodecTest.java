@@ -0,0 +1,63 @@
+package net.seansitter.mcsvr.compress;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Lz4CodecTest {
+    @Test
+    public void testRoundTrip() {
+        Random r = new Random(42);
+        for (int size : new int[] {0, 1, 12, 13, 100, 65536, 70000, 300000}) {
+            byte[] random = new byte[size];
+            r.nextBytes(random);
+            assertRoundTrip(random);
+
+            byte[] constant = new byte[size];
+            Arrays.fill(constant, (byte)'z');
+            assertRoundTrip(constant);
+        }
+    }
+
+    @Test
+    public void testCompressesRepetitiveData() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("{\"id\":").append(i).append(",\"name\":\"user\",\"active\":true}");
+        }
+        byte[] json = sb.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] c = assertRoundTrip(json);
+        assertTrue("ratio " + json.length / (double)c.length, c.length * 3 < json.length);
+    }
+
+    @Test
+    public void testIncompressibleStaysWithinBound() {
+        byte[] random = new byte[10000];
+        new Random(7).nextBytes(random);
+        byte[] c = Lz4Codec.compress(random);
+        assertTrue(c.length > random.length);
+        assertTrue(c.length <= Lz4Codec.maxCompressedLength(random.length));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongRawLength() {
+        byte[] c = Lz4Codec.compress(new byte[100]);
+        Lz4Codec.decompress(c, 99);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedBlock() {
+        byte[] c = Lz4Codec.compress(new byte[1000]);
+        Lz4Codec.decompress(Arrays.copyOf(c, c.length - 2), 1000);
+    }
+
+    private byte[] assertRoundTrip(byte[] raw) {
+        byte[] c = Lz4Codec.compress(raw);
+        assertArrayEquals(raw, Lz4Codec.decompress(c, raw.length));
+        return c;
+    }
+}
@@ -0,0 +1,94 @@
+package net.seansitter.mcsvr.compress;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ValueCompressorTest {
+    @Test
+    public void testCompress() {
+        ValueCompressor c = new ValueCompressor(64, 1.25, 0);
+        byte[] raw = new byte[1000];
+        byte[] compressed = c.compress(raw);
+        assertNotNull(compressed);
+        assertArrayEquals(raw, c.decompress(compressed, raw.length));
+        assertEquals(1, c.getCompressed());
+        assertEquals(1000, c.getRawBytes());
+        assertEquals(compressed.length, c.getCompressedBytes());
+        assertEquals(1, c.getDecompressions());
+    }
+
+    @Test
+    public void testBelowThreshold() {
+        ValueCompressor c = new ValueCompressor(64, 1.25, 0);
+        assertNull(c.compress(new byte[63]));
+        assertEquals("not attempted", 0, c.getAttempts());
+    }
+
+    @Test
+    public void testDisabled() {
+        ValueCompressor c = new ValueCompressor(0, 1.25, 0);
+        assertFalse(c.isEnabled());
+        assertNull(c.compress(new byte[1000]));
+    }
+
+    @Test
+    public void testBelowMinRatio() {
+        ValueCompressor c = new ValueCompressor(64, 1.25, 0);
+        assertNull("incompressible", c.compress(random(1000)));
+        assertEquals(1, c.getAttempts());
+        assertEquals(0, c.getCompressed());
+    }
+
+    @Test
+    public void testBacksOffIncompressibleTraffic() {
+        ValueCompressor c = new ValueCompressor(64, 1.25, 0);
+        byte[] raw = random(256);
+        for (int i = 0; i < 1024; i++) {
+            c.compress(raw);
+        }
+        assertTrue(c.isBackedOff());
+
+        for (int i = 0; i < 1600; i++) {
+            c.compress(raw);
+        }
+        assertTrue("most candidates skipped", c.getSkipped() > 1200);
+    }
+
+    @Test
+    public void testRecoversFromBackOff() {
+        ValueCompressor c = new ValueCompressor(64, 1.25, 0);
+        byte[] incompressible = random(256);
+        for (int i = 0; i < 1024; i++) {
+            c.compress(incompressible);
+        }
+        assertTrue(c.isBackedOff());
+
+        byte[] compressible = new byte[256];
+        while (c.isBackedOff()) {
+            c.compress(compressible); // sampled attempts all succeed, so the next window lifts the back off
+        }
+        assertNotNull(c.compress(compressible));
+    }
+
+    @Test
+    public void testFlags() {
+        ValueCompressor c = new ValueCompressor(64, 1.25, 0x100);
+        assertTrue(c.isPassthrough(0x101));
+        assertFalse(c.isPassthrough(0x1));
+        assertEquals(0x101, c.storedFlag(0x101, true));
+        assertEquals(0x1, c.storedFlag(0x101, false));
+
+        ValueCompressor none = new ValueCompressor(64, 1.25, 0);
+        assertFalse(none.isPassthrough(0xffff));
+        assertEquals(0xffff, none.storedFlag(0xffff, false));
+    }
+
+    private static byte[] random(int size) {
+        byte[] b = new byte[size];
+        new Random(size).nextBytes(b);
+        return b;
+    }
+}
@@ -0,0 +1,153 @@
+package net.seansitter.mcsvr.extstore;
+
+import net.seansitter.mcsvr.cache.CacheValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ExtStoreTest {
+    Path dir;
+    ExtStore store;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("mcsvr-extstore");
+        store = new ExtStore(dir.toString(), 1024 * 1024, 1024, false);
+        store.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.stop();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(p -> p.toFile().delete());
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void testDisabled() {
+        assertFalse(new ExtStore("", 0, 0, false).isEnabled());
+    }
+
+    @Test
+    public void testStagedThenWritten() {
+        CacheValue v = value("some_value", 7);
+        store.stage("some_key", v);
+        assertSame("readable before it is written", v, store.read("some_key"));
+
+        demote("some_key");
+        CacheValue read = store.read("some_key");
+        assertNotSame(v, read);
+        assertEquals(v, read);
+        assertEquals(1, store.getWrites());
+    }
+
+    @Test
+    public void testChunkedAndCompressed() {
+        byte[][] chunks = {bytes("abcd"), bytes("efgh"), bytes("ij")};
+        CacheValue chunked = new CacheValue(chunks, 3, 10, 0, 11);
+        CacheValue compressed = new CacheValue(bytes("lz4 bytes"), 100, 4, 10, 0, 12);
+        store.stage("chunked", chunked);
+        store.stage("compressed", compressed);
+        demote("chunked", "compressed");
+
+        CacheValue c = store.read("chunked");
+        assertTrue(c.isChunked());
+        assertEquals(3, c.getChunks().length);
+        assertArrayEquals(bytes("abcdefghij"), c.getPayload());
+
+        CacheValue z = store.read("compressed");
+        assertTrue(z.isCompressed());
+        assertEquals(100, z.getRawSize());
+        assertEquals(compressed, z);
+    }
+
+    @Test
+    public void testInvalidatedBeforeWriteIsNotResurrected() {
+        store.stage("some_key", value("some_value", 7));
+        store.invalidate("some_key"); // a set or delete landed before the write
+        demote("some_key");
+        assertFalse(store.contains("some_key"));
+        assertNull(store.read("some_key"));
+    }
+
+    @Test
+    public void testPromote() {
+        store.stage("some_key", value("some_value", 7));
+        demote("some_key");
+        assertFalse("cas changed", store.promote("some_key", 8));
+        assertTrue(store.promote("some_key", 7));
+        assertFalse(store.contains("some_key"));
+        assertEquals(0, store.getLiveBytes());
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            keys.add("key_" + i);
+            store.stage("key_" + i, value("value_of_some_length_" + i, i + 1));
+        }
+        store.writePending(keys);
+        int segments = store.getSegments();
+        long diskBytes = store.getDiskBytes();
+        assertTrue(segments > 2);
+
+        // leave every 10th item live
+        for (int i = 0; i < 40; i++) {
+            if (i % 10 != 0) {
+                store.invalidate("key_" + i);
+            }
+        }
+        store.compact();
+
+        assertTrue(store.getSegments() < segments);
+        assertTrue(store.getDiskBytes() < diskBytes / 2);
+        assertTrue(store.getCompactions() > 0);
+        for (int i = 0; i < 40; i += 10) {
+            assertArrayEquals(bytes("value_of_some_length_" + i), store.read("key_" + i).getPayload());
+        }
+        assertEquals(4, store.getItems());
+    }
+
+    @Test
+    public void testDropsOldestSegmentOverMax() throws IOException {
+        store.stop();
+        store = new ExtStore(dir.toString(), 2048, 1024, false);
+        store.start();
+
+        byte[] big = new byte[600];
+        for (int i = 0; i < 10; i++) {
+            store.stage("key_" + i, new CacheValue(big, 0, 10, 0, i + 1));
+            demote("key_" + i);
+        }
+        assertTrue(store.getDiskBytes() <= 2048 + 1024);
+        assertTrue(store.getDroppedItems() > 0);
+        assertNull("oldest item dropped", store.read("key_0"));
+        assertNotNull(store.read("key_9"));
+    }
+
+    private void demote(String... keys) {
+        store.writePending(Arrays.asList(keys));
+    }
+
+    private static CacheValue value(String s, long cas) {
+        return new CacheValue(bytes(s), 5, 10, 0, cas);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
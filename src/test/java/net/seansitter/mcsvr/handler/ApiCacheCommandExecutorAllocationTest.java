@@ -0,0 +1,51 @@
+package net.seansitter.mcsvr.handler;
+
+import net.seansitter.mcsvr.cache.CacheImpl;
+import net.seansitter.mcsvr.cache.DummyCacheMetricsRecorder;
+import net.seansitter.mcsvr.cache.listener.DummyCacheEventListener;
+import net.seansitter.mcsvr.domain.command.GetCommand;
+import net.seansitter.mcsvr.stats.HotKeyTracker;
+import net.seansitter.mcsvr.stats.ServerStats;
+import net.seansitter.mcsvr.stats.StatsReporter;
+import net.seansitter.mcsvr.trace.TraceRecorder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static net.seansitter.mcsvr.alloc.AllocationMeter.assertWithinBudget;
+import static org.mockito.Mockito.*;
+
+public class ApiCacheCommandExecutorAllocationTest {
+    ScheduledExecutorService executorService;
+    ApiCacheCommandExecutor cmdExec;
+
+    @Before
+    public void setup() {
+        executorService = Executors.newSingleThreadScheduledExecutor();
+        CacheImpl cache = new CacheImpl(new HashMap<>(), 0, new ReentrantReadWriteLock(), executorService,
+                new DummyCacheEventListener(), new DummyCacheMetricsRecorder());
+        cache.set("some_key", new byte[100], 0, 0);
+
+        cmdExec = new ApiCacheCommandExecutorImpl(cache, new ServerStats(), mock(StatsReporter.class),
+                new HotKeyTracker(100, 100, 60), new TraceRecorder("", 16));
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testGetHit() {
+        GetCommand c = GetCommand.newBuilder()
+                .withName("get")
+                .withKey("some_key")
+                .build();
+        assertWithinBudget("executor.get.hit", () -> cmdExec.execute(c));
+    }
+}
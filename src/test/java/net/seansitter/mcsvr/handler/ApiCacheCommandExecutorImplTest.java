@@ -4,16 +4,27 @@ import io.netty.util.CharsetUtil;
 import net.seansitter.mcsvr.cache.Cache;
 import net.seansitter.mcsvr.cache.CacheEntry;
 import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.LeaseResult;
 import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.compress.Lz4Codec;
+import net.seansitter.mcsvr.compress.ValueCompressor;
 import net.seansitter.mcsvr.domain.command.DeleteCommand;
+import net.seansitter.mcsvr.domain.command.FlushAllCommand;
 import net.seansitter.mcsvr.domain.command.GetCommand;
+import net.seansitter.mcsvr.domain.command.StatsCommand;
 import net.seansitter.mcsvr.domain.command.StoreCommand;
 import net.seansitter.mcsvr.domain.result.*;
+import net.seansitter.mcsvr.stats.HotKeyTracker;
+import net.seansitter.mcsvr.stats.ServerStats;
+import net.seansitter.mcsvr.stats.StatsReporter;
+import net.seansitter.mcsvr.trace.TraceRecorder;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -21,11 +32,17 @@ import static org.mockito.Mockito.*;
 public class ApiCacheCommandExecutorImplTest {
     ApiCacheCommandExecutor cmdExec;
     Cache cache;
+    ServerStats serverStats;
+    StatsReporter statsReporter;
+    HotKeyTracker hotKeys;
 
     @Before
     public void setup() {
        cache = mock(Cache.class);
-       cmdExec = new ApiCacheCommandExecutorImpl(cache);
+       serverStats = new ServerStats();
+       statsReporter = mock(StatsReporter.class);
+       hotKeys = new HotKeyTracker(1, 10, 60);
+       cmdExec = new ApiCacheCommandExecutorImpl(cache, serverStats, statsReporter, hotKeys, new TraceRecorder("", 16));
     }
 
     @Test
@@ -142,6 +159,169 @@ public class ApiCacheCommandExecutorImplTest {
         assertEquals("statis is deleted", dr.getStatus(), ResponseStatus.DeleteStatus.DELETED);
     }
 
+    @Test
+    public void testFlushAll() {
+        FlushAllCommand c = FlushAllCommand.newBuilder().withDelay(10).build();
+
+        when(cache.flushAll(10)).thenReturn(ResponseStatus.FlushStatus.OK);
+        CacheResult r = cmdExec.execute(c);
+
+        assertTrue("check we got a flush_all cache result", r instanceof FlushAllCacheResult);
+        assertEquals("status is ok", ResponseStatus.FlushStatus.OK, ((FlushAllCacheResult)r).getStatus());
+    }
+
+    @Test
+    public void testStats() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("curr_items", "5");
+        when(statsReporter.report("items")).thenReturn(stats);
+
+        CacheResult r = cmdExec.execute(StatsCommand.newBuilder().withGroup("items").build());
+
+        assertTrue("check we got a stats cache result", r instanceof StatsCacheResult);
+        assertEquals(stats, ((StatsCacheResult)r).getStats());
+    }
+
+    @Test
+    public void testStatsUnknownGroup() {
+        when(statsReporter.report("foo")).thenReturn(null);
+        CacheResult r = cmdExec.execute(StatsCommand.newBuilder().withGroup("foo").build());
+        assertEquals(new ErrorResult(ResponseStatus.ErrorStatus.ERROR), r);
+    }
+
+    @Test
+    public void testCommandCounters() {
+        GetCommand g = GetCommand.newBuilder().withName("get").withKey("k1").withKey("k2").build();
+        cmdExec.execute(g);
+
+        when(cache.deleteKey("k1")).thenReturn(ResponseStatus.DeleteStatus.NOT_FOUND);
+        cmdExec.execute(DeleteCommand.newBuilder().withKey("k1").build());
+
+        StoreCommand c = StoreCommand.newBuilder()
+                .withName("cas")
+                .withKey("k1")
+                .withPayload("hello".getBytes(CharsetUtil.UTF_8))
+                .withCasUnique(15)
+                .build();
+        when(cache.cas(c.getKey(), c.getPayload(), c.getExpTime(), c.getCasUnique(), c.getFlags()))
+                .thenReturn(ResponseStatus.StoreStatus.EXISTS);
+        cmdExec.execute(c);
+
+        assertEquals("cmd_get counts keys", 2, serverStats.getCmdGet());
+        assertEquals(1, serverStats.getDeleteMisses());
+        assertEquals("cas counts as a set", 1, serverStats.getCmdSet());
+        assertEquals(1, serverStats.getCasBadVal());
+    }
+
+    @Test
+    public void testHotKeysTracked() {
+        long t = getTime();
+
+        GetCommand c = GetCommand.newBuilder()
+                .withName("get")
+                .withKey("hot_key")
+                .withKey("missing_key")
+                .build();
+
+        CacheValue v = new CacheValue("hot_value".getBytes(CharsetUtil.UTF_8), 0, t, t+15, 101);
+        when(cache.get(c.getKeys())).thenReturn(Arrays.asList(new CacheEntry<>("hot_key", v)));
+        cmdExec.execute(c);
+        cmdExec.execute(c);
+
+        List<HotKeyTracker.HotKey> byReq = hotKeys.topByRequests(10);
+        assertEquals(2, byReq.size());
+        assertEquals(2, byReq.get(0).perSecond);
+
+        List<HotKeyTracker.HotKey> byBytes = hotKeys.topByBytes(10);
+        assertEquals(1, byBytes.size());
+        assertEquals("hot_key", byBytes.get(0).key);
+        assertEquals(18, byBytes.get(0).perSecond);
+    }
+
+    @Test
+    public void testSetCompressed() {
+        ApiCacheCommandExecutor exec = new ApiCacheCommandExecutorImpl(cache, serverStats, statsReporter, hotKeys,
+                new TraceRecorder("", 16), new ValueCompressor(64, 1.25, 0x100));
+        byte[] payload = new byte[1000];
+        StoreCommand c = StoreCommand.newBuilder()
+                .withExpTime(0)
+                .withFlags(0x101)
+                .withPayload(payload)
+                .withKey("big_key")
+                .withName("set")
+                .build();
+        byte[] compressed = Lz4Codec.compress(payload);
+        when(cache.setCompressed("big_key", compressed, 1000, 0, 0x101)).thenReturn(ResponseStatus.StoreStatus.STORED);
+
+        StoreCacheResult r = (StoreCacheResult)exec.execute(c);
+        assertEquals(ResponseStatus.StoreStatus.STORED, r.getStatus());
+        verify(cache).setCompressed("big_key", compressed, 1000, 0, 0x101);
+    }
+
+    @Test
+    public void testSetNotCompressedClearsPassthroughFlag() {
+        ApiCacheCommandExecutor exec = new ApiCacheCommandExecutorImpl(cache, serverStats, statsReporter, hotKeys,
+                new TraceRecorder("", 16), new ValueCompressor(64, 1.25, 0x100));
+        StoreCommand c = StoreCommand.newBuilder()
+                .withExpTime(0)
+                .withFlags(0x101)
+                .withPayload("small".getBytes(CharsetUtil.UTF_8))
+                .withKey("small_key")
+                .withName("set")
+                .build();
+        when(cache.set("small_key", c.getPayload(), 0, 0x1)).thenReturn(ResponseStatus.StoreStatus.STORED);
+
+        StoreCacheResult r = (StoreCacheResult)exec.execute(c);
+        assertEquals(ResponseStatus.StoreStatus.STORED, r.getStatus());
+        verify(cache).set("small_key", c.getPayload(), 0, 0x1);
+        verify(cache, never()).setCompressed(anyString(), any(), anyInt(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void testGetCompressed() {
+        ApiCacheCommandExecutor exec = new ApiCacheCommandExecutorImpl(cache, serverStats, statsReporter, hotKeys,
+                new TraceRecorder("", 16), new ValueCompressor(64, 1.25, 0x100));
+        long t = getTime();
+        byte[] raw = new byte[1000];
+        Arrays.fill(raw, (byte)'a');
+        byte[] compressed = Lz4Codec.compress(raw);
+        CacheValue stored = new CacheValue(compressed, raw.length, 0x1, t, t+15, 101);
+        CacheValue passthrough = new CacheValue(compressed, raw.length, 0x101, t, t+15, 102);
+
+        GetCommand c = GetCommand.newBuilder().withName("get").withKey("k1").withKey("k2").build();
+        when(cache.get(c.getKeys())).thenReturn(Arrays.asList(
+                new CacheEntry<>("k1", stored, true), new CacheEntry<>("k2", passthrough)));
+
+        List<CacheEntry<CacheValue>> entries = ((GetCacheResult)exec.execute(c)).getCacheEntries();
+        CacheValue v1 = entries.get(0).getValue();
+        assertFalse("decompressed for the client", v1.isCompressed());
+        assertArrayEquals(raw, v1.getPayload());
+        assertEquals(0x1, v1.getFlag());
+        assertEquals(101, v1.getCasUnique());
+        assertTrue("keeps the stale flag", entries.get(0).isStale());
+        assertSame("passthrough items are returned compressed", passthrough, entries.get(1).getValue());
+    }
+
+    @Test
+    public void testLeaseGetAndSet() {
+        GetCommand g = GetCommand.newBuilder().withName("lget").withKey("k").build();
+        when(cache.leaseGet("k")).thenReturn(LeaseResult.leased(42));
+        LeaseGetCacheResult lr = (LeaseGetCacheResult)cmdExec.execute(g);
+        assertEquals(LeaseResult.Status.LEASED, lr.getLease().getStatus());
+        assertEquals(42, lr.getLease().getToken());
+        assertEquals(1, serverStats.getLeaseGrants());
+
+        StoreCommand s = StoreCommand.newBuilder()
+                .withName("lset")
+                .withKey("k")
+                .withPayload("v".getBytes(CharsetUtil.UTF_8))
+                .withCasUnique(42)
+                .build();
+        when(cache.leaseSet("k", s.getPayload(), 0, 42, 0)).thenReturn(ResponseStatus.StoreStatus.NOT_STORED);
+        assertEquals(ResponseStatus.StoreStatus.NOT_STORED, ((StoreCacheResult)cmdExec.execute(s)).getStatus());
+        assertEquals(1, serverStats.getLeaseSetsRefused());
+    }
+
     long getTime() {
         return System.currentTimeMillis() / 1000;
     }
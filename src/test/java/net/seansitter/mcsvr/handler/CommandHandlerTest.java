@@ -1,13 +1,34 @@
 package net.seansitter.mcsvr.handler;
 
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValueStats;
+import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.cache.listener.EventMessage;
+import net.seansitter.mcsvr.codec.GetResponseStreamer;
 import net.seansitter.mcsvr.domain.command.ApiCommand;
+import net.seansitter.mcsvr.domain.command.ClientTrackingCommand;
+import net.seansitter.mcsvr.domain.command.GetCommand;
 import net.seansitter.mcsvr.domain.result.CacheResult;
+import net.seansitter.mcsvr.domain.result.ClientTrackingCacheResult;
+import net.seansitter.mcsvr.domain.result.ErrorResult;
+import net.seansitter.mcsvr.domain.result.InvalidateResult;
+import net.seansitter.mcsvr.stats.CommandLatencies;
+import net.seansitter.mcsvr.stats.ServerStats;
+import net.seansitter.mcsvr.tracking.ClientTracker;
+import org.mockito.ArgumentCaptor;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 public class CommandHandlerTest {
@@ -15,13 +36,19 @@ public class CommandHandlerTest {
     ApiCacheCommandExecutor commandExecutor;
     CommandHandler cmdHandler;
     ChannelHandlerContext ctx;
+    CommandLatencies latencies;
+    ServerStats serverStats;
 
     @Before
     public void setup() {
         executorService = mock(ExecutorService.class);
         commandExecutor = mock(ApiCacheCommandExecutor.class);
-        cmdHandler = new CommandHandler(executorService, commandExecutor);
+        latencies = new CommandLatencies();
+        serverStats = new ServerStats();
+        cmdHandler = new CommandHandler(executorService, commandExecutor, latencies, new GetResponseStreamer(0),
+                serverStats, 0);
         ctx = mock(ChannelHandlerContext.class);
+        when(ctx.writeAndFlush(any())).thenReturn(mock(ChannelFuture.class));
     }
 
     @Test
@@ -57,4 +84,140 @@ public class CommandHandlerTest {
         cmdHandler.channelRead0(ctx, cmd);
         verify(ctx).flush();
     }
+
+    @Test
+    public void testLatencyRecorded() throws Exception {
+        ApiCommand cmd = mock(ApiCommand.class);
+        when(cmd.getName()).thenReturn("get");
+
+        doAnswer(i -> {
+            ((Runnable)i.getArgument(0)).run();
+            return null;
+        }).when(executorService).execute(any());
+
+        cmdHandler.channelRead0(ctx, cmd);
+        assertEquals(1, latencies.forCommand("get").queue.getCount());
+        assertEquals(1, latencies.forCommand("get").exec.getCount());
+    }
+
+    @Test
+    public void testTrackedGetInvalidated() throws Exception {
+        ClientTracker tracker = new ClientTracker(16, serverStats);
+        cmdHandler = new CommandHandler(executorService, commandExecutor, latencies, new GetResponseStreamer(0),
+                serverStats, 0, tracker);
+        when(commandExecutor.execute(any())).thenReturn(mock(CacheResult.class));
+        doAnswer(i -> {
+            ((Runnable)i.getArgument(0)).run();
+            return null;
+        }).when(executorService).execute(any());
+
+        cmdHandler.channelRead0(ctx, ClientTrackingCommand.newBuilder().withOn(true).build());
+        verify(ctx).writeAndFlush(any(ClientTrackingCacheResult.class));
+        cmdHandler.channelRead0(ctx, GetCommand.newBuilder().withName("get").withKey("k").build());
+
+        long time = System.currentTimeMillis() / 1000;
+        tracker.sendMessage(EventMessage.put(new CacheEntry<>("k", new CacheValueStats(time, 0, 1))));
+        ArgumentCaptor<Object> pushed = ArgumentCaptor.forClass(Object.class);
+        verify(ctx).writeAndFlush(pushed.capture(), any());
+        assertEquals("INVALIDATE k", ((InvalidateResult)pushed.getValue()).getStatusString());
+
+        cmdHandler.channelInactive(ctx);
+        assertEquals("tracking stops on close", 0, serverStats.getCurrTracking());
+    }
+
+    @Test
+    public void testTrackingDisabled() throws Exception {
+        doAnswer(i -> {
+            ((Runnable)i.getArgument(0)).run();
+            return null;
+        }).when(executorService).execute(any());
+
+        cmdHandler.channelRead0(ctx, ClientTrackingCommand.newBuilder().withOn(true).build());
+        verify(ctx).writeAndFlush(new ErrorResult(ResponseStatus.ErrorStatus.CLIENT_ERROR, "client tracking is disabled"));
+        assertEquals(0, serverStats.getCurrTracking());
+    }
+
+    @Test
+    public void testExecutorShutdownOnClose() throws Exception {
+        cmdHandler.channelInactive(ctx);
+        verify(executorService).shutdown();
+    }
+
+    @Test
+    public void testPausesAtMaxOutstanding() throws Exception {
+        List<Runnable> queued = new ArrayList<>();
+        EmbeddedChannel ch = newChannel(queued, 4);
+        for (int i = 0; i < 4; i++) {
+            ch.writeInbound(newCommand());
+        }
+        assertFalse("reads paused", ch.config().isAutoRead());
+        assertEquals(1, serverStats.getCurrPaused());
+
+        queued.get(0).run();
+        assertFalse("still more than half outstanding", ch.config().isAutoRead());
+        queued.get(1).run();
+        assertTrue("reads resume at half", ch.config().isAutoRead());
+        assertEquals(0, serverStats.getCurrPaused());
+        assertEquals(1, serverStats.getTotalPaused());
+    }
+
+    @Test
+    public void testShedsPastTwiceMaxOutstanding() throws Exception {
+        List<Runnable> queued = new ArrayList<>();
+        EmbeddedChannel ch = newChannel(queued, 1);
+        for (int i = 0; i < 3; i++) {
+            ch.writeInbound(newCommand());
+        }
+        queued.forEach(Runnable::run);
+
+        assertEquals(1, serverStats.getCommandsShed());
+        verify(commandExecutor, times(2)).execute(any());
+        assertFalse(ch.readOutbound() instanceof ErrorResult);
+        assertFalse(ch.readOutbound() instanceof ErrorResult);
+        assertTrue("shed command answered in order", ch.readOutbound() instanceof ErrorResult);
+        assertTrue("reads resume", ch.config().isAutoRead());
+    }
+
+    @Test
+    public void testFailedCommandAnswered() throws Exception {
+        List<Runnable> queued = new ArrayList<>();
+        EmbeddedChannel ch = newChannel(queued, 2);
+        when(commandExecutor.execute(any())).thenThrow(new IllegalStateException("broken"));
+        for (int i = 0; i < 2; i++) {
+            ch.writeInbound(newCommand());
+        }
+        assertFalse("reads paused", ch.config().isAutoRead());
+
+        queued.forEach(Runnable::run);
+        assertEquals(new ErrorResult(ResponseStatus.ErrorStatus.SERVER_ERROR, "the server encountered an error"),
+                ch.readOutbound());
+        assertTrue("failed commands still count as answered", ch.config().isAutoRead());
+    }
+
+    @Test
+    public void testPausesWhileUnwritable() throws Exception {
+        EmbeddedChannel ch = newChannel(new ArrayList<>(), 0);
+        ch.config().setWriteBufferWaterMark(new WriteBufferWaterMark(8, 16));
+        ch.write(Unpooled.wrappedBuffer(new byte[32]));
+        assertFalse("reads paused", ch.config().isAutoRead());
+
+        ch.flush();
+        ch.runPendingTasks();
+        assertTrue("reads resume", ch.config().isAutoRead());
+        assertEquals(1, serverStats.getTotalPaused());
+    }
+
+    private EmbeddedChannel newChannel(List<Runnable> queued, int maxOutstanding) {
+        ExecutorService deferred = mock(ExecutorService.class);
+        doAnswer(i -> queued.add(i.getArgument(0))).when(deferred).execute(any());
+        when(commandExecutor.execute(any())).thenReturn(mock(CacheResult.class));
+        return new EmbeddedChannel(new CommandHandler(deferred, commandExecutor, latencies, new GetResponseStreamer(0),
+                serverStats, maxOutstanding));
+    }
+
+    private ApiCommand newCommand() {
+        ApiCommand cmd = mock(ApiCommand.class);
+        when(cmd.getName()).thenReturn("get");
+        return cmd;
+    }
 }
@@ -40,6 +40,13 @@ public class InBoundErrorHandlerTest {
         verify(ctx).writeAndFlush(new ErrorResult(ResponseStatus.ErrorStatus.CLIENT_ERROR, msg));
     }
 
+    @Test
+    public void testWrappedClientError() {
+        String msg = "bad flush_all delay: abc";
+        errorHandler.exceptionCaught(ctx, new RuntimeException(new ClientException(msg)));
+        verify(ctx).writeAndFlush(new ErrorResult(ResponseStatus.ErrorStatus.CLIENT_ERROR, msg));
+    }
+
     @Test
     public void testServerError() {
         String msg = "the server encountered an error";
@@ -0,0 +1,69 @@
+package net.seansitter.mcsvr.handler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ThreadModeTest {
+    @Test
+    public void testOf() {
+        assertEquals(ThreadMode.PLATFORM, ThreadMode.of("platform"));
+        assertEquals(ThreadMode.VIRTUAL, ThreadMode.of("Virtual"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOfUnknown() {
+        ThreadMode.of("green");
+    }
+
+    @Test
+    public void testPlatformKeepsOrder() throws Exception {
+        assertOrdered(ThreadMode.PLATFORM);
+    }
+
+    @Test
+    public void testVirtual() throws Exception {
+        boolean supported;
+        try {
+            Thread.class.getMethod("ofVirtual");
+            supported = true;
+        }
+        catch (NoSuchMethodException e) {
+            supported = false;
+        }
+
+        if (supported) {
+            assertOrdered(ThreadMode.VIRTUAL);
+        }
+        else {
+            try {
+                ThreadMode.VIRTUAL.check();
+                fail("expected virtual threads to be unsupported");
+            }
+            catch (IllegalStateException e) {
+                // expected before jdk 21
+            }
+        }
+    }
+
+    private void assertOrdered(ThreadMode mode) throws Exception {
+        mode.check();
+        ExecutorService exec = mode.newConnectionExecutor();
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final int n = i;
+            exec.execute(() -> ran.add(n));
+            expected.add(i);
+        }
+        exec.shutdown();
+        assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(expected, ran);
+    }
+}
@@ -0,0 +1,48 @@
+package net.seansitter.mcsvr.loadgen;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class KeyDistributionTest {
+    private static final int KEYS = 1000;
+    private static final int SAMPLES = 100000;
+
+    @Test
+    public void testUniformInRange() {
+        int[] counts = sample(new KeyDistribution.Uniform(KEYS));
+        for (int c : counts) {
+            assertTrue(c > 0);
+        }
+    }
+
+    @Test
+    public void testZipfianSkew() {
+        int[] counts = sample(new KeyDistribution.Zipfian(KEYS, 0.99));
+        assertTrue("key 0 is the hottest", counts[0] > counts[1]);
+        assertTrue(counts[1] > counts[100]);
+        // with theta .99 over 1000 keys, key 0 gets about 13% of requests
+        assertTrue(counts[0] > SAMPLES / 10);
+    }
+
+    @Test
+    public void testHotSet() {
+        int[] counts = sample(new KeyDistribution.HotSet(KEYS, 0.01, 0.9));
+        int hot = 0;
+        for (int i = 0; i < 10; i++) {
+            hot += counts[i];
+        }
+        assertEquals(0.9, (double)hot / SAMPLES, 0.01);
+    }
+
+    private int[] sample(KeyDistribution d) {
+        Random r = new Random(42);
+        int[] counts = new int[KEYS];
+        for (int i = 0; i < SAMPLES; i++) {
+            counts[d.next(r)]++; // throws if out of range
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,54 @@
+package net.seansitter.mcsvr.loadgen;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.seansitter.mcsvr.loadgen.ResponseDecoder.Response;
+import static org.junit.Assert.*;
+
+public class ResponseDecoderTest {
+    ResponseDecoder decoder;
+    List<Object> out;
+
+    @Before
+    public void setup() {
+        decoder = new ResponseDecoder();
+        out = new ArrayList<>();
+    }
+
+    @Test
+    public void testResponses() {
+        decode("VALUE k 0 5\r\nhello\r\nEND\r\nEND\r\nSTORED\r\nNOT_STORED\r\nSERVER_ERROR oops\r\nDELETED\r\nNOT_FOUND\r\nEXISTS\r\n");
+        assertEquals(Arrays.asList(Response.HIT, Response.MISS, Response.STORED, Response.NOT_STORED,
+                Response.ERROR, Response.DELETED, Response.NOT_FOUND, Response.OTHER), out);
+    }
+
+    @Test
+    public void testPartialValue() {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeCharSequence("VALUE k 0 10\r\nhello", CharsetUtil.UTF_8);
+        decoder.decode(null, buf, out);
+        assertTrue(out.isEmpty());
+        assertEquals("waits for the payload before consuming the line", 0, buf.readerIndex());
+
+        buf.writeCharSequence("world\r\nEN", CharsetUtil.UTF_8);
+        decoder.decode(null, buf, out);
+        assertTrue(out.isEmpty());
+
+        buf.writeCharSequence("D\r\n", CharsetUtil.UTF_8);
+        decoder.decode(null, buf, out);
+        assertEquals(Arrays.asList(Response.HIT), out);
+        assertFalse(buf.isReadable());
+    }
+
+    private void decode(String s) {
+        decoder.decode(null, Unpooled.copiedBuffer(s, CharsetUtil.UTF_8), out);
+    }
+}
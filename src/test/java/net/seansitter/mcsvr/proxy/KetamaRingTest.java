@@ -0,0 +1,56 @@
+package net.seansitter.mcsvr.proxy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KetamaRingTest {
+    private static final int KEYS = 100000;
+
+    @Test
+    public void testHashIsLittleEndianMd5Prefix() {
+        // md5("") = d41d8cd98f00b204...
+        assertEquals(0xd98c1dd4L, KetamaRing.hash(""));
+    }
+
+    @Test
+    public void testSpreadsKeysEvenly() {
+        List<String> servers = Arrays.asList("10.0.0.1:11211", "10.0.0.2:11211", "10.0.0.3:11211", "10.0.0.4:11211");
+        KetamaRing ring = new KetamaRing(servers);
+        int[] counts = new int[servers.size()];
+        for (int i = 0; i < KEYS; i++) {
+            counts[ring.serverFor("key_" + i)]++;
+        }
+        for (int c : counts) {
+            // 160 points per server keep each well within 20% of its share
+            assertEquals(KEYS / servers.size(), c, KEYS / servers.size() / 5);
+        }
+    }
+
+    @Test
+    public void testAddingServerOnlyMovesKeysToIt() {
+        KetamaRing three = new KetamaRing(Arrays.asList("a:1", "b:1", "c:1"));
+        KetamaRing four = new KetamaRing(Arrays.asList("a:1", "b:1", "c:1", "d:1"));
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "key_" + i;
+            int before = three.serverFor(key);
+            int after = four.serverFor(key);
+            if (before != after) {
+                assertEquals("a key only moves to the new server", 3, after);
+                moved++;
+            }
+        }
+        assertEquals(KEYS / 4, moved, KEYS / 20);
+    }
+
+    @Test
+    public void testWrapsAround() {
+        KetamaRing ring = new KetamaRing(Arrays.asList("a:1", "b:1", "c:1"));
+        // past the last point a key belongs to the first point's server, as does the lowest hash
+        assertEquals(ring.serverFor(0L), ring.serverFor(0xffffffffL));
+    }
+}
@@ -0,0 +1,136 @@
+package net.seansitter.mcsvr.proxy;
+
+import io.netty.util.CharsetUtil;
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.ResponseStatus;
+import net.seansitter.mcsvr.domain.command.ApiCommand;
+import net.seansitter.mcsvr.domain.command.FlushAllCommand;
+import net.seansitter.mcsvr.domain.command.GetCommand;
+import net.seansitter.mcsvr.domain.command.StoreCommand;
+import net.seansitter.mcsvr.domain.result.*;
+import net.seansitter.mcsvr.stats.ServerStats;
+import net.seansitter.mcsvr.stats.StatsReporter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ProxyCommandExecutorTest {
+    KetamaRing ring;
+    Backend[] backends;
+    BackendPool pool;
+    ProxyCommandExecutor cmdExec;
+
+    @Before
+    public void setup() {
+        ring = new KetamaRing(Arrays.asList("a:1", "b:1"));
+        backends = new Backend[] {mock(Backend.class), mock(Backend.class)};
+        pool = mock(BackendPool.class);
+        when(pool.route(anyLong())).thenAnswer(i -> backends[ring.serverFor(i.<Long>getArgument(0))]);
+        when(pool.getBackends()).thenReturn(Arrays.asList(backends));
+        when(pool.getTimeoutMillis()).thenReturn(1000);
+        for (Backend b : backends) {
+            // each backend has every key it is asked for, valued by the key itself
+            when(b.send(any(), anyLong())).thenAnswer(i -> CompletableFuture.completedFuture(hits(i.getArgument(0))));
+        }
+        cmdExec = new ProxyCommandExecutor(pool, new ServerStats(), mock(StatsReporter.class));
+    }
+
+    @Test
+    public void testMultiGetSplitAndMergedInKeyOrder() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            keys.add("key_" + i);
+        }
+        GetCommand.Builder b = GetCommand.newBuilder().withName("gets");
+        keys.forEach(b::withKey);
+
+        CacheResult r = cmdExec.execute(b.build());
+        assertTrue(r instanceof GetsCacheResult);
+        assertEquals(keys, ((GetCacheResult)r).getCacheEntries().stream()
+                .map(CacheEntry::getKey).collect(Collectors.toList()));
+
+        // one request to each backend, with only its own keys
+        for (int s = 0; s < backends.length; s++) {
+            int server = s;
+            verify(backends[s], times(1)).send(argThat(c -> ((GetCommand)c).getKeys().stream()
+                    .allMatch(k -> ring.serverFor(k) == server)), anyLong());
+        }
+    }
+
+    @Test
+    public void testFailedPartIsMisses() {
+        String onA = key(0);
+        String onB = key(1);
+        when(backends[1].send(any(), anyLong())).thenReturn(failed());
+
+        CacheResult r = cmdExec.execute(GetCommand.newBuilder().withName("get").withKey(onA).withKey(onB).build());
+        List<CacheEntry<CacheValue>> hits = ((GetCacheResult)r).getCacheEntries();
+        assertEquals(1, hits.size());
+        assertEquals(onA, hits.get(0).getKey());
+    }
+
+    @Test
+    public void testStoreRoutedByKey() {
+        String onB = key(1);
+        StoreCommand set = StoreCommand.newBuilder().withName("set").withKey(onB).withPayload(new byte[1]).build();
+        when(backends[1].send(same(set), anyLong()))
+                .thenReturn(CompletableFuture.completedFuture(new StoreCacheResult(ResponseStatus.StoreStatus.STORED)));
+
+        CacheResult r = cmdExec.execute(set);
+        assertEquals(ResponseStatus.StoreStatus.STORED, ((StoreCacheResult)r).getStatus());
+        verify(backends[0], never()).send(any(), anyLong());
+
+        when(backends[1].send(same(set), anyLong())).thenReturn(failed());
+        assertEquals(new ErrorResult(ResponseStatus.ErrorStatus.SERVER_ERROR, "backend unavailable"), cmdExec.execute(set));
+    }
+
+    @Test
+    public void testFlushAllBroadcast() {
+        FlushAllCommand flush = FlushAllCommand.newBuilder().build();
+        for (Backend b : backends) {
+            when(b.send(same(flush), anyLong()))
+                    .thenReturn(CompletableFuture.completedFuture(new FlushAllCacheResult(ResponseStatus.FlushStatus.OK)));
+        }
+
+        CacheResult r = cmdExec.execute(flush);
+        assertEquals(ResponseStatus.FlushStatus.OK, ((FlushAllCacheResult)r).getStatus());
+        for (Backend b : backends) {
+            verify(b).send(same(flush), anyLong());
+        }
+    }
+
+    // the first key of a numbered series that lives on the server
+    private String key(int server) {
+        for (int i = 0; ; i++) {
+            if (ring.serverFor("key_" + i) == server) {
+                return "key_" + i;
+            }
+        }
+    }
+
+    private static CacheResult hits(ApiCommand c) {
+        List<CacheEntry<CacheValue>> hits = new ArrayList<>();
+        if (c instanceof GetCommand) {
+            for (String key : ((GetCommand)c).getKeys()) {
+                hits.add(new CacheEntry<>(key, new CacheValue(key.getBytes(CharsetUtil.UTF_8), 0, 0, 0, 1)));
+            }
+        }
+        return new GetCacheResult(hits);
+    }
+
+    private static CompletableFuture<CacheResult> failed() {
+        CompletableFuture<CacheResult> f = new CompletableFuture<>();
+        f.completeExceptionally(new IOException("backend connection closed"));
+        return f;
+    }
+}
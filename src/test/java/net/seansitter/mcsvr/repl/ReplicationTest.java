@@ -0,0 +1,119 @@
+package net.seansitter.mcsvr.repl;
+
+import net.seansitter.mcsvr.cache.CacheImpl;
+import net.seansitter.mcsvr.cache.CacheMetricsRecorder;
+import net.seansitter.mcsvr.cache.listener.CacheEventListener;
+import net.seansitter.mcsvr.extstore.ExtStore;
+import net.seansitter.mcsvr.wal.MutationLog;
+import net.seansitter.mcsvr.wal.SyncPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class ReplicationTest {
+    CacheImpl leaderCache;
+    CacheImpl followerCache;
+    ReplicationLeader leader;
+    ReplicationFollower follower;
+
+    @Before
+    public void setup() throws IOException {
+        int port;
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+
+        MutationLog mutationLog = new MutationLog("", SyncPolicy.NONE, 0, 0);
+        leaderCache = newCache(mutationLog);
+        followerCache = newCache(new MutationLog("", SyncPolicy.NONE, 0, 0));
+        leader = new ReplicationLeader(port, 4, leaderCache, mutationLog);
+        follower = new ReplicationFollower("127.0.0.1:" + port, followerCache);
+        leader.start();
+    }
+
+    @After
+    public void tearDown() {
+        follower.stop();
+        leader.stop();
+    }
+
+    @Test
+    public void testFullSyncThenStream() {
+        leaderCache.set("a", bytes("1"), 0, 0);
+        leaderCache.set("b", bytes("2"), 0, 0);
+        follower.start();
+        await(() -> followerCache.get("b").isPresent());
+        assertEquals(1, leader.getFullSyncs());
+        assertTrue(followerCache.get("a").isPresent());
+
+        leaderCache.deleteKey("a");
+        leaderCache.set("c", new byte[][] {bytes("abc"), bytes("de")}, 0, 5);
+        await(() -> followerCache.get("c").isPresent());
+        assertFalse(followerCache.get("a").isPresent());
+        assertArrayEquals(bytes("abcde"), followerCache.get("c").get().getValue().getPayload());
+        assertEquals(leaderCache.get("c").get().getValue().getCasUnique(),
+                followerCache.get("c").get().getValue().getCasUnique());
+
+        leaderCache.flushAll(0);
+        leaderCache.set("d", bytes("4"), 0, 0);
+        await(() -> followerCache.get("d").isPresent());
+        assertFalse(followerCache.get("b").isPresent());
+    }
+
+    @Test
+    public void testResyncReplacesItems() {
+        followerCache.set("stale", bytes("1"), 0, 0);
+        leaderCache.set("a", bytes("1"), 0, 0);
+        follower.start();
+        await(() -> followerCache.get("a").isPresent());
+        assertFalse(followerCache.get("stale").isPresent());
+    }
+
+    @Test
+    public void testOverflowForcesResync() {
+        leaderCache.set("a", bytes("1"), 0, 0);
+        follower.start();
+        await(() -> followerCache.get("a").isPresent());
+
+        // the queue holds 4, a burst larger than that can outrun the stream
+        for (int i = 0; i < 10000; i++) {
+            leaderCache.set("k" + i, bytes("v"), 0, 0);
+        }
+        await(() -> followerCache.get("k9999").isPresent());
+        assertTrue(followerCache.get("k0").isPresent());
+    }
+
+    private void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out waiting for the follower", System.currentTimeMillis() < deadline);
+            try {
+                Thread.sleep(10);
+            }
+            catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private CacheImpl newCache(MutationLog log) {
+        return new CacheImpl(new HashMap<>(), 0, new ReentrantReadWriteLock(),
+                mock(ScheduledExecutorService.class), mock(CacheEventListener.class),
+                mock(CacheMetricsRecorder.class), 0, 1, null, new ExtStore("", 0, 0, false), log, 10, 0, 0.0);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,75 @@
+package net.seansitter.mcsvr.stats;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    LatencyHistogram histogram;
+
+    @Before
+    public void setup() {
+        histogram = new LatencyHistogram();
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testSmallValuesExact() {
+        for (int i = 0; i < 32; i++) {
+            assertEquals("small values have their own bucket", i,
+                    LatencyHistogram.highestEquivalentValue(LatencyHistogram.indexOf(i)));
+        }
+    }
+
+    @Test
+    public void testBucketBoundsContainValue() {
+        long[] values = {32, 33, 63, 64, 65, 1000, 123456, 987654321, (1L << 39) + 12345};
+        for (long v : values) {
+            int idx = LatencyHistogram.indexOf(v);
+            assertTrue("lower bound of "+v, LatencyHistogram.lowestEquivalentValue(idx) <= v);
+            assertTrue("upper bound of "+v, LatencyHistogram.highestEquivalentValue(idx) >= v);
+            // relative error bounded by bucket width
+            assertTrue("error of "+v, (LatencyHistogram.highestEquivalentValue(idx) - v) <= v / 32);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertWithin(500000, histogram.getValueAtPercentile(50));
+        assertWithin(990000, histogram.getValueAtPercentile(99));
+        assertWithin(999000, histogram.getValueAtPercentile(99.9));
+        assertWithin(1000000, histogram.getMaxValue());
+    }
+
+    @Test
+    public void testClampAndNegative() {
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testAddAndReset() {
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(100, 3);
+        histogram.add(other);
+        assertEquals(3, histogram.getCount());
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    void assertWithin(long expected, long actual) {
+        assertTrue("expected ~"+expected+" got "+actual, Math.abs(expected - actual) <= expected / 32);
+    }
+}
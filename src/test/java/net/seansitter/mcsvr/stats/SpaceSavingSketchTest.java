@@ -0,0 +1,70 @@
+package net.seansitter.mcsvr.stats;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpaceSavingSketchTest {
+    @Test
+    public void testCountsUnderCapacity() {
+        SpaceSavingSketch s = new SpaceSavingSketch(4);
+        s.add("a", 1);
+        s.add("b", 3);
+        s.add("a", 1);
+
+        List<SpaceSavingSketch.Counter> top = s.top(10);
+        assertEquals(2, top.size());
+        assertEquals("b", top.get(0).key);
+        assertEquals(3, top.get(0).count);
+        assertEquals("a", top.get(1).key);
+        assertEquals(2, top.get(1).count);
+        assertEquals(0, top.get(1).error);
+    }
+
+    @Test
+    public void testReplacesMin() {
+        SpaceSavingSketch s = new SpaceSavingSketch(2);
+        s.add("a", 5);
+        s.add("b", 1);
+        s.add("c", 1);
+
+        assertEquals(2, s.size());
+        List<SpaceSavingSketch.Counter> top = s.top(2);
+        assertEquals("a", top.get(0).key);
+        assertEquals("c", top.get(1).key);
+        // c inherits b's count as error
+        assertEquals(2, top.get(1).count);
+        assertEquals(1, top.get(1).error);
+    }
+
+    @Test
+    public void testHeavyHitterSurvives() {
+        SpaceSavingSketch s = new SpaceSavingSketch(10);
+        for (int i = 0; i < 1000; i++) {
+            s.add("hot", 1);
+            s.add("cold_"+i, 1);
+        }
+
+        SpaceSavingSketch.Counter top = s.top(1).get(0);
+        assertEquals("hot", top.key);
+        assertTrue(top.count - top.error <= 1000);
+        assertTrue(top.count >= 1000);
+    }
+
+    @Test
+    public void testAddAll() {
+        SpaceSavingSketch a = new SpaceSavingSketch(4);
+        SpaceSavingSketch b = new SpaceSavingSketch(4);
+        a.add("x", 2);
+        b.add("x", 3);
+        b.add("y", 1);
+        a.addAll(b);
+
+        List<SpaceSavingSketch.Counter> top = a.top(2);
+        assertEquals("x", top.get(0).key);
+        assertEquals(5, top.get(0).count);
+        assertEquals("y", top.get(1).key);
+    }
+}
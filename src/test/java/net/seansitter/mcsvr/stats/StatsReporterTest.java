@@ -0,0 +1,139 @@
+package net.seansitter.mcsvr.stats;
+
+import net.seansitter.mcsvr.cache.CacheMetrics;
+import net.seansitter.mcsvr.compress.ValueCompressor;
+import net.seansitter.mcsvr.extstore.ExtStore;
+import net.seansitter.mcsvr.repl.ReplicationFollower;
+import net.seansitter.mcsvr.repl.ReplicationLeader;
+import net.seansitter.mcsvr.wal.MutationLog;
+import net.seansitter.mcsvr.wal.SyncPolicy;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class StatsReporterTest {
+    ServerStats serverStats;
+    CacheMetrics cacheMetrics;
+    CommandLatencies latencies;
+    HotKeyTracker hotKeys;
+    ValueCompressor compressor;
+    StatsReporter reporter;
+
+    @Before
+    public void setup() {
+        serverStats = new ServerStats();
+        cacheMetrics = mock(CacheMetrics.class);
+        latencies = new CommandLatencies();
+        hotKeys = new HotKeyTracker(1, 10, 60);
+        compressor = new ValueCompressor(64, 1.25, 0);
+        MutationLog mutationLog = new MutationLog("", SyncPolicy.NONE, 0, 0);
+        reporter = new StatsReporter(serverStats, cacheMetrics, latencies, hotKeys, compressor,
+                new ExtStore("", 0, 0, false), mutationLog, new ReplicationLeader(0, 0, null, mutationLog),
+                new ReplicationFollower("", null), 11211, 1024, 30, 0, 0, 20);
+    }
+
+    @Test
+    public void testGeneral() {
+        when(cacheMetrics.getHits()).thenReturn(7L);
+        when(cacheMetrics.getItems()).thenReturn(3L);
+        serverStats.cmdGet(9);
+        serverStats.connectionOpened();
+        serverStats.connectionOpened();
+        serverStats.connectionClosed();
+        serverStats.bytesRead(100);
+
+        Map<String, String> s = reporter.report("");
+        assertEquals("9", s.get("cmd_get"));
+        assertEquals("7", s.get("get_hits"));
+        assertEquals("3", s.get("curr_items"));
+        assertEquals("1", s.get("curr_connections"));
+        assertEquals("2", s.get("total_connections"));
+        assertEquals("100", s.get("bytes_read"));
+        assertEquals("1024", s.get("limit_maxbytes"));
+        assertTrue("stats start with pid", s.keySet().iterator().next().equals("pid"));
+    }
+
+    @Test
+    public void testItems() {
+        when(cacheMetrics.getEvictions()).thenReturn(4L);
+        Map<String, String> s = reporter.report("items");
+        assertEquals("4", s.get("items:1:evicted"));
+    }
+
+    @Test
+    public void testSlabs() {
+        when(cacheMetrics.getSize()).thenReturn(512L);
+        Map<String, String> s = reporter.report("slabs");
+        assertEquals("512", s.get("1:mem_requested"));
+        assertEquals("1", s.get("active_slabs"));
+    }
+
+    @Test
+    public void testSettings() {
+        Map<String, String> s = reporter.report("settings");
+        assertEquals("11211", s.get("tcpport"));
+        assertEquals("1024", s.get("maxbytes"));
+        assertEquals("30", s.get("reap_interval"));
+    }
+
+    @Test
+    public void testLatency() {
+        latencies.record("set", 2000, 50000);
+        Map<String, String> s = reporter.report("latency");
+        assertEquals("1", s.get("set:count"));
+        assertEquals("2", s.get("set:queue_p50_us"));
+        assertEquals("50", s.get("set:exec_p99_us"));
+        assertEquals("0", s.get("get:count"));
+    }
+
+    @Test
+    public void testMultiGetLatency() {
+        latencies.recordMultiGet(1, 1000);
+        latencies.recordMultiGet(250, 50000);
+        latencies.recordMultiGet(500, 50000);
+        Map<String, String> s = reporter.report("latency");
+        assertEquals("1", s.get("get_keys_1:count"));
+        assertEquals("0", s.get("get_keys_2-10:count"));
+        assertEquals("2", s.get("get_keys_101-500:count"));
+        assertEquals("0", s.get("get_keys_501+:count"));
+        assertEquals("50", s.get("get_keys_101-500:exec_p50_us"));
+    }
+
+    @Test
+    public void testHotKeys() {
+        hotKeys.recordRequest("warm");
+        hotKeys.recordRequest("hot");
+        hotKeys.recordRequest("hot");
+        hotKeys.recordBytes("warm", 100);
+
+        Map<String, String> s = reporter.report("hotkeys");
+        assertEquals("yes", s.get("hotkeys:enabled"));
+        assertEquals("2", s.get("hotkeys:requests:1:hot"));
+        assertEquals("1", s.get("hotkeys:requests:2:warm"));
+        assertEquals("100", s.get("hotkeys:bytes:1:warm"));
+    }
+
+    @Test
+    public void testCompression() {
+        compressor.compress(new byte[1000]); // compresses well
+        compressor.compress(new byte[10]); // below threshold, not attempted
+
+        Map<String, String> s = reporter.report("compression");
+        assertEquals("yes", s.get("compression:enabled"));
+        assertEquals("1", s.get("compression:attempts"));
+        assertEquals("1", s.get("compression:hits"));
+        assertEquals("0", s.get("compression:misses"));
+        assertEquals("1.000", s.get("compression:hit_ratio"));
+        assertEquals("1000", s.get("compression:raw_bytes"));
+        assertTrue(Long.parseLong(s.get("compression:saved_bytes")) > 900);
+    }
+
+    @Test
+    public void testUnknownGroup() {
+        assertNull(reporter.report("foo"));
+    }
+}
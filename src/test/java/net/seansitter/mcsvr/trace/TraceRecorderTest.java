@@ -0,0 +1,86 @@
+package net.seansitter.mcsvr.trace;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TraceRecorderTest {
+    Path traceFile;
+
+    @Before
+    public void setup() throws IOException {
+        traceFile = Files.createTempFile("mcsvr", ".trace");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(traceFile);
+    }
+
+    @Test
+    public void testDisabled() {
+        TraceRecorder recorder = new TraceRecorder("", 16);
+        assertFalse(recorder.isEnabled());
+        recorder.record(TraceRecord.GET, "some_key", -1, 0); // no-op
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(traceFile.toString(), 16);
+        recorder.start();
+        recorder.record(TraceRecord.SET, "some_key", 10, 30);
+        recorder.record(TraceRecord.GET, "some_key", 10, 0);
+        recorder.record(TraceRecord.GET, "other_key", -1, 0);
+        recorder.record(TraceRecord.DELETE, "some_key", 0, 0);
+        recorder.stop();
+
+        try (TraceReader reader = new TraceReader(traceFile)) {
+            assertTrue(reader.getStartMillis() > 0);
+
+            TraceRecord r = new TraceRecord();
+            assertTrue(reader.next(r));
+            assertEquals(TraceRecord.SET, r.op);
+            assertEquals(TraceRecord.hash("some_key"), r.keyHash);
+            assertEquals(10, r.valueSize);
+            assertEquals(30, r.ttl);
+            long prevNanos = r.nanos;
+
+            assertTrue(reader.next(r));
+            assertEquals(TraceRecord.GET, r.op);
+            assertTrue(r.nanos >= prevNanos);
+
+            assertTrue(reader.next(r));
+            assertEquals(TraceRecord.hash("other_key"), r.keyHash);
+            assertEquals(-1, r.valueSize);
+
+            assertTrue(reader.next(r));
+            assertEquals(TraceRecord.DELETE, r.op);
+
+            assertFalse(reader.next(r));
+        }
+    }
+
+    @Test
+    public void testAbsoluteTtlIsMadeRelative() throws IOException {
+        // started half way through a second, the record comes 700ms later in the next second
+        long[] nanos = {0};
+        TraceRecorder recorder = new TraceRecorder(traceFile.toString(), 16, 1500000000500L, () -> nanos[0]);
+        recorder.start();
+        nanos[0] = TimeUnit.MILLISECONDS.toNanos(700);
+        recorder.record(TraceRecord.SET, "some_key", 10, 1500000001L + 100);
+        recorder.stop();
+
+        try (TraceReader reader = new TraceReader(traceFile)) {
+            TraceRecord r = new TraceRecord();
+            assertTrue(reader.next(r));
+            assertEquals(100, r.ttl);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package net.seansitter.mcsvr.trace;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class TraceSimulatorTest {
+    Path traceFile;
+
+    @Before
+    public void setup() throws IOException {
+        traceFile = Files.createTempFile("mcsvr", ".trace");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(traceFile);
+    }
+
+    @Test
+    public void testHitRatio() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(traceFile.toString(), 16);
+        recorder.start();
+        recorder.record(TraceRecord.SET, "some_key", 10, 0);
+        recorder.record(TraceRecord.GET, "some_key", 10, 0);
+        recorder.record(TraceRecord.GET, "other_key", 10, 0);
+        recorder.record(TraceRecord.DELETE, "some_key", 0, 0);
+        recorder.record(TraceRecord.GET, "some_key", -1, 0);
+        recorder.stop();
+
+        TraceSimulator sim = new TraceSimulator(1024, 20, false);
+        try (TraceReader reader = new TraceReader(traceFile)) {
+            sim.run(reader);
+        }
+        assertEquals(3, sim.getGets());
+        assertEquals(1, sim.getHits());
+    }
+
+    @Test
+    public void testFillOnMiss() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(traceFile.toString(), 16);
+        recorder.start();
+        recorder.record(TraceRecord.GET, "some_key", 10, 0);
+        recorder.record(TraceRecord.GET, "some_key", 10, 0);
+        recorder.stop();
+
+        TraceSimulator sim = new TraceSimulator(1024, 20, true);
+        try (TraceReader reader = new TraceReader(traceFile)) {
+            sim.run(reader);
+        }
+        assertEquals("second get hits the filled value", 1, sim.getHits());
+    }
+}
@@ -0,0 +1,104 @@
+package net.seansitter.mcsvr.tracking;
+
+import net.seansitter.mcsvr.cache.CacheEntry;
+import net.seansitter.mcsvr.cache.CacheValueStats;
+import net.seansitter.mcsvr.cache.listener.EventMessage;
+import net.seansitter.mcsvr.stats.ServerStats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ClientTrackerTest {
+    ServerStats serverStats;
+    ClientTracker tracker;
+    List<String> pushedA;
+    List<String> pushedB;
+    ClientTracker.Connection a;
+    ClientTracker.Connection b;
+
+    @Before
+    public void setup() {
+        serverStats = new ServerStats();
+        tracker = new ClientTracker(1024, serverStats);
+        pushedA = new ArrayList<>();
+        pushedB = new ArrayList<>();
+        a = tracker.connect(pushedA::add);
+        b = tracker.connect(pushedB::add);
+    }
+
+    @Test
+    public void testDisabledWithoutSlots() {
+        assertFalse(new ClientTracker(0, serverStats).isEnabled());
+        assertTrue(tracker.isEnabled());
+    }
+
+    @Test
+    public void testReaderInvalidated() {
+        a.track(Arrays.asList("k1", "k2"));
+        b.track(Collections.singletonList("k2"));
+
+        tracker.sendMessage(EventMessage.update(newCacheEntry("k1"), newCacheEntry("k1")));
+        tracker.sendMessage(EventMessage.delete(newCacheEntry("k2")));
+        assertEquals(Arrays.asList("k1", "k2"), pushedA);
+        assertEquals(Collections.singletonList("k2"), pushedB);
+        assertEquals(3, serverStats.getInvalidations());
+    }
+
+    @Test
+    public void testEvictedAndExpiredInvalidated() {
+        a.track(Arrays.asList("k1", "k2"));
+        tracker.sendMessage(EventMessage.destroy(newCacheEntry("k1")));
+        tracker.sendMessage(EventMessage.expire(0, newCacheEntry("k2")));
+        assertEquals(Arrays.asList("k1", "k2"), pushedA);
+    }
+
+    @Test
+    public void testStillTrackedAfterInvalidation() {
+        a.track(Collections.singletonList("k"));
+        tracker.sendMessage(EventMessage.put(newCacheEntry("k")));
+        tracker.sendMessage(EventMessage.put(newCacheEntry("k")));
+        assertEquals(Arrays.asList("k", "k"), pushedA);
+    }
+
+    @Test
+    public void testSlotSharedByKeys() {
+        tracker = new ClientTracker(1, serverStats);
+        pushedA.clear();
+        a = tracker.connect(pushedA::add);
+        a.track(Collections.singletonList("k1"));
+        tracker.sendMessage(EventMessage.put(newCacheEntry("k2")));
+        assertEquals("with one slot every key shares it", Collections.singletonList("k2"), pushedA);
+    }
+
+    @Test
+    public void testClosedNotPushed() {
+        a.track(Collections.singletonList("k"));
+        assertEquals(2, serverStats.getCurrTracking());
+        a.close();
+        a.close();
+        assertEquals(1, serverStats.getCurrTracking());
+
+        tracker.sendMessage(EventMessage.put(newCacheEntry("k")));
+        tracker.invalidateAll();
+        assertTrue(pushedA.isEmpty());
+        assertEquals(Collections.singletonList(null), pushedB);
+    }
+
+    @Test
+    public void testHitsIgnored() {
+        a.track(Collections.singletonList("k"));
+        tracker.sendMessage(EventMessage.cacheHit(newCacheEntry("k")));
+        assertTrue(pushedA.isEmpty());
+    }
+
+    CacheEntry<CacheValueStats> newCacheEntry(String key) {
+        long time = System.currentTimeMillis() / 1000;
+        return new CacheEntry<>(key, new CacheValueStats(time, time + 15, 10));
+    }
+}
@@ -0,0 +1,208 @@
+package net.seansitter.mcsvr.wal;
+
+import net.seansitter.mcsvr.cache.CacheImpl;
+import net.seansitter.mcsvr.cache.CacheMetricsRecorder;
+import net.seansitter.mcsvr.cache.CacheValue;
+import net.seansitter.mcsvr.cache.listener.CacheEventListener;
+import net.seansitter.mcsvr.extstore.ExtStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class MutationLogTest {
+    Path dir;
+    List<MutationLog> logs = new ArrayList<>();
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("mcsvr-wal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        logs.forEach(MutationLog::stop);
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(p -> p.toFile().delete());
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void testDisabled() {
+        MutationLog log = new MutationLog("", SyncPolicy.NONE, 0, 0);
+        assertFalse(log.isEnabled());
+        newCache(log).set("some_key", bytes("some_value"), 0, 0); // nothing to queue to
+        assertEquals(0, log.getRecords());
+    }
+
+    @Test
+    public void testReplay() {
+        MutationLog log = newLog(Long.MAX_VALUE);
+        CacheImpl cache = newCache(log);
+        cache.set("a", bytes("1"), 0, 0);
+        cache.set("b", bytes("2"), 0, 7);
+        cache.deleteKey("a");
+        cache.set("c", new byte[][] {bytes("abc"), bytes("de")}, 0, 0);
+        cache.setCompressed("d", bytes("xyz"), 30, 0, 0);
+        long cas = cache.get("b").get().getValue().getCasUnique();
+        cache.set("b", bytes("3"), 0, 7);
+        log.stop();
+        assertEquals(6, log.getRecords());
+
+        CacheImpl restored = newCache(newLog(Long.MAX_VALUE));
+        assertFalse(restored.get("a").isPresent());
+        CacheValue b = restored.get("b").get().getValue();
+        assertArrayEquals(bytes("3"), b.getPayload());
+        assertEquals(7, b.getFlag());
+        assertTrue(b.getCasUnique() > cas);
+        assertTrue(restored.get("c").get().getValue().isChunked());
+        assertArrayEquals(bytes("abcde"), restored.get("c").get().getValue().getPayload());
+        assertEquals(30, restored.get("d").get().getValue().getRawSize());
+
+        // new items are ordered after the replayed ones
+        restored.set("e", bytes("4"), 0, 0);
+        assertTrue(restored.get("e").get().getValue().getCasUnique() > b.getCasUnique());
+    }
+
+    @Test
+    public void testFlushReplayed() {
+        MutationLog log = newLog(Long.MAX_VALUE);
+        CacheImpl cache = newCache(log);
+        cache.set("a", bytes("1"), 0, 0);
+        cache.flushAll(0);
+        cache.set("b", bytes("2"), 0, 0);
+        log.stop();
+
+        CacheImpl restored = newCache(newLog(Long.MAX_VALUE));
+        assertFalse(restored.get("a").isPresent());
+        assertTrue(restored.get("b").isPresent());
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        MutationLog log = newLog(1); // checkpoint after the first batch
+        CacheImpl cache = newCache(log);
+        cache.set("a", bytes("1"), 0, 0);
+        for (int i = 0; i < 500 && log.getCheckpoints() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, log.getCheckpoints());
+        cache.set("b", bytes("2"), 0, 0);
+        cache.deleteKey("a");
+        log.stop();
+
+        // the first log was replaced by the snapshot
+        assertEquals(1, files("snapshot.").size());
+        assertFalse(Files.exists(dir.resolve("wal.0.log")));
+
+        CacheImpl restored = newCache(newLog(Long.MAX_VALUE));
+        assertFalse(restored.get("a").isPresent());
+        assertTrue(restored.get("b").isPresent());
+    }
+
+    @Test
+    public void testOverflowCheckpoints() throws Exception {
+        MutationLog log = newLog(Long.MAX_VALUE, 1);
+        CacheImpl cache = newCache(log);
+        cache.set("a", bytes("1"), 0, 0);
+        for (int i = 0; i < 100000 && log.getOverflows() == 0; i++) {
+            cache.set("k"+(i % 100), bytes("v"), 0, 0);
+        }
+        assertTrue("writes got ahead of the writer", log.getOverflows() > 0);
+        cache.deleteKey("a"); // may well be dropped
+
+        for (int i = 0; i < 500 && log.getCheckpoints() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, log.getCheckpoints());
+        assertFalse("the snapshot covers the dropped mutations", Files.exists(dir.resolve("wal.gap")));
+        cache.set("b", bytes("2"), 0, 0); // logged again
+        log.stop();
+
+        CacheImpl restored = newCache(newLog(Long.MAX_VALUE));
+        assertFalse(restored.get("a").isPresent());
+        assertTrue(restored.get("b").isPresent());
+    }
+
+    @Test
+    public void testGapDiscarded() throws IOException {
+        MutationLog log = newLog(Long.MAX_VALUE);
+        CacheImpl cache = newCache(log);
+        cache.set("a", bytes("1"), 0, 0);
+        log.stop();
+
+        // a crash after an overflow, before its checkpoint finished
+        Files.createFile(dir.resolve("wal.gap"));
+
+        CacheImpl restored = newCache(newLog(Long.MAX_VALUE));
+        assertFalse(restored.get("a").isPresent());
+        assertFalse(Files.exists(dir.resolve("wal.gap")));
+    }
+
+    @Test
+    public void testTornTail() throws IOException {
+        MutationLog log = newLog(Long.MAX_VALUE);
+        CacheImpl cache = newCache(log);
+        cache.set("a", bytes("1"), 0, 0);
+        cache.set("b", bytes("2"), 0, 0);
+        log.stop();
+
+        // a crash part way through writing the last record
+        Path wal = dir.resolve("wal.0.log");
+        try (FileChannel ch = FileChannel.open(wal, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 3);
+        }
+
+        MutationLog replayed = newLog(Long.MAX_VALUE);
+        CacheImpl restored = newCache(replayed);
+        assertTrue(restored.get("a").isPresent());
+        assertFalse(restored.get("b").isPresent());
+        assertEquals(1, replayed.getReplayed());
+        assertEquals(1, replayed.getGeneration()); // never appends after a torn record
+    }
+
+    private MutationLog newLog(long checkpointBytes) {
+        return newLog(checkpointBytes, 16);
+    }
+
+    private MutationLog newLog(long checkpointBytes, int queueSize) {
+        MutationLog log = new MutationLog(dir.toString(), SyncPolicy.BATCH, checkpointBytes, queueSize);
+        logs.add(log);
+        return log;
+    }
+
+    private CacheImpl newCache(MutationLog log) {
+        CacheImpl cache = new CacheImpl(new HashMap<>(), 0, new ReentrantReadWriteLock(),
+                mock(ScheduledExecutorService.class), mock(CacheEventListener.class),
+                mock(CacheMetricsRecorder.class), 0, 1, null, new ExtStore("", 0, 0, false), log, 10, 0, 0.0);
+        cache.start();
+        return cache;
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith(prefix)).collect(Collectors.toList());
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}